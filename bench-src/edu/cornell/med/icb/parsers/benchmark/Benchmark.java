@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers.benchmark;
+
+import java.io.IOException;
+
+/**
+ * A unit of work that is timed by the {@link BenchmarkRunner}. Each invocation of
+ * {@link #run()} must process the same input, so that successive invocations can be
+ * compared.
+ */
+public abstract class Benchmark {
+    /**
+     * The name reported for this benchmark.
+     */
+    private final String name;
+
+    /**
+     * The number of input bytes processed by each invocation of {@link #run()}.
+     */
+    private final long bytes;
+
+    /**
+     * Create a benchmark.
+     *
+     * @param name  The name reported for this benchmark
+     * @param bytes The number of input bytes processed by each invocation
+     */
+    protected Benchmark(final String name, final long bytes) {
+        super();
+        this.name = name;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns the name reported for this benchmark.
+     *
+     * @return the name of the benchmark
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of input bytes processed by each invocation of {@link #run()}.
+     *
+     * @return the number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Processes the input once.
+     *
+     * @return the number of records processed
+     * @throws IOException if the input cannot be read
+     */
+    public abstract long run() throws IOException;
+
+    /**
+     * A value derived from the results of the last invocation of {@link #run()}. The
+     * runner prints it so that the work cannot be optimized away.
+     *
+     * @return a checksum of the last results
+     */
+    public abstract long getChecksum();
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the parser benchmarks on synthetic inputs and prints throughput in MB/s and
+ * records/s, along with the allocation rate of the benchmark thread. Each benchmark is
+ * first run for a number of warmup iterations, so that the measured iterations run
+ * compiled code, and the best and mean of the measured iterations are reported.
+ * <p>
+ * Usage: <code>BenchmarkRunner [directory [warmup [iterations [scale]]]]</code>. The inputs
+ * are generated in the directory (the temporary directory by default); scale multiplies
+ * their default sizes (about 60 MB each). The inputs are deliberately kept after the run
+ * and reused by later runs, since generating them takes longer than benchmarking them.
+ * Their names include the scale and the seed of their content, so that a run never
+ * reuses inputs of another size; delete the <code>squil-bench-*</code> files of the
+ * directory to reclaim the space.
+ */
+public final class BenchmarkRunner {
+    /**
+     * The number of bytes in a megabyte.
+     */
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+
+    /**
+     * The number of nanoseconds in a second.
+     */
+    private static final double NANOSECONDS = 1.0e9;
+
+    /**
+     * The seed of the synthetic inputs.
+     */
+    private static final long SEED = 20090301L;
+
+    /**
+     * The line widths of the chromosome inputs.
+     */
+    private static final int[] LINE_WIDTHS = {60, 80, 1000};
+
+    /**
+     * Used to read the number of bytes allocated by the current thread.
+     */
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The getThreadAllocatedBytes(long) method of the HotSpot thread bean, or null when the
+     * virtual machine does not provide it.
+     */
+    private final Method allocatedBytes;
+
+    /**
+     * The number of unmeasured iterations run before the measured ones.
+     */
+    private final int warmupIterations;
+
+    /**
+     * The number of measured iterations.
+     */
+    private final int iterations;
+
+    /**
+     * Create a runner.
+     *
+     * @param warmupIterations The number of unmeasured iterations run first
+     * @param iterations       The number of measured iterations
+     */
+    public BenchmarkRunner(final int warmupIterations, final int iterations) {
+        super();
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        Method method;
+        try {
+            // only HotSpot provides this method, so it cannot be called directly
+            method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            method.invoke(threads, Thread.currentThread().getId());
+        } catch (Exception e) {
+            method = null;
+        }
+        allocatedBytes = method;
+    }
+
+    /**
+     * Runs a benchmark and prints one line of results.
+     *
+     * @param benchmark The benchmark to run
+     * @throws IOException if the benchmark cannot read its input
+     */
+    public void run(final Benchmark benchmark) throws IOException {
+        for (int i = 0; i < warmupIterations; i++) {
+            benchmark.run();
+        }
+        long bestTime = Long.MAX_VALUE;
+        long totalTime = 0;
+        long totalAllocated = 0;
+        long records = 0;
+        for (int i = 0; i < iterations; i++) {
+            final long allocatedBefore = getAllocatedBytes();
+            final long start = System.nanoTime();
+            records = benchmark.run();
+            final long time = Math.max(1, System.nanoTime() - start);
+            totalAllocated += getAllocatedBytes() - allocatedBefore;
+            totalTime += time;
+            bestTime = Math.min(bestTime, time);
+        }
+        final double meanTime = totalTime / (double) iterations;
+        final double megabytes = benchmark.getBytes() / MEGABYTE;
+        final String allocationRate;
+        if (allocatedBytes == null) {
+            allocationRate = "n/a";
+        } else {
+            allocationRate = format(totalAllocated / MEGABYTE / (totalTime / NANOSECONDS));
+        }
+        System.out.println(pad(benchmark.getName(), 64)
+                + pad(format(megabytes / (bestTime / NANOSECONDS)), 10)
+                + pad(format(megabytes / (meanTime / NANOSECONDS)), 10)
+                + pad(format(records / (meanTime / NANOSECONDS)), 14)
+                + pad(allocationRate, 10)
+                + benchmark.getChecksum());
+    }
+
+    /**
+     * Prints the header of the result lines.
+     */
+    public void printHeader() {
+        System.out.println(pad("benchmark", 64) + pad("best MB/s", 10) + pad("mean MB/s", 10)
+                + pad("records/s", 14) + pad("alloc MB/s", 10) + "checksum");
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread.
+     *
+     * @return the number of bytes, or zero if it cannot be measured
+     */
+    private long getAllocatedBytes() {
+        if (allocatedBytes == null) {
+            return 0;
+        }
+        try {
+            return (Long) allocatedBytes.invoke(threads, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Formats a rate with one decimal.
+     *
+     * @param value The rate
+     * @return the formatted rate
+     */
+    private static String format(final double value) {
+        return String.format("%.1f", value);
+    }
+
+    /**
+     * Pads a string with spaces on the right.
+     *
+     * @param value The string to pad
+     * @param width The minimum width of the result
+     * @return the padded string
+     */
+    private static String pad(final String value, final int width) {
+        final StringBuilder padded = new StringBuilder(value);
+        do {
+            padded.append(' ');
+        } while (padded.length() < width);
+        return padded.toString();
+    }
+
+    /**
+     * Returns the file of an input. The name includes the scale and the seed, so that
+     * inputs generated with other parameters are never reused.
+     *
+     * @param directory Where the inputs are written
+     * @param name      The name of the input
+     * @param scale     The factor applied to the default sizes
+     * @return the file of the input
+     */
+    private static File inputFile(final File directory, final String name,
+                                  final double scale) {
+        return new File(directory, "squil-bench-" + name + "-x" + scale + "-" + SEED + ".fa");
+    }
+
+    /**
+     * Generates the inputs that do not exist yet.
+     *
+     * @param directory Where the inputs are written
+     * @param scale     The factor applied to the default sizes
+     * @return the short read, protein and chromosome files, in that order
+     * @throws IOException if an input cannot be written
+     */
+    private static List<File> generateInputs(final File directory, final double scale)
+            throws IOException {
+        final List<File> files = new ArrayList<File>();
+        final File reads = inputFile(directory, "reads", scale);
+        if (!reads.exists()) {
+            SyntheticFasta.writeShortReads(reads, (int) (500000 * scale), 100, SEED);
+        }
+        files.add(reads);
+        final File proteins = inputFile(directory, "proteins", scale);
+        if (!proteins.exists()) {
+            SyntheticFasta.writeProteins(proteins, (int) (100000 * scale), SEED);
+        }
+        files.add(proteins);
+        for (final int lineWidth : LINE_WIDTHS) {
+            final File chromosome = inputFile(directory, "chromosome-" + lineWidth, scale);
+            if (!chromosome.exists()) {
+                SyntheticFasta.writeChromosome(chromosome, (long) (60000000 * scale), lineWidth,
+                        SEED);
+            }
+            files.add(chromosome);
+        }
+        return files;
+    }
+
+    /**
+     * Runs all the benchmarks.
+     *
+     * @param args The directory of the inputs, the number of warmup and measured iterations,
+     *             and the scale of the inputs, all optional
+     * @throws IOException if an input cannot be written or read
+     */
+    public static void main(final String[] args) throws IOException {
+        final File directory = new File(args.length > 0 ? args[0]
+                : System.getProperty("java.io.tmpdir"));
+        final int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        final double scale = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+
+        final List<File> inputs = generateInputs(directory, scale);
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (final File input : inputs) {
+            benchmarks.addAll(ParserBenchmarks.parsing(input));
+        }
+        benchmarks.addAll(ParserBenchmarks.processing(inputs.get(1)));
+
+        final BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations);
+        runner.printHeader();
+        for (final Benchmark benchmark : benchmarks) {
+            runner.run(benchmark);
+        }
+    }
+}
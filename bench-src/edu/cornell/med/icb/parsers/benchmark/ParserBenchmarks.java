@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers.benchmark;
+
+import edu.cornell.med.icb.parsers.FastaParser;
+import edu.cornell.med.icb.parsers.MappedFastaParser;
+import edu.cornell.med.icb.parsers.MutableByteString;
+import edu.cornell.med.icb.parsers.ReaderFastaParser;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The benchmarks of the parsers package. Parsing benchmarks read a file from the start
+ * on each invocation; the accession and residue benchmarks work on records loaded in
+ * memory beforehand, so that they only measure the string processing.
+ */
+public final class ParserBenchmarks {
+    /**
+     * The encoding of the FASTA files.
+     */
+    private static final String ENCODING = "US-ASCII";
+
+    /**
+     * This class only has static methods.
+     */
+    private ParserBenchmarks() {
+        super();
+    }
+
+    /**
+     * Creates the parsing benchmarks for a FASTA file.
+     *
+     * @param file The file to parse
+     * @return the benchmarks
+     */
+    public static List<Benchmark> parsing(final File file) {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new FastaParserNext(file));
+        benchmarks.add(new MappedFastaParserNext(file));
+        benchmarks.add(new BaseStreaming(file, false));
+        benchmarks.add(new BaseStreaming(file, true));
+        return benchmarks;
+    }
+
+    /**
+     * Creates the accession code and residue filter benchmarks over the records of a
+     * FASTA file.
+     *
+     * @param file The file holding the records
+     * @return the benchmarks
+     * @throws IOException if the file cannot be read
+     */
+    public static List<Benchmark> processing(final File file) throws IOException {
+        final List<MutableString> descriptions = new ArrayList<MutableString>();
+        final List<MutableString> residues = new ArrayList<MutableString>();
+        final FastaParser parser = new FastaParser(open(file));
+        final MutableString description = new MutableString();
+        final MutableString sequence = new MutableString();
+        while (parser.hasNext()) {
+            parser.next(description, sequence);
+            descriptions.add(description.copy());
+            residues.add(sequence.copy());
+        }
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new GuessAccessionCode(file.getName(), descriptions));
+        benchmarks.add(new FilterProteinResidues(file.getName(), residues));
+        return benchmarks;
+    }
+
+    /**
+     * Opens a reader over a FASTA file.
+     *
+     * @param file The file to read
+     * @return the reader
+     * @throws IOException if the file cannot be opened
+     */
+    private static Reader open(final File file) throws IOException {
+        return new InputStreamReader(new FileInputStream(file), ENCODING);
+    }
+
+    /**
+     * Returns the total length of a list of strings.
+     *
+     * @param strings The strings
+     * @return the sum of their lengths
+     */
+    private static long totalLength(final List<MutableString> strings) {
+        long length = 0;
+        for (final MutableString string : strings) {
+            length += string.length();
+        }
+        return length;
+    }
+
+    /**
+     * Parses a file with {@link FastaParser#next(MutableString, MutableString)}.
+     */
+    private static final class FastaParserNext extends Benchmark {
+        /**
+         * The file to parse.
+         */
+        private final File file;
+
+        /**
+         * The description line of the current record.
+         */
+        private final MutableString description = new MutableString();
+
+        /**
+         * The residues of the current record.
+         */
+        private final MutableString residues = new MutableString();
+
+        /**
+         * The number of residues parsed by the last invocation.
+         */
+        private long checksum;
+
+        /**
+         * Create the benchmark.
+         *
+         * @param file The file to parse
+         */
+        FastaParserNext(final File file) {
+            super("FastaParser.next " + file.getName(), file.length());
+            this.file = file;
+        }
+
+        @Override
+        public long run() throws IOException {
+            final Reader reader = open(file);
+            try {
+                final FastaParser parser = new FastaParser(reader);
+                long records = 0;
+                checksum = 0;
+                while (parser.hasNext()) {
+                    parser.next(description, residues);
+                    checksum += residues.length();
+                    records++;
+                }
+                return records;
+            } finally {
+                reader.close();
+            }
+        }
+
+        @Override
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+
+    /**
+     * Parses a file with {@link MappedFastaParser#next(MutableString, MutableByteString)}.
+     */
+    private static final class MappedFastaParserNext extends Benchmark {
+        /**
+         * The file to parse.
+         */
+        private final File file;
+
+        /**
+         * The description line of the current record.
+         */
+        private final MutableString description = new MutableString();
+
+        /**
+         * The residues of the current record.
+         */
+        private final MutableByteString residues = new MutableByteString();
+
+        /**
+         * The number of residues parsed by the last invocation.
+         */
+        private long checksum;
+
+        /**
+         * Create the benchmark.
+         *
+         * @param file The file to parse
+         */
+        MappedFastaParserNext(final File file) {
+            super("MappedFastaParser.next " + file.getName(), file.length());
+            this.file = file;
+        }
+
+        @Override
+        public long run() throws IOException {
+            final MappedFastaParser parser = new MappedFastaParser(file);
+            try {
+                long records = 0;
+                checksum = 0;
+                while (parser.hasNext()) {
+                    parser.next(description, residues);
+                    checksum += residues.length();
+                    records++;
+                }
+                return records;
+            } finally {
+                parser.close();
+            }
+        }
+
+        @Override
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+
+    /**
+     * Streams the bases of every record of a file through
+     * {@link ReaderFastaParser#getBaseReader()}, either one character at a time or in bulk.
+     */
+    private static final class BaseStreaming extends Benchmark {
+        /**
+         * The file to parse.
+         */
+        private final File file;
+
+        /**
+         * Whether bases are read in bulk rather than one at a time.
+         */
+        private final boolean bulk;
+
+        /**
+         * The buffer used for bulk reads.
+         */
+        private final char[] buffer = new char[1 << 14];
+
+        /**
+         * The description line of the current record.
+         */
+        private final MutableString description = new MutableString();
+
+        /**
+         * The sum of the bases read by the last invocation.
+         */
+        private long checksum;
+
+        /**
+         * Create the benchmark.
+         *
+         * @param file The file to parse
+         * @param bulk Whether bases are read in bulk rather than one at a time
+         */
+        BaseStreaming(final File file, final boolean bulk) {
+            super("ReaderFastaParser." + (bulk ? "read(char[])" : "read()") + ' '
+                    + file.getName(), file.length());
+            this.file = file;
+            this.bulk = bulk;
+        }
+
+        @Override
+        public long run() throws IOException {
+            final Reader reader = open(file);
+            try {
+                final ReaderFastaParser parser = new ReaderFastaParser(reader);
+                long records = 0;
+                checksum = 0;
+                while (parser.hasNextSequence()) {
+                    parser.nextSequence(description);
+                    final Reader bases = parser.getBaseReader();
+                    if (bulk) {
+                        int count;
+                        while ((count = bases.read(buffer, 0, buffer.length)) != -1) {
+                            for (int i = 0; i < count; i++) {
+                                checksum += buffer[i];
+                            }
+                        }
+                    } else {
+                        int base;
+                        while ((base = bases.read()) != -1) {
+                            checksum += base;
+                        }
+                    }
+                    records++;
+                }
+                return records;
+            } finally {
+                reader.close();
+            }
+        }
+
+        @Override
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+
+    /**
+     * Extracts the accession code of description lines held in memory.
+     */
+    private static final class GuessAccessionCode extends Benchmark {
+        /**
+         * The description lines.
+         */
+        private final List<MutableString> descriptions;
+
+        /**
+         * The accession code of the current description line.
+         */
+        private final MutableString accessionCode = new MutableString();
+
+        /**
+         * The total length of the accession codes found by the last invocation.
+         */
+        private long checksum;
+
+        /**
+         * Create the benchmark.
+         *
+         * @param name         The name of the file the descriptions come from
+         * @param descriptions The description lines
+         */
+        GuessAccessionCode(final String name, final List<MutableString> descriptions) {
+            super("FastaParser.guessAccessionCode " + name, totalLength(descriptions));
+            this.descriptions = descriptions;
+        }
+
+        @Override
+        public long run() {
+            checksum = 0;
+            for (final MutableString description : descriptions) {
+                FastaParser.guessAccessionCode(description, accessionCode);
+                checksum += accessionCode.length();
+            }
+            return descriptions.size();
+        }
+
+        @Override
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+
+    /**
+     * Filters residues held in memory.
+     */
+    private static final class FilterProteinResidues extends Benchmark {
+        /**
+         * The raw residues.
+         */
+        private final List<MutableString> residues;
+
+        /**
+         * The filtered residues of the current record.
+         */
+        private final MutableString filtered = new MutableString();
+
+        /**
+         * The number of residues kept by the last invocation.
+         */
+        private long checksum;
+
+        /**
+         * Create the benchmark.
+         *
+         * @param name     The name of the file the residues come from
+         * @param residues The raw residues
+         */
+        FilterProteinResidues(final String name, final List<MutableString> residues) {
+            super("FastaParser.filterProteinResidues " + name, totalLength(residues));
+            this.residues = residues;
+        }
+
+        @Override
+        public long run() {
+            checksum = 0;
+            for (final MutableString raw : residues) {
+                FastaParser.filterProteinResidues(raw, filtered);
+                checksum += filtered.length();
+            }
+            return residues.size();
+        }
+
+        @Override
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+}
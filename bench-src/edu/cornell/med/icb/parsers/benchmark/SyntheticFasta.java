@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Writes synthetic FASTA files that mimic the inputs squil is used on: short reads,
+ * protein databases and chromosomes. The content only depends on the seed, so that
+ * successive benchmark runs parse the same data.
+ */
+public final class SyntheticFasta {
+    /**
+     * The nucleotides used in read and chromosome sequences.
+     */
+    private static final byte[] NUCLEOTIDES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * The amino acids used in protein sequences.
+     */
+    private static final byte[] AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY".getBytes();
+
+    /**
+     * This class only has static methods.
+     */
+    private SyntheticFasta() {
+        super();
+    }
+
+    /**
+     * Writes single line records of fixed length, such as the reads of a sequencer.
+     *
+     * @param file   The file to write
+     * @param count  The number of reads
+     * @param length The number of bases of each read
+     * @param seed   The seed of the random content
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeShortReads(final File file, final int count, final int length,
+                                       final long seed) throws IOException {
+        final Random random = new Random(seed);
+        final OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        try {
+            final byte[] bases = new byte[length];
+            for (int i = 0; i < count; i++) {
+                output.write(('>' + "read_" + i + " lane=1 tile=" + (i % 120) + '\n').getBytes());
+                fill(random, NUCLEOTIDES, bases);
+                output.write(bases);
+                output.write('\n');
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Writes protein records with UniProt style description lines and lengths between 50
+     * and 1,000 residues, wrapped at 60 residues per line.
+     *
+     * @param file  The file to write
+     * @param count The number of proteins
+     * @param seed  The seed of the random content
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeProteins(final File file, final int count, final long seed)
+            throws IOException {
+        final Random random = new Random(seed);
+        final OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        try {
+            final byte[] residues = new byte[1000];
+            for (int i = 0; i < count; i++) {
+                final String accession = "P" + (10000 + i);
+                output.write((">sp|" + accession + '|' + "PROT" + i + "_HUMAN Synthetic protein "
+                        + i + " OS=Homo sapiens GN=G" + i + '\n').getBytes());
+                final int length = 50 + random.nextInt(951);
+                fill(random, AMINO_ACIDS, residues);
+                writeWrapped(output, residues, length, 60);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Writes a single chromosome sized record.
+     *
+     * @param file      The file to write
+     * @param length    The number of bases of the chromosome
+     * @param lineWidth The number of bases per line
+     * @param seed      The seed of the random content
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeChromosome(final File file, final long length, final int lineWidth,
+                                       final long seed) throws IOException {
+        final Random random = new Random(seed);
+        final OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        try {
+            output.write((">chrSynthetic length=" + length + '\n').getBytes());
+            final byte[] line = new byte[lineWidth];
+            long remaining = length;
+            while (remaining > 0) {
+                final int count = (int) Math.min(lineWidth, remaining);
+                fill(random, NUCLEOTIDES, line);
+                output.write(line, 0, count);
+                output.write('\n');
+                remaining -= count;
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Fills an array with random symbols.
+     *
+     * @param random  The source of randomness
+     * @param symbols The symbols to choose from
+     * @param bytes   The array to fill
+     */
+    private static void fill(final Random random, final byte[] symbols, final byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = symbols[random.nextInt(symbols.length)];
+        }
+    }
+
+    /**
+     * Writes residues wrapped at the given width.
+     *
+     * @param output    Where to write
+     * @param residues  The residues to write
+     * @param length    The number of residues to write
+     * @param lineWidth The number of residues per line
+     * @throws IOException if the residues cannot be written
+     */
+    private static void writeWrapped(final OutputStream output, final byte[] residues,
+                                     final int length, final int lineWidth)
+            throws IOException {
+        for (int i = 0; i < length; i += lineWidth) {
+            output.write(residues, i, Math.min(lineWidth, length - i));
+            output.write('\n');
+        }
+    }
+}
@@ -0,0 +1,752 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A persistent index from accession codes to the records of a FASTA file. Accession codes
+ * are obtained from description lines with
+ * {@link FastaParser#guessAccessionCode(CharSequence, MutableString)}.
+ * <p>
+ * The index file is a table of (hash of the accession, offset of the record, length of the
+ * record) entries of 24 bytes each, sorted by hash. The table is memory mapped, so opening
+ * an index loads nothing on the heap, whatever the number of records. Since hashes are
+ * uniformly distributed, lookups start with an interpolation search and usually touch a
+ * handful of pages. Hashes are not unique, so the accession of each candidate record is
+ * checked against the record itself.
+ * <p>
+ * The index is built once with {@link #build(File)}, an external sort that only keeps
+ * 1/256th of the entries in memory at a time. Batches of lookups, see
+ * {@link #getAll(List, Visitor)}, are sorted twice: by hash to scan the table in order,
+ * then by offset to read the records in the order of the FASTA file.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class AccessionIndex implements Closeable {
+    /**
+     * The extension of accession index files.
+     */
+    public static final String EXTENSION = ".acc";
+
+    /**
+     * The first int of accession index files, "SQAI".
+     */
+    private static final int MAGIC = 0x53514149;
+
+    /**
+     * The version of the layout of accession index files.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The number of bytes before the first entry: magic, version and number of entries.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * The number of bytes of an entry: hash, offset and length.
+     */
+    private static final int ENTRY_SIZE = 24;
+
+    /**
+     * The base 2 logarithm of the number of entries mapped by each buffer.
+     */
+    private static final int SEGMENT_SHIFT = 26;
+
+    /**
+     * The base 2 logarithm of the number of buckets used to build the index.
+     */
+    private static final int BUCKET_BITS = 8;
+
+    /**
+     * The size of the buffers used to scan the FASTA file.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Below this number of entries, lookups switch from interpolation to binary search.
+     */
+    private static final int INTERPOLATION_THRESHOLD = 64;
+
+    /**
+     * The indexed FASTA file.
+     */
+    private final FileChannel fasta;
+
+    /**
+     * The index file.
+     */
+    private final FileChannel table;
+
+    /**
+     * The memory mapped entries, 2^SEGMENT_SHIFT entries per buffer.
+     */
+    private final ByteBuffer[] segments;
+
+    /**
+     * The number of entries.
+     */
+    private final long size;
+
+    /**
+     * The bytes of the FASTA file read at once when checking and reading records.
+     */
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    /**
+     * The last chunk of a record read. Records are read chunk by chunk, so that checking
+     * the accession code of a chromosome only reads its description line.
+     */
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+
+    /**
+     * The accession code of the last record read.
+     */
+    private final MutableString accessionCode = new MutableString();
+
+    /**
+     * Called by {@link AccessionIndex#getAll(List, Visitor)} for each record found.
+     */
+    public interface Visitor {
+        /**
+         * Processes a record.
+         *
+         * @param index           The index of the accession of the record in the batch.
+         * @param descriptionLine The description line of the record.
+         * @param residues        The residues of the record.
+         * @throws IOException if the record cannot be processed
+         */
+        void visit(int index, MutableString descriptionLine, MutableString residues)
+                throws IOException;
+    }
+
+    /**
+     * Open the index of a FASTA file, stored next to the file with the {@link #EXTENSION}
+     * extension.
+     *
+     * @param fastaFile The indexed FASTA file
+     * @throws IOException if the files cannot be opened
+     */
+    public AccessionIndex(final File fastaFile) throws IOException {
+        this(fastaFile, new File(fastaFile.getPath() + EXTENSION));
+    }
+
+    /**
+     * Open the index of a FASTA file.
+     *
+     * @param fastaFile The indexed FASTA file
+     * @param indexFile The index file
+     * @throws IOException if the files cannot be opened or the index file is malformed
+     */
+    public AccessionIndex(final File fastaFile, final File indexFile) throws IOException {
+        super();
+        this.table = new RandomAccessFile(indexFile, "r").getChannel();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        table.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+                || header.getInt() != VERSION) {
+            table.close();
+            throw new IOException("Malformed accession index " + indexFile);
+        }
+        this.size = header.getLong();
+        if (table.size() != HEADER_SIZE + size * ENTRY_SIZE) {
+            table.close();
+            throw new IOException("Malformed accession index " + indexFile
+                    + ": truncated file");
+        }
+        final int numberOfSegments = (int) ((size + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT);
+        this.segments = new ByteBuffer[numberOfSegments];
+        for (int i = 0; i < numberOfSegments; i++) {
+            final long first = (long) i << SEGMENT_SHIFT;
+            final long count = Math.min(size - first, 1L << SEGMENT_SHIFT);
+            segments[i] = table.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + first * ENTRY_SIZE, count * ENTRY_SIZE);
+        }
+        this.fasta = new RandomAccessFile(fastaFile, "r").getChannel();
+    }
+
+    /**
+     * Index a FASTA file, writing the index next to the file with the {@link #EXTENSION}
+     * extension.
+     *
+     * @param fastaFile The FASTA file to index
+     * @throws IOException if the FASTA file cannot be read or the index cannot be written
+     */
+    public static void build(final File fastaFile) throws IOException {
+        build(fastaFile, new File(fastaFile.getPath() + EXTENSION), null);
+    }
+
+    /**
+     * Index a FASTA file.
+     *
+     * @param fastaFile          The FASTA file to index
+     * @param indexFile          Where to write the index
+     * @param temporaryDirectory Where to write the temporary files of the external sort,
+     *                           null for the default temporary directory
+     * @throws IOException if the FASTA file cannot be read or the index cannot be written
+     */
+    public static void build(final File fastaFile, final File indexFile,
+                             final File temporaryDirectory) throws IOException {
+        final int numberOfBuckets = 1 << BUCKET_BITS;
+        final File[] bucketFiles = new File[numberOfBuckets];
+        try {
+            final DataOutputStream[] buckets = new DataOutputStream[numberOfBuckets];
+            for (int i = 0; i < numberOfBuckets; i++) {
+                bucketFiles[i] = File.createTempFile("squil-accessions", ".bucket",
+                        temporaryDirectory);
+                buckets[i] = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(bucketFiles[i]), 1 << 13));
+            }
+            final long numberOfEntries;
+            final FileChannel channel = new FileInputStream(fastaFile).getChannel();
+            try {
+                numberOfEntries = scan(channel, buckets);
+            } finally {
+                channel.close();
+                for (final DataOutputStream bucket : buckets) {
+                    bucket.close();
+                }
+            }
+
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile), 1 << 16));
+            try {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(numberOfEntries);
+                for (final File bucketFile : bucketFiles) {
+                    sortBucket(bucketFile, output);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            for (final File bucketFile : bucketFiles) {
+                if (bucketFile != null) {
+                    bucketFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of records in the index.
+     *
+     * @return the number of records
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the offset of a record in the FASTA file.
+     *
+     * @param accession The accession code of the record
+     * @return the offset of the '&gt;' of the first record with this accession code, or -1
+     * if there is none
+     * @throws IOException if the FASTA file cannot be read
+     */
+    public long getOffset(final CharSequence accession) throws IOException {
+        final long key = hash(accession);
+        for (long i = lowerBound(key, 0); i < size && keyAt(i) == key; i++) {
+            if (readRecord(offsetAt(i), lengthAt(i), accession, null, null)) {
+                return offsetAt(i);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a record.
+     *
+     * @param accession       The accession code of the record
+     * @param descriptionLine Where the description line of the record will be written.
+     * @param residues        Where the residues of the record will be written.
+     * @return true if a record has this accession code, false otherwise
+     * @throws IOException if the FASTA file cannot be read
+     */
+    public boolean get(final CharSequence accession, final MutableString descriptionLine,
+                       final MutableString residues) throws IOException {
+        final long key = hash(accession);
+        for (long i = lowerBound(key, 0); i < size && keyAt(i) == key; i++) {
+            if (readRecord(offsetAt(i), lengthAt(i), accession, descriptionLine, residues)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the records of a batch of accession codes. Records are read in the order of the
+     * FASTA file, not in the order of the batch. Accession codes that are not in the index
+     * are skipped, and an accession code shared by several records visits all of them.
+     *
+     * @param accessions The accession codes of the records
+     * @param visitor    Called for each record found
+     * @throws IOException if the FASTA file cannot be read or the visitor fails
+     */
+    public void getAll(final List<? extends CharSequence> accessions, final Visitor visitor)
+            throws IOException {
+        final int count = accessions.size();
+        final long[] keys = new long[count];
+        final int[] queries = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = hash(accessions.get(i));
+            queries[i] = i;
+        }
+        // look up in the order of the table, so that each page is touched once
+        Sorting.sort(keys, null, queries, 0, count);
+        long[] offsets = new long[count];
+        long[] lengths = new long[count];
+        int[] candidateQueries = new int[count];
+        int numberOfCandidates = 0;
+        long position = 0;
+        for (int q = 0; q < count; q++) {
+            position = lowerBound(keys[q], position);
+            for (long i = position; i < size && keyAt(i) == keys[q]; i++) {
+                if (numberOfCandidates == offsets.length) {
+                    final int capacity = Math.max(16, 2 * numberOfCandidates);
+                    offsets = grow(offsets, capacity);
+                    lengths = grow(lengths, capacity);
+                    final int[] newQueries = new int[capacity];
+                    System.arraycopy(candidateQueries, 0, newQueries, 0, numberOfCandidates);
+                    candidateQueries = newQueries;
+                }
+                offsets[numberOfCandidates] = offsetAt(i);
+                lengths[numberOfCandidates] = lengthAt(i);
+                candidateQueries[numberOfCandidates] = queries[q];
+                numberOfCandidates++;
+            }
+        }
+        // read in the order of the FASTA file
+        Sorting.sort(offsets, lengths, candidateQueries, 0, numberOfCandidates);
+        final MutableString descriptionLine = new MutableString();
+        final MutableString residues = new MutableString();
+        for (int i = 0; i < numberOfCandidates; i++) {
+            final int query = candidateQueries[i];
+            if (readRecord(offsets[i], lengths[i], accessions.get(query),
+                    descriptionLine, residues)) {
+                visitor.visit(query, descriptionLine, residues);
+            }
+        }
+    }
+
+    /**
+     * Closes the FASTA and index files.
+     *
+     * @throws IOException if the files cannot be closed
+     */
+    public void close() throws IOException {
+        fasta.close();
+        table.close();
+    }
+
+    /**
+     * Returns the hash of an accession code. The hash is FNV-1a followed by the finalizer
+     * of MurmurHash3, so that the high bits, which select buckets and drive the
+     * interpolation search, are uniformly distributed. The hash is positive.
+     *
+     * @param accession The accession code
+     * @return the hash of the accession code
+     */
+    static long hash(final CharSequence accession) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < accession.length(); i++) {
+            hash ^= accession.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash >>> 1;
+    }
+
+    /**
+     * Returns the hash of an entry.
+     *
+     * @param index The index of the entry
+     * @return the hash of the accession code of the entry
+     */
+    private long keyAt(final long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].getLong(position(index));
+    }
+
+    /**
+     * Returns the offset of the record of an entry.
+     *
+     * @param index The index of the entry
+     * @return the offset of the record in the FASTA file
+     */
+    private long offsetAt(final long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].getLong(position(index) + 8);
+    }
+
+    /**
+     * Returns the length of the record of an entry.
+     *
+     * @param index The index of the entry
+     * @return the number of bytes of the record in the FASTA file
+     */
+    private long lengthAt(final long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].getLong(position(index) + 16);
+    }
+
+    /**
+     * Returns the position of an entry in its segment.
+     *
+     * @param index The index of the entry
+     * @return the position of the entry
+     */
+    private static int position(final long index) {
+        return (int) (index & ((1 << SEGMENT_SHIFT) - 1)) * ENTRY_SIZE;
+    }
+
+    /**
+     * Returns the index of the first entry whose hash is not lower than a hash. The search
+     * interpolates the position of the hash a few times, gallops to bracket it, and finishes
+     * with a binary search.
+     *
+     * @param key  The hash to look for
+     * @param from The index of the first entry to consider; all the entries before it must
+     *             have a lower hash
+     * @return the index of the first entry at or after from with a hash not lower than key,
+     * or the number of entries if there is none
+     */
+    private long lowerBound(final long key, final long from) {
+        long low = from;
+        long high = size;
+        for (int round = 0; round < 3 && high - low > INTERPOLATION_THRESHOLD; round++) {
+            final long lowKey = keyAt(low);
+            final long highKey = keyAt(high - 1);
+            if (key <= lowKey) {
+                return low;
+            }
+            if (key > highKey) {
+                return high;
+            }
+            final long guess = low + (long) ((double) (key - lowKey) / (highKey - lowKey)
+                    * (high - 1 - low));
+            if (keyAt(guess) < key) {
+                low = guess + 1;
+                for (long step = 16; guess + step < high; step <<= 1) {
+                    if (keyAt(guess + step) < key) {
+                        low = guess + step + 1;
+                    } else {
+                        high = guess + step;
+                        break;
+                    }
+                }
+            } else {
+                high = guess;
+                for (long step = 16; guess - step >= low; step <<= 1) {
+                    if (keyAt(guess - step) >= key) {
+                        high = guess - step;
+                    } else {
+                        low = guess - step + 1;
+                        break;
+                    }
+                }
+            }
+        }
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            if (keyAt(middle) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads a record from the FASTA file and checks its accession code. The description
+     * line is read first, and the residues are only read if the accession code matches.
+     *
+     * @param offset          The offset of the record
+     * @param length          The number of bytes of the record
+     * @param accession       The expected accession code
+     * @param descriptionLine Where the description line is written, or null to only check
+     *                        the accession code
+     * @param residues        Where the residues are written, or null
+     * @return true if the accession code of the record is the expected one
+     * @throws IOException if the record cannot be read, or its residues do not fit in a
+     *                     MutableString
+     */
+    private boolean readRecord(final long offset, final long length,
+                               final CharSequence accession,
+                               final MutableString descriptionLine,
+                               final MutableString residues) throws IOException {
+        final byte[] bytes = chunk.array();
+        // the offset in the record of the first byte of the chunk
+        long chunkStart = 0;
+        int count = readChunk(offset, chunkStart, length);
+        if (count == 0 || bytes[0] != '>') {
+            throw new IOException("Malformed accession index: no record at offset " + offset
+                    + ", the index may be out of date");
+        }
+        final MutableString description = descriptionLine == null ? new MutableString()
+                : descriptionLine;
+        description.setLength(0);
+        int i = 1;
+        while (true) {
+            while (i < count && bytes[i] != '\n') {
+                description.append((char) (bytes[i++] & 0xFF));
+            }
+            if (i < count || chunkStart + count == length) {
+                break;
+            }
+            chunkStart += count;
+            count = readChunk(offset, chunkStart, length);
+            i = 0;
+        }
+        if (description.length() > 0 && description.charAt(description.length() - 1) == '\r') {
+            description.setLength(description.length() - 1);
+        }
+        FastaParser.guessAccessionCode(description, accessionCode);
+        if (!contentEquals(accessionCode, accession)) {
+            return false;
+        }
+        if (residues != null) {
+            residues.setLength(0);
+            final long remaining = length - chunkStart - i;
+            if (remaining <= Integer.MAX_VALUE - CHUNK_SIZE) {
+                residues.ensureCapacity((int) remaining);
+            }
+            while (true) {
+                if (residues.length() > Integer.MAX_VALUE - CHUNK_SIZE) {
+                    throw new IOException("The residues of the record at offset " + offset
+                            + " do not fit in a MutableString: " + length + " bytes");
+                }
+                for (; i < count; i++) {
+                    final byte b = bytes[i];
+                    if (b != '\n' && b != '\r') {
+                        residues.append((char) (b & 0xFF));
+                    }
+                }
+                if (chunkStart + count == length) {
+                    break;
+                }
+                chunkStart += count;
+                count = readChunk(offset, chunkStart, length);
+                i = 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next chunk of a record from the FASTA file into {@link #chunk}.
+     *
+     * @param offset The offset of the record
+     * @param from   The offset in the record of the first byte to read
+     * @param length The number of bytes of the record
+     * @return the number of bytes read, at the start of the chunk
+     * @throws IOException if the chunk cannot be read
+     */
+    private int readChunk(final long offset, final long from, final long length)
+            throws IOException {
+        chunk.clear();
+        chunk.limit((int) Math.min(CHUNK_SIZE, length - from));
+        while (chunk.hasRemaining()) {
+            if (fasta.read(chunk, offset + from + chunk.position()) == -1) {
+                throw new IOException("Malformed accession index: the record at offset "
+                        + offset + " is past the end of the FASTA file");
+            }
+        }
+        return chunk.position();
+    }
+
+    /**
+     * Returns whether two character sequences have the same content.
+     *
+     * @param a A character sequence
+     * @param b Another character sequence
+     * @return true if a and b have the same characters
+     */
+    private static boolean contentEquals(final CharSequence a, final CharSequence b) {
+        final int length = a.length();
+        if (length != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Scans a FASTA file and writes the entry of each record to the bucket of its hash.
+     *
+     * @param channel The FASTA file
+     * @param buckets The streams of the buckets
+     * @return the number of records
+     * @throws IOException if the file cannot be read or a bucket cannot be written
+     */
+    private static long scan(final FileChannel channel, final DataOutputStream[] buckets)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final byte[] bytes = buffer.array();
+        final MutableString description = new MutableString();
+        final MutableString accession = new MutableString();
+        long bufferOffset = 0;
+        long recordStart = -1;
+        long key = 0;
+        long numberOfRecords = 0;
+        boolean lineStart = true;
+        boolean inDescription = false;
+        int count;
+        while ((count = channel.read(buffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                final byte b = bytes[i];
+                if (inDescription) {
+                    if (b == '\n') {
+                        inDescription = false;
+                        lineStart = true;
+                        key = hashDescription(description, accession);
+                    } else {
+                        description.append((char) (b & 0xFF));
+                    }
+                } else if (lineStart && b == '>') {
+                    final long offset = bufferOffset + i;
+                    if (recordStart != -1) {
+                        writeEntry(buckets, key, recordStart, offset - recordStart);
+                        numberOfRecords++;
+                    }
+                    recordStart = offset;
+                    inDescription = true;
+                    description.setLength(0);
+                } else {
+                    lineStart = b == '\n';
+                }
+            }
+            bufferOffset += count;
+            buffer.clear();
+        }
+        if (recordStart != -1) {
+            if (inDescription) {
+                key = hashDescription(description, accession);
+            }
+            writeEntry(buckets, key, recordStart, bufferOffset - recordStart);
+            numberOfRecords++;
+        }
+        return numberOfRecords;
+    }
+
+    /**
+     * Returns the hash of the accession code of a description line.
+     *
+     * @param description The description line, without the '&gt;'
+     * @param accession   Used to store the accession code
+     * @return the hash of the accession code
+     */
+    private static long hashDescription(final MutableString description,
+                                        final MutableString accession) {
+        if (description.length() > 0 && description.charAt(description.length() - 1) == '\r') {
+            description.setLength(description.length() - 1);
+        }
+        FastaParser.guessAccessionCode(description, accession);
+        return hash(accession);
+    }
+
+    /**
+     * Writes an entry to the bucket of its hash.
+     *
+     * @param buckets The streams of the buckets
+     * @param key     The hash of the accession code
+     * @param offset  The offset of the record
+     * @param length  The number of bytes of the record
+     * @throws IOException if the bucket cannot be written
+     */
+    private static void writeEntry(final DataOutputStream[] buckets, final long key,
+                                   final long offset, final long length) throws IOException {
+        final DataOutputStream bucket = buckets[(int) (key >>> (63 - BUCKET_BITS))];
+        bucket.writeLong(key);
+        bucket.writeLong(offset);
+        bucket.writeLong(length);
+    }
+
+    /**
+     * Sorts the entries of a bucket and appends them to the index.
+     *
+     * @param bucketFile The file of the bucket
+     * @param output     The index
+     * @throws IOException if the bucket cannot be read or the index cannot be written
+     */
+    private static void sortBucket(final File bucketFile, final DataOutputStream output)
+            throws IOException {
+        final int count = (int) (bucketFile.length() / ENTRY_SIZE);
+        final long[] keys = new long[count];
+        final long[] offsets = new long[count];
+        final long[] lengths = new long[count];
+        // the entries are sorted by (hash, offset), and lengths are found by entry number
+        final int[] entries = new int[count];
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(bucketFile), 1 << 16));
+        try {
+            for (int i = 0; i < count; i++) {
+                keys[i] = input.readLong();
+                offsets[i] = input.readLong();
+                lengths[i] = input.readLong();
+                entries[i] = i;
+            }
+        } finally {
+            input.close();
+        }
+        Sorting.sort(keys, offsets, entries, 0, count);
+        for (int i = 0; i < count; i++) {
+            output.writeLong(keys[i]);
+            output.writeLong(offsets[i]);
+            output.writeLong(lengths[entries[i]]);
+        }
+    }
+
+    /**
+     * Returns a copy of an array with a larger capacity.
+     *
+     * @param array    The array to copy
+     * @param capacity The length of the copy
+     * @return the copy
+     */
+    private static long[] grow(final long[] array, final int capacity) {
+        final long[] grown = new long[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a <a href="http://samtools.sourceforge.net/SAM1.pdf">BGZF</a> file, the blocked
+ * gzip format written by bgzip. A BGZF file is a series of gzip members of at most 64 KB
+ * each, and the compressed size of each member is stored in its header, so members can be
+ * located without inflating them. This stream reads members ahead of the caller and
+ * inflates them on several threads, which removes the single threaded inflater of a
+ * {@link java.util.zip.GZIPInputStream} from the critical path of parsing.
+ * <p>
+ * Positions in the file are BGZF virtual offsets: the offset of a member in the compressed
+ * file, shifted left by 16 bits, plus an offset in the inflated member. See
+ * {@link #getVirtualOffset()} and {@link #seek(long)}.
+ */
+public final class BgzfInputStream extends InputStream {
+    /**
+     * The number of bytes of a gzip header that precede the extra field.
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * The number of bytes of a gzip trailer: the CRC32 and the size of the inflated data.
+     */
+    private static final int TRAILER_SIZE = 8;
+
+    /**
+     * The largest number of bytes of a member in the file.
+     */
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    /**
+     * The number of members read ahead for each inflating thread.
+     */
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    /**
+     * The inflater of each thread, reused from member to member.
+     */
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    /**
+     * The BGZF file.
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * The channel of the BGZF file, read with positional reads.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The length of the BGZF file.
+     */
+    private final long length;
+
+    /**
+     * The last bytes read from the file. Each read fills it from the start of a member, so
+     * that it holds that member and usually the next few ones.
+     */
+    private final ByteBuffer window = ByteBuffer.allocate(2 * MAX_BLOCK_SIZE);
+
+    /**
+     * The offset in the file of the first byte of {@link #window}.
+     */
+    private long windowOffset;
+
+    /**
+     * The threads that inflate members, or null if members are inflated by the caller.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The maximum number of members read ahead.
+     */
+    private final int readAhead;
+
+    /**
+     * The members read ahead, in the order of the file.
+     */
+    private final LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+
+    /**
+     * The offset of the next member to read ahead.
+     */
+    private long nextBlockOffset;
+
+    /**
+     * The offset of the first member of {@link #pending}, used when there is no current
+     * member.
+     */
+    private long pendingOffset;
+
+    /**
+     * The member being read, or null.
+     */
+    private Block block;
+
+    /**
+     * The position of the next byte to read in the current member.
+     */
+    private int position;
+
+    /**
+     * Create a stream over a BGZF file, inflating on as many threads as there are
+     * processors.
+     *
+     * @param file The BGZF file
+     * @throws IOException if the file cannot be opened
+     */
+    public BgzfInputStream(final File file) throws IOException {
+        this(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a stream over a BGZF file.
+     *
+     * @param file            The BGZF file
+     * @param numberOfThreads The number of threads that inflate members. With one thread,
+     *                        members are inflated by the thread that reads the stream.
+     * @throws IOException if the file cannot be opened
+     */
+    public BgzfInputStream(final File file, final int numberOfThreads) throws IOException {
+        super();
+        if (numberOfThreads <= 0) {
+            throw new IllegalArgumentException("numberOfThreads must be positive");
+        }
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.length = this.file.length();
+        window.limit(0);
+        if (numberOfThreads == 1) {
+            this.executor = null;
+            this.readAhead = 1;
+        } else {
+            this.executor = Executors.newFixedThreadPool(numberOfThreads,
+                    new ParallelFastaParser.DaemonThreadFactory("BgzfInputStream"));
+            this.readAhead = BLOCKS_PER_THREAD * numberOfThreads;
+        }
+    }
+
+    /**
+     * Returns whether the first bytes of a file are the header of a BGZF member: a gzip
+     * header with an extra field that starts with the "BC" subfield.
+     *
+     * @param header The first bytes of the file
+     * @param count  The number of bytes in header
+     * @return true if the file is a BGZF file
+     */
+    public static boolean isBgzf(final byte[] header, final int count) {
+        return count >= 18 && isGzip(header, count) && (header[3] & 4) != 0
+                && header[10] == 6 && header[11] == 0
+                && header[12] == 'B' && header[13] == 'C'
+                && header[14] == 2 && header[15] == 0;
+    }
+
+    /**
+     * Returns whether the first bytes of a file are a gzip header.
+     *
+     * @param header The first bytes of the file
+     * @param count  The number of bytes in header
+     * @return true if the file is gzip compressed
+     */
+    public static boolean isGzip(final byte[] header, final int count) {
+        return count >= 3 && header[0] == (byte) 0x1f && header[1] == (byte) 0x8b
+                && header[2] == 8;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return block.data[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        final int n = Math.min(count, block.data.length - position);
+        System.arraycopy(block.data, position, bytes, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block == null ? 0 : block.data.length - position;
+    }
+
+    /**
+     * Returns the BGZF virtual offset of the next byte to read. When the current member is
+     * exhausted, this is the offset of the start of the next member, as with samtools.
+     *
+     * @return the virtual offset
+     */
+    public long getVirtualOffset() {
+        if (block == null) {
+            return pendingOffset << 16;
+        } else if (position == block.data.length) {
+            return (block.offset + block.size) << 16;
+        } else {
+            return block.offset << 16 | position;
+        }
+    }
+
+    /**
+     * Moves to a BGZF virtual offset, such as one returned by {@link #getVirtualOffset()}
+     * or found in a BAM or tabix index.
+     *
+     * @param virtualOffset The virtual offset of the next byte to read
+     * @throws IOException if the member at the offset cannot be read
+     */
+    public void seek(final long virtualOffset) throws IOException {
+        final long blockOffset = virtualOffset >>> 16;
+        final int offsetInBlock = (int) (virtualOffset & 0xFFFF);
+        if (blockOffset > length) {
+            throw new IOException("Offset " + blockOffset + " is past the end of the file");
+        }
+        for (final Future<Block> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        block = null;
+        position = 0;
+        nextBlockOffset = blockOffset;
+        pendingOffset = blockOffset;
+        if (offsetInBlock > 0) {
+            readAhead();
+            if (pending.isEmpty()) {
+                throw new IOException("No member at offset " + blockOffset);
+            }
+            nextBlock();
+            if (offsetInBlock > block.data.length) {
+                throw new IOException("Malformed virtual offset " + virtualOffset
+                        + ": the member only has " + block.data.length + " bytes");
+            }
+            position = offsetInBlock;
+        }
+    }
+
+    /**
+     * Stops the inflating threads and closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        pending.clear();
+        block = null;
+        file.close();
+    }
+
+    /**
+     * Makes sure that the current member has bytes left to read.
+     *
+     * @return false if the end of the file has been reached
+     * @throws IOException if a member cannot be read or inflated
+     */
+    private boolean ensureAvailable() throws IOException {
+        while (block == null || position == block.data.length) {
+            readAhead();
+            if (pending.isEmpty()) {
+                block = null;
+                return false;
+            }
+            nextBlock();
+        }
+        return true;
+    }
+
+    /**
+     * Makes the first member read ahead the current member.
+     *
+     * @throws IOException if the member cannot be inflated
+     */
+    private void nextBlock() throws IOException {
+        final Future<Block> future = pending.removeFirst();
+        try {
+            block = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final IOException error = new InterruptedIOException(
+                    "Interrupted while inflating block at offset " + pendingOffset);
+            error.initCause(e);
+            throw error;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot inflate member", e.getCause());
+        }
+        position = 0;
+        pendingOffset = block.offset + block.size;
+        // keep the threads busy while the caller consumes this member
+        readAhead();
+    }
+
+    /**
+     * Reads members and submits them for inflation, until enough members are read ahead or
+     * the end of the file is reached.
+     *
+     * @throws IOException if a member cannot be read
+     */
+    private void readAhead() throws IOException {
+        while (pending.size() < readAhead && nextBlockOffset < length) {
+            final Block next = readBlock(nextBlockOffset);
+            nextBlockOffset += next.size;
+            final FutureTask<Block> task = new FutureTask<Block>(new Callable<Block>() {
+                public Block call() throws IOException {
+                    next.inflate();
+                    return next;
+                }
+            });
+            if (executor == null) {
+                task.run();
+            } else {
+                executor.execute(task);
+            }
+            pending.add(task);
+        }
+    }
+
+    /**
+     * Reads the compressed bytes of a member. Members are read from {@link #window}, which
+     * is refilled with a single positional read when it does not hold the whole member.
+     *
+     * @param offset The offset of the member in the file
+     * @return the member, not yet inflated
+     * @throws IOException if the member cannot be read or is not a BGZF member
+     */
+    private Block readBlock(final long offset) throws IOException {
+        final long windowEnd = windowOffset + window.limit();
+        if (offset < windowOffset
+                || (offset + MAX_BLOCK_SIZE > windowEnd && windowEnd < length)) {
+            fillWindow(offset);
+        }
+        final byte[] bytes = window.array();
+        final int start = (int) (offset - windowOffset);
+        final int available = window.limit() - start;
+        if (available < HEADER_SIZE) {
+            throw new IOException("Malformed BGZF member at offset " + offset
+                    + ": truncated file");
+        }
+        if (bytes[start] != (byte) 0x1f || bytes[start + 1] != (byte) 0x8b
+                || bytes[start + 2] != 8 || (bytes[start + 3] & 4) == 0) {
+            throw new IOException("Malformed BGZF member at offset " + offset
+                    + ": not a gzip member with an extra field");
+        }
+        final int extraLength = readShort(bytes, start + 10);
+        final int extraStart = start + HEADER_SIZE;
+        final int extraEnd = extraStart + extraLength;
+        if (available < HEADER_SIZE + extraLength) {
+            throw new IOException("Malformed BGZF member at offset " + offset
+                    + ": truncated file");
+        }
+        int size = -1;
+        for (int i = extraStart; i + 4 <= extraEnd; i += 4 + readShort(bytes, i + 2)) {
+            if (bytes[i] == 'B' && bytes[i + 1] == 'C' && readShort(bytes, i + 2) == 2) {
+                size = readShort(bytes, i + 4) + 1;
+            }
+        }
+        final int remaining = size - HEADER_SIZE - extraLength;
+        if (size == -1 || remaining < TRAILER_SIZE) {
+            throw new IOException("Malformed BGZF member at offset " + offset
+                    + ": no valid BC subfield");
+        }
+        if (available < size) {
+            throw new IOException("Malformed BGZF member at offset " + offset
+                    + ": truncated file");
+        }
+        // the member is inflated on another thread, so it gets its own copy of the bytes
+        final byte[] compressed = new byte[remaining];
+        System.arraycopy(bytes, extraEnd, compressed, 0, remaining);
+        return new Block(offset, size, compressed);
+    }
+
+    /**
+     * Fills {@link #window} with the bytes of the file that start at an offset.
+     *
+     * @param offset The offset of the first byte to read
+     * @throws IOException if the file cannot be read
+     */
+    private void fillWindow(final long offset) throws IOException {
+        window.clear();
+        window.limit((int) Math.min(window.capacity(), length - offset));
+        while (window.hasRemaining()) {
+            if (channel.read(window, offset + window.position()) == -1) {
+                break;
+            }
+        }
+        window.flip();
+        windowOffset = offset;
+    }
+
+    /**
+     * Reads a little endian unsigned short.
+     *
+     * @param bytes  The bytes to read from
+     * @param offset The offset of the short
+     * @return the value of the short
+     */
+    private static int readShort(final byte[] bytes, final int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    /**
+     * Reads a little endian int.
+     *
+     * @param bytes  The bytes to read from
+     * @param offset The offset of the int
+     * @return the value of the int
+     */
+    private static int readInt(final byte[] bytes, final int offset) {
+        return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+    }
+
+    /**
+     * A member of a BGZF file.
+     */
+    private static final class Block {
+        /**
+         * The offset of the member in the file.
+         */
+        private final long offset;
+
+        /**
+         * The number of bytes of the member in the file.
+         */
+        private final int size;
+
+        /**
+         * The deflated data followed by the gzip trailer, until the member is inflated.
+         */
+        private byte[] compressed;
+
+        /**
+         * The inflated data.
+         */
+        private byte[] data;
+
+        Block(final long offset, final int size, final byte[] compressed) {
+            super();
+            this.offset = offset;
+            this.size = size;
+            this.compressed = compressed;
+        }
+
+        /**
+         * Inflates the member and checks its CRC32.
+         *
+         * @throws IOException if the member is corrupt
+         */
+        void inflate() throws IOException {
+            final int deflatedLength = compressed.length - TRAILER_SIZE;
+            final int expectedCrc = readInt(compressed, deflatedLength);
+            final int inflatedLength = readInt(compressed, deflatedLength + 4);
+            if (inflatedLength < 0 || inflatedLength > 1 << 16) {
+                throw new IOException("Malformed BGZF member at offset " + offset
+                        + ": invalid size " + inflatedLength);
+            }
+            data = new byte[inflatedLength];
+            final Inflater inflater = INFLATERS.get();
+            inflater.reset();
+            inflater.setInput(compressed, 0, deflatedLength);
+            try {
+                int count = 0;
+                while (count < inflatedLength) {
+                    final int n = inflater.inflate(data, count, inflatedLength - count);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    count += n;
+                }
+                if (count != inflatedLength) {
+                    throw new IOException("Malformed BGZF member at offset " + offset
+                            + ": expected " + inflatedLength + " bytes but found " + count);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Malformed BGZF member at offset " + offset + ": "
+                        + e.getMessage());
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(data, 0, inflatedLength);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Malformed BGZF member at offset " + offset
+                        + ": CRC32 mismatch");
+            }
+            compressed = null;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes data in the blocked gzip format (BGZF) of samtools: a series of gzip members of
+ * at most 64 KB each, ending with an empty member. BGZF files are valid gzip files, and
+ * can be read back in parallel, and at random positions, with {@link BgzfInputStream}.
+ */
+public final class BgzfOutputStream extends OutputStream {
+    /**
+     * The number of uncompressed bytes per member, the value used by bgzip.
+     */
+    private static final int BLOCK_SIZE = 0xff00;
+
+    /**
+     * The largest size of a member, header and trailer included.
+     */
+    private static final int MAX_MEMBER_SIZE = 1 << 16;
+
+    /**
+     * The number of bytes of the header of a member.
+     */
+    private static final int HEADER_SIZE = 18;
+
+    /**
+     * The number of bytes of the trailer of a member: CRC32 and uncompressed size.
+     */
+    private static final int TRAILER_SIZE = 8;
+
+    /**
+     * The empty member that ends BGZF files.
+     */
+    private static final byte[] EOF_MEMBER = {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0,
+            (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    /**
+     * Where the members are written.
+     */
+    private final OutputStream output;
+
+    /**
+     * The uncompressed bytes of the current member.
+     */
+    private final byte[] block = new byte[BLOCK_SIZE];
+
+    /**
+     * The number of bytes in {@link #block}.
+     */
+    private int count;
+
+    /**
+     * The current member, compressed.
+     */
+    private final byte[] member = new byte[MAX_MEMBER_SIZE];
+
+    /**
+     * Compresses members.
+     */
+    private final Deflater deflater;
+
+    /**
+     * Computes the checksum of members.
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The number of compressed bytes written.
+     */
+    private long compressedPosition;
+
+    /**
+     * Create a stream that compresses with the default level.
+     *
+     * @param output Where the compressed data is written
+     */
+    public BgzfOutputStream(final OutputStream output) {
+        this(output, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Create a stream.
+     *
+     * @param output Where the compressed data is written
+     * @param level  The compression level, from 0 to 9, or -1 for the default level
+     */
+    public BgzfOutputStream(final OutputStream output, final int level) {
+        super();
+        this.output = output;
+        deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        if (count == BLOCK_SIZE) {
+            writeMember();
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length)
+            throws IOException {
+        int written = 0;
+        while (written < length) {
+            if (count == BLOCK_SIZE) {
+                writeMember();
+            }
+            final int n = Math.min(BLOCK_SIZE - count, length - written);
+            System.arraycopy(bytes, offset + written, block, count, n);
+            count += n;
+            written += n;
+        }
+    }
+
+    /**
+     * Returns the BGZF virtual offset of the next byte written: the offset of its member in
+     * the compressed file, shifted left by 16 bits, plus its position in the member.
+     *
+     * @return the virtual offset of the current position
+     */
+    public long getVirtualOffset() {
+        return (compressedPosition << 16) | count;
+    }
+
+    /**
+     * Writes the current member, even if it is not full, and flushes the output.
+     *
+     * @throws IOException if the data cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        writeMember();
+        output.flush();
+    }
+
+    /**
+     * Writes the last member and the end of file member, and closes the output.
+     *
+     * @throws IOException if the data cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeMember();
+            output.write(EOF_MEMBER);
+            compressedPosition += EOF_MEMBER.length;
+            output.close();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compresses and writes the bytes of the current member.
+     *
+     * @throws IOException if the member cannot be written
+     */
+    private void writeMember() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        deflater.reset();
+        deflater.setInput(block, 0, count);
+        deflater.finish();
+        int size = HEADER_SIZE;
+        while (!deflater.finished()) {
+            size += deflater.deflate(member, size, MAX_MEMBER_SIZE - TRAILER_SIZE - size);
+            if (size == MAX_MEMBER_SIZE - TRAILER_SIZE && !deflater.finished()) {
+                // 64 KB of incompressible data still fit when stored, so this cannot happen
+                throw new IOException("Malformed BGZF member: compressed data too large");
+            }
+        }
+        crc.reset();
+        crc.update(block, 0, count);
+        writeHeader(size + TRAILER_SIZE);
+        writeInt(size, (int) crc.getValue());
+        writeInt(size + 4, count);
+        size += TRAILER_SIZE;
+        output.write(member, 0, size);
+        compressedPosition += size;
+        count = 0;
+    }
+
+    /**
+     * Writes the header of a member at the start of {@link #member}.
+     *
+     * @param size The number of bytes of the member
+     */
+    private void writeHeader(final int size) {
+        final byte[] header = member;
+        header[0] = 0x1f;
+        header[1] = (byte) 0x8b;
+        header[2] = 8;
+        header[3] = 4;
+        header[4] = 0;
+        header[5] = 0;
+        header[6] = 0;
+        header[7] = 0;
+        header[8] = 0;
+        header[9] = (byte) 0xff;
+        header[10] = 6;
+        header[11] = 0;
+        header[12] = 'B';
+        header[13] = 'C';
+        header[14] = 2;
+        header[15] = 0;
+        header[16] = (byte) (size - 1);
+        header[17] = (byte) ((size - 1) >> 8);
+    }
+
+    /**
+     * Writes a little endian int in {@link #member}.
+     *
+     * @param offset The index of the first byte
+     * @param value  The value to write
+     */
+    private void writeInt(final int offset, final int value) {
+        member[offset] = (byte) value;
+        member[offset + 1] = (byte) (value >> 8);
+        member[offset + 2] = (byte) (value >> 16);
+        member[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Parses the records of a FASTA file while another process is still writing it, such as a
+ * base caller or an assembler. A record is returned as soon as it is complete, that is
+ * when the description line of the next record has been written, so consumers can start
+ * long before the file is complete. Records are parsed as {@link FastaParser} parses them:
+ * the description line without the '&gt;', and the residues of all the lines of the
+ * record, without line terminators.
+ * <p>
+ * The file is polled for appended bytes. The interval between polls starts at the minimum
+ * poll interval, doubles each time the file has not grown, up to the maximum poll
+ * interval, and falls back to the minimum as soon as bytes are appended. Only appended
+ * bytes are read, and only the record being completed is held in memory. The file may not
+ * exist yet when following starts. Compressed files cannot be followed.
+ * <p>
+ * Following ends in one of two ways. When the file has not grown for the idle timeout,
+ * the file is considered complete: the last record is returned, then
+ * {@link #next(MutableString, MutableString)} returns false. When {@link #stop()} is
+ * called, next returns false without returning the record being written. In both cases,
+ * {@link #getOffset()} is the offset of the first byte after the records returned, which
+ * can be given to {@link #FastaFollower(File, long)} to resume after a restart.
+ * <p>
+ * Records must be read by a single thread; {@link #stop()} may be called from any thread.
+ */
+public final class FastaFollower implements Closeable {
+    /**
+     * The default minimum interval between polls, in milliseconds.
+     */
+    public static final long DEFAULT_MINIMUM_POLL_INTERVAL = 10;
+
+    /**
+     * The default maximum interval between polls, in milliseconds.
+     */
+    public static final long DEFAULT_MAXIMUM_POLL_INTERVAL = 1000;
+
+    /**
+     * The largest number of bytes read at once.
+     */
+    private static final int READ_SIZE = 1 << 16;
+
+    /**
+     * The followed file.
+     */
+    private final File file;
+
+    /**
+     * The followed file, opened, or null until the file exists.
+     */
+    private RandomAccessFile input;
+
+    /**
+     * The bytes read and not consumed yet.
+     */
+    private byte[] buffer = new byte[READ_SIZE];
+
+    /**
+     * The offset in the file of the first byte of the buffer.
+     */
+    private long bufferOffset;
+
+    /**
+     * The index of the first byte not consumed in the buffer.
+     */
+    private int start;
+
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int limit;
+
+    /**
+     * The index in the buffer up to which the end of the current record has been searched.
+     */
+    private int scanned;
+
+    /**
+     * Whether the byte at start begins a line.
+     */
+    private boolean atLineStart = true;
+
+    /**
+     * The minimum interval between polls, in milliseconds.
+     */
+    private long minimumPollInterval = DEFAULT_MINIMUM_POLL_INTERVAL;
+
+    /**
+     * The maximum interval between polls, in milliseconds.
+     */
+    private long maximumPollInterval = DEFAULT_MAXIMUM_POLL_INTERVAL;
+
+    /**
+     * The time without growth after which the file is considered complete, in
+     * milliseconds, or zero to follow the file until {@link #stop()} is called.
+     */
+    private long idleTimeout;
+
+    /**
+     * Whether the file has been considered complete.
+     */
+    private boolean finished;
+
+    /**
+     * Whether {@link #stop()} was called.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Notified when the follower is stopped, to cut the wait for the next poll short.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Follow a file from its start.
+     *
+     * @param file The file to follow
+     */
+    public FastaFollower(final File file) {
+        this(file, 0);
+    }
+
+    /**
+     * Follow a file from an offset, usually the offset returned by {@link #getOffset()}
+     * when following stopped. The offset must be at the start of a line; any line before
+     * the first description line is skipped.
+     *
+     * @param file   The file to follow
+     * @param offset The offset of the first byte to parse
+     */
+    public FastaFollower(final File file, final long offset) {
+        super();
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset: " + offset);
+        }
+        this.file = file;
+        this.bufferOffset = offset;
+    }
+
+    /**
+     * Sets the bounds of the interval between polls.
+     *
+     * @param minimum The interval after the file grew, in milliseconds
+     * @param maximum The largest interval, in milliseconds
+     */
+    public void setPollInterval(final long minimum, final long maximum) {
+        if (minimum < 1 || maximum < minimum) {
+            throw new IllegalArgumentException("Invalid poll interval: " + minimum + " to "
+                    + maximum);
+        }
+        this.minimumPollInterval = minimum;
+        this.maximumPollInterval = maximum;
+    }
+
+    /**
+     * Sets the time without growth after which the file is considered complete. By
+     * default, the file is followed until {@link #stop()} is called.
+     *
+     * @param idleTimeout The timeout, in milliseconds, or zero to never time out
+     */
+    public void setIdleTimeout(final long idleTimeout) {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("Invalid idle timeout: " + idleTimeout);
+        }
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns the followed file.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the offset in the file of the first byte after the records returned so far.
+     * Following can be resumed from this offset.
+     *
+     * @return the offset of the first byte not consumed
+     */
+    public long getOffset() {
+        return bufferOffset + start;
+    }
+
+    /**
+     * Stops following the file. A thread waiting in
+     * {@link #next(MutableString, MutableString)} returns false without waiting for the
+     * next poll.
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for the next complete record and returns it.
+     *
+     * @param descriptionLine Where the description line of the record is written, without
+     *                        the '&gt;'
+     * @param residues        Where the residues of the record are written
+     * @return true if a record was returned, false if following ended
+     * @throws IOException if the file cannot be read, or was truncated
+     */
+    public boolean next(final MutableString descriptionLine, final MutableString residues)
+            throws IOException {
+        long interval = minimumPollInterval;
+        long lastGrowth = System.currentTimeMillis();
+        while (!finished) {
+            skipToRecord();
+            final int end = findRecordEnd();
+            if (end != -1) {
+                parse(end, descriptionLine, residues);
+                return true;
+            }
+            if (stopped) {
+                return false;
+            }
+            if (read()) {
+                interval = minimumPollInterval;
+                lastGrowth = System.currentTimeMillis();
+            } else if (idleTimeout > 0
+                    && System.currentTimeMillis() - lastGrowth >= idleTimeout) {
+                finished = true;
+                if (start < limit) {
+                    // the file is complete, and so is its last record
+                    parse(limit, descriptionLine, residues);
+                    return true;
+                }
+            } else {
+                waitForPoll(interval);
+                interval = Math.min(interval << 1, maximumPollInterval);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        stop();
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+    }
+
+    /**
+     * Consumes the bytes before the first description line of the buffer. Incomplete lines
+     * are consumed too, so that the bytes before a record never need to be held.
+     */
+    private void skipToRecord() {
+        while (start < limit && !(atLineStart && buffer[start] == '>')) {
+            final byte b = buffer[start++];
+            atLineStart = b == '\n' || b == '\r';
+        }
+        scanned = Math.max(scanned, start + 1);
+    }
+
+    /**
+     * Searches for the end of the record at the start of the buffer, that is the next
+     * '&gt;' at the start of a line.
+     *
+     * @return the index of the first byte after the record, or -1 if the record is not
+     * complete yet
+     */
+    private int findRecordEnd() {
+        final byte[] bytes = buffer;
+        for (int i = scanned; i < limit; i++) {
+            if (bytes[i] == '>' && (bytes[i - 1] == '\n' || bytes[i - 1] == '\r')) {
+                scanned = i + 1;
+                return i;
+            }
+        }
+        scanned = Math.max(scanned, limit);
+        return -1;
+    }
+
+    /**
+     * Parses the record at the start of the buffer, and consumes it.
+     *
+     * @param end             The index of the first byte after the record
+     * @param descriptionLine Where the description line is written
+     * @param residues        Where the residues are written
+     */
+    private void parse(final int end, final MutableString descriptionLine,
+                       final MutableString residues) {
+        final byte[] bytes = buffer;
+        int i = start + 1;
+        descriptionLine.setLength(0);
+        while (i < end && bytes[i] != '\n' && bytes[i] != '\r') {
+            descriptionLine.append((char) (bytes[i++] & 0xFF));
+        }
+        residues.ensureCapacity(end - i);
+        residues.setLength(end - i);
+        final char[] chars = residues.array();
+        int count = 0;
+        for (; i < end; i++) {
+            final byte b = bytes[i];
+            if (b != '\n' && b != '\r') {
+                chars[count++] = (char) (b & 0xFF);
+            }
+        }
+        residues.setLength(count);
+        residues.changed();
+        start = end;
+        atLineStart = true;
+    }
+
+    /**
+     * Reads the bytes appended to the file since the last read, up to {@link #READ_SIZE}.
+     *
+     * @return true if bytes were read
+     * @throws IOException if the file cannot be read, or was truncated
+     */
+    private boolean read() throws IOException {
+        if (input == null) {
+            if (!file.exists()) {
+                return false;
+            }
+            input = new RandomAccessFile(file, "r");
+        }
+        final long position = bufferOffset + limit;
+        final long length = input.length();
+        if (length < position) {
+            throw new IOException("File " + file + " was truncated to " + length
+                    + " bytes, but " + position + " bytes were read");
+        }
+        if (length == position) {
+            return false;
+        }
+        final int count = (int) Math.min(READ_SIZE, length - position);
+        makeRoom(count);
+        input.seek(position);
+        input.readFully(buffer, limit, count);
+        limit += count;
+        return true;
+    }
+
+    /**
+     * Makes room at the end of the buffer, moving the bytes not consumed to its start, or
+     * growing it if they take more than half of it.
+     *
+     * @param count The number of bytes to make room for
+     */
+    private void makeRoom(final int count) {
+        if (limit + count <= buffer.length) {
+            return;
+        }
+        final int remaining = limit - start;
+        final byte[] destination = remaining + count <= buffer.length / 2 ? buffer
+                : new byte[Math.max(buffer.length << 1, remaining + count)];
+        System.arraycopy(buffer, start, destination, 0, remaining);
+        buffer = destination;
+        bufferOffset += start;
+        scanned -= start;
+        limit = remaining;
+        start = 0;
+    }
+
+    /**
+     * Waits until the next poll, or until the follower is stopped.
+     *
+     * @param interval The time to wait, in milliseconds
+     */
+    private void waitForPoll(final long interval) {
+        synchronized (lock) {
+            if (!stopped) {
+                try {
+                    lock.wait(interval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for "
+                            + file, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lists the records of a FASTA file without reading their residues into memory. For each
+ * record, the scanner returns the description line, the offsets of the record and of its
+ * residues, and the number of residues. The file is mapped as with
+ * {@link MappedFastaParser}, and the bytes between two description lines are only searched
+ * for the next '&gt;' that starts a line and counted, eight bytes at a time: each word is
+ * compared to '&gt;', '\n' and '\r' at once with SWAR (SIMD within a register) arithmetic,
+ * so a scan runs at about the speed at which the file can be read.
+ * <p>
+ * Lines end with '\n', '\r' or "\r\n", as with {@link FastaParser}. The number of residues
+ * of a record is the number of bytes of its residue lines, without line terminators, which
+ * is the length of the residues that {@link FastaParser} returns.
+ */
+public final class FastaHeaderScanner implements Closeable {
+    /**
+     * '&gt;' repeated in each byte of a long.
+     */
+    private static final long GREATER_THAN = 0x3e3e3e3e3e3e3e3eL;
+
+    /**
+     * '\n' repeated in each byte of a long.
+     */
+    static final long NEWLINE = 0x0a0a0a0a0a0a0a0aL;
+
+    /**
+     * '\r' repeated in each byte of a long.
+     */
+    static final long CARRIAGE_RETURN = 0x0d0d0d0d0d0d0d0dL;
+
+    /**
+     * The low seven bits of each byte of a long.
+     */
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+    /**
+     * The channel over the FASTA file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Whether this scanner opened the channel and must close it.
+     */
+    private final boolean ownsChannel;
+
+    /**
+     * The size of the file.
+     */
+    private final long size;
+
+    /**
+     * The maximum number of bytes mapped at once.
+     */
+    private final int windowSize;
+
+    /**
+     * The currently mapped region of the file.
+     */
+    private MappedByteBuffer window;
+
+    /**
+     * The offset in the file of the first byte of {@link #window}.
+     */
+    private long windowStart;
+
+    /**
+     * The offset of the '&gt;' of the next record, or the size of the file if there is none.
+     */
+    private long position;
+
+    /**
+     * The description line of the current record.
+     */
+    private final MutableString descriptionLine = new MutableString();
+
+    /**
+     * The offset of the '&gt;' of the current record.
+     */
+    private long offset = -1;
+
+    /**
+     * The offset of the first residue of the current record.
+     */
+    private long residueOffset;
+
+    /**
+     * The offset after the last byte of the current record.
+     */
+    private long endOffset;
+
+    /**
+     * The number of residues of the current record.
+     */
+    private long length;
+
+    /**
+     * Create a scanner over a FASTA file.
+     *
+     * @param file The FASTA file to scan.
+     * @throws IOException if the file cannot be opened or read
+     */
+    public FastaHeaderScanner(final File file) throws IOException {
+        this(new FileInputStream(file).getChannel(), true,
+                MappedFastaParser.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a scanner over a channel. The channel is scanned from its beginning, and is
+     * not closed by {@link #close()}.
+     *
+     * @param channel The channel over the FASTA formatted data.
+     * @throws IOException if the channel cannot be read
+     */
+    public FastaHeaderScanner(final FileChannel channel) throws IOException {
+        this(channel, false, MappedFastaParser.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a scanner over a channel.
+     *
+     * @param channel     The channel over the FASTA formatted data.
+     * @param ownsChannel Whether {@link #close()} must close the channel.
+     * @param windowSize  The maximum number of bytes to map at once, at least 2.
+     * @throws IOException if the channel cannot be read
+     */
+    FastaHeaderScanner(final FileChannel channel, final boolean ownsChannel,
+                       final int windowSize) throws IOException {
+        super();
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("windowSize must be at least 2: " + windowSize);
+        }
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.windowSize = windowSize;
+        this.size = channel.size();
+        findDescriptionLine();
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return true if there was another record, false at the end of the file
+     * @throws IOException if the file cannot be read
+     */
+    public boolean next() throws IOException {
+        if (position >= size) {
+            return false;
+        }
+        offset = position;
+        position++;
+        descriptionLine.setLength(0);
+        readLine(descriptionLine);
+        residueOffset = position;
+        final long terminators = findDescriptionLine();
+        endOffset = position;
+        length = endOffset - residueOffset - terminators;
+        return true;
+    }
+
+    /**
+     * Returns the description line of the current record. The string is reused for the
+     * following records.
+     *
+     * @return the description line, without the '&gt;'
+     */
+    public MutableString getDescriptionLine() {
+        return descriptionLine;
+    }
+
+    /**
+     * Returns the offset of the current record.
+     *
+     * @return the offset of the '&gt;' that starts the record
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the offset of the residues of the current record, as in a
+     * {@link FastaIndex}.
+     *
+     * @return the offset of the byte after the description line
+     */
+    public long getResidueOffset() {
+        return residueOffset;
+    }
+
+    /**
+     * Returns the offset after the current record.
+     *
+     * @return the offset of the next record, or the size of the file
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Returns the number of residues of the current record.
+     *
+     * @return the number of bytes of the residue lines, without line terminators
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Releases the channel if this scanner opened it.
+     *
+     * @throws IOException if the channel cannot be closed
+     */
+    public void close() throws IOException {
+        window = null;
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Moves {@link #position} to the next '&gt;' that starts a line, or to the end of the
+     * file.
+     *
+     * @return the number of line terminators, '\n' or '\r', skipped
+     * @throws IOException if the channel cannot be read
+     */
+    private long findDescriptionLine() throws IOException {
+        long terminators = 0;
+        while (position < size) {
+            mapWindow();
+            final MappedByteBuffer bytes = window;
+            final int limit = bytes.limit();
+            int i = (int) (position - windowStart);
+            while (i < limit) {
+                if (i + 8 <= limit) {
+                    final long word = bytes.getLong(i);
+                    final long lineEnds = matches(word, NEWLINE) | matches(word, CARRIAGE_RETURN);
+                    final long headers = matches(word, GREATER_THAN);
+                    if (headers == 0) {
+                        terminators += Long.bitCount(lineEnds);
+                        i += 8;
+                        continue;
+                    }
+                    // count the terminators before the first '>' and look at the '>'
+                    final int shift = Long.numberOfTrailingZeros(headers) & ~7;
+                    terminators += Long.bitCount(lineEnds & ((1L << shift) - 1));
+                    i += shift >>> 3;
+                } else {
+                    final byte b = bytes.get(i);
+                    if (b != '>') {
+                        terminators += b == '\n' || b == '\r' ? 1 : 0;
+                        i++;
+                        continue;
+                    }
+                }
+                // i is a '>', which starts a description line if it starts a line; lines
+                // end with '\n', '\r' or "\r\n", as with FastBufferedReader
+                if (windowStart + i == 0 || bytes.get(i - 1) == '\n'
+                        || bytes.get(i - 1) == '\r') {
+                    position = windowStart + i;
+                    return terminators;
+                }
+                i++;
+            }
+            position = windowStart + limit;
+        }
+        return terminators;
+    }
+
+    /**
+     * Returns the bytes of a word that are equal to a byte.
+     *
+     * @param word    Eight bytes
+     * @param pattern The byte to look for, repeated in each byte
+     * @return a word with the high bit of each matching byte set, and no other bit
+     */
+    static long matches(final long word, final long pattern) {
+        final long x = word ^ pattern;
+        // the high bit is set in the bytes of x that are zero; unlike the usual
+        // (x - 0x01..) & ~x & 0x80.. test, there are no false positives, so bits can be
+        // counted
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+
+    /**
+     * Makes sure {@link #window} contains the byte at {@link #position} and the byte before
+     * it, so that whether a '&gt;' starts a line can be checked without another mapping.
+     *
+     * @throws IOException if the channel cannot be mapped
+     */
+    private void mapWindow() throws IOException {
+        if (window == null || position < windowStart + (windowStart == 0 ? 0 : 1)
+                || position >= windowStart + window.limit()) {
+            final long start = position == 0 ? 0 : position - 1;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(windowSize, size - start));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = start;
+        }
+    }
+
+    /**
+     * Appends the line that starts at {@link #position} to a string, without its
+     * terminator, and moves past the end of the line. Lines end with '\n', '\r' or
+     * "\r\n".
+     *
+     * @param line Where to append the line
+     * @throws IOException if the channel cannot be read
+     */
+    private void readLine(final MutableString line) throws IOException {
+        while (position < size) {
+            mapWindow();
+            final MappedByteBuffer bytes = window;
+            final int limit = bytes.limit();
+            final int from = (int) (position - windowStart);
+            int i = from;
+            while (i + 8 <= limit) {
+                final long word = bytes.getLong(i);
+                final long lineEnds = matches(word, NEWLINE) | matches(word, CARRIAGE_RETURN);
+                if (lineEnds != 0) {
+                    i += Long.numberOfTrailingZeros(lineEnds) >>> 3;
+                    break;
+                }
+                i += 8;
+            }
+            if (i + 8 > limit) {
+                while (i < limit && bytes.get(i) != '\n' && bytes.get(i) != '\r') {
+                    i++;
+                }
+            }
+            final int length = line.length();
+            line.ensureCapacity(length + i - from);
+            line.setLength(length + i - from);
+            final char[] chars = line.array();
+            for (int j = from, k = length; j < i; j++, k++) {
+                chars[k] = (char) (bytes.get(j) & 0xFF);
+            }
+            line.changed();
+            position = windowStart + i;
+            if (i < limit) {
+                position++;
+                if (bytes.get(i) == '\r' && position < size) {
+                    mapWindow();
+                    if (window.get((int) (position - windowStart)) == '\n') {
+                        position++;
+                    }
+                }
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.io.FastBufferedReader;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index over the sequences of a FASTA file, in the layout of the samtools
+ * <code>.fai</code> files. For each sequence the index records its name, its length,
+ * the byte offset of its first residue, the number of residues per line and the number
+ * of bytes per line. With this information, the byte offset of any residue can be
+ * computed without reading the file, see {@link IndexedFastaReader}.
+ * <p>
+ * Sequence names are obtained from description lines with
+ * {@link FastaParser#guessAccessionCode(CharSequence, MutableString)}.
+ */
+public final class FastaIndex {
+    /**
+     * The extension of FASTA index files.
+     */
+    public static final String EXTENSION = ".fai";
+
+    /**
+     * The entries of this index, in the order of the sequences in the file.
+     */
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * The entries of this index, by sequence name.
+     */
+    private final Map<String, Entry> entriesByName = new HashMap<String, Entry>();
+
+    /**
+     * Create an empty index.
+     */
+    public FastaIndex() {
+        super();
+    }
+
+    /**
+     * Index a FASTA file. Every line of a sequence, except the last one, must have the same
+     * length.
+     *
+     * @param fastaFile The FASTA file to index.
+     * @return the index of the file
+     * @throws IOException if the file cannot be read, or if its lines are not regular
+     */
+    public static FastaIndex build(final File fastaFile) throws IOException {
+        final InputStream input = new FileInputStream(fastaFile);
+        try {
+            return build(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Index FASTA formatted data. Every line of a sequence, except the last one, must have
+     * the same length. The stream is not closed.
+     *
+     * @param input The FASTA formatted data.
+     * @return the index of the data
+     * @throws IOException if the data cannot be read, or if its lines are not regular
+     */
+    public static FastaIndex build(final InputStream input) throws IOException {
+        final Builder builder = new Builder();
+        final byte[] buffer = new byte[1 << 16];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            builder.update(buffer, 0, count);
+        }
+        return builder.finish();
+    }
+
+    /**
+     * Load an index saved in the samtools <code>.fai</code> format.
+     *
+     * @param indexFile The index file.
+     * @return the index read from the file
+     * @throws IOException if the file cannot be read or is not a FASTA index
+     */
+    public static FastaIndex load(final File indexFile) throws IOException {
+        final FastBufferedReader reader = new FastBufferedReader(
+                new InputStreamReader(new FileInputStream(indexFile), "US-ASCII"));
+        try {
+            final FastaIndex index = new FastaIndex();
+            MutableString line = new MutableString();
+            while ((line = reader.readLine(line)) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                final String[] fields = line.toString().split("\t");
+                if (fields.length < 5) {
+                    throw new IOException("Malformed FASTA index line: " + line);
+                }
+                try {
+                    index.add(new Entry(fields[0], Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), Integer.parseInt(fields[3]),
+                            Integer.parseInt(fields[4])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed FASTA index line: " + line);
+                }
+            }
+            return index;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Save this index in the samtools <code>.fai</code> format.
+     *
+     * @param indexFile The file to write.
+     * @throws IOException if the file cannot be written
+     */
+    public void save(final File indexFile) throws IOException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), "US-ASCII");
+        try {
+            final MutableString line = new MutableString();
+            for (final Entry entry : entries) {
+                line.setLength(0);
+                line.append(entry.name).append('\t').append(entry.length).append('\t');
+                line.append(entry.offset).append('\t').append(entry.lineBases).append('\t');
+                line.append(entry.lineBytes).append('\n');
+                line.write(writer);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Adds an entry at the end of this index. An entry with the same name as a previous
+     * entry hides the previous entry from {@link #getEntry(CharSequence)}.
+     *
+     * @param entry The entry to add
+     */
+    public void add(final Entry entry) {
+        entries.add(entry);
+        entriesByName.put(entry.name, entry);
+    }
+
+    /**
+     * Returns the number of sequences in this index.
+     *
+     * @return the number of sequences in this index
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the entry of the sequence with the given index.
+     *
+     * @param index The index of the sequence in the file, starting at zero.
+     * @return the entry of the sequence
+     */
+    public Entry getEntry(final int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Returns the entry of the sequence with the given name.
+     *
+     * @param name The name of the sequence
+     * @return the entry of the sequence, or null if no sequence has this name
+     */
+    public Entry getEntry(final CharSequence name) {
+        return entriesByName.get(name.toString());
+    }
+
+    /**
+     * Returns the entries of this index, in the order of the sequences in the file.
+     *
+     * @return the entries of this index
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * The location of one sequence in a FASTA file.
+     */
+    public static final class Entry {
+        /**
+         * The name of the sequence.
+         */
+        private final String name;
+
+        /**
+         * The number of residues in the sequence.
+         */
+        private final long length;
+
+        /**
+         * The byte offset of the first residue of the sequence.
+         */
+        private final long offset;
+
+        /**
+         * The number of residues on each line.
+         */
+        private final int lineBases;
+
+        /**
+         * The number of bytes on each line, including the line terminator.
+         */
+        private final int lineBytes;
+
+        /**
+         * Create an entry.
+         *
+         * @param name      The name of the sequence
+         * @param length    The number of residues in the sequence
+         * @param offset    The byte offset of the first residue of the sequence
+         * @param lineBases The number of residues on each line
+         * @param lineBytes The number of bytes on each line, including the line terminator
+         */
+        public Entry(final String name, final long length, final long offset,
+                     final int lineBases, final int lineBytes) {
+            super();
+            this.name = name;
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineBytes = lineBytes;
+        }
+
+        /**
+         * Returns the name of the sequence.
+         *
+         * @return the name of the sequence
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of residues in the sequence.
+         *
+         * @return the length of the sequence
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the byte offset of the first residue of the sequence.
+         *
+         * @return the offset of the sequence
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the number of residues on each line.
+         *
+         * @return the number of residues on each line
+         */
+        public int getLineBases() {
+            return lineBases;
+        }
+
+        /**
+         * Returns the number of bytes on each line, including the line terminator.
+         *
+         * @return the number of bytes on each line
+         */
+        public int getLineBytes() {
+            return lineBytes;
+        }
+
+        /**
+         * Returns the byte offset of a residue of the sequence.
+         *
+         * @param position The position of the residue in the sequence, starting at zero.
+         * @return the offset of the residue in the file
+         */
+        public long getOffset(final long position) {
+            if (lineBases == 0) {
+                return offset;
+            }
+            return offset + (position / lineBases) * lineBytes + position % lineBases;
+        }
+
+        @Override
+        public String toString() {
+            return name + '\t' + length + '\t' + offset + '\t' + lineBases + '\t' + lineBytes;
+        }
+    }
+
+    /**
+     * Builds an index from FASTA formatted bytes presented in any number of blocks.
+     */
+    static final class Builder {
+        /**
+         * The index being built.
+         */
+        private final FastaIndex index = new FastaIndex();
+
+        /**
+         * The description line of the current sequence.
+         */
+        private final MutableString description = new MutableString();
+
+        /**
+         * The name of the current sequence.
+         */
+        private final MutableString name = new MutableString();
+
+        /**
+         * The offset of the next byte to examine.
+         */
+        private long position;
+
+        /**
+         * The offset of the first byte of the current line.
+         */
+        private long lineStart;
+
+        /**
+         * The number of residues on the current line.
+         */
+        private int lineResidues;
+
+        /**
+         * Whether the current line is a description line.
+         */
+        private boolean inDescription;
+
+        /**
+         * Whether the current line is the first line.
+         */
+        private boolean atLineStart = true;
+
+        /**
+         * Whether a sequence is being indexed.
+         */
+        private boolean inSequence;
+
+        /**
+         * The number of residues of the current sequence.
+         */
+        private long length;
+
+        /**
+         * The offset of the first residue of the current sequence.
+         */
+        private long offset;
+
+        /**
+         * The number of residues per line of the current sequence.
+         */
+        private int lineBases;
+
+        /**
+         * The number of bytes per line of the current sequence.
+         */
+        private int lineBytes;
+
+        /**
+         * Whether a line shorter than the others was seen in the current sequence.
+         */
+        private boolean shortLineSeen;
+
+        /**
+         * Examines the next block of bytes.
+         *
+         * @param bytes  The array holding the block
+         * @param from   The index of the first byte of the block
+         * @param count  The number of bytes in the block
+         * @throws IOException if the lines of a sequence are not regular
+         */
+        void update(final byte[] bytes, final int from, final int count) throws IOException {
+            final int to = from + count;
+            for (int i = from; i < to; i++, position++) {
+                final byte b = bytes[i];
+                if (atLineStart) {
+                    atLineStart = false;
+                    lineStart = position;
+                    lineResidues = 0;
+                    inDescription = b == '>';
+                    if (inDescription) {
+                        endSequence();
+                        description.setLength(0);
+                        continue;
+                    }
+                }
+                if (b == '\n') {
+                    endLine(position + 1, true);
+                    atLineStart = true;
+                } else if (inDescription) {
+                    if (b != '\r') {
+                        description.append((char) (b & 0xFF));
+                    }
+                } else if (b != '\r') {
+                    lineResidues++;
+                }
+            }
+        }
+
+        /**
+         * Completes the index once all the bytes have been examined.
+         *
+         * @return the index
+         * @throws IOException if the lines of the last sequence are not regular
+         */
+        FastaIndex finish() throws IOException {
+            if (!atLineStart) {
+                endLine(position, false);
+            }
+            endSequence();
+            return index;
+        }
+
+        /**
+         * Accounts for the line that ends at the given offset.
+         *
+         * @param lineEnd    The offset after the last byte of the line, terminator included.
+         * @param terminated Whether the line ends with a newline.
+         * @throws IOException if the line breaks the regularity of the current sequence
+         */
+        private void endLine(final long lineEnd, final boolean terminated) throws IOException {
+            if (inDescription) {
+                FastaParser.guessAccessionCode(description, name);
+                inSequence = true;
+                length = 0;
+                offset = lineEnd;
+                lineBases = 0;
+                lineBytes = 0;
+                shortLineSeen = false;
+            } else if (inSequence) {
+                if (lineResidues == 0) {
+                    // blank lines are only accepted at the end of a sequence
+                    shortLineSeen = true;
+                    return;
+                }
+                // the last line of the file may lack its newline
+                final int bytes = (int) (lineEnd - lineStart) + (terminated ? 0 : 1);
+                if (lineBases == 0) {
+                    lineBases = lineResidues;
+                    lineBytes = bytes;
+                } else if (shortLineSeen || lineResidues > lineBases
+                        || (lineResidues == lineBases && bytes != lineBytes)) {
+                    throw new IOException("Different line length in sequence '" + name
+                            + "' at offset " + lineStart);
+                }
+                if (lineResidues < lineBases) {
+                    shortLineSeen = true;
+                }
+                length += lineResidues;
+            }
+        }
+
+        /**
+         * Records the entry of the current sequence, if any.
+         */
+        private void endSequence() {
+            if (inSequence) {
+                index.add(new Entry(name.toString(), length, offset, lineBases, lineBytes));
+                inSequence = false;
+            }
+        }
+    }
+}
@@ -21,7 +21,11 @@ package edu.cornell.med.icb.parsers;
 import it.unimi.dsi.io.FastBufferedReader;
 import it.unimi.dsi.lang.MutableString;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 
 /**
@@ -31,12 +35,51 @@ import java.io.Reader;
  * and loads sequences lazily. This means that clients can start processing sequences in a file
  * before the file is completely loaded. This reader can therefore process very large files without
  * consuming more memory than is needed to process the largest sequence in the file.
+ * <p>
+ * The memory needed by the largest sequence can itself be bounded with
+ * {@link #setMaxRecordSize(int, OversizedRecordPolicy)}: records with more residues than the
+ * maximum are then rejected, truncated, spilled to a temporary file, or returned in windows,
+ * and the residue lines are read in pieces, so that even a sequence on a single line of
+ * several GB does not have to fit in memory.
  *
  * @author Fabien Campagne
  *         Date: Oct 25, 2006
  *         Time: 6:09:57 PM
  */
 public final class FastaParser {
+    /**
+     * What the parser does with records that have more residues than the maximum record
+     * size.
+     */
+    public enum OversizedRecordPolicy {
+        /**
+         * Skip the record and throw a {@link RecordTooLargeException}. Parsing can go on
+         * with the next record.
+         */
+        FAIL,
+        /**
+         * Return the first residues of the record, up to the maximum record size, and skip
+         * the others. See {@link FastaParser#isTruncated()}.
+         */
+        TRUNCATE,
+        /**
+         * Write the residues to a temporary memory mapped file, and return them as a
+         * {@link CharSequence} view of the file. See {@link FastaParser#getResidues()}.
+         */
+        SPILL,
+        /**
+         * Return the residues in windows of the maximum record size, each with the
+         * description line of the record. See {@link FastaParser#getWindowOffset()} and
+         * {@link FastaParser#isEndOfRecord()}.
+         */
+        CHUNK
+    }
+
+    /**
+     * The number of characters read at once when residues are skipped or spilled.
+     */
+    private static final int PIECE_SIZE = 1 << 16;
+
     /**
      * The reader used to parse the FASTA sequences.
      */
@@ -47,12 +90,6 @@ public final class FastaParser {
      */
     private boolean hasNext;
 
-    /**
-     * The list of valid protein sequence characters.
-     */
-    private static final MutableString VALID_PROTEIN_RESIDUES =
-            new MutableString("ACTGLVISDEFHKMNPQRWBY-XZ").compact();
-
     /**
      * Used to store lines read from the FASTA sequence reader.
      */
@@ -63,6 +100,42 @@ public final class FastaParser {
      */
     private MutableString previousDescriptionLine = new MutableString();
 
+    /**
+     * Where the work done by this parser is counted, or null.
+     */
+    private ParserMetrics metrics;
+
+    /**
+     * The maximum number of residues of a record.
+     */
+    private int maxRecordSize = Integer.MAX_VALUE;
+
+    /**
+     * What to do with records larger than {@link #maxRecordSize}, or null if the size of
+     * records is not bounded.
+     */
+    private OversizedRecordPolicy oversizedRecordPolicy;
+
+    /**
+     * The residues returned by the last call to next.
+     */
+    private CharSequence lastResidues;
+
+    /**
+     * Whether the residues returned by the last call to next were truncated.
+     */
+    private boolean truncated;
+
+    /**
+     * Whether the residues returned by the last call to next end their record.
+     */
+    private boolean endOfRecord = true;
+
+    /**
+     * The position in their record of the residues returned by the last call to next.
+     */
+    private long windowOffset;
+
     /**
      * Create a parser to read sequences.
      *
@@ -82,20 +155,111 @@ public final class FastaParser {
     }
 
     /**
-     * Repositions this reader on a different file/data content.
+     * Repositions this reader on a different file/data content. A
+     * {@link FastBufferedReader} is used as is, unless metrics or a maximum record size
+     * are set. The parser then buffers it itself, and the data is still not buffered
+     * twice: the characters the reader already buffered are copied once, then its bulk
+     * reads bypass its buffer and go from its underlying reader straight into the buffer
+     * of the parser.
      *
      * @param reader the new reader to use to parse the file
      * @throws IOException if the sequence cannot be read using the reader
      */
     public void setReader(final Reader reader) throws IOException {
-        if (reader instanceof FastBufferedReader) {
+        lastResidues = null;
+        truncated = false;
+        endOfRecord = true;
+        windowOffset = 0;
+        if (reader instanceof FastBufferedReader && metrics == null
+                && oversizedRecordPolicy == null) {
             this.reader = (FastBufferedReader) reader;
         } else {
-            this.reader = new FastBufferedReader(reader);
+            // a single buffer, that measures its own fills
+            this.reader = new LineReader(reader, metrics);
         }
         hasNext = readNextDescriptionLine(this.reader);
     }
 
+    /**
+     * Counts the work done by this parser. Records are counted from the next call to
+     * {@link #next(MutableString, MutableString)}, and reads from the input are only
+     * measured for readers set afterwards.
+     *
+     * @param metrics Where the work is counted, or null to stop counting
+     */
+    public void setMetrics(final ParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Bounds the number of residues of the records this parser holds in memory. Records
+     * are not bounded unless this method is called.
+     *
+     * @param maxRecordSize The maximum number of residues of a record, including any
+     *                      whitespace found on residue lines
+     * @param policy        What to do with larger records, or null to remove the bound
+     */
+    public void setMaxRecordSize(final int maxRecordSize, final OversizedRecordPolicy policy) {
+        if (maxRecordSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum record size: " + maxRecordSize);
+        }
+        this.maxRecordSize = policy == null ? Integer.MAX_VALUE : maxRecordSize;
+        this.oversizedRecordPolicy = policy;
+        if (policy != null && reader != null && !(reader instanceof LineReader)) {
+            // only a reader given by the caller is not a LineReader: its buffered
+            // characters are kept, and its buffer is bypassed afterwards
+            reader = new LineReader(reader, null);
+        }
+    }
+
+    /**
+     * Returns the residues of the record returned by the last call to
+     * {@link #next(MutableString, MutableString)}. This is the residues string given to
+     * next, except for records spilled to disk with
+     * {@link OversizedRecordPolicy#SPILL}, whose residues are returned as a view of a
+     * memory mapped file, and the residues string is left empty. The view remains valid
+     * after the following call to next.
+     *
+     * @return the residues of the last record, or null if no record was returned
+     */
+    public CharSequence getResidues() {
+        return lastResidues;
+    }
+
+    /**
+     * Returns whether the residues returned by the last call to
+     * {@link #next(MutableString, MutableString)} were truncated to the maximum record size,
+     * with {@link OversizedRecordPolicy#TRUNCATE}.
+     *
+     * @return true if residues of the last record were skipped
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Returns the position in their record of the first residue returned by the last call
+     * to {@link #next(MutableString, MutableString)}. This is zero unless the record was
+     * returned in windows, with {@link OversizedRecordPolicy#CHUNK}.
+     *
+     * @return the number of residues of the record returned by previous calls to next
+     */
+    public long getWindowOffset() {
+        return windowOffset;
+    }
+
+    /**
+     * Returns whether the residues returned by the last call to
+     * {@link #next(MutableString, MutableString)} end their record. This is true unless the
+     * record is returned in windows, with {@link OversizedRecordPolicy#CHUNK}, and more
+     * windows of the record follow.
+     *
+     * @return false if the next call to next returns more residues of the same record
+     */
+    public boolean isEndOfRecord() {
+        return endOfRecord;
+    }
+
     /**
      * Returns true if the reader has at least one more sequence.
      *
@@ -121,9 +285,21 @@ public final class FastaParser {
         if (!hasNext) {
             return false;
         } else {
+            final long start = metrics == null ? 0 : System.nanoTime();
             descriptionLine.replace(previousDescriptionLine);
             // read residues:
-            return readResidues(residues);
+            final boolean more;
+            if (oversizedRecordPolicy == null) {
+                more = readResidues(residues);
+                lastResidues = residues;
+            } else {
+                more = readBoundedResidues(residues);
+            }
+            if (metrics != null) {
+                metrics.recordParsed(lastResidues.length(), residues.array().length,
+                        System.nanoTime() - start);
+            }
+            return more;
         }
     }
 
@@ -154,7 +330,8 @@ public final class FastaParser {
     }
 
     /**
-     * Filter a string to keep only protein residues.
+     * Filter a string to keep only protein residues. Residues are converted to uppercase
+     * and '.' is replaced by '-', see {@link ResidueAlphabet#PROTEIN}.
      *
      * @param rawResidues      A string that may contain any character.
      * @param filteredResidues The subset of characters that represent valid protein residue
@@ -162,23 +339,7 @@ public final class FastaParser {
      */
     public static void filterProteinResidues(final CharSequence rawResidues,
                                              final MutableString filteredResidues) {
-        filteredResidues.setLength(rawResidues.length());
-        int destIndex = 0;
-        for (int i = 0; i < rawResidues.length(); i++) {
-            char residueCode = rawResidues.charAt(i);
-            if (residueCode == '.') {
-                residueCode = '-';
-            } else {
-                residueCode = Character.toUpperCase(residueCode);
-            }
-
-            // add the residue code only if it is valid
-            if (VALID_PROTEIN_RESIDUES.indexOf(residueCode) != -1) {
-                filteredResidues.setCharAt(destIndex, residueCode);
-                destIndex++;
-            }
-        }
-        filteredResidues.setLength(destIndex);
+        ResidueAlphabet.PROTEIN.filter(rawResidues, filteredResidues);
     }
 
     /**
@@ -192,8 +353,7 @@ public final class FastaParser {
             throws IOException {
         while (true) {
             // loop until a line that starts with > if found, or the end of file is reached.
-            previousDescriptionLine = fastBufferedReader.readLine(previousDescriptionLine);
-            if (previousDescriptionLine == null) {
+            if (fastBufferedReader.readLine(previousDescriptionLine) == null) {
                 return false;
             }
             if (previousDescriptionLine.startsWith(">")) { // NOPMD charAt fails on an empty string
@@ -224,8 +384,9 @@ public final class FastaParser {
         residues.setLength(0);
         line.setLength(0);
         while (true) {
-            line = reader.readLine(line);
-            if (line == null) {
+            // readLine returns null at the end of the input: keep line, so that the parser
+            // can be given another reader
+            if (reader.readLine(line) == null) {
                 hasNext = false;
                 return hasNext;
             }
@@ -237,4 +398,259 @@ public final class FastaParser {
             residues.append(line);
         }
     }
+
+    /**
+     * Read and store the residues from the current sequence, applying the maximum record
+     * size.
+     *
+     * @param residues The object to store the residue sequence into.
+     * @return true if there are more sequences, or windows, left after the current one
+     * @throws IOException if there is a problem reading the sequence
+     */
+    private boolean readBoundedResidues(final MutableString residues) throws IOException {
+        final LineReader lineReader = (LineReader) reader;
+        windowOffset = endOfRecord ? 0 : windowOffset + lastResidues.length();
+        endOfRecord = true;
+        truncated = false;
+        lastResidues = residues;
+        residues.setLength(0);
+        while (!atEndOfRecord(lineReader)) {
+            lineReader.appendLine(residues, maxRecordSize - residues.length());
+            if (!lineReader.isAtLineStart()) {
+                // the current line goes on past the maximum record size
+                switch (oversizedRecordPolicy) {
+                    case FAIL:
+                        final String description = previousDescriptionLine.toString();
+                        skipRecord(lineReader);
+                        throw new RecordTooLargeException(description, maxRecordSize);
+                    case TRUNCATE:
+                        truncated = true;
+                        skipRecord(lineReader);
+                        return hasNext;
+                    case CHUNK:
+                        endOfRecord = false;
+                        return true;
+                    default:
+                        lastResidues = spill(lineReader, residues);
+                        residues.setLength(0);
+                        return hasNext;
+                }
+            }
+        }
+        return hasNext;
+    }
+
+    /**
+     * Checks whether the reader is positioned at the end of a record. When it is, reads the
+     * next description line, if any, and updates {@link #hasNext}.
+     *
+     * @param lineReader The reader
+     * @return true at the end of a record
+     * @throws IOException if there is a problem reading from the input
+     */
+    private boolean atEndOfRecord(final LineReader lineReader) throws IOException {
+        if (!lineReader.isAtLineStart()) {
+            return false;
+        }
+        final int c = lineReader.peek();
+        if (c == -1) {
+            hasNext = false;
+            return true;
+        }
+        if (c == '>') {
+            lineReader.readLine(line);
+            previousDescriptionLine.replace(line);
+            previousDescriptionLine = removeBracket(previousDescriptionLine);
+            hasNext = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips the remaining residues of the current record.
+     *
+     * @param lineReader The reader
+     * @throws IOException if there is a problem reading from the input
+     */
+    private void skipRecord(final LineReader lineReader) throws IOException {
+        while (!atEndOfRecord(lineReader)) {
+            line.setLength(0);
+            lineReader.appendLine(line, PIECE_SIZE);
+        }
+    }
+
+    /**
+     * Writes the residues read so far and the remaining residues of the current record to
+     * a temporary file, and maps it.
+     *
+     * @param lineReader The reader
+     * @param residues   The residues read so far
+     * @return the residues of the record
+     * @throws IOException if there is a problem reading from the input or writing the file
+     */
+    private CharSequence spill(final LineReader lineReader, final MutableString residues)
+            throws IOException {
+        final File file = File.createTempFile("squil-residues-", ".txt");
+        try {
+            final OutputStream output =
+                    new BufferedOutputStream(new FileOutputStream(file), PIECE_SIZE);
+            try {
+                final byte[] bytes = new byte[PIECE_SIZE];
+                long length = 0;
+                MutableString piece = residues;
+                while (true) {
+                    length += piece.length();
+                    if (length > Integer.MAX_VALUE) {
+                        final String description = previousDescriptionLine.toString();
+                        skipRecord(lineReader);
+                        throw new RecordTooLargeException(description, Integer.MAX_VALUE);
+                    }
+                    writeLatin1(piece, bytes, output);
+                    if (atEndOfRecord(lineReader)) {
+                        break;
+                    }
+                    piece = line;
+                    piece.setLength(0);
+                    lineReader.appendLine(piece, PIECE_SIZE);
+                }
+            } finally {
+                output.close();
+            }
+            return MappedCharSequence.map(file);
+        } finally {
+            // the mapping remains valid once the file is deleted
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Writes characters as Latin-1 bytes. Other characters are written as '?'.
+     *
+     * @param chars  The characters to write
+     * @param bytes  A buffer
+     * @param output Where to write the bytes
+     * @throws IOException if the bytes cannot be written
+     */
+    private static void writeLatin1(final MutableString chars, final byte[] bytes,
+                                    final OutputStream output) throws IOException {
+        final char[] array = chars.array();
+        final int length = chars.length();
+        for (int start = 0; start < length; start += bytes.length) {
+            final int count = Math.min(bytes.length, length - start);
+            for (int i = 0; i < count; i++) {
+                final char c = array[start + i];
+                bytes[i] = (byte) (c < 256 ? c : '?');
+            }
+            output.write(bytes, 0, count);
+        }
+    }
+
+    /**
+     * A buffered reader that can read lines in pieces, so that long lines do not have to
+     * be held in memory at once, and that can measure the reads that fill its buffer.
+     */
+    private static final class LineReader extends FastBufferedReader {
+        /**
+         * Used during deserialization to verify that objects are compatible.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Where the reads that fill the buffer are counted, or null.
+         */
+        private final transient ParserMetrics metrics;
+
+        /**
+         * Whether the next character starts a line.
+         */
+        private boolean lineStart = true;
+
+        LineReader(final Reader reader, final ParserMetrics metrics) {
+            super(reader);
+            this.metrics = metrics;
+        }
+
+        @Override
+        protected boolean noMoreCharacters() throws IOException {
+            if (metrics == null || avail > 0) {
+                return super.noMoreCharacters();
+            }
+            final long start = System.nanoTime();
+            final boolean noMore = super.noMoreCharacters();
+            metrics.readCompleted(avail, System.nanoTime() - start);
+            return noMore;
+        }
+
+        /**
+         * Returns whether the next character starts a line, which is the case after the
+         * terminator of a line was read or at the end of the input.
+         *
+         * @return true at the start of a line
+         */
+        boolean isAtLineStart() {
+            return lineStart;
+        }
+
+        /**
+         * Returns the next character, without consuming it.
+         *
+         * @return the next character, or -1 at the end of the input
+         * @throws IOException if there is a problem reading from the input
+         */
+        int peek() throws IOException {
+            if (avail == 0 && noMoreCharacters()) {
+                return -1;
+            }
+            return buffer[pos];
+        }
+
+        /**
+         * Appends characters of the current line to a string, up to a maximum. The line
+         * terminator, '\n', '\r' or "\r\n", is consumed if it is reached, but not
+         * appended.
+         *
+         * @param destination Where the characters are appended
+         * @param max         The maximum number of characters to append, which can be zero
+         * @throws IOException if there is a problem reading from the input
+         */
+        void appendLine(final MutableString destination, final int max) throws IOException {
+            int remaining = max;
+            while (true) {
+                if (avail == 0 && noMoreCharacters()) {
+                    lineStart = true;
+                    return;
+                }
+                final char[] characters = buffer;
+                final int limit = pos + Math.min(avail, remaining);
+                int index = pos;
+                while (index < limit && characters[index] != '\n' && characters[index] != '\r') {
+                    index++;
+                }
+                destination.append(characters, pos, index - pos);
+                remaining -= index - pos;
+                avail -= index - pos;
+                pos = index;
+                if (avail > 0) {
+                    final char terminator = characters[pos];
+                    if (terminator != '\n' && terminator != '\r') {
+                        // the maximum was reached within the line
+                        lineStart = false;
+                        return;
+                    }
+                    pos++;
+                    avail--;
+                    if (terminator == '\r' && (avail > 0 || !noMoreCharacters())
+                            && buffer[pos] == '\n') {
+                        pos++;
+                        avail--;
+                    }
+                    lineStart = true;
+                    return;
+                }
+            }
+        }
+    }
 }
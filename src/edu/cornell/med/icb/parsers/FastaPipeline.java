@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Overlaps parsing with the processing of records. The thread that calls
+ * {@link #run(FastaParser)} parses records into batches and hands them to worker threads
+ * over a bounded queue; workers process the records of a batch with a {@link Processor} and
+ * return the batch to a pool, where the parser takes it again. The pool holds a fixed number
+ * of batches, so the parser waits when workers fall behind, and once the strings of the
+ * pooled records have grown to the size of the records, nothing is allocated per record or
+ * per batch.
+ * <p>
+ * Each batch also carries an output string that processors append to. The outputs of the
+ * batches can be written to a {@link Writer}, either in the order of the input or in the
+ * order in which batches complete.
+ * <p>
+ * Workers are created by a {@link ThreadFactory}, so that any kind of thread can be used.
+ * Instances are not thread safe: a pipeline runs one parser at a time.
+ */
+public final class FastaPipeline {
+    /**
+     * Processes the records of a pipeline. A processor is called by all the workers
+     * concurrently, so it must be thread safe.
+     */
+    public interface Processor {
+        /**
+         * Processes a record. The strings of the record are reused once the batch of the
+         * record is processed, so they must not be kept.
+         *
+         * @param record The record to process
+         * @param output Where to append the output of the record, if any
+         * @throws IOException if the record cannot be processed
+         */
+        void process(FastaRecord record, MutableString output) throws IOException;
+    }
+
+    /**
+     * The default maximum number of records in a batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * The number of residues above which a batch is handed to the workers even if it has
+     * room for more records, so that batches of long records stay small.
+     */
+    private static final int BATCH_RESIDUES = 1 << 20;
+
+    /**
+     * Processes the records.
+     */
+    private final Processor processor;
+
+    /**
+     * The number of worker threads.
+     */
+    private final int numberOfWorkers;
+
+    /**
+     * Creates the worker threads.
+     */
+    private final ThreadFactory threadFactory;
+
+    /**
+     * The batches not in use. Batches are only created with the pipeline, so taking a
+     * batch from this queue is what makes the parser wait for the workers.
+     */
+    private final BlockingQueue<Batch> free;
+
+    /**
+     * The batches to process, followed by one {@link #end} marker per worker.
+     */
+    private final BlockingQueue<Batch> work;
+
+    /**
+     * The marker that stops a worker.
+     */
+    private final Batch end = new Batch(0);
+
+    /**
+     * The processed batches waiting for the batches before them, by sequence number modulo
+     * the number of batches.
+     */
+    private final Batch[] completed;
+
+    /**
+     * Where the outputs of the batches are written, or null.
+     */
+    private Writer output;
+
+    /**
+     * Whether outputs are written in the order of the input.
+     */
+    private boolean ordered;
+
+    /**
+     * The sequence number of the next batch whose output is written, in ordered mode.
+     */
+    private long nextOutput;
+
+    /**
+     * The first exception thrown by the parser, a processor or the output.
+     */
+    private volatile Throwable error;
+
+    /**
+     * Create a pipeline with batches of {@link #DEFAULT_BATCH_SIZE} records and daemon
+     * worker threads.
+     *
+     * @param processor       Processes the records
+     * @param numberOfWorkers The number of worker threads
+     */
+    public FastaPipeline(final Processor processor, final int numberOfWorkers) {
+        this(processor, numberOfWorkers, DEFAULT_BATCH_SIZE,
+                new ParallelFastaParser.DaemonThreadFactory("FastaPipeline"));
+    }
+
+    /**
+     * Create a pipeline.
+     *
+     * @param processor       Processes the records
+     * @param numberOfWorkers The number of worker threads
+     * @param batchSize       The maximum number of records in a batch
+     * @param threadFactory   Creates the worker threads
+     */
+    public FastaPipeline(final Processor processor, final int numberOfWorkers,
+                         final int batchSize, final ThreadFactory threadFactory) {
+        super();
+        if (numberOfWorkers <= 0) {
+            throw new IllegalArgumentException("numberOfWorkers must be positive");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.processor = processor;
+        this.numberOfWorkers = numberOfWorkers;
+        this.threadFactory = threadFactory;
+        // one batch being filled, and two per worker: one processed, one queued
+        final int numberOfBatches = 2 * numberOfWorkers + 1;
+        this.free = new ArrayBlockingQueue<Batch>(numberOfBatches);
+        this.work = new ArrayBlockingQueue<Batch>(numberOfBatches + numberOfWorkers);
+        this.completed = new Batch[numberOfBatches];
+        for (int i = 0; i < numberOfBatches; i++) {
+            free.add(new Batch(batchSize));
+        }
+    }
+
+    /**
+     * Processes the records of a parser, ignoring the outputs of the processor.
+     *
+     * @param parser The parser over the records
+     * @return the number of records processed
+     * @throws IOException if the records cannot be parsed or processed
+     */
+    public long run(final FastaParser parser) throws IOException {
+        return run(parser, null, false);
+    }
+
+    /**
+     * Processes the records of a parser and writes the outputs of the processor.
+     *
+     * @param parser        The parser over the records
+     * @param batchOutput   Where the outputs of the batches are written, or null
+     * @param orderedOutput Whether outputs are written in the order of the records, rather
+     *                      than in the order in which batches complete
+     * @return the number of records processed
+     * @throws IOException if the records cannot be parsed or processed, or the outputs
+     *                     cannot be written
+     */
+    public long run(final FastaParser parser, final Writer batchOutput,
+                    final boolean orderedOutput) throws IOException {
+        this.output = batchOutput;
+        this.ordered = orderedOutput;
+        this.nextOutput = 0;
+        this.error = null;
+        final Thread[] workers = new Thread[numberOfWorkers];
+        for (int i = 0; i < numberOfWorkers; i++) {
+            workers[i] = threadFactory.newThread(new Worker());
+            workers[i].start();
+        }
+        long numberOfRecords = 0;
+        // the batch being filled, which goes back to the pool if the parser fails
+        Batch batch = null;
+        try {
+            try {
+                long sequence = 0;
+                while (parser.hasNext() && error == null) {
+                    batch = free.take();
+                    batch.sequence = sequence++;
+                    batch.size = 0;
+                    batch.output.setLength(0);
+                    long residues = 0;
+                    while (parser.hasNext() && batch.size < batch.records.length
+                            && residues < BATCH_RESIDUES) {
+                        final FastaRecord record = batch.records[batch.size++];
+                        parser.next(record.getDescription(), record.getResidues());
+                        residues += record.getResidues().length();
+                    }
+                    numberOfRecords += batch.size;
+                    work.put(batch);
+                    batch = null;
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(e);
+            } finally {
+                if (batch != null) {
+                    free.add(batch);
+                }
+                for (int i = 0; i < numberOfWorkers; i++) {
+                    work.put(end);
+                }
+                for (final Thread worker : workers) {
+                    worker.join();
+                }
+                // workers that failed leave batches and end markers behind
+                Batch left;
+                while ((left = work.poll()) != null) {
+                    if (left != end) {
+                        free.add(left);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing records", e);
+        } finally {
+            this.output = null;
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error != null) {
+            throw new IllegalStateException("Interrupted while processing records", error);
+        }
+        return numberOfRecords;
+    }
+
+    /**
+     * Records the first error, and releases the batches that wait for the batches before
+     * them, since these may never complete.
+     *
+     * @param throwable The error
+     */
+    private void fail(final Throwable throwable) {
+        synchronized (completed) {
+            if (error == null) {
+                error = throwable;
+            }
+            for (int i = 0; i < completed.length; i++) {
+                if (completed[i] != null) {
+                    free.add(completed[i]);
+                    completed[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the output of a processed batch, and of the batches that waited for it in
+     * ordered mode, and returns the batches to the pool.
+     *
+     * @param batch The processed batch
+     */
+    private void complete(final Batch batch) {
+        synchronized (completed) {
+            if (output == null || error != null) {
+                free.add(batch);
+            } else if (!ordered) {
+                write(batch);
+                free.add(batch);
+            } else {
+                completed[slot(batch.sequence)] = batch;
+                Batch next;
+                while (error == null && (next = completed[slot(nextOutput)]) != null) {
+                    completed[slot(nextOutput)] = null;
+                    nextOutput++;
+                    write(next);
+                    free.add(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the output of a batch.
+     *
+     * @param batch The batch
+     */
+    private void write(final Batch batch) {
+        try {
+            batch.output.write(output);
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Returns where a batch waits for the batches before it.
+     *
+     * @param sequence The sequence number of the batch
+     * @return the index of the batch in {@link #completed}
+     */
+    private int slot(final long sequence) {
+        return (int) (sequence % completed.length);
+    }
+
+    /**
+     * Processes batches until it takes the end marker.
+     */
+    private final class Worker implements Runnable {
+        public void run() {
+            try {
+                Batch batch;
+                while ((batch = work.take()) != end) {
+                    if (error == null) {
+                        try {
+                            for (int i = 0; i < batch.size; i++) {
+                                processor.process(batch.records[i], batch.output);
+                            }
+                        } catch (IOException e) {
+                            fail(e);
+                        } catch (RuntimeException e) {
+                            fail(e);
+                        }
+                    }
+                    complete(batch);
+                }
+            } catch (InterruptedException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Records parsed together, with the output of their processing.
+     */
+    private static final class Batch {
+        /**
+         * The records, of which the first {@link #size} are valid.
+         */
+        private final FastaRecord[] records;
+
+        /**
+         * The number of records in the batch.
+         */
+        private int size;
+
+        /**
+         * The position of the batch in the input.
+         */
+        private long sequence;
+
+        /**
+         * The output of the processing of the records.
+         */
+        private final MutableString output = new MutableString();
+
+        /**
+         * Create a batch.
+         *
+         * @param capacity The maximum number of records
+         */
+        Batch(final int capacity) {
+            super();
+            this.records = new FastaRecord[capacity];
+            for (int i = 0; i < capacity; i++) {
+                records[i] = new FastaRecord();
+            }
+        }
+    }
+}
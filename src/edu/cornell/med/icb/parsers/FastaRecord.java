@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+/**
+ * A description line and its residues, as filled by
+ * {@link FastaParser#next(MutableString, MutableString)}.
+ */
+public final class FastaRecord {
+    /**
+     * The raw description line, without the '&gt;'.
+     */
+    private final MutableString description;
+
+    /**
+     * The raw residues.
+     */
+    private final MutableString residues;
+
+    /**
+     * Create an empty record.
+     */
+    public FastaRecord() {
+        this(new MutableString(), new MutableString());
+    }
+
+    /**
+     * Create a record over the given strings. The strings are not copied.
+     *
+     * @param description The raw description line
+     * @param residues    The raw residues
+     */
+    public FastaRecord(final MutableString description, final MutableString residues) {
+        super();
+        this.description = description;
+        this.residues = residues;
+    }
+
+    /**
+     * Returns the raw description line of this record.
+     *
+     * @return the description line, without the '&gt;'
+     */
+    public MutableString getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the raw residues of this record.
+     *
+     * @return the residues
+     */
+    public MutableString getResidues() {
+        return residues;
+    }
+
+    @Override
+    public String toString() {
+        return ">" + description + "\n" + residues;
+    }
+}
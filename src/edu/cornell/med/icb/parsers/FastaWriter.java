@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes FASTA records from the description lines and residues that
+ * {@link FastaParser#next(MutableString, MutableString)} fills. Characters are converted to
+ * bytes straight into a large buffer, which is written to the output when full, so no
+ * encoder, string or array is created per record. Residues are wrapped at a fixed line
+ * width.
+ * <p>
+ * Output files can be compressed with gzip or BGZF, at the fastest compression level, and
+ * a samtools <code>.fai</code> index of the uncompressed data can be built while the
+ * records are written: every line of a record but the last has the same length, so the
+ * index is known without reading the output back. The index of a file is written as the
+ * records are, so that it is never held in memory.
+ * <p>
+ * Characters are written as Latin-1, so description lines and residues should not contain
+ * other characters. Instances are not thread safe.
+ */
+public final class FastaWriter implements Closeable, Flushable {
+    /**
+     * How output files are compressed.
+     */
+    public enum Compression {
+        /**
+         * No compression.
+         */
+        NONE,
+        /**
+         * A single gzip member.
+         */
+        GZIP,
+        /**
+         * Blocked gzip, which {@link BgzfInputStream} reads in parallel.
+         */
+        BGZF
+    }
+
+    /**
+     * The number of residues per line used by default.
+     */
+    public static final int DEFAULT_LINE_WIDTH = 60;
+
+    /**
+     * The number of bytes buffered before they are written to the output.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The compression level of compressed files. Higher levels are much slower on DNA,
+     * with runs of N in particular, for files that are only a few percent smaller.
+     */
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+
+    /**
+     * Where the records are written.
+     */
+    private final OutputStream output;
+
+    /**
+     * The bytes not yet written to the output.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The number of bytes in {@link #buffer}.
+     */
+    private int count;
+
+    /**
+     * The number of bytes written to the output, not counting the bytes in the buffer.
+     */
+    private long flushedBytes;
+
+    /**
+     * The number of residues per line, or zero to write each record on a single line.
+     */
+    private final int lineWidth;
+
+    /**
+     * The index of the records written to a stream, or null.
+     */
+    private final FastaIndex index;
+
+    /**
+     * Where the index of the records written to a file is written, or null.
+     */
+    private final OutputStream indexOutput;
+
+    /**
+     * The current line of the index.
+     */
+    private final MutableString indexLine = new MutableString();
+
+    /**
+     * The bytes of the current line of the index.
+     */
+    private byte[] indexBytes = new byte[256];
+
+    /**
+     * The name of the current record.
+     */
+    private final MutableString name = new MutableString();
+
+    /**
+     * Create a writer that wraps residues at {@link #DEFAULT_LINE_WIDTH}.
+     *
+     * @param output Where the records are written
+     */
+    public FastaWriter(final OutputStream output) {
+        this(output, DEFAULT_LINE_WIDTH, false);
+    }
+
+    /**
+     * Create a writer.
+     *
+     * @param output    Where the records are written
+     * @param lineWidth The number of residues per line, or zero to write each record on a
+     *                  single line
+     * @param indexed   Whether to build an index of the records in memory, see
+     *                  {@link #getIndex()}
+     */
+    public FastaWriter(final OutputStream output, final int lineWidth, final boolean indexed) {
+        this(output, lineWidth, indexed ? new FastaIndex() : null, null);
+    }
+
+    /**
+     * Create a writer to a file.
+     *
+     * @param file        The file to write
+     * @param lineWidth   The number of residues per line, or zero to write each record on a
+     *                    single line
+     * @param compression How the file is compressed
+     * @param indexed     Whether to save an index of the records next to the file, with
+     *                    {@link FastaIndex#EXTENSION} appended to its name. The offsets of
+     *                    the index are offsets in the uncompressed data.
+     * @throws IOException if the file cannot be created
+     */
+    public FastaWriter(final File file, final int lineWidth, final Compression compression,
+                       final boolean indexed) throws IOException {
+        this(open(file, compression), lineWidth, null, indexed ? new BufferedOutputStream(
+                new FileOutputStream(file.getPath() + FastaIndex.EXTENSION), 1 << 16) : null);
+    }
+
+    /**
+     * Create a writer.
+     *
+     * @param output      Where the records are written
+     * @param lineWidth   The number of residues per line, or zero
+     * @param index       The index of the records, or null
+     * @param indexOutput Where the index of the records is written, or null
+     */
+    private FastaWriter(final OutputStream output, final int lineWidth,
+                        final FastaIndex index, final OutputStream indexOutput) {
+        super();
+        if (lineWidth < 0) {
+            throw new IllegalArgumentException("Invalid line width: " + lineWidth);
+        }
+        this.output = output;
+        this.lineWidth = lineWidth;
+        this.index = index;
+        this.indexOutput = indexOutput;
+    }
+
+    /**
+     * Opens a file for writing.
+     *
+     * @param file        The file to write
+     * @param compression How the file is compressed
+     * @return the stream over the file
+     * @throws IOException if the file cannot be created
+     */
+    private static OutputStream open(final File file, final Compression compression)
+            throws IOException {
+        final OutputStream output = new FileOutputStream(file);
+        switch (compression) {
+            case GZIP:
+                return new GZIPOutputStream(output, BUFFER_SIZE) {
+                    {
+                        def.setLevel(COMPRESSION_LEVEL);
+                    }
+                };
+            case BGZF:
+                return new BgzfOutputStream(output, COMPRESSION_LEVEL);
+            default:
+                return output;
+        }
+    }
+
+    /**
+     * Writes a record.
+     *
+     * @param descriptionLine The description line, without the '&gt;'
+     * @param residues        The residues
+     * @throws IOException if the record cannot be written
+     */
+    public void write(final CharSequence descriptionLine, final CharSequence residues)
+            throws IOException {
+        ensureRoom(1);
+        buffer[count++] = '>';
+        writeChars(descriptionLine);
+        ensureRoom(1);
+        buffer[count++] = '\n';
+
+        final int length = residues.length();
+        if (index != null || indexOutput != null) {
+            FastaParser.guessAccessionCode(descriptionLine, name);
+            // as in samtools, the line length is the length of the first line
+            final int lineBases = lineWidth == 0 ? length : Math.min(lineWidth, length);
+            if (index != null) {
+                index.add(new FastaIndex.Entry(name.toString(), length, getBytesWritten(),
+                        lineBases, lineBases + 1));
+            } else {
+                writeIndexLine(length, getBytesWritten(), lineBases);
+            }
+        }
+        final int width = lineWidth == 0 ? BUFFER_SIZE - 1 : lineWidth;
+        final char[] chars = residues instanceof MutableString
+                ? ((MutableString) residues).array() : null;
+        for (int start = 0; start < length; start += width) {
+            final int lineLength = Math.min(width, length - start);
+            ensureRoom(lineLength + 1);
+            final byte[] bytes = buffer;
+            int position = count;
+            if (chars != null) {
+                for (int i = start; i < start + lineLength; i++) {
+                    bytes[position++] = (byte) chars[i];
+                }
+            } else {
+                for (int i = start; i < start + lineLength; i++) {
+                    bytes[position++] = (byte) residues.charAt(i);
+                }
+            }
+            if (lineWidth != 0 || start + lineLength == length) {
+                bytes[position++] = '\n';
+            }
+            count = position;
+        }
+    }
+
+    /**
+     * Returns the number of bytes written so far, before compression.
+     *
+     * @return the offset in the uncompressed output of the next byte to write
+     */
+    public long getBytesWritten() {
+        return flushedBytes + count;
+    }
+
+    /**
+     * Returns the index of the records written so far to a stream.
+     *
+     * @return the index, or null if this writer does not build an index in memory
+     */
+    public FastaIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Writes the buffered bytes to the output and flushes it, and the index file if any.
+     *
+     * @throws IOException if the bytes cannot be written
+     */
+    public void flush() throws IOException {
+        writeBuffer();
+        output.flush();
+        if (indexOutput != null) {
+            indexOutput.flush();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes and closes the output, and the index file if any.
+     *
+     * @throws IOException if the bytes or the index cannot be written
+     */
+    public void close() throws IOException {
+        try {
+            writeBuffer();
+        } finally {
+            try {
+                output.close();
+            } finally {
+                if (indexOutput != null) {
+                    indexOutput.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the index line of a record, whose name is in {@link #name}.
+     *
+     * @param length    The number of residues of the record
+     * @param offset    The offset of the first residue of the record
+     * @param lineBases The number of residues per line
+     * @throws IOException if the line cannot be written
+     */
+    private void writeIndexLine(final int length, final long offset, final int lineBases)
+            throws IOException {
+        final MutableString line = indexLine;
+        line.setLength(0);
+        line.append(name).append('\t').append(length).append('\t').append(offset);
+        line.append('\t').append(lineBases).append('\t').append(lineBases + 1).append('\n');
+        final int size = line.length();
+        if (indexBytes.length < size) {
+            indexBytes = new byte[size * 2];
+        }
+        final char[] chars = line.array();
+        for (int i = 0; i < size; i++) {
+            indexBytes[i] = (byte) chars[i];
+        }
+        indexOutput.write(indexBytes, 0, size);
+    }
+
+    /**
+     * Writes characters without any line break.
+     *
+     * @param chars The characters to write
+     * @throws IOException if the buffer cannot be written
+     */
+    private void writeChars(final CharSequence chars) throws IOException {
+        final int length = chars.length();
+        for (int start = 0; start < length; start += BUFFER_SIZE) {
+            final int n = Math.min(BUFFER_SIZE, length - start);
+            ensureRoom(n);
+            for (int i = 0; i < n; i++) {
+                buffer[count++] = (byte) chars.charAt(start + i);
+            }
+        }
+    }
+
+    /**
+     * Makes room in the buffer, writing it to the output if needed.
+     *
+     * @param size The number of bytes needed, at most the size of the buffer
+     * @throws IOException if the buffer cannot be written
+     */
+    private void ensureRoom(final int size) throws IOException {
+        if (count + size > buffer.length) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the output.
+     *
+     * @throws IOException if the bytes cannot be written
+     */
+    private void writeBuffer() throws IOException {
+        output.write(buffer, 0, count);
+        flushedBytes += count;
+        count = 0;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.io.FastBufferedReader;
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Parse a FASTQ file. This class follows the style of {@link FastaParser}: the header,
+ * bases and quality of each record are written to {@link MutableString}s supplied by the
+ * caller, so that reads can be streamed without creating objects for each record.
+ * <p>
+ * Records may span several lines. The sequence ends at the line that starts with '+', and
+ * the quality ends as soon as it is as long as the sequence, so quality lines that start
+ * with '@' or '+' are read correctly. Blank lines between records are ignored.
+ * <p>
+ * Use {@link #decodeQuality(CharSequence, int, byte[])} to convert the quality characters
+ * to Phred scores.
+ */
+public final class FastqParser {
+    /**
+     * The offset of the quality characters of Sanger and Illumina 1.8+ files.
+     */
+    public static final int SANGER_OFFSET = 33;
+
+    /**
+     * The offset of the quality characters of Illumina 1.3 to 1.7 files.
+     */
+    public static final int ILLUMINA_1_3_OFFSET = 64;
+
+    /**
+     * The highest quality character.
+     */
+    private static final char MAX_QUALITY_CHARACTER = '~';
+
+    /**
+     * The reader used to parse the FASTQ records.
+     */
+    private FastBufferedReader reader;
+
+    /**
+     * Indicates whether or not the reader contains more records.
+     */
+    private boolean hasNext;
+
+    /**
+     * Used to store lines read from the FASTQ reader.
+     */
+    private final MutableString line = new MutableString();
+
+    /**
+     * The header of the next record, without the '@'.
+     */
+    private final MutableString nextHeader = new MutableString();
+
+    /**
+     * The number of lines read so far, used in error messages.
+     */
+    private long lineNumber;
+
+    /**
+     * Create a parser to read reads.
+     *
+     * @param fastqFileSource The reader over the FASTQ formatted data.
+     * @throws IOException if the records cannot be read using the reader
+     */
+    public FastqParser(final Reader fastqFileSource) throws IOException {
+        this();
+        setReader(fastqFileSource);
+    }
+
+    /**
+     * Create a parser to read reads.
+     */
+    public FastqParser() {
+        super();
+    }
+
+    /**
+     * Repositions this reader on a different file/data content.
+     *
+     * @param reader the new reader to use to parse the file
+     * @throws IOException if the records cannot be read using the reader
+     */
+    public void setReader(final Reader reader) throws IOException {
+        if (reader instanceof FastBufferedReader) {
+            this.reader = (FastBufferedReader) reader;
+        } else {
+            this.reader = new FastBufferedReader(reader);
+        }
+        lineNumber = 0;
+        hasNext = readHeader();
+    }
+
+    /**
+     * Returns true if the reader has at least one more record.
+     *
+     * @return True if a call to next will return another record.
+     */
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * Obtain the next record from the reader over the FASTQ formatted content. As with
+     * {@link FastaParser#next(MutableString, MutableString)}, this method returns true until
+     * there is no more record to parse in the input: clients should call it while
+     * {@link #hasNext()} is true. When hasNext() is false, the content of the parameters is
+     * left unchanged.
+     *
+     * @param header  Where the header line will be written, without the '@'.
+     * @param bases   Where the bases of the record will be written.
+     * @param quality Where the quality characters of the record will be written.
+     * @return True if hasNext() is true after reading the record, False otherwise.
+     * @throws IOException if there is a problem reading from the input, or the record is
+     * malformed
+     */
+    public boolean next(final MutableString header, final MutableString bases,
+                        final MutableString quality) throws IOException {
+        if (!hasNext) {
+            return false;
+        }
+        header.replace(nextHeader);
+        bases.setLength(0);
+        while (true) {
+            readRequiredLine();
+            if (line.length() > 0 && line.charAt(0) == '+') {
+                break;
+            }
+            bases.append(line);
+        }
+        quality.setLength(0);
+        while (quality.length() < bases.length()) {
+            readRequiredLine();
+            quality.append(line);
+        }
+        if (quality.length() != bases.length()) {
+            throw new IOException("Malformed FASTQ record " + header + " at line " + lineNumber
+                    + ": " + quality.length() + " quality characters for "
+                    + bases.length() + " bases");
+        }
+        hasNext = readHeader();
+        return hasNext;
+    }
+
+    /**
+     * Converts quality characters to Phred scores.
+     *
+     * @param quality The quality characters
+     * @param offset  The offset of the encoding, {@link #SANGER_OFFSET} or
+     *                {@link #ILLUMINA_1_3_OFFSET}
+     * @param scores  An array to reuse for the scores, or null
+     * @return scores, if it is long enough, otherwise a new array. The first
+     * quality.length() elements are the scores.
+     * @throws IllegalArgumentException if a character is not a valid quality character for
+     * the offset
+     */
+    public static byte[] decodeQuality(final CharSequence quality, final int offset,
+                                       final byte[] scores) {
+        final int length = quality.length();
+        final byte[] result = scores != null && scores.length >= length ? scores
+                : new byte[length];
+        // negative as soon as one character is out of range, checked once at the end
+        int invalid = 0;
+        if (quality instanceof MutableString) {
+            final char[] chars = ((MutableString) quality).array();
+            for (int i = 0; i < length; i++) {
+                final int c = chars[i];
+                invalid |= (c - offset) | (MAX_QUALITY_CHARACTER - c);
+                result[i] = (byte) (c - offset);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                final int c = quality.charAt(i);
+                invalid |= (c - offset) | (MAX_QUALITY_CHARACTER - c);
+                result[i] = (byte) (c - offset);
+            }
+        }
+        if (invalid < 0) {
+            throw new IllegalArgumentException("Malformed quality string for offset " + offset
+                    + ": " + quality);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the header of the next record, skipping blank lines.
+     *
+     * @return true if a header was found, false at the end of the input
+     * @throws IOException if there is a problem reading from the input, or the next line is
+     * not a header
+     */
+    private boolean readHeader() throws IOException {
+        while (reader.readLine(line) != null) {
+            lineNumber++;
+            if (line.length() == 0) {
+                continue;
+            }
+            if (line.charAt(0) != '@') {
+                throw new IOException("Malformed FASTQ record at line " + lineNumber
+                        + ": expected a header starting with '@' but found " + line);
+            }
+            nextHeader.setLength(0);
+            nextHeader.append(line.array(), 1, line.length() - 1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads a line that must be present for the current record to be complete.
+     *
+     * @throws IOException if there is a problem reading from the input, or the input ends
+     */
+    private void readRequiredLine() throws IOException {
+        if (reader.readLine(line) == null) {
+            throw new IOException("Malformed FASTQ record " + nextHeader
+                    + ": truncated at line " + lineNumber);
+        }
+        lineNumber++;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to regions of the sequences of an indexed FASTA file. The byte offsets of
+ * a region are computed from the {@link FastaIndex} of the file, so that extracting a
+ * region reads exactly the bytes of the region, with one positioned read, whatever the
+ * size of the file.
+ */
+public final class IndexedFastaReader implements Closeable {
+    /**
+     * The channel over the FASTA file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The index of the FASTA file.
+     */
+    private final FastaIndex index;
+
+    /**
+     * Holds the bytes of the last region read.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+    /**
+     * Create a reader over a FASTA file. The index is loaded from the <code>.fai</code> file
+     * next to the FASTA file when there is one, and built otherwise.
+     *
+     * @param fastaFile The FASTA file
+     * @throws IOException if the FASTA file or its index cannot be read
+     */
+    public IndexedFastaReader(final File fastaFile) throws IOException {
+        this(fastaFile, loadOrBuildIndex(fastaFile));
+    }
+
+    /**
+     * Create a reader over a FASTA file.
+     *
+     * @param fastaFile The FASTA file
+     * @param index     The index of the FASTA file
+     * @throws IOException if the FASTA file cannot be opened
+     */
+    public IndexedFastaReader(final File fastaFile, final FastaIndex index) throws IOException {
+        super();
+        this.channel = new FileInputStream(fastaFile).getChannel();
+        this.index = index;
+    }
+
+    /**
+     * Returns the index of the FASTA file.
+     *
+     * @return the index used by this reader
+     */
+    public FastaIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Read a whole sequence.
+     *
+     * @param name     The name of the sequence
+     * @param residues Where the residues of the sequence will be written.
+     * @throws IOException if the sequence cannot be read or is not in the index
+     */
+    public void getSequence(final CharSequence name, final MutableString residues)
+            throws IOException {
+        final FastaIndex.Entry entry = getEntry(name);
+        getSubsequence(entry, 0, entry.getLength(), residues);
+    }
+
+    /**
+     * Read a region given in the samtools notation, such as
+     * <code>chr7:55,000,000-55,001,000</code>. Positions are one-based and inclusive, and a
+     * region that only names a sequence designates the whole sequence.
+     *
+     * @param region   The region to read
+     * @param residues Where the residues of the region will be written.
+     * @throws IOException if the region cannot be read or its sequence is not in the index
+     */
+    public void getRegion(final CharSequence region, final MutableString residues)
+            throws IOException {
+        final String text = region.toString();
+        final int colon = text.lastIndexOf(':');
+        if (colon == -1 || index.getEntry(text) != null) {
+            getSequence(text, residues);
+            return;
+        }
+        final FastaIndex.Entry entry = getEntry(text.substring(0, colon));
+        final String range = text.substring(colon + 1).replace(",", "");
+        final int dash = range.indexOf('-');
+        try {
+            final long start = Long.parseLong(dash == -1 ? range : range.substring(0, dash));
+            final long end = dash == -1 || dash == range.length() - 1
+                    ? entry.getLength() : Long.parseLong(range.substring(dash + 1));
+            getSubsequence(entry, start - 1, Math.min(end, entry.getLength()), residues);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed region: " + region);
+        }
+    }
+
+    /**
+     * Read a region of a sequence.
+     *
+     * @param name     The name of the sequence
+     * @param start    The position of the first residue of the region, starting at zero.
+     * @param end      The position after the last residue of the region.
+     * @param residues Where the residues of the region will be written.
+     * @throws IOException if the region cannot be read or the sequence is not in the index
+     */
+    public void getSubsequence(final CharSequence name, final long start, final long end,
+                               final MutableString residues) throws IOException {
+        getSubsequence(getEntry(name), start, end, residues);
+    }
+
+    /**
+     * Read a region of a sequence.
+     *
+     * @param entry    The index entry of the sequence
+     * @param start    The position of the first residue of the region, starting at zero.
+     * @param end      The position after the last residue of the region.
+     * @param residues Where the residues of the region will be written.
+     * @throws IOException if the region cannot be read
+     */
+    public void getSubsequence(final FastaIndex.Entry entry, final long start, final long end,
+                               final MutableString residues) throws IOException {
+        if (start < 0 || end > entry.getLength() || start > end) {
+            throw new IndexOutOfBoundsException("Region " + start + "-" + end
+                    + " is not within " + entry.getName() + " (length " + entry.getLength()
+                    + ")");
+        }
+        residues.setLength(0);
+        if (start == end) {
+            return;
+        }
+        final long from = entry.getOffset(start);
+        final long to = entry.getOffset(end - 1) + 1;
+        final long size = to - from;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Region too large: " + (end - start));
+        }
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate((int) size);
+        }
+        buffer.clear();
+        buffer.limit((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, from + buffer.position()) == -1) {
+                throw new EOFException("FASTA file is shorter than its index");
+            }
+        }
+        final int length = (int) (end - start);
+        residues.ensureCapacity(length);
+        residues.setLength(length);
+        final char[] chars = residues.array();
+        final byte[] bytes = buffer.array();
+        int destIndex = 0;
+        for (int i = 0; i < size; i++) {
+            final byte b = bytes[i];
+            if (b != '\n' && b != '\r') {
+                chars[destIndex++] = (char) (b & 0xFF);
+            }
+        }
+        residues.setLength(destIndex);
+        residues.changed();
+    }
+
+    /**
+     * Closes the FASTA file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the index entry of a sequence.
+     *
+     * @param name The name of the sequence
+     * @return the entry of the sequence
+     */
+    private FastaIndex.Entry getEntry(final CharSequence name) {
+        final FastaIndex.Entry entry = index.getEntry(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("No sequence named " + name + " in the index");
+        }
+        return entry;
+    }
+
+    /**
+     * Loads the index of a FASTA file, or builds it when there is no index file.
+     *
+     * @param fastaFile The FASTA file
+     * @return the index of the FASTA file
+     * @throws IOException if the index cannot be loaded or built
+     */
+    private static FastaIndex loadOrBuildIndex(final File fastaFile) throws IOException {
+        final File indexFile = new File(fastaFile.getPath() + FastaIndex.EXTENSION);
+        if (indexFile.exists()) {
+            return FastaIndex.load(indexFile);
+        } else {
+            return FastaIndex.build(fastaFile);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the k-mer count files written by {@link KmerCounter#write(File)}, in the order of
+ * the file, that is by increasing k-mer.
+ */
+public final class KmerCountReader implements Closeable {
+    /**
+     * The stream over the file.
+     */
+    private final DataInputStream input;
+
+    /**
+     * The length of the k-mers.
+     */
+    private final int k;
+
+    /**
+     * Whether k-mers were counted with their reverse complement.
+     */
+    private final boolean canonical;
+
+    /**
+     * The number of distinct k-mers in the file.
+     */
+    private final long size;
+
+    /**
+     * The number of k-mers read so far.
+     */
+    private long index;
+
+    /**
+     * The current k-mer.
+     */
+    private long kmer;
+
+    /**
+     * The count of the current k-mer.
+     */
+    private long count;
+
+    /**
+     * Open a k-mer count file.
+     *
+     * @param file The file to read
+     * @throws IOException if the file cannot be opened or is not a k-mer count file
+     */
+    public KmerCountReader(final File file) throws IOException {
+        super();
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                1 << 16));
+        if (input.readInt() != KmerCounter.MAGIC || input.readInt() != KmerCounter.VERSION) {
+            input.close();
+            throw new IOException("Malformed k-mer count file " + file);
+        }
+        k = input.readInt();
+        canonical = (input.readInt() & 1) != 0;
+        size = input.readLong();
+    }
+
+    /**
+     * Returns the length of the k-mers.
+     *
+     * @return k
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Returns whether k-mers were counted with their reverse complement.
+     *
+     * @return true for canonical k-mers
+     */
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * Returns the number of distinct k-mers in the file.
+     *
+     * @return the number of k-mers
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Moves to the next k-mer.
+     *
+     * @return false if there is no more k-mer
+     * @throws IOException if the file cannot be read
+     */
+    public boolean next() throws IOException {
+        if (index == size) {
+            return false;
+        }
+        kmer = input.readLong();
+        count = input.readLong();
+        index++;
+        return true;
+    }
+
+    /**
+     * Returns the code of the current k-mer, see {@link KmerCounter#encode(CharSequence)}.
+     *
+     * @return the current k-mer
+     */
+    public long getKmer() {
+        return kmer;
+    }
+
+    /**
+     * Writes the bases of the current k-mer.
+     *
+     * @param destination Where the bases will be written.
+     * @return the destination string
+     */
+    public MutableString getKmer(final MutableString destination) {
+        return KmerCounter.decode(kmer, k, destination);
+    }
+
+    /**
+     * Returns the count of the current k-mer.
+     *
+     * @return the number of occurrences of the k-mer
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        input.close();
+    }
+}
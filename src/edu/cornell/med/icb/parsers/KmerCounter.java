@@ -0,0 +1,998 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the k-mers of nucleotide sequences, for k up to 32. K-mers are encoded with two
+ * bits per base in a long (A=0, C=1, G=2, T=3, the first base in the highest bits),
+ * updated as each base is read. K-mers that contain a base other than A, C, G or T are
+ * skipped. In canonical mode, a k-mer and its reverse complement are counted together,
+ * under the lowest of the two codes.
+ * <p>
+ * K-mers are spread over partitions by hash. Each partition is an open addressing table of
+ * primitive longs owned by one worker thread, so counting needs no lock: the thread that
+ * adds sequences encodes k-mers and hands them to the workers in batches. When a table
+ * reaches its share of the memory budget, it is sorted and spilled to a temporary file.
+ * {@link #write(File)} merges the spilled runs and the tables into a file of k-mers and
+ * counts sorted by k-mer, which can be read with {@link KmerCountReader}.
+ * <p>
+ * Sequences must be added by a single thread.
+ */
+public final class KmerCounter {
+    /**
+     * The largest k supported.
+     */
+    public static final int MAX_K = 32;
+
+    /**
+     * The first int of k-mer count files, "SQKM".
+     */
+    static final int MAGIC = 0x53514B4D;
+
+    /**
+     * The version of the layout of k-mer count files.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The offset of the number of k-mers in the header of k-mer count files.
+     */
+    static final int SIZE_OFFSET = 16;
+
+    /**
+     * The two bits code of each ASCII character, or -1 for characters that are not A, C, G
+     * or T.
+     */
+    private static final byte[] CODES = new byte[128];
+
+    /**
+     * The bases, in the order of their codes.
+     */
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * The number of k-mers in a batch handed to a worker.
+     */
+    private static final int BATCH_SIZE = 4096;
+
+    /**
+     * The initial number of slots of a partition table.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    /**
+     * The number of bytes used by a slot of a partition table: a long k-mer and an int
+     * count.
+     */
+    private static final int BYTES_PER_SLOT = 12;
+
+    /**
+     * Handed to a worker to stop it.
+     */
+    private static final Batch END = new Batch();
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (byte code = 0; code < BASES.length; code++) {
+            CODES[BASES[code]] = code;
+            CODES[Character.toLowerCase(BASES[code])] = code;
+        }
+    }
+
+    /**
+     * The length of the k-mers.
+     */
+    private final int k;
+
+    /**
+     * Whether k-mers are counted with their reverse complement.
+     */
+    private final boolean canonical;
+
+    /**
+     * The bits used by a k-mer.
+     */
+    private final long mask;
+
+    /**
+     * The base 2 logarithm of the number of partitions.
+     */
+    private final int partitionBits;
+
+    /**
+     * The partition tables.
+     */
+    private final Partition[] partitions;
+
+    /**
+     * The batch being filled for each partition.
+     */
+    private final Batch[] batches;
+
+    /**
+     * The batches ready to be filled. Waiting for a free batch slows down the thread that
+     * adds sequences when the workers fall behind.
+     */
+    private final BlockingQueue<Batch> freeBatches;
+
+    /**
+     * The batches to count, for each worker.
+     */
+    private final List<BlockingQueue<Batch>> workQueues = new ArrayList<BlockingQueue<Batch>>();
+
+    /**
+     * The worker threads.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The completion of each worker.
+     */
+    private final List<Future<?>> workers = new ArrayList<Future<?>>();
+
+    /**
+     * Where spilled runs are written, or null for the default temporary directory.
+     */
+    private final File temporaryDirectory;
+
+    /**
+     * The error raised by a worker, reported to the thread that adds sequences.
+     */
+    private volatile Exception error;
+
+    /**
+     * The forward encoding of the last k bases.
+     */
+    private long forward;
+
+    /**
+     * The encoding of the reverse complement of the last k bases.
+     */
+    private long reverse;
+
+    /**
+     * The number of consecutive A, C, G or T read, up to k.
+     */
+    private int validBases;
+
+    /**
+     * The number of k-mers added.
+     */
+    private long numberOfKmers;
+
+    /**
+     * Whether {@link #write(File)} was called.
+     */
+    private boolean finished;
+
+    /**
+     * Create a counter that uses all the processors and a quarter of the maximum heap.
+     *
+     * @param k         The length of the k-mers, from 1 to {@link #MAX_K}
+     * @param canonical Whether k-mers are counted with their reverse complement
+     */
+    public KmerCounter(final int k, final boolean canonical) {
+        this(k, canonical, Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().maxMemory() / 4, null);
+    }
+
+    /**
+     * Create a counter.
+     *
+     * @param k                  The length of the k-mers, from 1 to {@link #MAX_K}
+     * @param canonical          Whether k-mers are counted with their reverse complement
+     * @param numberOfThreads    The number of threads that count k-mers
+     * @param memoryBudget       The number of bytes the tables may use before they are
+     *                           spilled to disk
+     * @param temporaryDirectory Where spilled tables are written, null for the default
+     *                           temporary directory
+     */
+    public KmerCounter(final int k, final boolean canonical, final int numberOfThreads,
+                       final long memoryBudget, final File temporaryDirectory) {
+        super();
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException("k must be between 1 and " + MAX_K + ": " + k);
+        }
+        if (numberOfThreads <= 0) {
+            throw new IllegalArgumentException("numberOfThreads must be positive");
+        }
+        this.k = k;
+        this.canonical = canonical;
+        this.mask = k == MAX_K ? -1L : (1L << (2 * k)) - 1;
+        this.temporaryDirectory = temporaryDirectory;
+
+        // several partitions per thread, so that a skewed partition does not stall a thread
+        int bits = 0;
+        while ((1 << bits) < 4 * numberOfThreads) {
+            bits++;
+        }
+        this.partitionBits = bits;
+        final int numberOfPartitions = 1 << bits;
+        int maxCapacity = INITIAL_CAPACITY;
+        while ((long) maxCapacity * 2 * BYTES_PER_SLOT * numberOfPartitions <= memoryBudget
+                && maxCapacity < 1 << 30) {
+            maxCapacity *= 2;
+        }
+        this.partitions = new Partition[numberOfPartitions];
+        for (int i = 0; i < numberOfPartitions; i++) {
+            partitions[i] = new Partition(maxCapacity);
+        }
+
+        this.batches = new Batch[numberOfPartitions];
+        final int numberOfBatches = 2 * numberOfPartitions + 4 * numberOfThreads;
+        this.freeBatches = new ArrayBlockingQueue<Batch>(numberOfBatches);
+        for (int i = 0; i < numberOfBatches; i++) {
+            freeBatches.add(new Batch());
+        }
+        this.executor = Executors.newFixedThreadPool(numberOfThreads,
+                new ParallelFastaParser.DaemonThreadFactory("KmerCounter"));
+        for (int i = 0; i < numberOfThreads; i++) {
+            final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(numberOfBatches + 1);
+            workQueues.add(queue);
+            workers.add(executor.submit(new Worker(queue)));
+        }
+    }
+
+    /**
+     * Returns the length of the k-mers.
+     *
+     * @return k
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Returns whether k-mers are counted with their reverse complement.
+     *
+     * @return true for canonical k-mers
+     */
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * Returns the number of k-mers added so far.
+     *
+     * @return the number of k-mers, counting repeats
+     */
+    public long getNumberOfKmers() {
+        return numberOfKmers;
+    }
+
+    /**
+     * Adds the k-mers of a sequence.
+     *
+     * @param bases The bases of the sequence
+     * @throws IOException if a table cannot be spilled to disk
+     */
+    public void add(final CharSequence bases) throws IOException {
+        checkNotFinished();
+        validBases = 0;
+        final int length = bases.length();
+        for (int i = 0; i < length; i++) {
+            addBase(bases.charAt(i));
+        }
+    }
+
+    /**
+     * Adds the k-mers of a sequence read from a reader, such as the base reader of a
+     * {@link ReaderFastaParser}. The sequence is never held in memory.
+     *
+     * @param reader The reader over the bases of the sequence
+     * @throws IOException if the reader fails or a table cannot be spilled to disk
+     */
+    public void add(final Reader reader) throws IOException {
+        checkNotFinished();
+        validBases = 0;
+        final char[] buffer = new char[1 << 14];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+            for (int i = 0; i < count; i++) {
+                addBase(buffer[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the k-mers of all the remaining sequences of a parser.
+     *
+     * @param parser The parser over the sequences
+     * @return the number of sequences added
+     * @throws IOException if the parser fails or a table cannot be spilled to disk
+     */
+    public long addAll(final ReaderFastaParser parser) throws IOException {
+        final MutableString description = new MutableString();
+        long count = 0;
+        while (parser.hasNextSequence()) {
+            parser.nextSequence(description);
+            add(parser.getBaseReader());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the k-mers added so far and writes them, sorted by k-mer, with their counts.
+     * The counter cannot be used after this method is called. The file starts with a header
+     * (magic, version, k, flags, number of k-mers), followed by a k-mer and a count, both
+     * longs, for each distinct k-mer. K-mers are sorted as unsigned numbers.
+     *
+     * @param output Where to write the counts
+     * @return the number of distinct k-mers
+     * @throws IOException if the counts cannot be written
+     */
+    public long write(final File output) throws IOException {
+        checkNotFinished();
+        finished = true;
+        final List<RunSource> sources = new ArrayList<RunSource>();
+        try {
+            for (int i = 0; i < batches.length; i++) {
+                if (batches[i] != null) {
+                    submit(i);
+                }
+            }
+            for (final BlockingQueue<Batch> queue : workQueues) {
+                queue.add(END);
+            }
+            for (final Future<?> worker : workers) {
+                waitFor(worker);
+            }
+            for (final Partition partition : partitions) {
+                sources.addAll(partition.runs);
+                sources.add(partition);
+            }
+            checkError();
+            for (final Partition partition : partitions) {
+                partition.sortTable();
+            }
+            return merge(sources, output);
+        } finally {
+            executor.shutdownNow();
+            for (final RunSource source : sources) {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * Encodes a k-mer.
+     *
+     * @param kmer The bases of the k-mer, A, C, G or T, at most {@link #MAX_K} of them
+     * @return the code of the k-mer
+     */
+    public static long encode(final CharSequence kmer) {
+        if (kmer.length() > MAX_K) {
+            throw new IllegalArgumentException("k-mers are limited to " + MAX_K + " bases");
+        }
+        long code = 0;
+        for (int i = 0; i < kmer.length(); i++) {
+            final char base = kmer.charAt(i);
+            final int baseCode = base < CODES.length ? CODES[base] : -1;
+            if (baseCode < 0) {
+                throw new IllegalArgumentException("Not a base: " + base);
+            }
+            code = code << 2 | baseCode;
+        }
+        return code;
+    }
+
+    /**
+     * Decodes a k-mer.
+     *
+     * @param code        The code of the k-mer
+     * @param k           The length of the k-mer
+     * @param destination Where the bases of the k-mer will be written.
+     * @return the destination string
+     */
+    public static MutableString decode(final long code, final int k,
+                                       final MutableString destination) {
+        destination.setLength(k);
+        final char[] chars = destination.array();
+        for (int i = 0; i < k; i++) {
+            chars[i] = BASES[(int) (code >>> (2 * (k - 1 - i))) & 3];
+        }
+        destination.changed();
+        return destination;
+    }
+
+    /**
+     * Returns the code of the reverse complement of a k-mer.
+     *
+     * @param code The code of the k-mer
+     * @param k    The length of the k-mer
+     * @return the code of the reverse complement
+     */
+    public static long reverseComplement(final long code, final int k) {
+        long result = 0;
+        long remaining = code;
+        for (int i = 0; i < k; i++) {
+            result = result << 2 | (3 - (remaining & 3));
+            remaining >>>= 2;
+        }
+        return result;
+    }
+
+    /**
+     * Rolls the encoding over one more base, and adds the k-mer that ends with it.
+     *
+     * @param base The base
+     * @throws IOException if a worker failed
+     */
+    private void addBase(final char base) throws IOException {
+        final int code = base < CODES.length ? CODES[base] : -1;
+        if (code < 0) {
+            validBases = 0;
+            return;
+        }
+        forward = (forward << 2 | code) & mask;
+        reverse = reverse >>> 2 | (long) (3 - code) << (2 * (k - 1));
+        if (validBases < k) {
+            validBases++;
+            if (validBases < k) {
+                return;
+            }
+        }
+        final long kmer = canonical && unsignedLess(reverse, forward) ? reverse : forward;
+        final int partition = (int) (mix(kmer) >>> (64 - partitionBits));
+        Batch batch = batches[partition];
+        if (batch == null) {
+            batch = takeBatch();
+            batch.partition = partition;
+            batches[partition] = batch;
+        }
+        batch.kmers[batch.size++] = kmer;
+        numberOfKmers++;
+        if (batch.size == BATCH_SIZE) {
+            submit(partition);
+        }
+    }
+
+    /**
+     * Hands the batch of a partition to the worker that owns the partition.
+     *
+     * @param partition The partition
+     * @throws IOException if a worker failed
+     */
+    private void submit(final int partition) throws IOException {
+        checkError();
+        workQueues.get(partition % workQueues.size()).add(batches[partition]);
+        batches[partition] = null;
+    }
+
+    /**
+     * Waits for a free batch.
+     *
+     * @return the batch
+     * @throws IOException if interrupted
+     */
+    private Batch takeBatch() throws IOException {
+        try {
+            return freeBatches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting k-mers");
+        }
+    }
+
+    /**
+     * Waits for a worker to stop.
+     *
+     * @param worker The worker
+     * @throws IOException if interrupted
+     */
+    private void waitFor(final Future<?> worker) throws IOException {
+        try {
+            worker.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting k-mers");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot count k-mers", e.getCause());
+        }
+    }
+
+    /**
+     * Reports the error of a worker, if any.
+     *
+     * @throws IOException the error of a worker, if it is an IOException
+     */
+    private void checkError() throws IOException {
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw (RuntimeException) error;
+        }
+    }
+
+    /**
+     * Checks that {@link #write(File)} has not been called.
+     */
+    private void checkNotFinished() {
+        if (finished) {
+            throw new IllegalStateException("The counts have already been written");
+        }
+    }
+
+    /**
+     * Merges sorted runs into a k-mer count file.
+     *
+     * @param sources The sorted runs
+     * @param output  Where to write the counts
+     * @return the number of distinct k-mers
+     * @throws IOException if a run cannot be read or the file cannot be written
+     */
+    private long merge(final List<RunSource> sources, final File output) throws IOException {
+        // a binary heap of the sources, ordered by their current k-mer
+        final RunSource[] heap = new RunSource[sources.size()];
+        int heapSize = 0;
+        for (final RunSource source : sources) {
+            if (source.next()) {
+                heap[heapSize++] = source;
+                siftUp(heap, heapSize - 1);
+            }
+        }
+        final DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(output), 1 << 16));
+        long distinct = 0;
+        try {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeInt(k);
+            stream.writeInt(canonical ? 1 : 0);
+            stream.writeLong(0);
+            while (heapSize > 0) {
+                final long kmer = heap[0].key;
+                long count = 0;
+                while (heapSize > 0 && heap[0].key == kmer) {
+                    count += heap[0].count;
+                    if (heap[0].next()) {
+                        siftDown(heap, heapSize, 0);
+                    } else {
+                        heap[0] = heap[--heapSize];
+                        siftDown(heap, heapSize, 0);
+                    }
+                }
+                stream.writeLong(kmer);
+                stream.writeLong(count);
+                distinct++;
+            }
+        } finally {
+            stream.close();
+        }
+        final RandomAccessFile file = new RandomAccessFile(output, "rw");
+        try {
+            file.seek(SIZE_OFFSET);
+            file.writeLong(distinct);
+        } finally {
+            file.close();
+        }
+        return distinct;
+    }
+
+    /**
+     * Restores the heap order after the key of an element decreased.
+     *
+     * @param heap  The heap
+     * @param index The index of the element
+     */
+    private static void siftUp(final RunSource[] heap, final int index) {
+        int i = index;
+        final RunSource source = heap[i];
+        while (i > 0 && unsignedLess(source.key, heap[(i - 1) >>> 1].key)) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = source;
+    }
+
+    /**
+     * Restores the heap order after the key of an element increased.
+     *
+     * @param heap  The heap
+     * @param size  The number of elements of the heap
+     * @param index The index of the element
+     */
+    private static void siftDown(final RunSource[] heap, final int size, final int index) {
+        if (size == 0) {
+            return;
+        }
+        int i = index;
+        final RunSource source = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && unsignedLess(heap[child + 1].key, heap[child].key)) {
+                child++;
+            }
+            if (!unsignedLess(heap[child].key, source.key)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = source;
+    }
+
+    /**
+     * Compares two longs as unsigned numbers.
+     *
+     * @param a A number
+     * @param b Another number
+     * @return true if a is lower than b as unsigned numbers
+     */
+    static boolean unsignedLess(final long a, final long b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * Scrambles the bits of a k-mer, with the finalizer of MurmurHash3.
+     *
+     * @param kmer The k-mer
+     * @return the hash of the k-mer
+     */
+    private static long mix(final long kmer) {
+        long hash = kmer;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * K-mers of one partition, handed from the thread that adds sequences to a worker.
+     */
+    private static final class Batch {
+        /**
+         * The partition of the k-mers.
+         */
+        private int partition;
+
+        /**
+         * The k-mers.
+         */
+        private final long[] kmers = new long[BATCH_SIZE];
+
+        /**
+         * The number of k-mers.
+         */
+        private int size;
+    }
+
+    /**
+     * Counts the batches of the partitions owned by one thread.
+     */
+    private final class Worker implements Runnable {
+        /**
+         * The batches to count.
+         */
+        private final BlockingQueue<Batch> queue;
+
+        Worker(final BlockingQueue<Batch> queue) {
+            super();
+            this.queue = queue;
+        }
+
+        public void run() {
+            try {
+                Batch batch;
+                while ((batch = queue.take()) != END) {
+                    if (error == null) {
+                        try {
+                            final Partition partition = partitions[batch.partition];
+                            for (int i = 0; i < batch.size; i++) {
+                                partition.increment(batch.kmers[i]);
+                            }
+                        } catch (IOException e) {
+                            // keep recycling batches, so that the producer is not blocked
+                            error = e;
+                        } catch (RuntimeException e) {
+                            error = e;
+                        }
+                    }
+                    batch.size = 0;
+                    freeBatches.add(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A sorted sequence of k-mers and counts.
+     */
+    private abstract static class RunSource {
+        /**
+         * The current k-mer.
+         */
+        protected long key;
+
+        /**
+         * The count of the current k-mer.
+         */
+        protected long count;
+
+        /**
+         * Moves to the next k-mer.
+         *
+         * @return false if there is no more k-mer
+         * @throws IOException if the run cannot be read
+         */
+        abstract boolean next() throws IOException;
+
+        /**
+         * Releases the resources of the run.
+         */
+        abstract void close();
+    }
+
+    /**
+     * A run spilled to a temporary file.
+     */
+    private static final class FileRun extends RunSource {
+        /**
+         * The temporary file.
+         */
+        private final File file;
+
+        /**
+         * The stream over the file, or null before the first k-mer.
+         */
+        private DataInputStream input;
+
+        FileRun(final File file) {
+            super();
+            this.file = file;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (input == null) {
+                input = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), 1 << 16));
+            }
+            try {
+                key = input.readLong();
+                count = input.readInt();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        void close() {
+            try {
+                if (input != null) {
+                    input.close();
+                }
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            file.delete();
+        }
+    }
+
+    /**
+     * An open addressing table of k-mer counts. Once counting is over, the table is sorted
+     * in place and becomes the last run of its partition.
+     */
+    private final class Partition extends RunSource {
+        /**
+         * The number of slots above which the table is spilled instead of growing.
+         */
+        private final int maxCapacity;
+
+        /**
+         * The k-mer of each slot. Zero marks empty slots; the count of the zero k-mer is
+         * kept in {@link #zeroCount}.
+         */
+        private long[] keys = new long[INITIAL_CAPACITY];
+
+        /**
+         * The count of each slot.
+         */
+        private int[] counts = new int[INITIAL_CAPACITY];
+
+        /**
+         * The count of the zero k-mer, AAA...A.
+         */
+        private int zeroCount;
+
+        /**
+         * The number of non-empty slots.
+         */
+        private int size;
+
+        /**
+         * The runs spilled to disk.
+         */
+        private final List<FileRun> runs = new ArrayList<FileRun>();
+
+        /**
+         * Once sorted, the index of the current k-mer, or -1 before the zero k-mer.
+         */
+        private int cursor = -2;
+
+        Partition(final int maxCapacity) {
+            super();
+            this.maxCapacity = maxCapacity;
+        }
+
+        /**
+         * Adds one to the count of a k-mer.
+         *
+         * @param kmer The k-mer
+         * @throws IOException if the table must be spilled and cannot be
+         */
+        void increment(final long kmer) throws IOException {
+            if (kmer == 0) {
+                if (++zeroCount == Integer.MAX_VALUE) {
+                    spill();
+                }
+                return;
+            }
+            final int slotMask = keys.length - 1;
+            int slot = (int) mix(kmer) & slotMask;
+            long current;
+            while ((current = keys[slot]) != 0) {
+                if (current == kmer) {
+                    if (++counts[slot] == Integer.MAX_VALUE) {
+                        spill();
+                    }
+                    return;
+                }
+                slot = (slot + 1) & slotMask;
+            }
+            keys[slot] = kmer;
+            counts[slot] = 1;
+            if (++size > keys.length * 3 / 4) {
+                if (keys.length < maxCapacity) {
+                    rehash(keys.length * 2);
+                } else {
+                    spill();
+                }
+            }
+        }
+
+        /**
+         * Moves the k-mers to a larger table.
+         *
+         * @param capacity The number of slots of the new table
+         */
+        private void rehash(final int capacity) {
+            final long[] oldKeys = keys;
+            final int[] oldCounts = counts;
+            keys = new long[capacity];
+            counts = new int[capacity];
+            final int slotMask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = (int) mix(oldKeys[i]) & slotMask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & slotMask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        /**
+         * Writes the table, sorted, to a temporary file and empties the table.
+         *
+         * @throws IOException if the file cannot be written
+         */
+        private void spill() throws IOException {
+            sortTable();
+            final File file = File.createTempFile("squil-kmers", ".run", temporaryDirectory);
+            final FileRun run = new FileRun(file);
+            runs.add(run);
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), 1 << 16));
+            try {
+                if (zeroCount > 0) {
+                    output.writeLong(0);
+                    output.writeInt(zeroCount);
+                }
+                for (int i = 0; i < size; i++) {
+                    output.writeLong(keys[i]);
+                    output.writeInt(counts[i]);
+                }
+            } finally {
+                output.close();
+            }
+            Arrays.fill(keys, 0L);
+            size = 0;
+            zeroCount = 0;
+            cursor = -2;
+        }
+
+        /**
+         * Moves the non-empty slots to the start of the table and sorts them by k-mer. The
+         * table can no longer be used for counting afterwards, until it is cleared.
+         */
+        void sortTable() {
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    // flip the sign bit so that the signed sort orders k-mers as unsigned
+                    keys[n] = keys[i] ^ Long.MIN_VALUE;
+                    counts[n] = counts[i];
+                    n++;
+                }
+            }
+            Sorting.sort(keys, null, counts, 0, n);
+            for (int i = 0; i < n; i++) {
+                keys[i] ^= Long.MIN_VALUE;
+            }
+            cursor = zeroCount > 0 ? -2 : -1;
+        }
+
+        @Override
+        boolean next() {
+            cursor++;
+            if (cursor == -1) {
+                key = 0;
+                count = zeroCount;
+                return true;
+            }
+            if (cursor < size) {
+                key = keys[cursor];
+                count = counts[cursor];
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        void close() {
+            keys = null;
+            counts = null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only sequence of Latin-1 characters backed by a memory mapped file, one byte per
+ * character. This is how {@link FastaParser} returns records that are too large to be held
+ * on the heap, and how {@link SequenceCache} returns records without copying them.
+ */
+final class MappedCharSequence implements CharSequence {
+    /**
+     * The characters.
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * The index in {@link #bytes} of the first character.
+     */
+    private final int offset;
+
+    /**
+     * The number of characters.
+     */
+    private final int length;
+
+    /**
+     * Create a view of a range of bytes.
+     *
+     * @param bytes  The characters
+     * @param offset The index of the first character
+     * @param length The number of characters
+     */
+    MappedCharSequence(final ByteBuffer bytes, final int offset, final int length) {
+        super();
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Maps a file of Latin-1 characters. The file can be deleted once mapped.
+     *
+     * @param file The file to map
+     * @return the characters of the file
+     * @throws IOException if the file cannot be mapped or is larger than 2 GB
+     */
+    static MappedCharSequence map(final File file) throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            final long size = input.length();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to be mapped: " + file);
+            }
+            return new MappedCharSequence(
+                    input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size), 0,
+                    (int) size);
+        } finally {
+            input.close();
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(final int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index
+                    + " is not within a sequence of length " + length);
+        }
+        return (char) (bytes.get(offset + index) & 0xFF);
+    }
+
+    public CharSequence subSequence(final int start, final int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Invalid range " + start + "-" + end
+                    + " of a sequence of length " + length);
+        }
+        return new MappedCharSequence(bytes, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (bytes.get(offset + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+}
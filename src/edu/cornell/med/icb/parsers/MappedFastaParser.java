@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Parse a FASTA file by mapping it in memory. In contrast to {@link FastaParser}, this
+ * parser works directly on the bytes of the file: it looks for '&gt;' and newline
+ * characters in the raw ASCII content and never runs a charset decoder. Files larger
+ * than 2 GB are mapped one window at a time, and records may span windows.
+ * <p>
+ * Lines end with '\n', '\r' or "\r\n", as with {@link FastaParser}, so both parsers split
+ * files into the same records.
+ * <p>
+ * Residues can be obtained either as a {@link MutableString}, exactly as with
+ * {@link FastaParser#next(MutableString, MutableString)}, or as a
+ * {@link MutableByteString}, which stores one byte per residue instead of two.
+ * <p>
+ * A parser can also be restricted to the records whose description line starts within a
+ * range of bytes of the file. Ranges that partition a file yield each record exactly
+ * once, so that a large file can be parsed by several parsers in parallel, see
+ * {@link ParallelFastaParser}.
+ * <p>
+ * The file must not be compressed: gzip and BGZF files are rejected, and can be parsed
+ * with a {@link FastaParser} over {@link SequenceInputs#openReader(File)}.
+ */
+public final class MappedFastaParser implements Closeable {
+    /**
+     * The default number of bytes mapped at once.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    /**
+     * The channel over the FASTA formatted data.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Whether this parser opened the channel and must close it.
+     */
+    private final boolean ownsChannel;
+
+    /**
+     * The offset after the last byte of the input.
+     */
+    private final long size;
+
+    /**
+     * Records whose description line starts at or after this offset are not parsed.
+     */
+    private final long end;
+
+    /**
+     * The maximum number of bytes mapped at once.
+     */
+    private final int windowSize;
+
+    /**
+     * The currently mapped region of the file.
+     */
+    private MappedByteBuffer window;
+
+    /**
+     * The offset in the file of the first byte of {@link #window}.
+     */
+    private long windowStart;
+
+    /**
+     * The offset in the file of the next byte to parse.
+     */
+    private long position;
+
+    /**
+     * Indicates whether or not the file contains more sequences.
+     */
+    private boolean hasNext;
+
+    /**
+     * The description line previously seen in the file, without the '&gt;'.
+     */
+    private final MutableByteString previousDescriptionLine = new MutableByteString(128);
+
+    /**
+     * Create a parser over a FASTA file.
+     *
+     * @param file The FASTA file to parse.
+     * @throws IOException if the file cannot be opened or read, or is compressed
+     */
+    public MappedFastaParser(final File file) throws IOException {
+        this(new FileInputStream(file).getChannel(), true, 0, Long.MAX_VALUE,
+                DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a parser over a channel. The channel is parsed from its beginning, and is not
+     * closed by {@link #close()}.
+     *
+     * @param channel The channel over the FASTA formatted data.
+     * @throws IOException if the channel cannot be read
+     */
+    public MappedFastaParser(final FileChannel channel) throws IOException {
+        this(channel, false, 0, Long.MAX_VALUE, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a parser over a channel, mapping at most windowSize bytes at once.
+     *
+     * @param channel    The channel over the FASTA formatted data.
+     * @param windowSize The maximum number of bytes to map at once.
+     * @throws IOException if the channel cannot be read
+     */
+    public MappedFastaParser(final FileChannel channel, final int windowSize)
+            throws IOException {
+        this(channel, false, 0, Long.MAX_VALUE, windowSize);
+    }
+
+    /**
+     * Create a parser over the records of a channel whose description line starts at or
+     * after start and before end. The last record may extend past end. The channel is not
+     * closed by {@link #close()}.
+     *
+     * @param channel    The channel over the FASTA formatted data.
+     * @param start      The offset of the first byte of the range.
+     * @param end        The offset after the last byte of the range.
+     * @param windowSize The maximum number of bytes to map at once.
+     * @throws IOException if the channel cannot be read
+     */
+    public MappedFastaParser(final FileChannel channel, final long start, final long end,
+                             final int windowSize) throws IOException {
+        this(channel, false, start, end, windowSize);
+    }
+
+    /**
+     * Create a parser over a range of a channel.
+     *
+     * @param channel     The channel over the FASTA formatted data.
+     * @param ownsChannel Whether {@link #close()} must close the channel.
+     * @param start       The offset of the first byte of the range.
+     * @param end         The offset after the last byte of the range.
+     * @param windowSize  The maximum number of bytes to map at once.
+     * @throws IOException if the channel cannot be read
+     */
+    private MappedFastaParser(final FileChannel channel, final boolean ownsChannel,
+                              final long start, final long end, final int windowSize)
+            throws IOException {
+        super();
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+        }
+        if (start < 0 || start > end) {
+            throw new IllegalArgumentException("Invalid range: " + start + "-" + end);
+        }
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.windowSize = windowSize;
+        this.size = channel.size();
+        this.end = Math.min(end, size);
+        this.position = Math.min(start, size);
+        checkNotCompressed();
+        if (position > 0) {
+            // a record starts in the range only if its '>' is the first byte of a line
+            position--;
+            skipLine();
+        }
+        hasNext = readNextDescriptionLine();
+    }
+
+    /**
+     * Checks that the channel does not hold gzip data, which would otherwise be parsed as
+     * text without any record.
+     *
+     * @throws IOException if the channel cannot be read, or holds gzip data
+     */
+    private void checkNotCompressed() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(3);
+        while (header.hasRemaining() && channel.read(header, header.position()) != -1) {
+            // positional reads do not move the channel
+        }
+        if (BgzfInputStream.isGzip(header.array(), header.position())) {
+            if (ownsChannel) {
+                channel.close();
+            }
+            throw new IOException("Cannot map compressed data, use a FastaParser over "
+                    + "SequenceInputs.openReader");
+        }
+    }
+
+    /**
+     * Returns true if the file has at least one more sequence.
+     *
+     * @return True if a call to next will return another sequence.
+     */
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * Obtain the next sequence from the file. This method has the same contract as
+     * {@link FastaParser#next(MutableString, MutableString)}.
+     *
+     * @param descriptionLine Where the raw description line will be written.
+     * @param residues        When the raw residue lines will be written.
+     * @return True if hasNext() is true, False otherwise.
+     * @throws IOException if there is a problem reading from the input
+     */
+    public boolean next(final MutableString descriptionLine,
+                        final MutableString residues) throws IOException {
+        if (!hasNext) {
+            return false;
+        } else {
+            previousDescriptionLine.toMutableString(descriptionLine);
+            residues.setLength(0);
+            return readResidues(null, residues);
+        }
+    }
+
+    /**
+     * Obtain the next sequence from the file, storing residues as bytes.
+     * This method returns true until there is no more sequence to parse in the input. When the
+     * method returns false, the content of the parameters descriptionLine and residues is
+     * unspecified.
+     *
+     * @param descriptionLine Where the raw description line will be written.
+     * @param residues        When the raw residue lines will be written.
+     * @return True if hasNext() is true, False otherwise.
+     * @throws IOException if there is a problem reading from the input
+     */
+    public boolean next(final MutableString descriptionLine,
+                        final MutableByteString residues) throws IOException {
+        if (!hasNext) {
+            return false;
+        } else {
+            previousDescriptionLine.toMutableString(descriptionLine);
+            residues.setLength(0);
+            return readResidues(residues, null);
+        }
+    }
+
+    /**
+     * Releases the channel if this parser opened it.
+     *
+     * @throws IOException if the channel cannot be closed
+     */
+    public void close() throws IOException {
+        window = null;
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Skip lines until the next description line or end of file is found.
+     *
+     * @return true if another description line was found, false otherwise
+     * @throws IOException if there was a problem with the channel
+     */
+    private boolean readNextDescriptionLine() throws IOException {
+        while (position < size) {
+            if (position >= end) {
+                return false;
+            }
+            if (currentByte() == '>') {
+                position++;
+                previousDescriptionLine.setLength(0);
+                readLine(previousDescriptionLine, null);
+                return true;
+            }
+            skipLine();
+        }
+        return false;
+    }
+
+    /**
+     * Read and store the residues from the current sequence. Exactly one of bytes and
+     * chars must be non null.
+     *
+     * @param bytes Where to store the residue sequence as bytes.
+     * @param chars Where to store the residue sequence as chars.
+     * @return true if there are more sequences left after getting the current sequence
+     * @throws IOException if there is a problem reading the sequence
+     */
+    private boolean readResidues(final MutableByteString bytes, final MutableString chars)
+            throws IOException {
+        while (position < size) {
+            if (currentByte() == '>') {
+                if (position >= end) {
+                    break;
+                }
+                position++;
+                previousDescriptionLine.setLength(0);
+                readLine(previousDescriptionLine, null);
+                return hasNext;
+            }
+            readLine(bytes, chars);
+        }
+        hasNext = false;
+        return hasNext;
+    }
+
+    /**
+     * Returns the byte at {@link #position}, mapping the window that contains it if needed.
+     *
+     * @return the byte at the current position
+     * @throws IOException if the channel cannot be mapped
+     */
+    private byte currentByte() throws IOException {
+        mapWindow();
+        return window.get((int) (position - windowStart));
+    }
+
+    /**
+     * Makes sure {@link #window} contains the byte at {@link #position}.
+     *
+     * @throws IOException if the channel cannot be mapped
+     */
+    private void mapWindow() throws IOException {
+        if (window == null || position < windowStart
+                || position >= windowStart + window.limit()) {
+            final long length = Math.min(windowSize, size - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = position;
+        }
+    }
+
+    /**
+     * Appends the line that starts at {@link #position} to bytes or chars, without its
+     * terminator, and moves past the end of the line. Lines end with '\n', '\r' or
+     * "\r\n".
+     *
+     * @param bytes Where to append the line as bytes, or null.
+     * @param chars Where to append the line as chars, or null.
+     * @throws IOException if the channel cannot be read
+     */
+    private void readLine(final MutableByteString bytes, final MutableString chars)
+            throws IOException {
+        while (position < size) {
+            mapWindow();
+            final int from = (int) (position - windowStart);
+            final int limit = window.limit();
+            final int lineEnd = indexOfLineEnd(from, limit);
+            final int to = lineEnd == -1 ? limit : lineEnd;
+            if (bytes != null) {
+                bytes.append(window, from, to);
+            } else {
+                appendChars(chars, from, to);
+            }
+            if (lineEnd == -1) {
+                position = windowStart + limit;
+            } else {
+                endLine(lineEnd);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Moves past the line that starts at {@link #position}.
+     *
+     * @throws IOException if the channel cannot be read
+     */
+    private void skipLine() throws IOException {
+        while (position < size) {
+            mapWindow();
+            final int limit = window.limit();
+            final int lineEnd = indexOfLineEnd((int) (position - windowStart), limit);
+            if (lineEnd == -1) {
+                position = windowStart + limit;
+            } else {
+                endLine(lineEnd);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves past a line terminator of the current window, and past the '\n' of "\r\n",
+     * which may be in the next window.
+     *
+     * @param lineEnd The index of the '\n' or '\r' that ends the line
+     * @throws IOException if the channel cannot be mapped
+     */
+    private void endLine(final int lineEnd) throws IOException {
+        final boolean carriageReturn = window.get(lineEnd) == '\r';
+        position = windowStart + lineEnd + 1;
+        if (carriageReturn && position < size && currentByte() == '\n') {
+            position++;
+        }
+    }
+
+    /**
+     * Finds the next line terminator, '\n' or '\r', in the current window. Bytes are
+     * examined eight at a time, as in {@link FastaHeaderScanner}.
+     *
+     * @param from  The index of the first byte to examine
+     * @param limit The index after the last byte to examine
+     * @return the index of the terminator, or -1 if there is none before limit
+     */
+    private int indexOfLineEnd(final int from, final int limit) {
+        final MappedByteBuffer bytes = window;
+        int i = from;
+        for (; i + 8 <= limit; i += 8) {
+            final long word = bytes.getLong(i);
+            final long lineEnds = FastaHeaderScanner.matches(word, FastaHeaderScanner.NEWLINE)
+                    | FastaHeaderScanner.matches(word, FastaHeaderScanner.CARRIAGE_RETURN);
+            if (lineEnds != 0) {
+                return i + (Long.numberOfTrailingZeros(lineEnds) >>> 3);
+            }
+        }
+        for (; i < limit; i++) {
+            final byte b = bytes.get(i);
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends a range of the current window to a mutable string, one char per byte.
+     *
+     * @param chars The string to append to
+     * @param from  The index of the first byte to append
+     * @param to    The index after the last byte to append
+     */
+    private void appendChars(final MutableString chars, final int from, final int to) {
+        final int length = chars.length();
+        final int newLength = length + to - from;
+        chars.ensureCapacity(newLength);
+        chars.setLength(newLength);
+        final char[] array = chars.array();
+        for (int i = from, j = length; i < to; i++, j++) {
+            array[j] = (char) (window.get(i) & 0xFF);
+        }
+        chars.changed();
+    }
+}
@@ -0,0 +1,659 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the occurrences of many nucleotide motifs, such as restriction sites, primers or
+ * adapters, in a single pass over a sequence. Sequences are streamed: they can be read from
+ * the base reader of a {@link ReaderFastaParser}, or fed in buffers of any size, and each
+ * hit is reported to a {@link Visitor} as soon as its last base is read.
+ * <p>
+ * Motifs may use IUPAC ambiguity codes, such as N or R. Motifs are searched with an
+ * Aho-Corasick automaton, stored as a table of int transitions with four entries per state,
+ * so each base costs one table lookup whatever the number of motifs. Motifs with ambiguity
+ * codes are added to the automaton as all the sequences of bases they stand for, as long
+ * as they stand for at most {@link #MAX_VARIANTS} sequences. When a motif has more
+ * ambiguity codes than that, all the motifs are searched with the bit-parallel Shift-And
+ * algorithm instead: the motifs are packed into 64 bit words, and each base costs a shift,
+ * an or and an and per word, so the cost grows with the total length of the motifs. Motifs
+ * must then be at most 64 bases long.
+ * <p>
+ * Case is ignored. Ambiguity codes in the sequence, such as the N of assembly gaps, and
+ * characters that are not nucleotide codes never match, so hits never span them.
+ * <p>
+ * When both strands are searched, the reverse complement of each motif is searched along
+ * with the motif, so that the reverse strand is covered by the same pass. Hits on the
+ * reverse strand are reported with the position of their first base on the forward strand.
+ * Motifs that are their own reverse complement, such as most restriction sites, are only
+ * reported on the forward strand.
+ * <p>
+ * A matcher keeps the state of the sequence being searched, so it must be used by one
+ * thread at a time.
+ */
+public final class MotifMatcher {
+    /**
+     * Called for each occurrence of a motif.
+     */
+    public interface Visitor {
+        /**
+         * Processes a hit.
+         *
+         * @param sequence      The index of the sequence where the motif occurs.
+         * @param position      The position of the first base of the hit on the forward
+         *                      strand, from zero.
+         * @param motif         The index of the motif in the list the matcher was created
+         *                      with.
+         * @param reverseStrand Whether the motif occurs on the reverse strand.
+         * @throws IOException if the hit cannot be processed
+         */
+        void visit(long sequence, long position, int motif, boolean reverseStrand)
+                throws IOException;
+    }
+
+    /**
+     * The largest length of motifs that use ambiguity codes.
+     */
+    public static final int MAX_DEGENERATE_LENGTH = Long.SIZE;
+
+    /**
+     * The largest number of sequences of bases a motif with ambiguity codes may stand for
+     * to be searched with the Aho-Corasick automaton.
+     */
+    public static final int MAX_VARIANTS = 256;
+
+    /**
+     * The number of entries in the lookup tables.
+     */
+    private static final int TABLE_SIZE = 256;
+
+    /**
+     * The number of rows in the Shift-And masks: one for characters that never match,
+     * then one per base.
+     */
+    private static final int NUMBER_OF_ROWS = 5;
+
+    /**
+     * The set of bases each Latin-1 character stands for, one bit per base (A=1, C=2, G=4,
+     * T=8), or zero for characters that are not nucleotide codes.
+     */
+    private static final byte[] SETS = new byte[TABLE_SIZE];
+
+    /**
+     * The code of each Latin-1 character in the automaton (A=0, C=1, G=2, T=3), or -1 for
+     * characters that are not one of the four bases.
+     */
+    private static final byte[] CODES = new byte[TABLE_SIZE];
+
+    /**
+     * The size of the buffer used to read sequences.
+     */
+    private static final int BUFFER_SIZE = 1 << 14;
+
+    static {
+        final String codes = "ACGTURYSWKMBDHVN";
+        final int[] sets = {1, 2, 4, 8, 8, 5, 10, 6, 9, 12, 3, 14, 13, 11, 7, 15};
+        for (int i = 0; i < codes.length(); i++) {
+            SETS[codes.charAt(i)] = (byte) sets[i];
+            SETS[Character.toLowerCase(codes.charAt(i))] = (byte) sets[i];
+        }
+        Arrays.fill(CODES, (byte) -1);
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            if (Integer.bitCount(SETS[c]) == 1) {
+                CODES[c] = (byte) Integer.numberOfTrailingZeros(SETS[c]);
+            }
+        }
+    }
+
+    /**
+     * The motifs, as given.
+     */
+    private final List<String> motifs;
+
+    /**
+     * The length of each motif.
+     */
+    private final int[] lengths;
+
+    /**
+     * Whether the motifs are searched with Shift-And rather than Aho-Corasick.
+     */
+    private final boolean bitParallel;
+
+    /**
+     * The transitions of the automaton, four per state, the root state being 0.
+     */
+    private int[] transitions;
+
+    /**
+     * The range in {@link #outputs} of the hits of each state: the hits of state s are at
+     * indices outputStarts[s] to outputStarts[s + 1] excluded.
+     */
+    private int[] outputStarts;
+
+    /**
+     * The hits of the states of the automaton, or of the end bits of the Shift-And words,
+     * each encoded as the index of the motif shifted left by one, or'ed with 1 for the
+     * reverse strand.
+     */
+    private int[] outputs;
+
+    /**
+     * The Shift-And masks: for each base and each word, the bits of the motif positions
+     * that accept the base. The masks of the first row, for characters that never match,
+     * are zero.
+     */
+    private long[] masks;
+
+    /**
+     * The bit of the first position of each motif packed in each word.
+     */
+    private long[] firstBits;
+
+    /**
+     * The bit of the last position of each motif packed in each word.
+     */
+    private long[] lastBits;
+
+    /**
+     * The number of Shift-And words.
+     */
+    private int numberOfWords;
+
+    /**
+     * The Shift-And state: the bits of the motif positions that match the bases just read.
+     */
+    private long[] active;
+
+    /**
+     * The automaton state.
+     */
+    private int state;
+
+    /**
+     * The index of the sequence being searched.
+     */
+    private long sequence;
+
+    /**
+     * The number of bases of the sequence searched so far.
+     */
+    private long position;
+
+    /**
+     * Create a matcher. Motifs are searched with an Aho-Corasick automaton, unless a motif
+     * stands for more than {@link #MAX_VARIANTS} sequences of bases.
+     *
+     * @param motifs      The motifs to search, with IUPAC nucleotide codes
+     * @param bothStrands Whether the reverse strand is searched too
+     */
+    public MotifMatcher(final List<? extends CharSequence> motifs, final boolean bothStrands) {
+        this(motifs, bothStrands, hasManyVariants(motifs));
+    }
+
+    /**
+     * Create a matcher.
+     *
+     * @param motifs      The motifs to search, with IUPAC nucleotide codes
+     * @param bothStrands Whether the reverse strand is searched too
+     * @param bitParallel Whether the motifs are searched with Shift-And
+     */
+    MotifMatcher(final List<? extends CharSequence> motifs, final boolean bothStrands,
+                 final boolean bitParallel) {
+        super();
+        if (motifs.isEmpty()) {
+            throw new IllegalArgumentException("No motif to search");
+        }
+        this.bitParallel = bitParallel;
+        this.motifs = new ArrayList<String>(motifs.size());
+        this.lengths = new int[motifs.size()];
+        // the motifs to search, normalized, and the hit of each
+        final List<MutableString> patterns = new ArrayList<MutableString>();
+        final List<Integer> hits = new ArrayList<Integer>();
+        for (int i = 0; i < motifs.size(); i++) {
+            final String motif = motifs.get(i).toString();
+            final MutableString pattern = normalize(motif);
+            if (bitParallel && pattern.length() > MAX_DEGENERATE_LENGTH) {
+                throw new IllegalArgumentException("Motif longer than "
+                        + MAX_DEGENERATE_LENGTH + " bases: " + motif);
+            }
+            this.motifs.add(motif);
+            lengths[i] = pattern.length();
+            patterns.add(pattern);
+            hits.add(i << 1);
+            if (bothStrands) {
+                final MutableString reverse =
+                        normalize(SequenceOperations.reverseComplement(pattern.copy()));
+                if (!reverse.equals(pattern)) {
+                    patterns.add(reverse);
+                    hits.add((i << 1) | 1);
+                }
+            }
+        }
+        if (bitParallel) {
+            buildMasks(patterns, hits);
+        } else {
+            buildAutomaton(patterns, hits);
+        }
+        reset(0);
+    }
+
+    /**
+     * Returns whether a motif stands for more than {@link #MAX_VARIANTS} sequences of bases.
+     *
+     * @param motifs The motifs
+     * @return true if a motif has too many variants to be added to the automaton
+     */
+    private static boolean hasManyVariants(final List<? extends CharSequence> motifs) {
+        for (final CharSequence motif : motifs) {
+            int variants = 1;
+            for (int i = 0; i < motif.length() && variants <= MAX_VARIANTS; i++) {
+                final char c = motif.charAt(i);
+                variants *= c < TABLE_SIZE ? Math.max(1, Integer.bitCount(SETS[c])) : 1;
+            }
+            if (variants > MAX_VARIANTS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Validates a motif, and converts it to uppercase with U replaced by T.
+     *
+     * @param motif The motif
+     * @return the normalized motif
+     */
+    private static MutableString normalize(final CharSequence motif) {
+        if (motif.length() == 0) {
+            throw new IllegalArgumentException("Empty motif");
+        }
+        final MutableString normalized = new MutableString(motif.length());
+        for (int i = 0; i < motif.length(); i++) {
+            final char c = motif.charAt(i);
+            if (c >= TABLE_SIZE || SETS[c] == 0) {
+                throw new IllegalArgumentException("Not a nucleotide code: " + c + " in "
+                        + motif);
+            }
+            final char upper = Character.toUpperCase(c);
+            normalized.append(upper == 'U' ? 'T' : upper);
+        }
+        return normalized;
+    }
+
+    /**
+     * Builds the Aho-Corasick automaton. The trie of the patterns is built first, with a
+     * branch for each sequence of bases a pattern with ambiguity codes stands for, then the
+     * failure links are followed breadth first to complete the transitions of every state
+     * and to add to each state the hits of its longest proper suffix.
+     *
+     * @param patterns The normalized patterns
+     * @param hits     The hit of each pattern
+     */
+    private void buildAutomaton(final List<MutableString> patterns, final List<Integer> hits) {
+        int numberOfStates = 1;
+        int[] next = new int[4 * 16];
+        Arrays.fill(next, -1);
+        final List<List<Integer>> stateHits = new ArrayList<List<Integer>>();
+        stateHits.add(new ArrayList<Integer>());
+        for (int i = 0; i < patterns.size(); i++) {
+            final MutableString pattern = patterns.get(i);
+            // the states reached by the variants of the prefix of the pattern read so far
+            List<Integer> states = Collections.singletonList(0);
+            for (int j = 0; j < pattern.length(); j++) {
+                final int set = SETS[pattern.charAt(j)];
+                final List<Integer> children =
+                        new ArrayList<Integer>(states.size() * Integer.bitCount(set));
+                for (final int s : states) {
+                    for (int code = 0; code < 4; code++) {
+                        if ((set & (1 << code)) == 0) {
+                            continue;
+                        }
+                        final int transition = (s << 2) | code;
+                        if (next[transition] == -1) {
+                            if (numberOfStates << 2 == next.length) {
+                                final int[] grown = new int[next.length << 1];
+                                System.arraycopy(next, 0, grown, 0, next.length);
+                                Arrays.fill(grown, next.length, grown.length, -1);
+                                next = grown;
+                            }
+                            next[transition] = numberOfStates++;
+                            stateHits.add(new ArrayList<Integer>());
+                        }
+                        children.add(next[transition]);
+                    }
+                }
+                states = children;
+            }
+            for (final int s : states) {
+                stateHits.get(s).add(hits.get(i));
+            }
+        }
+
+        final int[] failures = new int[numberOfStates];
+        final int[] queue = new int[numberOfStates];
+        int head = 0;
+        int tail = 0;
+        for (int code = 0; code < 4; code++) {
+            if (next[code] == -1) {
+                next[code] = 0;
+            } else {
+                queue[tail++] = next[code];
+            }
+        }
+        while (head < tail) {
+            final int s = queue[head++];
+            // the hits of the failure state are complete, it is closer to the root
+            stateHits.get(s).addAll(stateHits.get(failures[s]));
+            for (int code = 0; code < 4; code++) {
+                final int child = next[(s << 2) | code];
+                final int fallback = next[(failures[s] << 2) | code];
+                if (child == -1) {
+                    next[(s << 2) | code] = fallback;
+                } else {
+                    failures[child] = fallback;
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        transitions = new int[numberOfStates << 2];
+        System.arraycopy(next, 0, transitions, 0, transitions.length);
+        outputStarts = new int[numberOfStates + 1];
+        for (int s = 0; s < numberOfStates; s++) {
+            outputStarts[s + 1] = outputStarts[s] + stateHits.get(s).size();
+        }
+        outputs = new int[outputStarts[numberOfStates]];
+        for (int s = 0; s < numberOfStates; s++) {
+            int index = outputStarts[s];
+            for (final int hit : stateHits.get(s)) {
+                outputs[index++] = hit;
+            }
+        }
+    }
+
+    /**
+     * Builds the Shift-And masks. Patterns are packed into words so that none spans two
+     * words, which lets each word be shifted on its own.
+     *
+     * @param patterns The normalized patterns
+     * @param hits     The hit of each pattern
+     */
+    private void buildMasks(final List<MutableString> patterns, final List<Integer> hits) {
+        final int[] words = new int[patterns.size()];
+        final int[] offsets = new int[patterns.size()];
+        int word = 0;
+        int offset = 0;
+        for (int i = 0; i < patterns.size(); i++) {
+            if (offset + patterns.get(i).length() > Long.SIZE) {
+                word++;
+                offset = 0;
+            }
+            words[i] = word;
+            offsets[i] = offset;
+            offset += patterns.get(i).length();
+        }
+        numberOfWords = word + 1;
+        masks = new long[NUMBER_OF_ROWS * numberOfWords];
+        firstBits = new long[numberOfWords];
+        lastBits = new long[numberOfWords];
+        outputs = new int[numberOfWords * Long.SIZE];
+        for (int i = 0; i < patterns.size(); i++) {
+            final MutableString pattern = patterns.get(i);
+            final int lastBit = offsets[i] + pattern.length() - 1;
+            firstBits[words[i]] |= 1L << offsets[i];
+            lastBits[words[i]] |= 1L << lastBit;
+            outputs[words[i] * Long.SIZE + lastBit] = hits.get(i);
+            for (int j = 0; j < pattern.length(); j++) {
+                final int allowed = SETS[pattern.charAt(j)];
+                for (int code = 0; code < 4; code++) {
+                    if ((allowed & (1 << code)) != 0) {
+                        masks[(code + 1) * numberOfWords + words[i]] |= 1L << (offsets[i] + j);
+                    }
+                }
+            }
+        }
+        active = new long[numberOfWords];
+    }
+
+    /**
+     * Returns the number of motifs searched.
+     *
+     * @return the number of motifs
+     */
+    public int getNumberOfMotifs() {
+        return motifs.size();
+    }
+
+    /**
+     * Returns a motif.
+     *
+     * @param index The index of the motif
+     * @return the motif, as given to the constructor
+     */
+    public String getMotif(final int index) {
+        return motifs.get(index);
+    }
+
+    /**
+     * Returns whether the motifs are searched with the bit-parallel Shift-And algorithm,
+     * rather than with an Aho-Corasick automaton.
+     *
+     * @return true if a motif has more than {@link #MAX_VARIANTS} variants
+     */
+    public boolean isBitParallel() {
+        return bitParallel;
+    }
+
+    /**
+     * Starts searching a new sequence. Hits that span the end of the previous sequence and
+     * the start of the new one are not reported.
+     *
+     * @param sequenceIndex The index of the new sequence, given to the visitor
+     */
+    public void reset(final long sequenceIndex) {
+        sequence = sequenceIndex;
+        position = 0;
+        state = 0;
+        if (active != null) {
+            Arrays.fill(active, 0L);
+        }
+    }
+
+    /**
+     * Returns the number of bases of the current sequence searched so far.
+     *
+     * @return the number of bases
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Searches the next bases of the current sequence. Hits that span several calls are
+     * found, so a sequence can be searched in buffers of any size.
+     *
+     * @param bases   The buffer that holds the bases
+     * @param offset  The index of the first base to search
+     * @param length  The number of bases to search
+     * @param visitor Where hits are reported
+     * @throws IOException if the visitor fails
+     */
+    public void search(final char[] bases, final int offset, final int length,
+                       final Visitor visitor) throws IOException {
+        if (bitParallel) {
+            shiftAnd(bases, offset, length, visitor);
+        } else {
+            ahoCorasick(bases, offset, length, visitor);
+        }
+    }
+
+    /**
+     * Searches a whole sequence.
+     *
+     * @param bases         The bases of the sequence
+     * @param sequenceIndex The index of the sequence, given to the visitor
+     * @param visitor       Where hits are reported
+     * @throws IOException if the visitor fails
+     */
+    public void search(final CharSequence bases, final long sequenceIndex,
+                       final Visitor visitor) throws IOException {
+        reset(sequenceIndex);
+        if (bases instanceof MutableString) {
+            search(((MutableString) bases).array(), 0, bases.length(), visitor);
+        } else {
+            final char[] buffer = new char[Math.min(BUFFER_SIZE, bases.length())];
+            for (int start = 0; start < bases.length(); start += buffer.length) {
+                final int count = Math.min(buffer.length, bases.length() - start);
+                for (int i = 0; i < count; i++) {
+                    buffer[i] = bases.charAt(start + i);
+                }
+                search(buffer, 0, count, visitor);
+            }
+        }
+    }
+
+    /**
+     * Searches a whole sequence read from a reader, such as the base reader of a
+     * {@link ReaderFastaParser}. The sequence is never held in memory.
+     *
+     * @param bases         The reader over the bases of the sequence
+     * @param sequenceIndex The index of the sequence, given to the visitor
+     * @param visitor       Where hits are reported
+     * @return the number of bases read
+     * @throws IOException if the reader or the visitor fails
+     */
+    public long search(final Reader bases, final long sequenceIndex, final Visitor visitor)
+            throws IOException {
+        reset(sequenceIndex);
+        final char[] buffer = new char[BUFFER_SIZE];
+        int count;
+        while ((count = bases.read(buffer, 0, buffer.length)) != -1) {
+            search(buffer, 0, count, visitor);
+        }
+        return position;
+    }
+
+    /**
+     * Searches all the remaining sequences of a parser. Sequences are numbered from zero,
+     * in the order of the parser.
+     *
+     * @param parser  The parser over the sequences
+     * @param visitor Where hits are reported
+     * @return the number of sequences searched
+     * @throws IOException if the parser or the visitor fails
+     */
+    public long searchAll(final ReaderFastaParser parser, final Visitor visitor)
+            throws IOException {
+        final MutableString description = new MutableString();
+        long count = 0;
+        while (parser.hasNextSequence()) {
+            parser.nextSequence(description);
+            search(parser.getBaseReader(), count++, visitor);
+        }
+        return count;
+    }
+
+    /**
+     * Runs the automaton over bases.
+     *
+     * @param bases   The buffer that holds the bases
+     * @param offset  The index of the first base to search
+     * @param length  The number of bases to search
+     * @param visitor Where hits are reported
+     * @throws IOException if the visitor fails
+     */
+    private void ahoCorasick(final char[] bases, final int offset, final int length,
+                             final Visitor visitor) throws IOException {
+        final int[] next = transitions;
+        final int[] starts = outputStarts;
+        int s = state;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final char c = bases[i];
+            final int code = c < TABLE_SIZE ? CODES[c] : -1;
+            if (code == -1) {
+                s = 0;
+            } else {
+                s = next[(s << 2) | code];
+                if (starts[s] != starts[s + 1]) {
+                    final long last = position + i - offset;
+                    for (int j = starts[s]; j < starts[s + 1]; j++) {
+                        report(visitor, last, outputs[j]);
+                    }
+                }
+            }
+        }
+        state = s;
+        position += length;
+    }
+
+    /**
+     * Runs Shift-And over bases.
+     *
+     * @param bases   The buffer that holds the bases
+     * @param offset  The index of the first base to search
+     * @param length  The number of bases to search
+     * @param visitor Where hits are reported
+     * @throws IOException if the visitor fails
+     */
+    private void shiftAnd(final char[] bases, final int offset, final int length,
+                          final Visitor visitor) throws IOException {
+        final long[] matches = active;
+        final int words = numberOfWords;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final char c = bases[i];
+            final int row = (c < TABLE_SIZE ? CODES[c] + 1 : 0) * words;
+            for (int w = 0; w < words; w++) {
+                final long match = ((matches[w] << 1) | firstBits[w]) & masks[row + w];
+                matches[w] = match;
+                long hits = match & lastBits[w];
+                while (hits != 0) {
+                    final int bit = Long.numberOfTrailingZeros(hits);
+                    hits &= hits - 1;
+                    report(visitor, position + i - offset, outputs[w * Long.SIZE + bit]);
+                }
+            }
+        }
+        position += length;
+    }
+
+    /**
+     * Reports a hit to the visitor.
+     *
+     * @param visitor Where the hit is reported
+     * @param last    The position of the last base of the hit
+     * @param hit     The motif and strand of the hit
+     * @throws IOException if the visitor fails
+     */
+    private void report(final Visitor visitor, final long last, final int hit)
+            throws IOException {
+        final int motif = hit >>> 1;
+        visitor.visit(sequence, last - lengths[motif] + 1, motif, (hit & 1) != 0);
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Parse many FASTA files concurrently, as a single stream of records. Each file is parsed
+ * by a {@link FastaParser} on a pool of threads, and its records are handed over in
+ * batches through bounded queues, so that at most a few batches per file being parsed are
+ * held in memory. Delivered batches are reused, so records are not copied on the pool
+ * threads and nothing is allocated per record. Records are delivered either in the order
+ * of the files, or as soon as any file has a batch ready; the records of a file are always
+ * delivered in the order of the file. {@link #getSource()} tells which file the last
+ * record comes from.
+ * <p>
+ * Files may be compressed, see {@link SequenceInputs}. A file that cannot be parsed makes
+ * {@link #next(MutableString, MutableString)} throw an {@link IOException} once, after the
+ * records of the file read before the error; the records of the other files can still be
+ * read afterwards.
+ */
+public final class MultiFastaParser implements Closeable {
+    /**
+     * The maximum number of records in a batch.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * The number of residues above which a batch is handed over even if it has room for
+     * more records.
+     */
+    private static final int BATCH_RESIDUES = 1 << 20;
+
+    /**
+     * The number of batches that a file parsed ahead of the consumer may hold.
+     */
+    private static final int BATCHES_PER_FILE = 2;
+
+    /**
+     * The files to parse.
+     */
+    private final File[] files;
+
+    /**
+     * Whether records must be delivered in the order of the files.
+     */
+    private final boolean ordered;
+
+    /**
+     * The batches of each file, in ordered mode, or the batches of all the files.
+     */
+    private final List<BlockingQueue<Batch>> queues = new ArrayList<BlockingQueue<Batch>>();
+
+    /**
+     * The batches already delivered, that the threads fill again.
+     */
+    private final ConcurrentLinkedQueue<Batch> free = new ConcurrentLinkedQueue<Batch>();
+
+    /**
+     * The threads that parse files.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The number of files whose last batch has not been delivered.
+     */
+    private int remainingFiles;
+
+    /**
+     * The batch being delivered, or null.
+     */
+    private Batch current;
+
+    /**
+     * The index in {@link #current} of the next record to deliver.
+     */
+    private int index;
+
+    /**
+     * The file of the last record delivered.
+     */
+    private File source;
+
+    /**
+     * Create a parser over the files of a directory whose name matches a glob pattern.
+     * Files are taken in the order of their names. In patterns, '*' matches any sequence
+     * of characters, '?' any character, '[...]' a character of a set and '{a,b}' either
+     * of several patterns.
+     *
+     * @param directory       The directory to list
+     * @param glob            The pattern that the names of the files must match, such as
+     *                        "chr*.fa.gz"
+     * @param numberOfThreads The number of files parsed at once
+     * @param ordered         Whether records must be delivered in the order of the files
+     * @throws IOException if the directory cannot be listed
+     */
+    public MultiFastaParser(final File directory, final String glob,
+                            final int numberOfThreads, final boolean ordered)
+            throws IOException {
+        this(listFiles(directory, glob), numberOfThreads, ordered);
+    }
+
+    /**
+     * Create a parser over files.
+     *
+     * @param files           The files to parse
+     * @param numberOfThreads The number of files parsed at once
+     * @param ordered         Whether records must be delivered in the order of the files
+     */
+    public MultiFastaParser(final List<File> files, final int numberOfThreads,
+                            final boolean ordered) {
+        super();
+        if (numberOfThreads <= 0) {
+            throw new IllegalArgumentException("numberOfThreads must be positive");
+        }
+        this.files = files.toArray(new File[files.size()]);
+        this.ordered = ordered;
+        this.remainingFiles = this.files.length;
+        if (ordered) {
+            for (int i = 0; i < this.files.length; i++) {
+                queues.add(new ArrayBlockingQueue<Batch>(BATCHES_PER_FILE));
+            }
+        } else {
+            queues.add(new ArrayBlockingQueue<Batch>(BATCHES_PER_FILE * numberOfThreads));
+        }
+        this.executor = Executors.newFixedThreadPool(numberOfThreads,
+                new ParallelFastaParser.DaemonThreadFactory("MultiFastaParser"));
+        // the pool starts files in order, so in ordered mode the file being delivered is
+        // always parsing or parsed, even when the threads of later files wait for room
+        for (int i = 0; i < this.files.length; i++) {
+            executor.execute(new FileParser(this.files[i], queues.get(ordered ? i : 0)));
+        }
+    }
+
+    /**
+     * Lists the files of a directory whose name matches a glob pattern.
+     *
+     * @param directory The directory to list
+     * @param glob      The pattern that the names of the files must match
+     * @return the matching files, sorted by name
+     * @throws IOException if the directory cannot be listed
+     */
+    static List<File> listFiles(final File directory, final String glob) throws IOException {
+        final Pattern pattern = Pattern.compile(toRegex(glob));
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return pattern.matcher(name).matches() && new File(dir, name).isFile();
+            }
+        });
+        if (files == null) {
+            throw new IOException("Cannot list directory " + directory);
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Converts a glob pattern to a regular expression.
+     *
+     * @param glob The glob pattern
+     * @return the equivalent regular expression
+     */
+    static String toRegex(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        boolean inAlternatives = false;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '[':
+                    final int close = glob.indexOf(']', i + 1);
+                    if (close == -1) {
+                        regex.append("\\[");
+                    } else {
+                        regex.append('[').append(glob.substring(i + 1, close)
+                                .replace("\\", "\\\\").replaceFirst("^!", "^")).append(']');
+                        i = close;
+                    }
+                    break;
+                case '{':
+                    inAlternatives = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (inAlternatives) {
+                        inAlternatives = false;
+                        regex.append(')');
+                    } else {
+                        regex.append("\\}");
+                    }
+                    break;
+                case ',':
+                    regex.append(inAlternatives ? "|" : ",");
+                    break;
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        regex.append(c);
+                    } else {
+                        regex.append('\\').append(c);
+                    }
+                    break;
+            }
+        }
+        if (inAlternatives) {
+            throw new IllegalArgumentException("Unclosed '{' in pattern " + glob);
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Returns the files parsed.
+     *
+     * @return the files, in the order in which they were given
+     */
+    public List<File> getFiles() {
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Returns true if there is at least one more record, or the error of a file, to
+     * deliver. This waits until a batch is ready.
+     *
+     * @return True if a call to next will return another record or throw an exception.
+     */
+    public boolean hasNext() {
+        while (current == null || index == current.size) {
+            if (current != null) {
+                if (current.error != null) {
+                    return true;
+                }
+                if (current.last) {
+                    remainingFiles--;
+                }
+                free.add(current);
+                current = null;
+            }
+            if (remainingFiles == 0) {
+                return false;
+            }
+            current = take();
+            index = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Obtain the next record. This method has the same contract as
+     * {@link FastaParser#next(MutableString, MutableString)}.
+     *
+     * @param descriptionLine Where the raw description line will be written.
+     * @param residues        When the raw residue lines will be written.
+     * @return True if hasNext() is true, False otherwise.
+     * @throws IOException if the file of the next record could not be parsed
+     */
+    public boolean next(final MutableString descriptionLine,
+                        final MutableString residues) throws IOException {
+        if (!hasNext()) {
+            return false;
+        }
+        if (index == current.size) {
+            final Throwable error = current.error;
+            current.error = null;
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            final IOException wrapped = new IOException("Cannot parse " + current.source
+                    + ": " + (error instanceof IOException ? error.getMessage() : error));
+            wrapped.initCause(error);
+            throw wrapped;
+        }
+        final FastaRecord record = current.records[index++];
+        descriptionLine.replace(record.getDescription());
+        residues.replace(record.getResidues());
+        source = current.source;
+        return hasNext();
+    }
+
+    /**
+     * Returns the file of the record returned by the last call to
+     * {@link #next(MutableString, MutableString)}.
+     *
+     * @return the file of the last record, or null if no record was returned
+     */
+    public File getSource() {
+        return source;
+    }
+
+    /**
+     * Stops the threads that parse files.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Waits for the next batch to deliver.
+     *
+     * @return the batch
+     */
+    private Batch take() {
+        try {
+            return queues.get(ordered ? files.length - remainingFiles : 0).take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing", e);
+        }
+    }
+
+    /**
+     * Returns an empty batch, reusing a delivered batch if there is one.
+     *
+     * @param file The file of the records of the batch
+     * @return the batch
+     */
+    private Batch newBatch(final File file) {
+        Batch batch = free.poll();
+        if (batch == null) {
+            batch = new Batch();
+        }
+        batch.source = file;
+        batch.size = 0;
+        batch.last = false;
+        batch.error = null;
+        return batch;
+    }
+
+    /**
+     * Parses a file into batches.
+     */
+    private final class FileParser implements Runnable {
+        /**
+         * The file to parse.
+         */
+        private final File file;
+
+        /**
+         * Where to put the batches.
+         */
+        private final BlockingQueue<Batch> queue;
+
+        FileParser(final File file, final BlockingQueue<Batch> queue) {
+            super();
+            this.file = file;
+            this.queue = queue;
+        }
+
+        public void run() {
+            Batch batch = newBatch(file);
+            boolean closed = false;
+            try {
+                // the pool already parses several files at once, so BGZF files are
+                // inflated on the thread that parses them
+                final Reader reader = SequenceInputs.openReader(file, 1);
+                try {
+                    final FastaParser parser = new FastaParser(reader);
+                    long numberOfResidues = 0;
+                    while (parser.hasNext()) {
+                        final FastaRecord record = batch.records[batch.size++];
+                        parser.next(record.getDescription(), record.getResidues());
+                        numberOfResidues += record.getResidues().length();
+                        if (batch.size == BATCH_SIZE || numberOfResidues >= BATCH_RESIDUES) {
+                            queue.put(batch);
+                            batch = newBatch(file);
+                            numberOfResidues = 0;
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (InterruptedException e) {
+                // the parser was closed
+                closed = true;
+            } catch (Throwable t) {
+                // whatever stops the file, the last batch must be delivered, or hasNext
+                // waits for it forever
+                batch.error = t;
+            } finally {
+                if (!closed) {
+                    batch.last = true;
+                    try {
+                        queue.put(batch);
+                    } catch (InterruptedException e) {
+                        // the parser was closed
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Consecutive records of a file.
+     */
+    private static final class Batch {
+        /**
+         * The records, of which the first {@link #size} are valid.
+         */
+        private final FastaRecord[] records = new FastaRecord[BATCH_SIZE];
+
+        /**
+         * The number of records in the batch.
+         */
+        private int size;
+
+        /**
+         * The file of the records.
+         */
+        private File source;
+
+        /**
+         * Whether this is the last batch of the file.
+         */
+        private boolean last;
+
+        /**
+         * The error that stopped the parsing of the file, or null.
+         */
+        private Throwable error;
+
+        Batch() {
+            super();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                records[i] = new FastaRecord();
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable sequence of ASCII bytes. This is the byte oriented counterpart of
+ * {@link it.unimi.dsi.lang.MutableString}: it stores one byte per residue instead of
+ * one char, which halves the memory needed to hold long sequences. Each byte is exposed
+ * as a char in the ISO-8859-1 range, so instances can be passed to any method that
+ * accepts a {@link CharSequence}, such as {@link FastaParser#guessAccessionCode}.
+ */
+public final class MutableByteString implements CharSequence {
+    /**
+     * The backing array. Only the first {@link #length} bytes are meaningful.
+     */
+    private byte[] array;
+
+    /**
+     * The number of bytes in this string.
+     */
+    private int length;
+
+    /**
+     * Create an empty string.
+     */
+    public MutableByteString() {
+        this(16);
+    }
+
+    /**
+     * Create an empty string with the given initial capacity.
+     *
+     * @param capacity The initial capacity of the backing array.
+     */
+    public MutableByteString(final int capacity) {
+        super();
+        array = new byte[capacity];
+    }
+
+    /**
+     * Create a string holding the characters of the given sequence.
+     *
+     * @param chars The characters to copy. Characters are truncated to their low byte.
+     */
+    public MutableByteString(final CharSequence chars) {
+        this(chars.length());
+        append(chars);
+    }
+
+    /**
+     * Returns the number of bytes in this string.
+     *
+     * @return the length of the string
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the byte at the given index as an unsigned char.
+     *
+     * @param index The index of the byte to return.
+     * @return The byte at index, between 0 and 255
+     */
+    public char charAt(final int index) {
+        if (index >= length) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return (char) (array[index] & 0xFF);
+    }
+
+    /**
+     * Returns the byte at the given index.
+     *
+     * @param index The index of the byte to return.
+     * @return The byte at index
+     */
+    public byte byteAt(final int index) {
+        if (index >= length) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return array[index];
+    }
+
+    /**
+     * Returns the backing array. The array may be longer than the string, and is
+     * replaced whenever the string grows.
+     *
+     * @return the backing array of this string
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    /**
+     * Makes sure the backing array can hold at least the given number of bytes.
+     *
+     * @param minimumCapacity The minimum number of bytes the string must be able to hold.
+     * @return this string
+     */
+    public MutableByteString ensureCapacity(final int minimumCapacity) {
+        if (minimumCapacity > array.length) {
+            final long doubled = 2L * array.length;
+            final int newCapacity = (int) Math.min(Integer.MAX_VALUE,
+                    Math.max(doubled, minimumCapacity));
+            final byte[] newArray = new byte[newCapacity];
+            System.arraycopy(array, 0, newArray, 0, length);
+            array = newArray;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the length of this string. When the string grows, new bytes are zero.
+     *
+     * @param newLength The new length.
+     * @return this string
+     */
+    public MutableByteString setLength(final int newLength) {
+        if (newLength > length) {
+            ensureCapacity(newLength);
+            Arrays.fill(array, length, newLength, (byte) 0);
+        }
+        length = newLength;
+        return this;
+    }
+
+    /**
+     * Appends a byte to this string.
+     *
+     * @param b The byte to append
+     * @return this string
+     */
+    public MutableByteString append(final byte b) {
+        ensureCapacity(length + 1);
+        array[length++] = b;
+        return this;
+    }
+
+    /**
+     * Appends a range of bytes to this string.
+     *
+     * @param bytes  The array holding the bytes to append
+     * @param offset The index of the first byte to append
+     * @param count  The number of bytes to append
+     * @return this string
+     */
+    public MutableByteString append(final byte[] bytes, final int offset, final int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(bytes, offset, array, length, count);
+        length += count;
+        return this;
+    }
+
+    /**
+     * Appends a range of bytes from a buffer to this string. The position of the buffer
+     * is changed by this method.
+     *
+     * @param buffer The buffer holding the bytes to append
+     * @param from   The index of the first byte to append
+     * @param to     The index after the last byte to append
+     * @return this string
+     */
+    public MutableByteString append(final ByteBuffer buffer, final int from, final int to) {
+        final int count = to - from;
+        ensureCapacity(length + count);
+        buffer.position(from);
+        buffer.get(array, length, count);
+        length += count;
+        return this;
+    }
+
+    /**
+     * Appends the characters of a sequence, truncated to their low byte.
+     *
+     * @param chars The characters to append
+     * @return this string
+     */
+    public MutableByteString append(final CharSequence chars) {
+        final int count = chars.length();
+        ensureCapacity(length + count);
+        for (int i = 0; i < count; i++) {
+            array[length++] = (byte) chars.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Returns a new string holding a range of this string.
+     *
+     * @param start The index of the first byte of the range
+     * @param end   The index after the last byte of the range
+     * @return a copy of the range
+     */
+    public CharSequence subSequence(final int start, final int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new StringIndexOutOfBoundsException();
+        }
+        final MutableByteString result = new MutableByteString(end - start);
+        return result.append(array, start, end - start);
+    }
+
+    /**
+     * Copies the bytes of this string, as chars, into a mutable string.
+     *
+     * @param destination The string to replace with the content of this string
+     * @return the destination string
+     */
+    public MutableString toMutableString(final MutableString destination) {
+        destination.setLength(length);
+        final char[] chars = destination.array();
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (array[i] & 0xFF);
+        }
+        destination.changed();
+        return destination;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MutableByteString)) {
+            return false;
+        }
+        final MutableByteString that = (MutableByteString) other;
+        if (that.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (array[i] != that.array[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + (array[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (array[i] & 0xFF);
+        }
+        return new String(chars);
+    }
+}
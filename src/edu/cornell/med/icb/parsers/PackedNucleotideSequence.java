@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A nucleotide sequence stored with two bits per base. A, C, G and T are packed 32 to a
+ * long. Any other residue, including IUPAC ambiguity codes, is stored as an N, and
+ * stretches of N are recorded as runs next to the packed bases. Lowercase (soft-masked)
+ * stretches are also recorded as runs, so that the case of every base is preserved.
+ * A human genome held this way uses about 800 MB instead of the 6 GB it needs in a
+ * {@link MutableString}.
+ * <p>
+ * Sequences are filled directly from the base reader of a {@link ReaderFastaParser}, see
+ * {@link #append(Reader)}, and individual bases or subsequences can be read back without
+ * unpacking the rest of the sequence.
+ */
+public final class PackedNucleotideSequence {
+    /**
+     * The bases, in the order of the two bits codes.
+     */
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * The two bits code of each ASCII character, or -1 for characters stored as N.
+     */
+    private static final byte[] CODES = new byte[128];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (byte code = 0; code < BASES.length; code++) {
+            CODES[BASES[code]] = code;
+            CODES[Character.toLowerCase(BASES[code])] = code;
+        }
+    }
+
+    /**
+     * The packed bases, 32 per long, the first base in the lowest bits.
+     */
+    private long[] words;
+
+    /**
+     * The number of bases in this sequence.
+     */
+    private long length;
+
+    /**
+     * The positions of the bases that are stored as N.
+     */
+    private final RunList ambiguousRuns = new RunList();
+
+    /**
+     * The positions of the lowercase bases.
+     */
+    private final RunList maskedRuns = new RunList();
+
+    /**
+     * Create an empty sequence.
+     */
+    public PackedNucleotideSequence() {
+        this(1024);
+    }
+
+    /**
+     * Create an empty sequence with room for the given number of bases.
+     *
+     * @param capacity The number of bases the sequence can hold before growing.
+     */
+    public PackedNucleotideSequence(final long capacity) {
+        super();
+        words = new long[wordsFor(capacity)];
+    }
+
+    /**
+     * Returns the number of bases in this sequence.
+     *
+     * @return the length of the sequence
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Removes all the bases of this sequence. The storage is kept for reuse.
+     */
+    public void clear() {
+        Arrays.fill(words, 0, wordsFor(length), 0L);
+        length = 0;
+        ambiguousRuns.clear();
+        maskedRuns.clear();
+    }
+
+    /**
+     * Appends a base to this sequence.
+     *
+     * @param base The base to append
+     */
+    public void append(final char base) {
+        ensureCapacity(length + 1);
+        appendBase(base);
+    }
+
+    /**
+     * Appends bases to this sequence.
+     *
+     * @param bases  The array holding the bases
+     * @param offset The index of the first base to append
+     * @param count  The number of bases to append
+     */
+    public void append(final char[] bases, final int offset, final int count) {
+        ensureCapacity(length + count);
+        final int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            appendBase(bases[i]);
+        }
+    }
+
+    /**
+     * Appends bases to this sequence.
+     *
+     * @param bases The bases to append
+     */
+    public void append(final CharSequence bases) {
+        final int count = bases.length();
+        ensureCapacity(length + count);
+        for (int i = 0; i < count; i++) {
+            appendBase(bases.charAt(i));
+        }
+    }
+
+    /**
+     * Appends all the bases a reader returns, until it returns -1. This is meant to be used
+     * with {@link ReaderFastaParser#getBaseReader()}, so that a chromosome is packed as it
+     * is parsed, without ever being held in a string.
+     *
+     * @param reader The reader over the bases to append
+     * @return the number of bases appended
+     * @throws IOException if the bases cannot be read
+     */
+    public long append(final Reader reader) throws IOException {
+        final char[] buffer = new char[1 << 14];
+        final long initialLength = length;
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+            append(buffer, 0, count);
+        }
+        return length - initialLength;
+    }
+
+    /**
+     * Returns a base of this sequence.
+     *
+     * @param index The position of the base, starting at zero.
+     * @return the base, in lowercase if the base is masked
+     */
+    public char charAt(final long index) {
+        checkIndex(index);
+        final char base = ambiguousRuns.contains(index) ? 'N' : BASES[getCode(index)];
+        return maskedRuns.contains(index) ? Character.toLowerCase(base) : base;
+    }
+
+    /**
+     * Returns the two bits code of a base of this sequence: 0 for A, 1 for C, 2 for G and
+     * 3 for T. Bases stored as N have code 0, see {@link #isAmbiguous(long)}.
+     *
+     * @param index The position of the base, starting at zero.
+     * @return the code of the base
+     */
+    public int getCode(final long index) {
+        checkIndex(index);
+        return (int) (words[(int) (index >>> 5)] >>> ((index & 31) << 1)) & 3;
+    }
+
+    /**
+     * Returns whether a base of this sequence is stored as N.
+     *
+     * @param index The position of the base, starting at zero.
+     * @return true if the base is not A, C, G or T
+     */
+    public boolean isAmbiguous(final long index) {
+        checkIndex(index);
+        return ambiguousRuns.contains(index);
+    }
+
+    /**
+     * Returns whether a base of this sequence is lowercase.
+     *
+     * @param index The position of the base, starting at zero.
+     * @return true if the base is masked
+     */
+    public boolean isMasked(final long index) {
+        checkIndex(index);
+        return maskedRuns.contains(index);
+    }
+
+    /**
+     * Returns the number of stretches of N in this sequence.
+     *
+     * @return the number of runs of ambiguous bases
+     */
+    public int getNumberOfAmbiguousRuns() {
+        return ambiguousRuns.size();
+    }
+
+    /**
+     * Returns the number of lowercase stretches in this sequence.
+     *
+     * @return the number of runs of masked bases
+     */
+    public int getNumberOfMaskedRuns() {
+        return maskedRuns.size();
+    }
+
+    /**
+     * Unpacks a region of this sequence.
+     *
+     * @param start       The position of the first base of the region, starting at zero.
+     * @param end         The position after the last base of the region.
+     * @param destination Where the bases of the region will be written.
+     * @return the destination string
+     */
+    public MutableString getSubsequence(final long start, final long end,
+                                        final MutableString destination) {
+        if (start < 0 || end > length || start > end || end - start > Integer.MAX_VALUE) {
+            throw new IndexOutOfBoundsException("Invalid region " + start + "-" + end
+                    + " of a sequence of length " + length);
+        }
+        final int count = (int) (end - start);
+        destination.ensureCapacity(count);
+        destination.setLength(count);
+        final char[] chars = destination.array();
+        for (int i = 0; i < count; i++) {
+            final long index = start + i;
+            chars[i] = BASES[(int) (words[(int) (index >>> 5)] >>> ((index & 31) << 1)) & 3];
+        }
+        for (int run = ambiguousRuns.firstRunEndingAfter(start);
+             run < ambiguousRuns.size() && ambiguousRuns.getStart(run) < end; run++) {
+            final long from = Math.max(start, ambiguousRuns.getStart(run));
+            final long to = Math.min(end, ambiguousRuns.getEnd(run));
+            Arrays.fill(chars, (int) (from - start), (int) (to - start), 'N');
+        }
+        for (int run = maskedRuns.firstRunEndingAfter(start);
+             run < maskedRuns.size() && maskedRuns.getStart(run) < end; run++) {
+            final long from = Math.max(start, maskedRuns.getStart(run));
+            final long to = Math.min(end, maskedRuns.getEnd(run));
+            for (int i = (int) (from - start); i < to - start; i++) {
+                chars[i] = Character.toLowerCase(chars[i]);
+            }
+        }
+        destination.changed();
+        return destination;
+    }
+
+    @Override
+    public String toString() {
+        return getSubsequence(0, length, new MutableString()).toString();
+    }
+
+    /**
+     * Packs a base at the end of this sequence. The capacity must have been checked.
+     *
+     * @param base The base to append
+     */
+    private void appendBase(final char base) {
+        int code = base < CODES.length ? CODES[base] : -1;
+        if (code < 0) {
+            ambiguousRuns.extend(length);
+            code = 0;
+        }
+        if (base >= 'a' && base <= 'z') {
+            maskedRuns.extend(length);
+        }
+        words[(int) (length >>> 5)] |= ((long) code) << ((length & 31) << 1);
+        length++;
+    }
+
+    /**
+     * Grows the storage so that it can hold the given number of bases.
+     *
+     * @param capacity The number of bases the sequence must be able to hold.
+     */
+    private void ensureCapacity(final long capacity) {
+        final int needed = wordsFor(capacity);
+        if (needed > words.length) {
+            final int newLength = (int) Math.min(Integer.MAX_VALUE,
+                    Math.max(needed, 2L * words.length));
+            final long[] newWords = new long[newLength];
+            System.arraycopy(words, 0, newWords, 0, words.length);
+            words = newWords;
+        }
+    }
+
+    /**
+     * Checks that an index is within this sequence.
+     *
+     * @param index The index to check
+     */
+    private void checkIndex(final long index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index
+                    + " is not within a sequence of length " + length);
+        }
+    }
+
+    /**
+     * Returns the number of longs needed to store a number of bases.
+     *
+     * @param bases The number of bases
+     * @return the number of longs needed
+     */
+    private static int wordsFor(final long bases) {
+        final long words = (bases + 31) >>> 5;
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many bases: " + bases);
+        }
+        return (int) words;
+    }
+
+    /**
+     * A sorted list of disjoint runs of positions, built by extending the last run.
+     */
+    static final class RunList {
+        /**
+         * The first position of each run.
+         */
+        private long[] starts = new long[16];
+
+        /**
+         * The position after the last position of each run.
+         */
+        private long[] ends = new long[16];
+
+        /**
+         * The number of runs.
+         */
+        private int size;
+
+        /**
+         * Adds a position after all the positions of this list, extending the last run when
+         * the position follows it.
+         *
+         * @param position The position to add
+         */
+        void extend(final long position) {
+            if (size > 0 && ends[size - 1] == position) {
+                ends[size - 1]++;
+                return;
+            }
+            if (size == starts.length) {
+                final long[] newStarts = new long[2 * size];
+                final long[] newEnds = new long[2 * size];
+                System.arraycopy(starts, 0, newStarts, 0, size);
+                System.arraycopy(ends, 0, newEnds, 0, size);
+                starts = newStarts;
+                ends = newEnds;
+            }
+            starts[size] = position;
+            ends[size] = position + 1;
+            size++;
+        }
+
+        /**
+         * Returns whether a position is in one of the runs.
+         *
+         * @param position The position to look for
+         * @return true if position is in a run
+         */
+        boolean contains(final long position) {
+            final int run = firstRunEndingAfter(position);
+            return run < size && starts[run] <= position;
+        }
+
+        /**
+         * Returns the first run that ends after a position.
+         *
+         * @param position A position
+         * @return the index of the run, or the number of runs if there is none
+         */
+        int firstRunEndingAfter(final long position) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (ends[middle] <= position) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long getStart(final int run) {
+            return starts[run];
+        }
+
+        long getEnd(final int run) {
+            return ends[run];
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parse a single large FASTA file on several threads. The file is split into chunks of
+ * bytes, each chunk is parsed by a {@link MappedFastaParser} restricted to the records
+ * whose description line starts in the chunk, and the chunks are parsed concurrently by a
+ * pool of threads. Records are delivered through an {@link Iterator}, either in the order
+ * of the file or in the order in which chunks complete.
+ * <p>
+ * At most two chunks per thread are parsed ahead of the consumer, and the records of a
+ * chunk are held in memory, at two bytes per character, until they are delivered. A chunk
+ * holds every record whose description line starts in it, so memory use is bounded by two
+ * chunks per thread times the larger of the chunk size and the largest record, rather than
+ * by the size of the file. Files with one chromosome per record are better read with
+ * {@link MappedFastaParser} or {@link FastaParser}, since one thread would parse a whole
+ * chromosome into memory while the others have nothing to do.
+ */
+public final class ParallelFastaParser implements Iterable<FastaRecord>, Closeable {
+    /**
+     * The default number of bytes in a chunk.
+     */
+    public static final long DEFAULT_CHUNK_SIZE = 32L << 20;
+
+    /**
+     * The channel over the FASTA file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The offsets that delimit the chunks: chunk i covers [bounds[i], bounds[i + 1]).
+     */
+    private final long[] bounds;
+
+    /**
+     * Whether records must be delivered in the order of the file.
+     */
+    private final boolean ordered;
+
+    /**
+     * The number of threads used to parse chunks.
+     */
+    private final int numberOfThreads;
+
+    /**
+     * The threads that parse chunks.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Create a parser over a FASTA file, with chunks of the default size.
+     *
+     * @param file            The FASTA file to parse.
+     * @param numberOfThreads The number of threads used to parse the file.
+     * @param ordered         Whether records must be delivered in the order of the file.
+     * @throws IOException if the file cannot be opened
+     */
+    public ParallelFastaParser(final File file, final int numberOfThreads,
+                               final boolean ordered) throws IOException {
+        this(file, numberOfThreads, DEFAULT_CHUNK_SIZE, ordered);
+    }
+
+    /**
+     * Create a parser over a FASTA file.
+     *
+     * @param file            The FASTA file to parse.
+     * @param numberOfThreads The number of threads used to parse the file.
+     * @param chunkSize       The number of bytes in a chunk.
+     * @param ordered         Whether records must be delivered in the order of the file.
+     * @throws IOException if the file cannot be opened
+     */
+    public ParallelFastaParser(final File file, final int numberOfThreads,
+                               final long chunkSize, final boolean ordered)
+            throws IOException {
+        super();
+        if (numberOfThreads <= 0) {
+            throw new IllegalArgumentException("numberOfThreads must be positive");
+        }
+        final FileChannel fileChannel = new FileInputStream(file).getChannel();
+        boolean ready = false;
+        try {
+            this.bounds = split(fileChannel.size(), chunkSize);
+            ready = true;
+        } finally {
+            if (!ready) {
+                fileChannel.close();
+            }
+        }
+        this.channel = fileChannel;
+        this.ordered = ordered;
+        this.numberOfThreads = numberOfThreads;
+        this.executor = Executors.newFixedThreadPool(numberOfThreads,
+                new DaemonThreadFactory("ParallelFastaParser"));
+    }
+
+    /**
+     * Splits a number of bytes into chunks of at most chunkSize bytes.
+     *
+     * @param size      The number of bytes to split
+     * @param chunkSize The maximum number of bytes in a chunk
+     * @return the offsets that delimit the chunks, starting with 0 and ending with size
+     */
+    static long[] split(final long size, final long chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        final int numberOfChunks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        final long[] bounds = new long[numberOfChunks + 1];
+        for (int i = 0; i < numberOfChunks; i++) {
+            bounds[i] = i * chunkSize;
+        }
+        bounds[numberOfChunks] = size;
+        return bounds;
+    }
+
+    /**
+     * Returns the number of chunks the file was split into.
+     *
+     * @return the number of chunks
+     */
+    public int getNumberOfChunks() {
+        return bounds.length - 1;
+    }
+
+    /**
+     * Returns an iterator over the records of the file. Each call starts a new pass over the
+     * file. The iterator throws an {@link IllegalStateException} if a chunk cannot be parsed.
+     *
+     * @return an iterator over the records of the file
+     */
+    public Iterator<FastaRecord> iterator() {
+        return new RecordIterator();
+    }
+
+    /**
+     * Stops the threads and closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        executor.shutdownNow();
+        channel.close();
+    }
+
+    /**
+     * Parses the records of one chunk.
+     */
+    private final class ChunkParser implements Callable<List<FastaRecord>> {
+        /**
+         * The index of the chunk to parse.
+         */
+        private final int chunk;
+
+        ChunkParser(final int chunk) {
+            super();
+            this.chunk = chunk;
+        }
+
+        public List<FastaRecord> call() throws IOException {
+            final List<FastaRecord> records = new ArrayList<FastaRecord>();
+            final MappedFastaParser parser = new MappedFastaParser(channel, bounds[chunk],
+                    bounds[chunk + 1], MappedFastaParser.DEFAULT_WINDOW_SIZE);
+            try {
+                final MutableString description = new MutableString();
+                final MutableString residues = new MutableString();
+                while (parser.hasNext()) {
+                    parser.next(description, residues);
+                    // copies are compact, they do not keep the spare capacity of the buffers
+                    records.add(new FastaRecord(description.copy(), residues.copy()));
+                }
+            } finally {
+                parser.close();
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Delivers the records of the chunks as they are parsed.
+     */
+    private final class RecordIterator implements Iterator<FastaRecord> {
+        /**
+         * Chunks submitted for parsing, in the order of the file.
+         */
+        private final LinkedList<Future<List<FastaRecord>>> pending =
+                new LinkedList<Future<List<FastaRecord>>>();
+
+        /**
+         * Delivers chunks in the order in which they complete.
+         */
+        private final CompletionService<List<FastaRecord>> completionService =
+                new ExecutorCompletionService<List<FastaRecord>>(executor);
+
+        /**
+         * The index of the next chunk to submit.
+         */
+        private int nextChunk;
+
+        /**
+         * The number of submitted chunks not yet delivered.
+         */
+        private int inFlight;
+
+        /**
+         * The records of the chunk being delivered.
+         */
+        private Iterator<FastaRecord> current;
+
+        RecordIterator() {
+            super();
+            submit();
+        }
+
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (inFlight == 0) {
+                    return false;
+                }
+                current = take().iterator();
+                inFlight--;
+                submit();
+            }
+            return true;
+        }
+
+        public FastaRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Submits chunks until two chunks per thread are in flight.
+         */
+        private void submit() {
+            while (inFlight < 2 * numberOfThreads && nextChunk < getNumberOfChunks()) {
+                final ChunkParser task = new ChunkParser(nextChunk++);
+                if (ordered) {
+                    pending.add(executor.submit(task));
+                } else {
+                    completionService.submit(task);
+                }
+                inFlight++;
+            }
+        }
+
+        /**
+         * Waits for the next chunk to deliver.
+         *
+         * @return the records of the chunk
+         */
+        private List<FastaRecord> take() {
+            try {
+                if (ordered) {
+                    return pending.removeFirst().get();
+                } else {
+                    return completionService.take().get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while parsing", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Cannot parse chunk", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Creates daemon threads, so that a pool that is not closed does not prevent the
+     * virtual machine from exiting.
+     */
+    static final class DaemonThreadFactory implements ThreadFactory {
+        /**
+         * The prefix of the names of the threads.
+         */
+        private final String prefix;
+
+        /**
+         * The number of threads created so far.
+         */
+        private int count;
+
+        DaemonThreadFactory(final String prefix) {
+            super();
+            this.prefix = prefix;
+        }
+
+        public synchronized Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + "-" + ++count);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
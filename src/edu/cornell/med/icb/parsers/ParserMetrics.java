@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the work done by {@link FastaParser} and {@link ReaderFastaParser}: characters
+ * read, records parsed, the largest record, how far the residues string grew, the time spent
+ * reading the input versus scanning it, and a histogram of the time taken by each record.
+ * The time of a record of a {@link ReaderFastaParser} is the time spent in the calls to its
+ * base reader, so the time the caller spends processing the bases is not counted.
+ * <p>
+ * Metrics are off unless an instance is given to a parser with
+ * <code>setMetrics</code>. Counters are updated once per record and once per read from the
+ * input, never per character, and parsers without metrics do not pay for them at all. The
+ * counters can be read from any thread while parsers update them, and an instance can be
+ * shared by several parsers. {@link #register(String)} exposes them through JMX.
+ * <p>
+ * Latencies are counted in buckets of powers of two nanoseconds, so percentiles are upper
+ * bounds within a factor of two.
+ */
+public final class ParserMetrics implements ParserMetricsMBean {
+    /**
+     * The JMX domain of registered metrics.
+     */
+    public static final String DOMAIN = "edu.cornell.med.icb.parsers";
+
+    /**
+     * The number of latency buckets, one per bit of a long.
+     */
+    private static final int NUMBER_OF_BUCKETS = 64;
+
+    /**
+     * The number of characters read from the input.
+     */
+    private final AtomicLong charactersRead = new AtomicLong();
+
+    /**
+     * The number of records parsed.
+     */
+    private final AtomicLong records = new AtomicLong();
+
+    /**
+     * The length of the largest record.
+     */
+    private final AtomicLong largestRecord = new AtomicLong();
+
+    /**
+     * The largest capacity of the residues strings.
+     */
+    private final AtomicLong largestResidueCapacity = new AtomicLong();
+
+    /**
+     * The nanoseconds spent reading the input.
+     */
+    private final AtomicLong readTime = new AtomicLong();
+
+    /**
+     * The nanoseconds spent parsing records.
+     */
+    private final AtomicLong parseTime = new AtomicLong();
+
+    /**
+     * The longest time taken by a record, in nanoseconds.
+     */
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * The number of records whose latency is in [2^i, 2^(i+1)) nanoseconds, for each i.
+     */
+    private final AtomicLongArray latencies = new AtomicLongArray(NUMBER_OF_BUCKETS);
+
+    /**
+     * Create metrics with all counters at zero.
+     */
+    public ParserMetrics() {
+        super();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     *
+     * @param name The name of the metrics, which distinguishes them from the metrics of
+     *             other parsers
+     * @return the name under which the metrics are registered
+     */
+    public ObjectName register(final String name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName =
+                    new ObjectName(DOMAIN + ":type=ParserMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics " + name, e);
+        }
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server.
+     *
+     * @param objectName The name returned by {@link #register(String)}
+     */
+    public static void unregister(final ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister metrics " + objectName, e);
+        }
+    }
+
+    public long getCharactersRead() {
+        return charactersRead.get();
+    }
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getLargestRecord() {
+        return largestRecord.get();
+    }
+
+    public long getLargestResidueCapacity() {
+        return largestResidueCapacity.get();
+    }
+
+    public long getReadTime() {
+        return readTime.get();
+    }
+
+    public long getParseTime() {
+        return parseTime.get();
+    }
+
+    public long getScanTime() {
+        // input read outside of a record, such as the first description line, is not parse
+        // time
+        return Math.max(0, parseTime.get() - readTime.get());
+    }
+
+    public double getCharactersPerSecond() {
+        final long time = parseTime.get();
+        return time == 0 ? 0 : charactersRead.get() * 1e9 / time;
+    }
+
+    public double getRecordsPerSecond() {
+        final long time = parseTime.get();
+        return time == 0 ? 0 : records.get() * 1e9 / time;
+    }
+
+    public long getMedianLatency() {
+        return getLatency(0.5);
+    }
+
+    public long getLatency99() {
+        return getLatency(0.99);
+    }
+
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    /**
+     * Returns the time taken to parse a record, at a percentile.
+     *
+     * @param fraction The fraction of records parsed in at most the returned time, between
+     *                 0 and 1
+     * @return an upper bound of the latency at the percentile, in nanoseconds, or zero if no
+     * record was parsed
+     */
+    public long getLatency(final double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Not a fraction: " + fraction);
+        }
+        final long[] histogram = getLatencyHistogram();
+        long total = 0;
+        for (final long count : histogram) {
+            total += count;
+        }
+        final long rank = (long) Math.ceil(fraction * total);
+        long cumulated = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            cumulated += histogram[bucket];
+            if (cumulated >= rank && cumulated > 0) {
+                return bucket == NUMBER_OF_BUCKETS - 1 ? Long.MAX_VALUE : (2L << bucket) - 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns a copy of the latency histogram. Entry i is the number of records that took
+     * between 2^i and 2^(i+1) - 1 nanoseconds to parse, entry 0 also counts records that
+     * took no measurable time.
+     *
+     * @return the number of records in each latency bucket
+     */
+    public long[] getLatencyHistogram() {
+        final long[] histogram = new long[NUMBER_OF_BUCKETS];
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            histogram[i] = latencies.get(i);
+        }
+        return histogram;
+    }
+
+    public void reset() {
+        charactersRead.set(0);
+        records.set(0);
+        largestRecord.set(0);
+        largestResidueCapacity.set(0);
+        readTime.set(0);
+        parseTime.set(0);
+        maxLatency.set(0);
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            latencies.set(i, 0);
+        }
+    }
+
+    /**
+     * Counts a record.
+     *
+     * @param length   The number of residues of the record
+     * @param capacity The capacity of the string that holds the residues, or zero
+     * @param nanos    The time taken to parse the record
+     */
+    void recordParsed(final long length, final long capacity, final long nanos) {
+        records.incrementAndGet();
+        parseTime.addAndGet(nanos);
+        updateMax(largestRecord, length);
+        updateMax(largestResidueCapacity, capacity);
+        updateMax(maxLatency, nanos);
+        latencies.incrementAndGet(nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Counts a read from the input.
+     *
+     * @param count The number of characters read, or -1 at the end of the input
+     * @param nanos The time taken by the read
+     */
+    void readCompleted(final int count, final long nanos) {
+        if (count > 0) {
+            charactersRead.addAndGet(count);
+        }
+        readTime.addAndGet(nanos);
+    }
+
+    /**
+     * Raises a maximum.
+     *
+     * @param maximum The maximum to raise
+     * @param value   The new value
+     */
+    private static void updateMax(final AtomicLong maximum, final long value) {
+        long current;
+        while (value > (current = maximum.get())) {
+            if (maximum.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns a reader that counts the characters read from a reader and the time spent
+     * reading them.
+     *
+     * @param reader The reader to measure
+     * @return the measured reader
+     */
+    Reader measure(final Reader reader) {
+        return new MeasuredReader(reader, this);
+    }
+
+    @Override
+    public String toString() {
+        return "records=" + getRecords() + " characters=" + getCharactersRead()
+                + " largestRecord=" + getLargestRecord()
+                + " largestResidueCapacity=" + getLargestResidueCapacity()
+                + " readTime=" + getReadTime() / 1000000 + "ms"
+                + " scanTime=" + getScanTime() / 1000000 + "ms"
+                + " medianLatency=" + getMedianLatency() + "ns"
+                + " latency99=" + getLatency99() + "ns"
+                + " maxLatency=" + getMaxLatency() + "ns";
+    }
+
+    /**
+     * A reader that reports the characters it reads and the time spent reading them.
+     * Parsers read through a buffer, so this is called once per buffer fill.
+     */
+    private static final class MeasuredReader extends Reader {
+        /**
+         * The measured reader.
+         */
+        private final Reader reader;
+
+        /**
+         * Where the reads are counted.
+         */
+        private final ParserMetrics metrics;
+
+        /**
+         * Create a measured reader.
+         *
+         * @param reader  The reader to measure
+         * @param metrics Where the reads are counted
+         */
+        MeasuredReader(final Reader reader, final ParserMetrics metrics) {
+            super();
+            this.reader = reader;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read(final char[] chars, final int offset, final int length)
+                throws IOException {
+            final long start = System.nanoTime();
+            final int count = reader.read(chars, offset, length);
+            metrics.readCompleted(count, System.nanoTime() - start);
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+/**
+ * The management interface of {@link ParserMetrics}, as seen through JMX.
+ */
+public interface ParserMetricsMBean {
+    /**
+     * Returns the number of characters read from the input of the parsers.
+     *
+     * @return the number of characters read
+     */
+    long getCharactersRead();
+
+    /**
+     * Returns the number of records parsed.
+     *
+     * @return the number of records
+     */
+    long getRecords();
+
+    /**
+     * Returns the number of residues of the largest record parsed.
+     *
+     * @return the length of the largest record
+     */
+    long getLargestRecord();
+
+    /**
+     * Returns the largest capacity reached by the strings that hold residues.
+     *
+     * @return the number of characters the residues string grew to
+     */
+    long getLargestResidueCapacity();
+
+    /**
+     * Returns the time spent reading the input of the parsers.
+     *
+     * @return the time spent in I/O, in nanoseconds
+     */
+    long getReadTime();
+
+    /**
+     * Returns the time spent parsing records, including the time spent reading the input.
+     *
+     * @return the time spent parsing, in nanoseconds
+     */
+    long getParseTime();
+
+    /**
+     * Returns the time spent parsing records, excluding the time spent reading the input.
+     *
+     * @return the time spent scanning, in nanoseconds
+     */
+    long getScanTime();
+
+    /**
+     * Returns the number of characters parsed per second of parse time.
+     *
+     * @return the parse throughput, in characters per second
+     */
+    double getCharactersPerSecond();
+
+    /**
+     * Returns the number of records parsed per second of parse time.
+     *
+     * @return the parse throughput, in records per second
+     */
+    double getRecordsPerSecond();
+
+    /**
+     * Returns the median time taken to parse a record.
+     *
+     * @return an upper bound of the median latency, in nanoseconds
+     */
+    long getMedianLatency();
+
+    /**
+     * Returns the time taken to parse a record, at the 99th percentile.
+     *
+     * @return an upper bound of the 99th percentile latency, in nanoseconds
+     */
+    long getLatency99();
+
+    /**
+     * Returns the longest time taken to parse a record.
+     *
+     * @return the maximum latency, in nanoseconds
+     */
+    long getMaxLatency();
+
+    /**
+     * Sets all the counters to zero.
+     */
+    void reset();
+}
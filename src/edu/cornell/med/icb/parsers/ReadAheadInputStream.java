@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A stream that reads its source on a background thread, ahead of the caller. The
+ * background thread fills a ring of large direct buffers, so that reads from disk or from
+ * the network overlap with parsing instead of stalling the parser each time its buffer is
+ * refilled. Wrap the stream in a reader to parse it, for instance
+ * <code>new FastaParser(new InputStreamReader(new ReadAheadInputStream(file),
+ * "ISO-8859-1"))</code>.
+ * <p>
+ * The stream measures how long the caller waited for data ({@link #getWaitTime()}) and how
+ * long it spent processing the data it received ({@link #getComputeTime()}). When the wait
+ * time dominates, parsing is I/O bound.
+ */
+public final class ReadAheadInputStream extends InputStream {
+    /**
+     * The default size of each buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4 << 20;
+
+    /**
+     * The default number of buffers in the ring.
+     */
+    public static final int DEFAULT_NUMBER_OF_BUFFERS = 4;
+
+    /**
+     * Put in the queue of filled buffers by the background thread when the source is
+     * exhausted or fails.
+     */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /**
+     * The source of the data.
+     */
+    private final ReadableByteChannel source;
+
+    /**
+     * Buffers ready to be filled by the background thread.
+     */
+    private final BlockingQueue<ByteBuffer> free;
+
+    /**
+     * Buffers filled by the background thread, in the order of the source.
+     */
+    private final BlockingQueue<ByteBuffer> filled;
+
+    /**
+     * The thread that fills buffers.
+     */
+    private final Thread thread;
+
+    /**
+     * The buffer being read by the caller, or null.
+     */
+    private ByteBuffer current;
+
+    /**
+     * Whether the end of the source has been reached by the caller.
+     */
+    private boolean endOfSource;
+
+    /**
+     * The error raised when reading the source, reported to the caller after the data read
+     * before the error.
+     */
+    private volatile IOException error;
+
+    /**
+     * The number of nanoseconds the caller waited for filled buffers.
+     */
+    private long waitTime;
+
+    /**
+     * The time at which the caller first asked for data, or -1.
+     */
+    private long firstBufferTime = -1;
+
+    /**
+     * The time at which the caller last received a buffer or reached the end of the source.
+     */
+    private long lastBufferTime;
+
+    /**
+     * The number of nanoseconds the background thread spent reading the source.
+     */
+    private volatile long readTime;
+
+    /**
+     * The number of bytes read from the source.
+     */
+    private volatile long bytesRead;
+
+    /**
+     * Create a stream that reads a file ahead, with the default buffers.
+     *
+     * @param file The file to read
+     * @throws IOException if the file cannot be opened
+     */
+    public ReadAheadInputStream(final File file) throws IOException {
+        this(new FileInputStream(file).getChannel(), DEFAULT_BUFFER_SIZE,
+                DEFAULT_NUMBER_OF_BUFFERS);
+    }
+
+    /**
+     * Create a stream that reads another stream ahead, with the default buffers.
+     *
+     * @param input The stream to read
+     */
+    public ReadAheadInputStream(final InputStream input) {
+        this(Channels.newChannel(input), DEFAULT_BUFFER_SIZE, DEFAULT_NUMBER_OF_BUFFERS);
+    }
+
+    /**
+     * Create a stream that reads a channel ahead.
+     *
+     * @param source          The channel to read. It is closed when this stream is closed.
+     * @param bufferSize      The size of each buffer
+     * @param numberOfBuffers The number of buffers in the ring, at least two so that one
+     *                        buffer is filled while another is read
+     */
+    public ReadAheadInputStream(final ReadableByteChannel source, final int bufferSize,
+                                final int numberOfBuffers) {
+        super();
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        if (numberOfBuffers < 2) {
+            throw new IllegalArgumentException("numberOfBuffers must be at least 2");
+        }
+        this.source = source;
+        this.free = new ArrayBlockingQueue<ByteBuffer>(numberOfBuffers);
+        // one more slot for the end marker
+        this.filled = new ArrayBlockingQueue<ByteBuffer>(numberOfBuffers + 1);
+        for (int i = 0; i < numberOfBuffers; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        this.thread = new ParallelFastaParser.DaemonThreadFactory("ReadAheadInputStream")
+                .newThread(new Filler());
+        thread.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        final int n = Math.min(count, current.remaining());
+        current.get(bytes, offset, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    /**
+     * Stops the background thread and closes the source.
+     *
+     * @throws IOException if the source cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        endOfSource = true;
+        current = null;
+        source.close();
+    }
+
+    /**
+     * Returns the number of nanoseconds the caller waited for the background thread to read
+     * data.
+     *
+     * @return the time spent waiting on I/O
+     */
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Returns the number of nanoseconds the caller spent between reads of this stream, that
+     * is, processing the data it read, from its first read up to the last time a buffer was
+     * received.
+     *
+     * @return the time spent computing
+     */
+    public long getComputeTime() {
+        return firstBufferTime == -1 ? 0 : lastBufferTime - firstBufferTime - waitTime;
+    }
+
+    /**
+     * Returns the number of nanoseconds the background thread spent reading the source.
+     *
+     * @return the time spent reading
+     */
+    public long getReadTime() {
+        return readTime;
+    }
+
+    /**
+     * Returns the number of bytes read from the source so far, including the bytes read
+     * ahead of the caller.
+     *
+     * @return the number of bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Makes sure that the current buffer has bytes left to read, waiting for the background
+     * thread if needed.
+     *
+     * @return false if the end of the source has been reached
+     * @throws IOException if the source cannot be read
+     */
+    private boolean ensureAvailable() throws IOException {
+        while (current == null || !current.hasRemaining()) {
+            if (endOfSource) {
+                return false;
+            }
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            final long start = System.nanoTime();
+            final ByteBuffer next;
+            try {
+                next = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+            final long now = System.nanoTime();
+            if (firstBufferTime == -1) {
+                firstBufferTime = start;
+            }
+            waitTime += now - start;
+            lastBufferTime = now;
+            if (next == END) {
+                endOfSource = true;
+                if (error != null) {
+                    throw error;
+                }
+                return false;
+            }
+            current = next;
+        }
+        return true;
+    }
+
+    /**
+     * Fills buffers from the source until the end of the source, an error, or close.
+     */
+    private final class Filler implements Runnable {
+        public void run() {
+            // the buffer being filled, or null
+            ByteBuffer buffer = null;
+            try {
+                boolean more = true;
+                while (more) {
+                    buffer = free.take();
+                    buffer.clear();
+                    final long start = System.nanoTime();
+                    int count = 0;
+                    while (buffer.hasRemaining() && (count = source.read(buffer)) != -1) {
+                        bytesRead += count;
+                    }
+                    readTime += System.nanoTime() - start;
+                    more = count != -1;
+                    buffer.flip();
+                    final ByteBuffer read = buffer;
+                    buffer = null;
+                    if (read.hasRemaining()) {
+                        filled.put(read);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the stream was closed
+                return;
+            } catch (IOException e) {
+                // the bytes read before the error are handed to the caller first; there is
+                // room in the queue for every buffer and the end marker
+                if (buffer != null) {
+                    buffer.flip();
+                    if (buffer.hasRemaining()) {
+                        filled.add(buffer);
+                    }
+                }
+                error = e;
+            }
+            filled.add(END);
+        }
+    }
+}
@@ -36,7 +36,7 @@ public final class ReaderFastaParser {
     /**
      * The reader used to parse the FASTA sequences.
      */
-    private FastBufferedReader reader;
+    private SequenceReader reader;
 
     /**
      * Indicates whether or not the reader contains more sequences.
@@ -53,6 +53,25 @@ public final class ReaderFastaParser {
      */
     private MutableString previousDescriptionLine = new MutableString();
 
+    /**
+     * Where the work done by this parser is counted, or null.
+     */
+    private ParserMetrics metrics;
+
+    /**
+     * Whether the current sequence is still to be counted in {@link #metrics}.
+     */
+    private boolean recordPending;
+
+    /**
+     * The nanoseconds spent reading the bases of the current sequence.
+     */
+    private long recordTime;
+
+    /**
+     * The number of bases read from the current sequence.
+     */
+    private long recordLength;
 
     /**
      * Create a parser to read sequences.
@@ -73,20 +92,37 @@ public final class ReaderFastaParser {
     }
 
     /**
-     * Repositions this reader on a different file/data content.
+     * Repositions this reader on a different file/data content. The parser buffers the
+     * reader itself, so raw readers are best. A {@link FastBufferedReader} is accepted
+     * without buffering the data twice: the characters it already buffered are copied
+     * once, then its bulk reads bypass its buffer and go from its underlying reader
+     * straight into the buffer of the parser.
      *
      * @param reader the new reader to use to parse the file
      * @throws java.io.IOException if the sequence cannot be read using the reader
      */
     public void setReader(final Reader reader) throws IOException {
-        if (reader instanceof FastBufferedReader) {
-            this.reader = (FastBufferedReader) reader;
+        if (reader instanceof SequenceReader) {
+            this.reader = (SequenceReader) reader;
         } else {
-            this.reader = new FastBufferedReader(reader);
+            this.reader = new SequenceReader(metrics == null ? reader : metrics.measure(reader));
         }
         hasNext = readNextDescriptionLine(this.reader);
     }
 
+    /**
+     * Counts the work done by this parser. The time of a sequence is the time spent in the
+     * calls to its base reader, so the time the caller spends processing the bases is not
+     * counted. A sequence is counted when its base reader returns -1, or when the next
+     * sequence is started if the bases were not all read. Reads from the input are only
+     * measured for readers set afterwards.
+     *
+     * @param metrics Where the work is counted, or null to stop counting
+     */
+    public void setMetrics(final ParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Returns true if the reader has at least one more sequence.
      *
@@ -110,12 +146,38 @@ public final class ReaderFastaParser {
             return false;
         } else {
             descriptionLine.replace(previousDescriptionLine);
+            countRecord();
+            if (metrics != null) {
+                recordPending = true;
+                recordTime = 0;
+                recordLength = 0;
+            }
             return true;
 
         }
     }
 
+    /**
+     * Counts the current sequence in the metrics, once.
+     */
+    private void countRecord() {
+        if (recordPending && metrics != null) {
+            metrics.recordParsed(recordLength, 0, recordTime);
+        }
+        recordPending = false;
+    }
+
+    /**
+     * Returns a reader over the bases of the current sequence. The reader returns -1 when
+     * the end of the sequence is reached. Both single character and bulk reads are
+     * supported, so the reader can be wrapped in a {@link java.io.BufferedReader}.
+     *
+     * @return a reader over the bases of the current sequence
+     */
     public Reader getBaseReader() {
+        if (metrics != null) {
+            return new MeasuredBaseReader(reader);
+        }
         return new OneBaseAtATimeReader(reader);
     }
 
@@ -157,8 +219,9 @@ public final class ReaderFastaParser {
             throws IOException {
         while (true) {
             // loop until a line that starts with > if found, or the end of file is reached.
-            previousDescriptionLine = fastBufferedReader.readLine(previousDescriptionLine);
-            if (previousDescriptionLine == null) {
+            // readLine returns null at the end of the input: keep the line, so that the
+            // parser can be given another reader
+            if (fastBufferedReader.readLine(previousDescriptionLine) == null) {
                 return false;
             }
             if (previousDescriptionLine.startsWith(">")) { // NOPMD charAt fails on an empty string
@@ -179,39 +242,114 @@ public final class ReaderFastaParser {
     }
 
 
+    /**
+     * The bases returned by the base reader.
+     */
+    private static final ResidueAlphabet BASES = ResidueAlphabet.BASE_OR_COLOR_SPACE;
+
+    /**
+     * A buffered reader that can copy bases straight out of its buffer.
+     */
+    private static final class SequenceReader extends FastBufferedReader {
+        /**
+         * Used during deserialization to verify that objects are compatible.
+         */
+        private static final long serialVersionUID = 1L;
+
+        SequenceReader(final Reader reader) {
+            super(reader);
+        }
+
+        /**
+         * Copies the bases found in the buffer into chars, skipping any other character.
+         * Copying stops before the next '&gt;', at the end of the input, or when length
+         * bases have been copied.
+         *
+         * @param chars  Where to copy the bases
+         * @param offset The index in chars of the first base to copy
+         * @param length The maximum number of bases to copy
+         * @return the number of bases copied
+         * @throws IOException if there is a problem reading from the input
+         */
+        int readBases(final char[] chars, final int offset, final int length)
+                throws IOException {
+            final char[] bases = BASES.getTable();
+            final int end = offset + length;
+            int destIndex = offset;
+            while (destIndex < end && !noMoreCharacters()) {
+                final char[] characters = buffer;
+                final int limit = pos + avail;
+                int index = pos;
+                boolean description = false;
+                while (index < limit && destIndex < end) {
+                    final char c = characters[index];
+                    if (c == '>') {
+                        description = true;
+                        break;
+                    }
+                    if (c < bases.length && bases[c] != 0) {
+                        chars[destIndex++] = c;
+                    }
+                    index++;
+                }
+                avail -= index - pos;
+                pos = index;
+                if (description) {
+                    break;
+                }
+            }
+            return destIndex - offset;
+        }
+    }
+
     private class OneBaseAtATimeReader extends Reader {
-        private final FastBufferedReader sequenceReader;
+        private final SequenceReader sequenceReader;
 
-        OneBaseAtATimeReader(final FastBufferedReader reader) {
+        OneBaseAtATimeReader(final SequenceReader reader) {
             sequenceReader = reader;
         }
 
         @Override
         public int read() throws IOException {
-            final int c = sequenceReader.read();
-            if (c == -1) {
-                hasNext = false;   // no more sequences, we just found the end of file.
-                return -1;
-            } else {
-                final char character = (char) c;
-                if (c == '>') {
+            return nextBase();
+        }
+
+        /**
+         * Reads the next base of the sequence.
+         *
+         * @return the base, or -1 at the end of the sequence
+         * @throws IOException if there is a problem reading from the input
+         */
+        final int nextBase() throws IOException {
+            while (true) {
+                final int c = sequenceReader.read();
+                if (c == -1) {
+                    hasNext = false;   // no more sequences, we just found the end of file.
+                    return -1;
+                } else if (c == '>') {
                     line.setLength(0);
                     sequenceReader.readLine(line);
                     previousDescriptionLine.replace(line);
                     hasNext = true;
                     return -1; // end of this specific sequence.
-                } else if ((c >= '0' && c <= '6') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
-                    // 0-6 for colorspace, the others for base space.
+                } else if (BASES.isResidue(c)) {
                     return c;
-                } else {
-                    return read();
                 }
             }
         }
 
         @Override
-        public int read(final char[] chars, final int i, final int i1) throws IOException {
-            throw new UnsupportedOperationException();
+        public int read(final char[] chars, final int offset, final int length)
+                throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            final int count = sequenceReader.readBases(chars, offset, length);
+            if (count > 0) {
+                return count;
+            }
+            // the next character is either '>' or the end of file, nextBase() consumes it.
+            return nextBase();
         }
 
         @Override
@@ -219,4 +357,42 @@ public final class ReaderFastaParser {
             // do nothing, we do not own the underlying reader.
         }
     }
+
+    /**
+     * A base reader that counts the bases of the current sequence and the time spent
+     * reading them, and counts the sequence in the metrics of the parser when its end is
+     * reached.
+     */
+    private final class MeasuredBaseReader extends OneBaseAtATimeReader {
+        MeasuredBaseReader(final SequenceReader reader) {
+            super(reader);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = System.nanoTime();
+            final int c = super.read();
+            recordTime += System.nanoTime() - start;
+            if (c == -1) {
+                countRecord();
+            } else {
+                recordLength++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(final char[] chars, final int offset, final int length)
+                throws IOException {
+            final long start = System.nanoTime();
+            final int count = super.read(chars, offset, length);
+            recordTime += System.nanoTime() - start;
+            if (count == -1) {
+                countRecord();
+            } else {
+                recordLength += count;
+            }
+            return count;
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link FastaParser} when a record has more residues than the maximum record
+ * size allows, see {@link FastaParser#setMaxRecordSize(int, FastaParser.OversizedRecordPolicy)}.
+ */
+public final class RecordTooLargeException extends IOException {
+    /**
+     * Used during deserialization to verify that objects are compatible.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The description line of the record.
+     */
+    private final String descriptionLine;
+
+    /**
+     * The maximum number of residues of a record.
+     */
+    private final long maxRecordSize;
+
+    /**
+     * Create an exception for a record that is too large.
+     *
+     * @param descriptionLine The description line of the record
+     * @param maxRecordSize   The maximum number of residues of a record
+     */
+    public RecordTooLargeException(final CharSequence descriptionLine,
+                                   final long maxRecordSize) {
+        super("Record " + descriptionLine + " has more than " + maxRecordSize + " residues");
+        this.descriptionLine = descriptionLine.toString();
+        this.maxRecordSize = maxRecordSize;
+    }
+
+    /**
+     * Returns the description line of the record that is too large.
+     *
+     * @return the description line, without the '&gt;'
+     */
+    public String getDescriptionLine() {
+        return descriptionLine;
+    }
+
+    /**
+     * Returns the maximum number of residues of a record.
+     *
+     * @return the maximum record size
+     */
+    public long getMaxRecordSize() {
+        return maxRecordSize;
+    }
+}
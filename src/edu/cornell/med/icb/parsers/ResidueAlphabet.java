@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+/**
+ * A set of valid residue codes, with the normalization applied to each code. Each alphabet
+ * is a lookup table over the Latin-1 range that gives, for every character, either the
+ * normalized residue or zero when the character is not a residue. Filtering a buffer is
+ * therefore a single pass with one table lookup per character. Characters outside the
+ * Latin-1 range are never residues.
+ */
+public final class ResidueAlphabet {
+    /**
+     * The number of entries in the lookup tables.
+     */
+    private static final int TABLE_SIZE = 256;
+
+    /**
+     * Protein residues, in uppercase. The '.' gap character is replaced by '-'.
+     */
+    public static final ResidueAlphabet PROTEIN =
+            new ResidueAlphabet("protein", "ACTGLVISDEFHKMNPQRWBY-XZ", true, true);
+
+    /**
+     * DNA bases and N, in uppercase.
+     */
+    public static final ResidueAlphabet DNA = new ResidueAlphabet("DNA", "ACGTN", true, false);
+
+    /**
+     * RNA bases and N, in uppercase.
+     */
+    public static final ResidueAlphabet RNA = new ResidueAlphabet("RNA", "ACGUN", true, false);
+
+    /**
+     * IUPAC nucleotide codes and the '-' gap, in uppercase. The '.' gap character is
+     * replaced by '-'.
+     */
+    public static final ResidueAlphabet IUPAC =
+            new ResidueAlphabet("IUPAC", "ACGTURYSWKMBDHVN-", true, true);
+
+    /**
+     * Color space reads: the colors 0 to 3, '.' for missing colors, and the bases that
+     * prefix color space reads, in uppercase.
+     */
+    public static final ResidueAlphabet COLOR_SPACE =
+            new ResidueAlphabet("color space", "0123.ACGT", true, false);
+
+    /**
+     * Any letter, in base space, and the digits 0 to 6, in color space. Case is preserved.
+     * These are the bases returned by {@link ReaderFastaParser#getBaseReader()}.
+     */
+    public static final ResidueAlphabet BASE_OR_COLOR_SPACE = new ResidueAlphabet(
+            "base or color space",
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456", false, false);
+
+    /**
+     * The name of this alphabet.
+     */
+    private final String name;
+
+    /**
+     * The normalized residue for each character, or zero if the character is not a residue.
+     */
+    private final char[] table = new char[TABLE_SIZE];
+
+    /**
+     * Create an alphabet.
+     *
+     * @param name       The name of the alphabet
+     * @param residues   The valid residue codes
+     * @param ignoreCase Whether lowercase codes are valid and converted to uppercase
+     * @param dotIsGap   Whether '.' is valid and converted to '-'
+     */
+    private ResidueAlphabet(final String name, final CharSequence residues,
+                            final boolean ignoreCase, final boolean dotIsGap) {
+        super();
+        this.name = name;
+        for (int i = 0; i < residues.length(); i++) {
+            final char residue = residues.charAt(i);
+            if (residue >= TABLE_SIZE) {
+                throw new IllegalArgumentException("Not a Latin-1 character: " + residue);
+            }
+            table[residue] = residue;
+            if (ignoreCase) {
+                table[Character.toLowerCase(residue)] = residue;
+            }
+        }
+        if (dotIsGap) {
+            table['.'] = '-';
+        }
+    }
+
+    /**
+     * Create an alphabet of the given residue codes.
+     *
+     * @param name       The name of the alphabet
+     * @param residues   The valid residue codes, in the Latin-1 range
+     * @param ignoreCase Whether the lowercase versions of the codes are valid, and converted
+     *                   to the codes
+     * @return the alphabet
+     */
+    public static ResidueAlphabet create(final String name, final CharSequence residues,
+                                         final boolean ignoreCase) {
+        return new ResidueAlphabet(name, residues, ignoreCase, false);
+    }
+
+    /**
+     * Returns whether a character is a residue of this alphabet.
+     *
+     * @param c The character to test
+     * @return true if c is a residue
+     */
+    public boolean isResidue(final int c) {
+        return c >= 0 && c < TABLE_SIZE && table[c] != 0;
+    }
+
+    /**
+     * Returns the normalized version of a residue.
+     *
+     * @param c The character to normalize
+     * @return the normalized residue, or zero if c is not a residue
+     */
+    public char normalize(final int c) {
+        return c >= 0 && c < TABLE_SIZE ? table[c] : 0;
+    }
+
+    /**
+     * Filter a string to keep only the residues of this alphabet, normalized. The raw and
+     * filtered strings may be the same object.
+     *
+     * @param rawResidues      A string that may contain any character.
+     * @param filteredResidues The normalized residues, in the order in which they occur in
+     *                         the rawResidues string.
+     */
+    public void filter(final CharSequence rawResidues, final MutableString filteredResidues) {
+        final int length = rawResidues.length();
+        filteredResidues.ensureCapacity(length);
+        filteredResidues.setLength(length);
+        final char[] destination = filteredResidues.array();
+        final int count;
+        if (rawResidues instanceof MutableString) {
+            count = filter(((MutableString) rawResidues).array(), 0, length, destination, 0);
+        } else {
+            int destIndex = 0;
+            for (int i = 0; i < length; i++) {
+                final char c = rawResidues.charAt(i);
+                final char residue = c < TABLE_SIZE ? table[c] : 0;
+                destination[destIndex] = residue;
+                destIndex += residue != 0 ? 1 : 0;
+            }
+            count = destIndex;
+        }
+        filteredResidues.setLength(count);
+        filteredResidues.changed();
+    }
+
+    /**
+     * Filter an array of characters to keep only the residues of this alphabet, normalized.
+     * The destination must have room for length characters, and the source and destination
+     * ranges may be the same.
+     *
+     * @param source            The characters to filter
+     * @param offset            The index of the first character to filter
+     * @param length            The number of characters to filter
+     * @param destination       Where to write the residues
+     * @param destinationOffset The index where the first residue is written
+     * @return the number of residues written
+     */
+    public int filter(final char[] source, final int offset, final int length,
+                      final char[] destination, final int destinationOffset) {
+        final char[] residues = table;
+        final int end = offset + length;
+        int destIndex = destinationOffset;
+        for (int i = offset; i < end; i++) {
+            final char c = source[i];
+            final char residue = c < TABLE_SIZE ? residues[c] : 0;
+            // always store, only advance on residues: this keeps the loop free of branches
+            // that depend on the data, except for the range check
+            destination[destIndex] = residue;
+            destIndex += residue != 0 ? 1 : 0;
+        }
+        return destIndex - destinationOffset;
+    }
+
+    /**
+     * Filter an array of bytes in place, to keep only the residues of this alphabet,
+     * normalized.
+     *
+     * @param bytes  The bytes to filter
+     * @param offset The index of the first byte to filter
+     * @param length The number of bytes to filter
+     * @return the number of residues kept, at the start of the range
+     */
+    public int filter(final byte[] bytes, final int offset, final int length) {
+        final char[] residues = table;
+        final int end = offset + length;
+        int destIndex = offset;
+        for (int i = offset; i < end; i++) {
+            final char residue = residues[bytes[i] & 0xFF];
+            bytes[destIndex] = (byte) residue;
+            destIndex += residue != 0 ? 1 : 0;
+        }
+        return destIndex - offset;
+    }
+
+    /**
+     * Filter a byte string in place, to keep only the residues of this alphabet, normalized.
+     *
+     * @param residues The string to filter
+     */
+    public void filter(final MutableByteString residues) {
+        residues.setLength(filter(residues.array(), 0, residues.length()));
+    }
+
+    /**
+     * Returns the lookup table of this alphabet. The table must not be modified.
+     *
+     * @return the normalized residue for each Latin-1 character, or zero
+     */
+    char[] getTable() {
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,549 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A binary, memory mapped copy of a FASTA file, for files that are parsed over and over.
+ * The FASTA file is parsed once, with {@link FastaParser}, and written as a cache file;
+ * opening the cache afterwards maps it in memory and reads a fixed size header, so that it
+ * takes milliseconds whatever the size of the file. The description lines and residues of
+ * the records are then returned as {@link CharSequence} views of the mapped file, without
+ * being copied, either in order with {@link #hasNext()} and {@link #next()}, which behave
+ * as their {@link FastaParser} counterparts, or by index.
+ * <p>
+ * The cache file is a header (magic, version, number of records and offset of the table),
+ * the description line and residues of each record, stored as Latin-1 bytes, and a table
+ * of the offsets where each description line and residue string start. The table is
+ * mapped too, so nothing is loaded on the heap when a cache is opened.
+ * <p>
+ * Views and random access methods may be used by several threads; iteration may not.
+ */
+public final class SequenceCache implements Closeable {
+    /**
+     * The extension of cache files.
+     */
+    public static final String EXTENSION = ".sqc";
+
+    /**
+     * The first int of cache files, "SQSC".
+     */
+    private static final int MAGIC = 0x53515343;
+
+    /**
+     * The version of the layout of cache files.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The number of bytes before the first record: magic, version, number of records and
+     * offset of the table.
+     */
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * The largest number of records of a cache, so that the table can be mapped at once.
+     */
+    private static final int MAX_RECORDS = (Integer.MAX_VALUE / 8 - 1) / 2;
+
+    /**
+     * The base 2 logarithm of the number of bytes between the starts of two segments.
+     */
+    private static final int SEGMENT_SHIFT = 30;
+
+    /**
+     * The size of the buffer used to write cache files.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The cache file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The base 2 logarithm of the number of bytes between the starts of two segments.
+     */
+    private final int segmentShift;
+
+    /**
+     * The memory mapped records. Segment i maps the bytes from i * 2^segmentShift to the
+     * table, or 2 GB, whichever comes first, so that segments overlap and a record of less
+     * than 2^segmentShift bytes is always in the segment where it starts.
+     */
+    private final ByteBuffer[] segments;
+
+    /**
+     * The offsets of the description line and residues of each record, followed by the
+     * offset of the table.
+     */
+    private final LongBuffer table;
+
+    /**
+     * The number of records.
+     */
+    private final int size;
+
+    /**
+     * The index of the current record, -1 before the first call to {@link #next()}.
+     */
+    private int current = -1;
+
+    /**
+     * Open a cache file.
+     *
+     * @param cacheFile The cache file
+     * @throws IOException if the file cannot be opened or is malformed
+     */
+    public SequenceCache(final File cacheFile) throws IOException {
+        this(cacheFile, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Open a cache file, with segments of the given size.
+     *
+     * @param cacheFile    The cache file
+     * @param segmentShift The base 2 logarithm of the number of bytes between the starts of
+     *                     two segments
+     * @throws IOException if the file cannot be opened or is malformed
+     */
+    SequenceCache(final File cacheFile, final int segmentShift) throws IOException {
+        super();
+        this.segmentShift = segmentShift;
+        this.channel = new RandomAccessFile(cacheFile, "r").getChannel();
+        boolean opened = false;
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+                    || header.getInt() != VERSION) {
+                throw new IOException("Malformed sequence cache " + cacheFile);
+            }
+            final long numberOfRecords = header.getLong();
+            final long tableOffset = header.getLong();
+            if (numberOfRecords < 0 || numberOfRecords > MAX_RECORDS
+                    || tableOffset < HEADER_SIZE
+                    || channel.size() != tableOffset + (2 * numberOfRecords + 1) * 8) {
+                throw new IOException("Malformed sequence cache " + cacheFile
+                        + ": truncated file");
+            }
+            this.size = (int) numberOfRecords;
+            this.table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset,
+                    (2 * numberOfRecords + 1) * 8).asLongBuffer();
+            final int numberOfSegments = (int) ((tableOffset + (1L << segmentShift) - 1)
+                    >>> segmentShift);
+            this.segments = new ByteBuffer[numberOfSegments];
+            for (int i = 0; i < numberOfSegments; i++) {
+                final long start = (long) i << segmentShift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(Integer.MAX_VALUE, tableOffset - start));
+            }
+            opened = true;
+        } finally {
+            if (!opened) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the cache of a FASTA file, stored next to the file with the {@link #EXTENSION}
+     * extension. The cache is built first if it does not exist or is older than the FASTA
+     * file. It is built under a temporary name and renamed, so that concurrent jobs never
+     * open a partial cache.
+     *
+     * @param fastaFile The FASTA file, which may be compressed
+     * @return the cache of the file
+     * @throws IOException if the FASTA file cannot be read or the cache cannot be written
+     */
+    public static SequenceCache open(final File fastaFile) throws IOException {
+        final File cacheFile = new File(fastaFile.getPath() + EXTENSION);
+        if (!cacheFile.exists() || cacheFile.lastModified() < fastaFile.lastModified()) {
+            final File temporaryFile = File.createTempFile("squil", EXTENSION,
+                    cacheFile.getAbsoluteFile().getParentFile());
+            try {
+                build(fastaFile, temporaryFile);
+                if (!temporaryFile.renameTo(cacheFile)) {
+                    cacheFile.delete();
+                    if (!temporaryFile.renameTo(cacheFile)) {
+                        throw new IOException("Cannot rename " + temporaryFile + " to "
+                                + cacheFile);
+                    }
+                }
+            } finally {
+                temporaryFile.delete();
+            }
+        }
+        return new SequenceCache(cacheFile);
+    }
+
+    /**
+     * Writes the cache of a FASTA file.
+     *
+     * @param fastaFile The FASTA file, which may be compressed
+     * @param cacheFile Where to write the cache
+     * @return the number of records written
+     * @throws IOException if the FASTA file cannot be read or the cache cannot be written
+     */
+    public static int build(final File fastaFile, final File cacheFile) throws IOException {
+        final Reader reader = SequenceInputs.openReader(fastaFile);
+        try {
+            return build(new FastaParser(reader), cacheFile);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes the records that a parser returns to a cache file. The parser may bound the
+     * size of the records it returns, see
+     * {@link FastaParser#setMaxRecordSize(int, FastaParser.OversizedRecordPolicy)}, but
+     * must not return them in windows.
+     *
+     * @param parser    The parser over the records
+     * @param cacheFile Where to write the cache
+     * @return the number of records written
+     * @throws IOException if the records cannot be parsed or the cache cannot be written
+     */
+    public static int build(final FastaParser parser, final File cacheFile)
+            throws IOException {
+        final MutableString descriptionLine = new MutableString();
+        final MutableString residues = new MutableString();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int numberOfRecords = 0;
+        // the table is written to a temporary file as records are parsed, then appended, so
+        // that its size on the heap does not depend on the number of records
+        final File tableFile = File.createTempFile("squil", ".table",
+                cacheFile.getAbsoluteFile().getParentFile());
+        try {
+            final FileOutputStream output = new FileOutputStream(cacheFile);
+            try {
+                final FileChannel channel = output.getChannel();
+                channel.position(HEADER_SIZE);
+                long offset = HEADER_SIZE;
+                int count = 0;
+                final DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tableFile), 1 << 16));
+                try {
+                    while (parser.hasNext()) {
+                        parser.next(descriptionLine, residues);
+                        if (!parser.isEndOfRecord()) {
+                            throw new IllegalArgumentException(
+                                    "Records returned in windows cannot be cached");
+                        }
+                        if (numberOfRecords == MAX_RECORDS) {
+                            throw new IOException("Too many records for a sequence cache");
+                        }
+                        final CharSequence recordResidues = parser.getResidues();
+                        offsets.writeLong(offset);
+                        count = write(descriptionLine, buffer, count, output);
+                        offset += descriptionLine.length();
+                        offsets.writeLong(offset);
+                        count = write(recordResidues, buffer, count, output);
+                        offset += recordResidues.length();
+                        numberOfRecords++;
+                    }
+                    offsets.writeLong(offset);
+                } finally {
+                    offsets.close();
+                }
+                output.write(buffer, 0, count);
+                final long tableOffset = offset;
+                append(tableFile, channel);
+
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(numberOfRecords)
+                        .putLong(tableOffset);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            tableFile.delete();
+        }
+        return numberOfRecords;
+    }
+
+    /**
+     * Appends the content of a file to a channel.
+     *
+     * @param file    The file to append
+     * @param channel The channel, positioned at its end
+     * @throws IOException if the file cannot be read or the channel cannot be written
+     */
+    private static void append(final File file, final FileChannel channel)
+            throws IOException {
+        final FileChannel input = new FileInputStream(file).getChannel();
+        try {
+            final long length = input.size();
+            long position = 0;
+            while (position < length) {
+                position += input.transferTo(position, length - position, channel);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Returns the number of records in the cache.
+     *
+     * @return the number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the cache has at least one more record.
+     *
+     * @return True if a call to next will return another record.
+     */
+    public boolean hasNext() {
+        return current + 1 < size;
+    }
+
+    /**
+     * Moves to the next record, whose description line and residues are then returned by
+     * {@link #getDescriptionLine()} and {@link #getResidues()}. As
+     * {@link FastaParser#next(MutableString, MutableString)}, this method returns false for
+     * the last record, so that records are iterated with:
+     * <pre>
+     * while (cache.hasNext()) {
+     *     cache.next();
+     *     ...
+     * }
+     * </pre>
+     *
+     * @return true if another record follows the new current record, false if it is the
+     * last one or if there was no record left
+     */
+    public boolean next() {
+        if (!hasNext()) {
+            return false;
+        }
+        current++;
+        return hasNext();
+    }
+
+    /**
+     * Moves to the next record and copies it.
+     *
+     * @param descriptionLine Where the description line will be written.
+     * @param residues        Where the residues will be written.
+     * @return true if another record follows this one, see {@link #next()}
+     */
+    public boolean next(final MutableString descriptionLine, final MutableString residues) {
+        if (!hasNext()) {
+            return false;
+        }
+        final boolean more = next();
+        copy(getDescriptionLine(), descriptionLine);
+        copy(getResidues(), residues);
+        return more;
+    }
+
+    /**
+     * Moves back before the first record.
+     */
+    public void rewind() {
+        current = -1;
+    }
+
+    /**
+     * Returns the description line of the current record, see {@link #next()}.
+     *
+     * @return a view of the description line, without the '&gt;'
+     */
+    public CharSequence getDescriptionLine() {
+        return getDescriptionLine(checkCurrent());
+    }
+
+    /**
+     * Returns the residues of the current record, see {@link #next()}.
+     *
+     * @return a view of the residues
+     */
+    public CharSequence getResidues() {
+        return getResidues(checkCurrent());
+    }
+
+    /**
+     * Returns the description line of a record.
+     *
+     * @param index The index of the record, from zero to {@link #size()} excluded
+     * @return a view of the description line, without the '&gt;'
+     */
+    public CharSequence getDescriptionLine(final int index) {
+        checkIndex(index);
+        final long start = table.get(2 * index);
+        return view(start, (int) (table.get(2 * index + 1) - start));
+    }
+
+    /**
+     * Returns the residues of a record.
+     *
+     * @param index The index of the record, from zero to {@link #size()} excluded
+     * @return a view of the residues
+     */
+    public CharSequence getResidues(final int index) {
+        checkIndex(index);
+        final long start = table.get(2 * index + 1);
+        return view(start, (int) (table.get(2 * index + 2) - start));
+    }
+
+    /**
+     * Returns the number of residues of a record.
+     *
+     * @param index The index of the record, from zero to {@link #size()} excluded
+     * @return the number of residues
+     */
+    public int getLength(final int index) {
+        checkIndex(index);
+        return (int) (table.get(2 * index + 2) - table.get(2 * index + 1));
+    }
+
+    /**
+     * Closes the cache file. Views returned before remain valid.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns a view of a range of the cache file.
+     *
+     * @param start  The offset of the first byte
+     * @param length The number of bytes
+     * @return the characters of the range
+     */
+    private CharSequence view(final long start, final int length) {
+        final int segment = (int) (start >>> segmentShift);
+        final int position = (int) (start - ((long) segment << segmentShift));
+        final ByteBuffer bytes = segments[segment];
+        if (position + (long) length <= bytes.capacity()) {
+            return new MappedCharSequence(bytes, position, length);
+        }
+        // only records longer than a segment may extend past the segment where they start
+        try {
+            return new MappedCharSequence(
+                    channel.map(FileChannel.MapMode.READ_ONLY, start, length), 0, length);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot map record at offset " + start, e);
+        }
+    }
+
+    /**
+     * Returns the index of the current record.
+     *
+     * @return the index of the current record
+     * @throws IllegalStateException if {@link #next()} has not been called
+     */
+    private int checkCurrent() {
+        if (current < 0) {
+            throw new IllegalStateException("No current record");
+        }
+        return current;
+    }
+
+    /**
+     * Checks the index of a record.
+     *
+     * @param index The index of a record
+     * @throws IndexOutOfBoundsException if there is no such record
+     */
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Record " + index
+                    + " is not within a cache of " + size + " records");
+        }
+    }
+
+    /**
+     * Copies characters to a mutable string.
+     *
+     * @param chars       The characters to copy
+     * @param destination Where to copy the characters
+     */
+    private static void copy(final CharSequence chars, final MutableString destination) {
+        final int length = chars.length();
+        destination.setLength(length);
+        final char[] array = destination.array();
+        for (int i = 0; i < length; i++) {
+            array[i] = chars.charAt(i);
+        }
+        destination.changed();
+    }
+
+    /**
+     * Writes characters as Latin-1 bytes through a buffer.
+     *
+     * @param chars  The characters to write
+     * @param buffer The buffer
+     * @param count  The number of bytes in the buffer
+     * @param output Where the buffer is written when full
+     * @return the number of bytes in the buffer after the characters
+     * @throws IOException if the buffer cannot be written
+     */
+    private static int write(final CharSequence chars, final byte[] buffer, final int count,
+                             final FileOutputStream output) throws IOException {
+        final char[] array = chars instanceof MutableString
+                ? ((MutableString) chars).array() : null;
+        final int length = chars.length();
+        int position = count;
+        for (int start = 0; start < length;) {
+            if (position == buffer.length) {
+                output.write(buffer, 0, position);
+                position = 0;
+            }
+            final int end = start + Math.min(length - start, buffer.length - position);
+            if (array != null) {
+                for (int i = start; i < end; i++) {
+                    buffer[position++] = (byte) array[i];
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    buffer[position++] = (byte) chars.charAt(i);
+                }
+            }
+            start = end;
+        }
+        return position;
+    }
+}
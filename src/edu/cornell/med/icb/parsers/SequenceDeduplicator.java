@@ -0,0 +1,704 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Detects records whose residues are identical to the residues of a previous record.
+ * Residues are never stored: each sequence is reduced to a 128-bit MurmurHash3, kept in an
+ * open addressing table of primitive arrays next to the accession code of the first record
+ * with that sequence, its representative. Memory therefore grows with the number of unique
+ * sequences, not with the number of residues. Two different sequences with the same 128-bit
+ * hash would be reported as duplicates, which is not expected to happen on any database.
+ * <p>
+ * When a limit is set on the number of sequences held in memory, the table is sorted and
+ * written to a temporary file each time it is full, followed by the accession codes of its
+ * representatives. Each of these files is memory mapped and fronted by a Bloom filter, so
+ * that most new sequences are found to be unique without touching the files.
+ * <p>
+ * {@link #deduplicate(FastaParser, Writer, Writer)} writes the unique records of a FASTA
+ * file, or a map from the accession code of each record to the accession code of its
+ * representative, or both. Instances are not thread safe.
+ */
+public final class SequenceDeduplicator implements Closeable {
+    /**
+     * The number of residues per line of the unique records.
+     */
+    private static final int LINE_WIDTH = 60;
+
+    /**
+     * The initial number of slots of the table.
+     */
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    /**
+     * The number of bytes of an entry of the spilled tables: both halves of the hash and
+     * the offset of the accession code of the representative in the file.
+     */
+    private static final int ENTRY_SIZE = 24;
+
+    /**
+     * The number of Bloom filter bits per spilled hash.
+     */
+    private static final int BLOOM_BITS_PER_HASH = 10;
+
+    /**
+     * The number of bits tested in Bloom filters for each hash.
+     */
+    private static final int BLOOM_HASHES = 7;
+
+    /**
+     * The number of characters of each page of the accession code store.
+     */
+    private static final int PAGE_SIZE = 1 << 16;
+
+    /**
+     * The first half of the hash in each slot, zero with the second half in empty slots.
+     */
+    private long[] highHashes;
+
+    /**
+     * The second half of the hash in each slot.
+     */
+    private long[] lowHashes;
+
+    /**
+     * The position of the accession code of the representative of each slot in
+     * {@link #accessionPages}.
+     */
+    private long[] representatives;
+
+    /**
+     * The number of sequences in the table.
+     */
+    private int size;
+
+    /**
+     * The number of sequences held in memory before the table is spilled to disk, or
+     * {@link Integer#MAX_VALUE} if the table is never spilled.
+     */
+    private final int maxSequencesInMemory;
+
+    /**
+     * The directory of the spilled tables, or null if the table is never spilled.
+     */
+    private final File directory;
+
+    /**
+     * The accession codes of the representatives in the table, each preceded by its length
+     * in two characters.
+     */
+    private final List<char[]> accessionPages = new ArrayList<char[]>();
+
+    /**
+     * The number of characters used in {@link #accessionPages}.
+     */
+    private long accessionsLength;
+
+    /**
+     * The spilled tables.
+     */
+    private final List<Run> runs = new ArrayList<Run>();
+
+    /**
+     * The number of sequences added.
+     */
+    private long numberOfSequences;
+
+    /**
+     * The number of unique sequences added.
+     */
+    private long numberOfUniqueSequences;
+
+    /**
+     * The hash of the current sequence.
+     */
+    private final long[] hash = new long[2];
+
+    /**
+     * Create a deduplicator that holds all the hashes in memory.
+     */
+    public SequenceDeduplicator() {
+        this(Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Create a deduplicator that holds at most the given number of hashes in memory, and
+     * spills the others to temporary files.
+     *
+     * @param maxSequencesInMemory The number of hashes held in memory
+     * @param directory            Where the temporary files are written, or null for the
+     *                             default temporary directory
+     */
+    public SequenceDeduplicator(final int maxSequencesInMemory, final File directory) {
+        super();
+        // any other value than Integer.MAX_VALUE spills, to the default temporary directory
+        // when directory is null
+        if (maxSequencesInMemory < 1 || (maxSequencesInMemory != Integer.MAX_VALUE
+                && maxSequencesInMemory > Integer.MAX_VALUE / ENTRY_SIZE)) {
+            throw new IllegalArgumentException("Invalid number of sequences in memory: "
+                    + maxSequencesInMemory);
+        }
+        this.maxSequencesInMemory = maxSequencesInMemory;
+        this.directory = directory != null || maxSequencesInMemory == Integer.MAX_VALUE
+                ? directory : new File(System.getProperty("java.io.tmpdir"));
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Adds the residues of a record.
+     *
+     * @param accession      The accession code of the record
+     * @param residues       The residues of the record
+     * @param representative Where the accession code of the first record with the same
+     *                       residues is written, which is accession if the residues are new
+     * @return true if the residues were not added before
+     * @throws IOException if the spilled tables cannot be read or written
+     */
+    public boolean add(final CharSequence accession, final CharSequence residues,
+                       final MutableString representative) throws IOException {
+        numberOfSequences++;
+        hash(residues, hash);
+        final long high = hash[0];
+        final long low = hash[1];
+        int slot = (int) high & (highHashes.length - 1);
+        while (highHashes[slot] != 0 || lowHashes[slot] != 0) {
+            if (highHashes[slot] == high && lowHashes[slot] == low) {
+                readAccession(representatives[slot], representative);
+                return false;
+            }
+            slot = (slot + 1) & (highHashes.length - 1);
+        }
+        for (final Run run : runs) {
+            if (run.find(high, low, representative)) {
+                return false;
+            }
+        }
+        highHashes[slot] = high;
+        lowHashes[slot] = low;
+        representatives[slot] = storeAccession(accession);
+        representative.replace(accession);
+        numberOfUniqueSequences++;
+        if (++size >= maxSequencesInMemory) {
+            spill();
+        } else if (size > (highHashes.length >> 1) + (highHashes.length >> 2)) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * Adds every record of a FASTA file. Accession codes are obtained with
+     * {@link FastaParser#guessAccessionCode(CharSequence, MutableString)}.
+     *
+     * @param parser        The parser over the FASTA file
+     * @param uniqueRecords Where the records with new residues are written, or null
+     * @param clusters      Where the accession code of each record is written, followed by
+     *                      a tab and the accession code of its representative, or null
+     * @return the number of unique records
+     * @throws IOException if the file cannot be parsed or the records cannot be written
+     */
+    public long deduplicate(final FastaParser parser, final Writer uniqueRecords,
+                            final Writer clusters) throws IOException {
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        final MutableString accession = new MutableString();
+        final MutableString representative = new MutableString();
+        long count = 0;
+        while (parser.hasNext()) {
+            // next returns false for the last record, which is still filled
+            parser.next(description, residues);
+            FastaParser.guessAccessionCode(description, accession);
+            final boolean unique = add(accession, residues, representative);
+            if (unique) {
+                count++;
+                if (uniqueRecords != null) {
+                    uniqueRecords.write('>');
+                    description.write(uniqueRecords);
+                    uniqueRecords.write('\n');
+                    for (int i = 0; i < residues.length(); i += LINE_WIDTH) {
+                        uniqueRecords.write(residues.array(), i,
+                                Math.min(LINE_WIDTH, residues.length() - i));
+                        uniqueRecords.write('\n');
+                    }
+                }
+            }
+            if (clusters != null) {
+                accession.write(clusters);
+                clusters.write('\t');
+                representative.write(clusters);
+                clusters.write('\n');
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of sequences added.
+     *
+     * @return the number of calls to {@link #add(CharSequence, CharSequence, MutableString)}
+     */
+    public long getNumberOfSequences() {
+        return numberOfSequences;
+    }
+
+    /**
+     * Returns the number of different sequences added.
+     *
+     * @return the number of unique sequences
+     */
+    public long getNumberOfUniqueSequences() {
+        return numberOfUniqueSequences;
+    }
+
+    /**
+     * Returns the number of times the table was spilled to disk.
+     *
+     * @return the number of temporary files of hashes
+     */
+    public int getNumberOfSpills() {
+        return runs.size();
+    }
+
+    /**
+     * Deletes the temporary files.
+     *
+     * @throws IOException if a file cannot be closed
+     */
+    public void close() throws IOException {
+        for (final Run run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    /**
+     * Allocates an empty table.
+     *
+     * @param capacity The number of slots, a power of two
+     */
+    private void allocate(final int capacity) {
+        highHashes = new long[capacity];
+        lowHashes = new long[capacity];
+        representatives = new long[capacity];
+    }
+
+    /**
+     * Doubles the number of slots of the table.
+     */
+    private void rehash() {
+        final long[] oldHighHashes = highHashes;
+        final long[] oldLowHashes = lowHashes;
+        final long[] oldRepresentatives = representatives;
+        allocate(2 * oldHighHashes.length);
+        final int mask = highHashes.length - 1;
+        for (int i = 0; i < oldHighHashes.length; i++) {
+            if (oldHighHashes[i] != 0 || oldLowHashes[i] != 0) {
+                int slot = (int) oldHighHashes[i] & mask;
+                while (highHashes[slot] != 0 || lowHashes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                highHashes[slot] = oldHighHashes[i];
+                lowHashes[slot] = oldLowHashes[i];
+                representatives[slot] = oldRepresentatives[i];
+            }
+        }
+    }
+
+    /**
+     * Writes the table, sorted by hash, to a new temporary file and empties it.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void spill() throws IOException {
+        final long[] highs = new long[size];
+        final long[] lows = new long[size];
+        final int[] slots = new int[size];
+        int count = 0;
+        for (int i = 0; i < highHashes.length; i++) {
+            if (highHashes[i] != 0 || lowHashes[i] != 0) {
+                highs[count] = highHashes[i];
+                lows[count] = lowHashes[i];
+                slots[count++] = i;
+            }
+        }
+        Sorting.sort(highs, lows, slots, 0, count);
+
+        final Run run = new Run(File.createTempFile("squil-dedup-", ".hashes", directory),
+                count);
+        boolean written = false;
+        try {
+            write(run, highs, lows, slots, count);
+            run.map();
+            written = true;
+        } finally {
+            if (!written) {
+                run.delete();
+            }
+        }
+        runs.add(run);
+
+        Arrays.fill(highHashes, 0L);
+        Arrays.fill(lowHashes, 0L);
+        size = 0;
+        accessionPages.clear();
+        accessionsLength = 0;
+    }
+
+    /**
+     * Writes the sorted entries of the table, then their accession codes, to the file of a
+     * run.
+     *
+     * @param run   The run
+     * @param highs The first halves of the hashes, sorted
+     * @param lows  The second halves of the hashes
+     * @param slots The slots of the entries in the table
+     * @param count The number of entries
+     * @throws IOException if the file cannot be written
+     */
+    private void write(final Run run, final long[] highs, final long[] lows, final int[] slots,
+                       final int count) throws IOException {
+        final DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run.file), 1 << 16));
+        try {
+            // the entries, then the accession codes in the same order
+            long accessionOffset = (long) count * ENTRY_SIZE;
+            for (int i = 0; i < count; i++) {
+                output.writeLong(highs[i]);
+                output.writeLong(lows[i]);
+                output.writeLong(accessionOffset);
+                run.addToFilter(highs[i], lows[i]);
+                accessionOffset += 2 + 2 * charAt(representatives[slots[i]]);
+            }
+            if (accessionOffset > Integer.MAX_VALUE) {
+                throw new IOException("Too many sequences in memory to spill them: " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                final long position = representatives[slots[i]];
+                final int length = charAt(position);
+                output.writeChar(length);
+                for (int j = 1; j <= length; j++) {
+                    output.writeChar(charAt(position + j));
+                }
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Appends an accession code to the store.
+     *
+     * @param accession The accession code
+     * @return the position of the accession code in the store
+     */
+    private long storeAccession(final CharSequence accession) {
+        final int length = accession.length();
+        if (length > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Accession code too long: " + length);
+        }
+        final long position = accessionsLength;
+        appendToStore((char) length);
+        for (int i = 0; i < length; i++) {
+            appendToStore(accession.charAt(i));
+        }
+        return position;
+    }
+
+    /**
+     * Appends a character to the store of accession codes.
+     *
+     * @param c The character to append
+     */
+    private void appendToStore(final char c) {
+        final int page = (int) (accessionsLength / PAGE_SIZE);
+        if (page == accessionPages.size()) {
+            accessionPages.add(new char[PAGE_SIZE]);
+        }
+        accessionPages.get(page)[(int) (accessionsLength % PAGE_SIZE)] = c;
+        accessionsLength++;
+    }
+
+    /**
+     * Reads an accession code from the store.
+     *
+     * @param position  The position of the accession code in the store
+     * @param accession Where the accession code is written
+     */
+    private void readAccession(final long position, final MutableString accession) {
+        final int length = charAt(position);
+        accession.setLength(0);
+        for (int i = 1; i <= length; i++) {
+            accession.append(charAt(position + i));
+        }
+    }
+
+    /**
+     * Returns a character of the store of accession codes.
+     *
+     * @param position The position of the character
+     * @return the character
+     */
+    private char charAt(final long position) {
+        return accessionPages.get((int) (position / PAGE_SIZE))[(int) (position % PAGE_SIZE)];
+    }
+
+    /**
+     * Computes the 128-bit MurmurHash3 (x64 variant) of a sequence of characters, taken as
+     * little endian pairs of bytes. The all zero hash, which marks empty slots, is replaced
+     * by another value.
+     *
+     * @param residues The characters to hash
+     * @param hash     Where the two halves of the hash are written
+     */
+    static void hash(final CharSequence residues, final long[] hash) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        final int length = residues.length();
+        long h1 = 0;
+        long h2 = 0;
+        final int blockEnd = length & ~7;
+        for (int i = 0; i < blockEnd; i += 8) {
+            long k1 = pack(residues, i, 4);
+            long k2 = pack(residues, i + 4, 4);
+            k1 *= c1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= c2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            k2 *= c2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= c1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        final int tail = length - blockEnd;
+        if (tail > 4) {
+            long k2 = pack(residues, blockEnd + 4, tail - 4);
+            k2 *= c2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= c1;
+            h2 ^= k2;
+        }
+        if (tail > 0) {
+            long k1 = pack(residues, blockEnd, Math.min(4, tail));
+            k1 *= c1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= c2;
+            h1 ^= k1;
+        }
+        h1 ^= 2L * length;
+        h2 ^= 2L * length;
+        h1 += h2;
+        h2 += h1;
+        h1 = mix(h1);
+        h2 = mix(h2);
+        h1 += h2;
+        h2 += h1;
+        hash[0] = h1;
+        hash[1] = h1 == 0 && h2 == 0 ? 1 : h2;
+    }
+
+    /**
+     * Packs up to four characters in a long, the first one in the lowest bits.
+     *
+     * @param chars  The characters
+     * @param offset The index of the first character to pack
+     * @param count  The number of characters to pack
+     * @return the packed characters
+     */
+    private static long pack(final CharSequence chars, final int offset, final int count) {
+        long packed = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            packed = (packed << 16) | chars.charAt(offset + i);
+        }
+        return packed;
+    }
+
+    /**
+     * The final mix of MurmurHash3, which makes every bit of the result depend on every bit
+     * of the input.
+     *
+     * @param value The value to mix
+     * @return the mixed value
+     */
+    private static long mix(final long value) {
+        long mixed = value;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xff51afd7ed558ccdL;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xc4ceb9fe1a85ec53L;
+        mixed ^= mixed >>> 33;
+        return mixed;
+    }
+
+    /**
+     * A table spilled to disk: the sorted entries in a memory mapped file, and a Bloom
+     * filter of their hashes.
+     */
+    private static final class Run {
+        /**
+         * The file of the entries.
+         */
+        private final File file;
+
+        /**
+         * The number of entries.
+         */
+        private final int count;
+
+        /**
+         * The bits of the Bloom filter.
+         */
+        private final long[] bits;
+
+        /**
+         * The entries and accession codes, once written.
+         */
+        private MappedByteBuffer entries;
+
+        /**
+         * Create a run.
+         *
+         * @param file  The file of the entries
+         * @param count The number of entries
+         */
+        Run(final File file, final int count) {
+            super();
+            this.file = file;
+            this.count = count;
+            final long numberOfBits = Math.max(64, (long) count * BLOOM_BITS_PER_HASH);
+            bits = new long[(int) (Long.highestOneBit(numberOfBits - 1) >>> 5)];
+        }
+
+        /**
+         * Adds a hash to the Bloom filter.
+         *
+         * @param high The first half of the hash
+         * @param low  The second half of the hash
+         */
+        void addToFilter(final long high, final long low) {
+            final long mask = 64L * bits.length - 1;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                final long bit = (low + i * (high | 1)) & mask;
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        /**
+         * Returns whether the Bloom filter may contain a hash.
+         *
+         * @param high The first half of the hash
+         * @param low  The second half of the hash
+         * @return false if the hash is certainly not in this run
+         */
+        boolean mayContain(final long high, final long low) {
+            final long mask = 64L * bits.length - 1;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                final long bit = (low + i * (high | 1)) & mask;
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Maps the written entries.
+         *
+         * @throws IOException if the file cannot be mapped
+         */
+        void map() throws IOException {
+            final RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                entries = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        input.length());
+            } finally {
+                input.close();
+            }
+        }
+
+        /**
+         * Looks for a hash in this run.
+         *
+         * @param high           The first half of the hash
+         * @param low            The second half of the hash
+         * @param representative Where the accession code of the representative is written,
+         *                       if the hash is found
+         * @return true if the hash is in this run
+         */
+        boolean find(final long high, final long low, final MutableString representative) {
+            if (!mayContain(high, low)) {
+                return false;
+            }
+            int from = 0;
+            int to = count;
+            while (from < to) {
+                final int middle = (from + to) >>> 1;
+                final int position = middle * ENTRY_SIZE;
+                final long middleHigh = entries.getLong(position);
+                final long middleLow = entries.getLong(position + 8);
+                if (middleHigh == high && middleLow == low) {
+                    final int accessionOffset = (int) entries.getLong(position + 16);
+                    final int length = entries.getChar(accessionOffset);
+                    representative.setLength(0);
+                    for (int i = 1; i <= length; i++) {
+                        representative.append(entries.getChar(accessionOffset + 2 * i));
+                    }
+                    return true;
+                }
+                if (middleHigh < high || (middleHigh == high && middleLow < low)) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Deletes the file of the entries.
+         */
+        void delete() {
+            entries = null;
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
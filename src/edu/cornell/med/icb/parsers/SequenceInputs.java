@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens sequence files whether they are compressed or not. The format is detected from the
+ * first bytes of the data, not from the file name: BGZF files are read with a
+ * {@link BgzfInputStream} that inflates members on several threads, other gzip files with a
+ * {@link GZIPInputStream}, and anything else is read as is. The readers returned can be
+ * given directly to {@link FastaParser#setReader(Reader)} or
+ * {@link ReaderFastaParser#setReader(Reader)}.
+ */
+public final class SequenceInputs {
+    /**
+     * The number of bytes needed to recognize a BGZF header.
+     */
+    private static final int HEADER_SIZE = 18;
+
+    /**
+     * The size of the buffer of gzip streams.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The encoding of sequence files. Sequence files are ASCII, and Latin-1 is the cheapest
+     * encoding to decode that accepts any byte.
+     */
+    private static final String ENCODING = "ISO-8859-1";
+
+    /**
+     * This class only has static methods.
+     */
+    private SequenceInputs() {
+        super();
+    }
+
+    /**
+     * Opens a file, inflating it if it is compressed. BGZF files are inflated on as many
+     * threads as there are processors.
+     *
+     * @param file The file to open
+     * @return a stream over the uncompressed content of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream openInputStream(final File file) throws IOException {
+        return openInputStream(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Opens a file, inflating it if it is compressed.
+     *
+     * @param file            The file to open
+     * @param numberOfThreads The number of threads that inflate BGZF members
+     * @return a stream over the uncompressed content of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream openInputStream(final File file, final int numberOfThreads)
+            throws IOException {
+        final byte[] header = new byte[HEADER_SIZE];
+        final int count;
+        final InputStream input = new FileInputStream(file);
+        try {
+            count = readHeader(input, header);
+        } finally {
+            input.close();
+        }
+        if (BgzfInputStream.isBgzf(header, count)) {
+            return new BgzfInputStream(file, numberOfThreads);
+        } else if (BgzfInputStream.isGzip(header, count)) {
+            return new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+        } else {
+            return new FileInputStream(file);
+        }
+    }
+
+    /**
+     * Wraps a stream to inflate it if it is gzip compressed, including BGZF. Streams cannot
+     * seek, so members are inflated on the calling thread; use
+     * {@link #openInputStream(File)} to inflate BGZF files on several threads.
+     *
+     * @param input The stream to read
+     * @return a stream over the uncompressed content of input
+     * @throws IOException if the stream cannot be read
+     */
+    public static InputStream openInputStream(final InputStream input) throws IOException {
+        final InputStream buffered = input.markSupported() ? input
+                : new BufferedInputStream(input, BUFFER_SIZE);
+        final byte[] header = new byte[HEADER_SIZE];
+        buffered.mark(HEADER_SIZE);
+        final int count = readHeader(buffered, header);
+        buffered.reset();
+        if (BgzfInputStream.isGzip(header, count)) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        } else {
+            return buffered;
+        }
+    }
+
+    /**
+     * Opens a reader over a sequence file, inflating it if it is compressed. BGZF files are
+     * inflated on as many threads as there are processors.
+     *
+     * @param file The file to open
+     * @return a reader over the uncompressed content of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static Reader openReader(final File file) throws IOException {
+        return new InputStreamReader(openInputStream(file), ENCODING);
+    }
+
+    /**
+     * Opens a reader over a sequence file, inflating it if it is compressed.
+     *
+     * @param file            The file to open
+     * @param numberOfThreads The number of threads that inflate BGZF members
+     * @return a reader over the uncompressed content of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static Reader openReader(final File file, final int numberOfThreads)
+            throws IOException {
+        return new InputStreamReader(openInputStream(file, numberOfThreads), ENCODING);
+    }
+
+    /**
+     * Reads the first bytes of a stream.
+     *
+     * @param input  The stream to read
+     * @param header Where the bytes are written
+     * @return the number of bytes read, less than the length of header if the stream is
+     * shorter
+     * @throws IOException if the stream cannot be read
+     */
+    private static int readHeader(final InputStream input, final byte[] header)
+            throws IOException {
+        int count = 0;
+        int n;
+        while (count < header.length
+                && (n = input.read(header, count, header.length - count)) != -1) {
+            count += n;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reverse complement and translation of nucleotide sequences, without allocating strings.
+ * Both operations are driven by lookup tables over the Latin-1 range: the complement of
+ * each IUPAC code, and the amino acid of each of the 64 codons. Sequences are complemented
+ * in place and translated into strings supplied by the caller, so that the same buffers
+ * can be reused for every record of a file.
+ * <p>
+ * Frames are numbered as in NCBI tools: 1, 2 and 3 start at the first, second and third
+ * base of the sequence, and -1, -2 and -3 start at the last, second to last and third to
+ * last base of the reverse complement. Codons that contain a base other than A, C, G, T or
+ * U translate to 'X', and stop codons translate to '*'.
+ */
+public final class SequenceOperations {
+    /**
+     * The amino acids of the standard genetic code, with the bases of each codon numbered
+     * T, C, A, G and the first base varying slowest.
+     */
+    public static final String STANDARD_CODE =
+            "FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG";
+
+    /**
+     * The amino acid of codons that contain an ambiguous base.
+     */
+    private static final char UNKNOWN_AMINO_ACID = 'X';
+
+    /**
+     * The number of entries in the lookup tables.
+     */
+    private static final int TABLE_SIZE = 256;
+
+    /**
+     * The complement of each Latin-1 character. Characters that are not nucleotide codes
+     * are their own complement.
+     */
+    private static final char[] COMPLEMENTS = new char[TABLE_SIZE];
+
+    /**
+     * The code of each Latin-1 character in codons: 0 to 3 for T (or U), C, A and G, in
+     * either case, and {@link #AMBIGUOUS} for any other character.
+     */
+    private static final int[] CODON_CODES = new int[TABLE_SIZE];
+
+    /**
+     * The codon code of the complement of each Latin-1 character.
+     */
+    private static final int[] COMPLEMENT_CODON_CODES = new int[TABLE_SIZE];
+
+    /**
+     * The codon code of characters that are not T, U, C, A or G. Any codon index that
+     * includes it is past the 64 codons, where the codon table holds 'X'.
+     */
+    private static final int AMBIGUOUS = 64;
+
+    /**
+     * The amino acid of each codon index, see {@link #codonIndex(int, int, int)}.
+     */
+    private static final char[] CODON_TABLE =
+            new char[codonIndex(AMBIGUOUS, AMBIGUOUS, AMBIGUOUS) + 1];
+
+    static {
+        for (char c = 0; c < TABLE_SIZE; c++) {
+            COMPLEMENTS[c] = c;
+        }
+        final String pairs = "ATCGRYKMBVDHSSWWNN";
+        for (int i = 0; i < pairs.length(); i += 2) {
+            setComplements(pairs.charAt(i), pairs.charAt(i + 1));
+        }
+        COMPLEMENTS['U'] = 'A';
+        COMPLEMENTS['u'] = 'a';
+
+        final String bases = "TCAG";
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            CODON_CODES[c] = AMBIGUOUS;
+        }
+        for (int code = 0; code < bases.length(); code++) {
+            final char base = bases.charAt(code);
+            CODON_CODES[base] = code;
+            CODON_CODES[Character.toLowerCase(base)] = code;
+        }
+        CODON_CODES['U'] = CODON_CODES['T'];
+        CODON_CODES['u'] = CODON_CODES['T'];
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            COMPLEMENT_CODON_CODES[c] = CODON_CODES[COMPLEMENTS[c]];
+        }
+
+        for (int i = 0; i < CODON_TABLE.length; i++) {
+            CODON_TABLE[i] = i < AMBIGUOUS ? STANDARD_CODE.charAt(i) : UNKNOWN_AMINO_ACID;
+        }
+    }
+
+    /**
+     * This class only has static methods.
+     */
+    private SequenceOperations() {
+        super();
+    }
+
+    /**
+     * Makes two nucleotide codes the complement of each other, in both cases.
+     *
+     * @param base       A nucleotide code, in uppercase
+     * @param complement The complement of base, in uppercase
+     */
+    private static void setComplements(final char base, final char complement) {
+        COMPLEMENTS[base] = complement;
+        COMPLEMENTS[complement] = base;
+        COMPLEMENTS[Character.toLowerCase(base)] = Character.toLowerCase(complement);
+        COMPLEMENTS[Character.toLowerCase(complement)] = Character.toLowerCase(base);
+    }
+
+    /**
+     * Returns the complement of a nucleotide code. IUPAC ambiguity codes are complemented,
+     * case is preserved, U is complemented to A, and any other character is returned
+     * unchanged.
+     *
+     * @param base The nucleotide code
+     * @return the complement of base
+     */
+    public static char complement(final char base) {
+        return base < TABLE_SIZE ? COMPLEMENTS[base] : base;
+    }
+
+    /**
+     * Replaces a sequence by its reverse complement, in place.
+     *
+     * @param bases The sequence to reverse complement
+     * @return bases
+     */
+    public static MutableString reverseComplement(final MutableString bases) {
+        reverseComplement(bases.array(), 0, bases.length());
+        bases.changed();
+        return bases;
+    }
+
+    /**
+     * Replaces a region of an array of bases by its reverse complement, in place.
+     *
+     * @param bases  The array of bases
+     * @param offset The index of the first base of the region
+     * @param length The number of bases in the region
+     */
+    public static void reverseComplement(final char[] bases, final int offset,
+                                         final int length) {
+        int left = offset;
+        int right = offset + length - 1;
+        while (left < right) {
+            final char leftBase = bases[left];
+            bases[left++] = complement(bases[right]);
+            bases[right--] = complement(leftBase);
+        }
+        if (left == right) {
+            bases[left] = complement(bases[left]);
+        }
+    }
+
+    /**
+     * Replaces a byte sequence by its reverse complement, in place.
+     *
+     * @param bases The sequence to reverse complement
+     * @return bases
+     */
+    public static MutableByteString reverseComplement(final MutableByteString bases) {
+        final byte[] bytes = bases.array();
+        int left = 0;
+        int right = bases.length() - 1;
+        while (left <= right) {
+            final byte leftBase = bytes[left];
+            bytes[left++] = (byte) COMPLEMENTS[bytes[right] & 0xFF];
+            bytes[right--] = (byte) COMPLEMENTS[leftBase & 0xFF];
+        }
+        return bases;
+    }
+
+    /**
+     * Translates a sequence in one frame.
+     *
+     * @param bases   The nucleotide sequence
+     * @param frame   The frame, 1, 2 or 3 on the sequence, -1, -2 or -3 on its reverse
+     *                complement
+     * @param protein Where the amino acids are written. Its content is replaced.
+     * @return protein
+     */
+    public static MutableString translate(final CharSequence bases, final int frame,
+                                          final MutableString protein) {
+        checkFrame(frame);
+        final int length = bases.length();
+        final int start = Math.abs(frame) - 1;
+        final int count = Math.max(0, (length - start) / 3);
+        protein.ensureCapacity(count);
+        protein.setLength(count);
+        final char[] aminoAcids = protein.array();
+        final char[] codons = CODON_TABLE;
+        if (bases instanceof MutableString) {
+            final char[] chars = ((MutableString) bases).array();
+            if (frame > 0) {
+                for (int i = 0, base = start; i < count; i++, base += 3) {
+                    aminoAcids[i] = codons[codonIndex(codeOf(chars[base]),
+                            codeOf(chars[base + 1]), codeOf(chars[base + 2]))];
+                }
+            } else {
+                for (int i = 0, base = length - 1 - start; i < count; i++, base -= 3) {
+                    aminoAcids[i] = codons[codonIndex(complementCodeOf(chars[base]),
+                            complementCodeOf(chars[base - 1]), complementCodeOf(chars[base - 2]))];
+                }
+            }
+        } else {
+            if (frame > 0) {
+                for (int i = 0, base = start; i < count; i++, base += 3) {
+                    aminoAcids[i] = codons[codonIndex(codeOf(bases.charAt(base)),
+                            codeOf(bases.charAt(base + 1)), codeOf(bases.charAt(base + 2)))];
+                }
+            } else {
+                for (int i = 0, base = length - 1 - start; i < count; i++, base -= 3) {
+                    aminoAcids[i] = codons[codonIndex(complementCodeOf(bases.charAt(base)),
+                            complementCodeOf(bases.charAt(base - 1)),
+                            complementCodeOf(bases.charAt(base - 2)))];
+                }
+            }
+        }
+        protein.changed();
+        return protein;
+    }
+
+    /**
+     * Translates a sequence in all six frames.
+     *
+     * @param bases    The nucleotide sequence
+     * @param proteins Where the amino acids of frames 1, 2, 3, -1, -2 and -3 are written, in
+     *                 this order. Frames with a null entry are not translated.
+     */
+    public static void translateSixFrames(final CharSequence bases,
+                                          final MutableString[] proteins) {
+        checkSixFrames(proteins);
+        for (int i = 0; i < 6; i++) {
+            if (proteins[i] != null) {
+                translate(bases, frameAt(i), proteins[i]);
+            }
+        }
+    }
+
+    /**
+     * Translates in all six frames the bases returned by a reader, until it returns -1.
+     * This is meant to be used with {@link ReaderFastaParser#getBaseReader()}, so that a
+     * chromosome is translated as it is parsed, without ever holding its bases in a string.
+     * Only the proteins are held in memory. The length of the sequence is only known at the
+     * end, so the codons of the reverse frames are collected by their position on the
+     * sequence and assigned to frames once all the bases have been read.
+     *
+     * @param bases    The reader over the nucleotide sequence
+     * @param proteins Where the amino acids of frames 1, 2, 3, -1, -2 and -3 are written, in
+     *                 this order. Frames with a null entry are not translated.
+     * @return the number of bases read
+     * @throws IOException if the bases cannot be read
+     */
+    public static long translateSixFrames(final Reader bases, final MutableString[] proteins)
+            throws IOException {
+        checkSixFrames(proteins);
+        final MutableString[] forward = new MutableString[3];
+        final MutableString[] reverse = new MutableString[3];
+        boolean translateReverse = false;
+        for (int phase = 0; phase < 3; phase++) {
+            forward[phase] = proteins[phase];
+            if (forward[phase] != null) {
+                forward[phase].setLength(0);
+            }
+            translateReverse |= proteins[3 + phase] != null;
+        }
+        if (translateReverse) {
+            for (int phase = 0; phase < 3; phase++) {
+                reverse[phase] = new MutableString();
+            }
+        }
+
+        final char[] buffer = new char[1 << 14];
+        final char[] codons = CODON_TABLE;
+        long position = 0;
+        int phase = 0;
+        // the codes of the two bases before the current one, on both strands
+        int previous2 = AMBIGUOUS;
+        int previous1 = AMBIGUOUS;
+        int complementPrevious2 = AMBIGUOUS;
+        int complementPrevious1 = AMBIGUOUS;
+        int count;
+        while ((count = bases.read(buffer, 0, buffer.length)) != -1) {
+            for (int i = 0; i < count; i++) {
+                final char base = buffer[i];
+                final int code = codeOf(base);
+                final int complementCode = complementCodeOf(base);
+                if (position >= 2) {
+                    // the codon that starts two bases before this one
+                    if (forward[phase] != null) {
+                        forward[phase].append(codons[codonIndex(previous2, previous1, code)]);
+                    }
+                    if (translateReverse) {
+                        reverse[phase].append(codons[codonIndex(complementCode,
+                                complementPrevious1, complementPrevious2)]);
+                    }
+                    phase = phase == 2 ? 0 : phase + 1;
+                }
+                previous2 = previous1;
+                previous1 = code;
+                complementPrevious2 = complementPrevious1;
+                complementPrevious1 = complementCode;
+                position++;
+            }
+        }
+        if (translateReverse) {
+            for (int frame = 1; frame <= 3; frame++) {
+                final MutableString protein = proteins[2 + frame];
+                if (protein != null) {
+                    // the last codon of frame -k ends k - 1 bases before the end
+                    protein.replace(reverse[(int) (((position - frame + 1) % 3 + 3) % 3)]);
+                    protein.reverse();
+                }
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Returns the frame translated into an entry of a six frames array.
+     *
+     * @param index The index in the array
+     * @return the frame
+     */
+    private static int frameAt(final int index) {
+        return index < 3 ? index + 1 : 2 - index;
+    }
+
+    /**
+     * Checks that a frame is valid.
+     *
+     * @param frame The frame to check
+     */
+    private static void checkFrame(final int frame) {
+        if (frame == 0 || frame < -3 || frame > 3) {
+            throw new IllegalArgumentException("Frame must be 1, 2, 3, -1, -2 or -3: " + frame);
+        }
+    }
+
+    /**
+     * Checks that an array has one entry for each of the six frames.
+     *
+     * @param proteins The array to check
+     */
+    private static void checkSixFrames(final MutableString[] proteins) {
+        if (proteins.length != 6) {
+            throw new IllegalArgumentException("Six proteins are needed: " + proteins.length);
+        }
+    }
+
+    /**
+     * Returns the codon code of a base.
+     *
+     * @param base The base
+     * @return the code of the base, or {@link #AMBIGUOUS}
+     */
+    private static int codeOf(final char base) {
+        return base < TABLE_SIZE ? CODON_CODES[base] : AMBIGUOUS;
+    }
+
+    /**
+     * Returns the codon code of the complement of a base.
+     *
+     * @param base The base
+     * @return the code of the complement of the base, or {@link #AMBIGUOUS}
+     */
+    private static int complementCodeOf(final char base) {
+        return base < TABLE_SIZE ? COMPLEMENT_CODON_CODES[base] : AMBIGUOUS;
+    }
+
+    /**
+     * Returns the index in {@link #CODON_TABLE} of a codon. The index of a codon that
+     * includes an ambiguous base is 64 or more.
+     *
+     * @param first  The code of the first base
+     * @param second The code of the second base
+     * @param third  The code of the third base
+     * @return the index of the codon
+     */
+    private static int codonIndex(final int first, final int second, final int third) {
+        return (first << 4) + (second << 2) + third;
+    }
+}
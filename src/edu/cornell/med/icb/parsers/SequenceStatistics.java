@@ -0,0 +1,626 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Summary statistics of the sequences of a FASTA file: number of records, length
+ * distribution with N50 and L50, GC content, N content and residue composition.
+ * <p>
+ * The statistics are computed in a single pass over the raw bytes of the file, without
+ * building records: {@link #compute(File, int, long)} splits the file into chunks, as
+ * {@link ParallelFastaParser} does, and each chunk accumulates its own primitive counters,
+ * which are merged at the end. Compressed files can be read with
+ * {@link #compute(InputStream)} and {@link SequenceInputs#openInputStream(File)}. Residues
+ * are all the characters of the sequence lines except line terminators, spaces and tabs.
+ * <p>
+ * Record lengths are kept exactly, so N50 and L50 are exact: lengths below 65,536 in a
+ * histogram, longer lengths in a list.
+ */
+public final class SequenceStatistics {
+    /**
+     * Lengths below this value are counted in a histogram, the others listed.
+     */
+    private static final int HISTOGRAM_SIZE = 1 << 16;
+
+    /**
+     * The size of the buffers used to read files.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The smallest number of bytes read at once from files.
+     */
+    private static final int MIN_READ_SIZE = 1 << 12;
+
+    /**
+     * The number of occurrences of each byte in sequence lines, including whitespace.
+     */
+    private final long[] counts = new long[256];
+
+    /**
+     * The number of records of each length below {@link #HISTOGRAM_SIZE}.
+     */
+    private final long[] histogram = new long[HISTOGRAM_SIZE];
+
+    /**
+     * The lengths of the records not counted in the histogram.
+     */
+    private long[] longLengths = new long[16];
+
+    /**
+     * The number of elements of longLengths.
+     */
+    private int numberOfLongLengths;
+
+    /**
+     * The number of records.
+     */
+    private long numberOfRecords;
+
+    /**
+     * The total number of residues.
+     */
+    private long totalLength;
+
+    /**
+     * The length of the shortest record.
+     */
+    private long minLength = Long.MAX_VALUE;
+
+    /**
+     * The length of the longest record.
+     */
+    private long maxLength;
+
+    /**
+     * Create empty statistics.
+     */
+    public SequenceStatistics() {
+        super();
+    }
+
+    /**
+     * Computes the statistics of a FASTA file on as many threads as there are processors.
+     *
+     * @param file The FASTA file
+     * @return the statistics of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static SequenceStatistics compute(final File file) throws IOException {
+        return compute(file, Runtime.getRuntime().availableProcessors(),
+                ParallelFastaParser.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Computes the statistics of a FASTA file.
+     *
+     * @param file            The FASTA file
+     * @param numberOfThreads The number of threads that read chunks of the file
+     * @param chunkSize       The number of bytes in a chunk
+     * @return the statistics of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static SequenceStatistics compute(final File file, final int numberOfThreads,
+                                             final long chunkSize) throws IOException {
+        if (numberOfThreads <= 0) {
+            throw new IllegalArgumentException("numberOfThreads must be positive");
+        }
+        final FileChannel channel = new FileInputStream(file).getChannel();
+        final ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads,
+                new ParallelFastaParser.DaemonThreadFactory("SequenceStatistics"));
+        try {
+            final long[] bounds = ParallelFastaParser.split(channel.size(), chunkSize);
+            // each thread accumulates the chunks it takes in its own statistics
+            final AtomicInteger nextChunk = new AtomicInteger();
+            final List<Future<SequenceStatistics>> workers =
+                    new ArrayList<Future<SequenceStatistics>>();
+            for (int i = 0; i < numberOfThreads; i++) {
+                workers.add(executor.submit(new Callable<SequenceStatistics>() {
+                    public SequenceStatistics call() throws IOException {
+                        final SequenceStatistics statistics = new SequenceStatistics();
+                        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                        int chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < bounds.length - 1) {
+                            statistics.scanChunk(channel, bounds[chunk], bounds[chunk + 1],
+                                    buffer);
+                        }
+                        return statistics;
+                    }
+                }));
+            }
+            final SequenceStatistics statistics = new SequenceStatistics();
+            for (final Future<SequenceStatistics> worker : workers) {
+                statistics.merge(worker.get());
+            }
+            return statistics;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing statistics");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot compute statistics", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            channel.close();
+        }
+    }
+
+    /**
+     * Computes the statistics of FASTA data read from a stream, on the calling thread.
+     *
+     * @param input The FASTA data
+     * @return the statistics of the data
+     * @throws IOException if the stream cannot be read
+     */
+    public static SequenceStatistics compute(final InputStream input) throws IOException {
+        final SequenceStatistics statistics = new SequenceStatistics();
+        final Scanner scanner = statistics.new Scanner(Long.MAX_VALUE, true);
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long position = 0;
+        int count;
+        while ((count = input.read(buffer, 0, buffer.length)) != -1) {
+            scanner.scan(buffer, 0, count, position);
+            position += count;
+        }
+        scanner.finish();
+        return statistics;
+    }
+
+    /**
+     * Adds the statistics of a record.
+     *
+     * @param residues The residues of the record
+     */
+    public void add(final CharSequence residues) {
+        final int length = residues.length();
+        long whitespace = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = residues.charAt(i);
+            if (c < counts.length) {
+                counts[c]++;
+            }
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                whitespace++;
+            }
+        }
+        addLength(length - whitespace);
+    }
+
+    /**
+     * Adds the statistics of other records to these statistics.
+     *
+     * @param other The statistics to add
+     */
+    public void merge(final SequenceStatistics other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            histogram[i] += other.histogram[i];
+        }
+        for (int i = 0; i < other.numberOfLongLengths; i++) {
+            addLongLength(other.longLengths[i]);
+        }
+        numberOfRecords += other.numberOfRecords;
+        totalLength += other.totalLength;
+        minLength = Math.min(minLength, other.minLength);
+        maxLength = Math.max(maxLength, other.maxLength);
+    }
+
+    /**
+     * Returns the number of records.
+     *
+     * @return the number of records
+     */
+    public long getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    /**
+     * Returns the total number of residues.
+     *
+     * @return the sum of the lengths of the records
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Returns the length of the shortest record.
+     *
+     * @return the minimum length, or zero if there is no record
+     */
+    public long getMinLength() {
+        return numberOfRecords == 0 ? 0 : minLength;
+    }
+
+    /**
+     * Returns the length of the longest record.
+     *
+     * @return the maximum length
+     */
+    public long getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Returns the mean length of the records.
+     *
+     * @return the mean length, or zero if there is no record
+     */
+    public double getMeanLength() {
+        return numberOfRecords == 0 ? 0 : totalLength / (double) numberOfRecords;
+    }
+
+    /**
+     * Returns the N50: the length of the shortest record among the longest records that
+     * hold half of the residues.
+     *
+     * @return the N50
+     */
+    public long getN50() {
+        return getNx(50);
+    }
+
+    /**
+     * Returns the L50: the number of the longest records that hold half of the residues.
+     *
+     * @return the L50
+     */
+    public long getL50() {
+        return getLx(50);
+    }
+
+    /**
+     * Returns the Nx, for instance the N90 for x = 90.
+     *
+     * @param x The percentage of residues, from 1 to 100
+     * @return the length of the shortest record among the longest records that hold x% of
+     * the residues
+     */
+    public long getNx(final int x) {
+        return lengthAndCount(x)[0];
+    }
+
+    /**
+     * Returns the Lx, for instance the L90 for x = 90.
+     *
+     * @param x The percentage of residues, from 1 to 100
+     * @return the number of the longest records that hold x% of the residues
+     */
+    public long getLx(final int x) {
+        return lengthAndCount(x)[1];
+    }
+
+    /**
+     * Returns the number of occurrences of a residue. Lowercase and uppercase residues are
+     * counted separately.
+     *
+     * @param residue The residue
+     * @return the number of occurrences of the residue
+     */
+    public long getCount(final char residue) {
+        return residue < counts.length && !isWhitespace(residue) ? counts[residue] : 0;
+    }
+
+    /**
+     * Returns the fraction of G and C among the A, C, G and T, in either case.
+     *
+     * @return the GC content, between 0 and 1
+     */
+    public double getGcContent() {
+        final long gc = counts['G'] + counts['C'] + counts['g'] + counts['c'];
+        final long at = counts['A'] + counts['T'] + counts['a'] + counts['t'];
+        return gc + at == 0 ? 0 : gc / (double) (gc + at);
+    }
+
+    /**
+     * Returns the fraction of N among all residues, in either case.
+     *
+     * @return the N content, between 0 and 1
+     */
+    public double getNContent() {
+        return totalLength == 0 ? 0 : (counts['N'] + counts['n']) / (double) totalLength;
+    }
+
+    /**
+     * Returns a report of the statistics, one value per line.
+     *
+     * @return the report
+     */
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder();
+        report.append("records\t").append(numberOfRecords).append('\n');
+        report.append("residues\t").append(totalLength).append('\n');
+        report.append("min length\t").append(getMinLength()).append('\n');
+        report.append("max length\t").append(maxLength).append('\n');
+        report.append("mean length\t").append(String.format("%.2f", getMeanLength()))
+                .append('\n');
+        report.append("N50\t").append(getN50()).append('\n');
+        report.append("L50\t").append(getL50()).append('\n');
+        report.append("GC\t").append(String.format("%.4f", getGcContent())).append('\n');
+        report.append("N\t").append(String.format("%.4f", getNContent())).append('\n');
+        for (char c = 0; c < counts.length; c++) {
+            if (getCount(c) > 0) {
+                report.append("count ").append(c).append('\t').append(counts[c]).append('\n');
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Computes the Nx and Lx.
+     *
+     * @param x The percentage of residues, from 1 to 100
+     * @return the Nx and the Lx
+     */
+    private long[] lengthAndCount(final int x) {
+        if (x < 1 || x > 100) {
+            throw new IllegalArgumentException("x must be between 1 and 100: " + x);
+        }
+        final long target = (totalLength * x + 99) / 100;
+        long sum = 0;
+        long records = 0;
+        if (target == 0) {
+            return new long[] {0, 0};
+        }
+        Arrays.sort(longLengths, 0, numberOfLongLengths);
+        for (int i = numberOfLongLengths - 1; i >= 0; i--) {
+            sum += longLengths[i];
+            records++;
+            if (sum >= target) {
+                return new long[] {longLengths[i], records};
+            }
+        }
+        for (int length = HISTOGRAM_SIZE - 1; length > 0; length--) {
+            final long count = histogram[length];
+            if (count > 0 && sum + count * length >= target) {
+                records += (target - sum + length - 1) / length;
+                return new long[] {length, records};
+            }
+            sum += count * length;
+            records += count;
+        }
+        return new long[] {0, records};
+    }
+
+    /**
+     * Records the length of a record.
+     *
+     * @param length The number of residues of the record
+     */
+    private void addLength(final long length) {
+        numberOfRecords++;
+        totalLength += length;
+        minLength = Math.min(minLength, length);
+        maxLength = Math.max(maxLength, length);
+        if (length < HISTOGRAM_SIZE) {
+            histogram[(int) length]++;
+        } else {
+            addLongLength(length);
+        }
+    }
+
+    /**
+     * Adds a length to the list of long lengths.
+     *
+     * @param length The length
+     */
+    private void addLongLength(final long length) {
+        if (numberOfLongLengths == longLengths.length) {
+            final long[] grown = new long[2 * longLengths.length];
+            System.arraycopy(longLengths, 0, grown, 0, numberOfLongLengths);
+            longLengths = grown;
+        }
+        longLengths[numberOfLongLengths++] = length;
+    }
+
+    /**
+     * Returns the number of whitespace bytes counted so far.
+     *
+     * @return the number of spaces, tabs and carriage returns
+     */
+    private long whitespace() {
+        return counts[' '] + counts['\t'] + counts['\r'];
+    }
+
+    /**
+     * Returns whether a character is ignored in sequence lines.
+     *
+     * @param c The character
+     * @return true for line terminators, spaces and tabs
+     */
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    /**
+     * Adds the statistics of the records that start in a chunk of a file. The records that
+     * start in the chunk are scanned until their end, even past the end of the chunk.
+     *
+     * @param channel The file
+     * @param start   The offset of the first byte of the chunk
+     * @param end     The offset after the last byte of the chunk
+     * @param buffer  The buffer used to read the file
+     * @throws IOException if the file cannot be read
+     */
+    private void scanChunk(final FileChannel channel, final long start, final long end,
+                           final ByteBuffer buffer) throws IOException {
+        final byte[] bytes = buffer.array();
+        boolean lineStart = true;
+        if (start > 0) {
+            buffer.clear();
+            buffer.limit(1);
+            channel.read(buffer, start - 1);
+            lineStart = bytes[0] == '\n';
+        }
+        final Scanner scanner = new Scanner(end, lineStart);
+        long position = start;
+        // past the end of the chunk, read little at first: the next record is often close
+        int readSize = MIN_READ_SIZE;
+        while (true) {
+            buffer.clear();
+            if (position < end) {
+                buffer.limit((int) Math.min(BUFFER_SIZE, Math.max(MIN_READ_SIZE, end - position)));
+            } else {
+                buffer.limit(readSize);
+                readSize = Math.min(BUFFER_SIZE, 2 * readSize);
+            }
+            final int count = channel.read(buffer, position);
+            if (count == -1 || !scanner.scan(bytes, 0, count, position)) {
+                break;
+            }
+            position += count;
+        }
+        scanner.finish();
+    }
+
+    /**
+     * A state machine over the bytes of FASTA data that accumulates statistics.
+     */
+    private final class Scanner {
+        /**
+         * Records that start at or after this offset are not scanned.
+         */
+        private final long limit;
+
+        /**
+         * Whether the next byte starts a line.
+         */
+        private boolean lineStart;
+
+        /**
+         * Whether the current line is a description line.
+         */
+        private boolean inDescription;
+
+        /**
+         * Whether a record is being scanned; lines before the first record are skipped.
+         */
+        private boolean inRecord;
+
+        /**
+         * The number of bytes of the sequence lines of the current record, without the
+         * line feeds.
+         */
+        private long recordBytes;
+
+        /**
+         * The number of whitespace bytes counted when the current record started.
+         */
+        private long whitespaceAtStart;
+
+        Scanner(final long limit, final boolean lineStart) {
+            super();
+            this.limit = limit;
+            this.lineStart = lineStart;
+        }
+
+        /**
+         * Scans bytes.
+         *
+         * @param bytes    The bytes
+         * @param from     The index of the first byte to scan
+         * @param to       The index after the last byte to scan
+         * @param position The offset of bytes[from] in the data
+         * @return false if a record that starts at or after the limit was reached
+         */
+        boolean scan(final byte[] bytes, final int from, final int to, final long position) {
+            final long[] byteCounts = counts;
+            int i = from;
+            while (i < to) {
+                if (lineStart) {
+                    lineStart = false;
+                    if (bytes[i] == '>') {
+                        if (position + i - from >= limit) {
+                            return false;
+                        }
+                        endRecord();
+                        inRecord = true;
+                        inDescription = true;
+                        recordBytes = 0;
+                        whitespaceAtStart = whitespace();
+                        i++;
+                        continue;
+                    }
+                }
+                int j = i;
+                if (inDescription || !inRecord) {
+                    while (j < to && bytes[j] != '\n') {
+                        j++;
+                    }
+                } else {
+                    while (j < to) {
+                        final byte b = bytes[j];
+                        if (b == '\n') {
+                            break;
+                        }
+                        byteCounts[b & 0xFF]++;
+                        j++;
+                    }
+                    recordBytes += j - i;
+                }
+                if (j < to) {
+                    // end of line
+                    inDescription = false;
+                    lineStart = true;
+                    j++;
+                }
+                i = j;
+            }
+            return true;
+        }
+
+        /**
+         * Ends the current record at the end of the data.
+         */
+        void finish() {
+            endRecord();
+        }
+
+        /**
+         * Records the length of the current record, if any.
+         */
+        private void endRecord() {
+            if (inRecord) {
+                addLength(recordBytes - (whitespace() - whitespaceAtStart));
+                inRecord = false;
+            }
+        }
+    }
+}
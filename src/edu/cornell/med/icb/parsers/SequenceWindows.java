@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Cuts a sequence into fixed size windows that overlap by a fixed number of bases, or tile
+ * the sequence when the overlap is zero. Bases are read from a reader, typically the base
+ * reader of a {@link ReaderFastaParser}, so that a chromosome can be cut without ever
+ * being held in memory:
+ * <pre>
+ * final SequenceWindows windows = new SequenceWindows(1000000, 10000);
+ * while (parser.hasNextSequence()) {
+ *     parser.nextSequence(description);
+ *     windows.setReader(parser.getBaseReader());
+ *     while (windows.next()) {
+ *         process(windows.getWindow(), windows.getStart(), windows.getEnd());
+ *     }
+ * }
+ * </pre>
+ * Windows start every windowSize - overlap bases; the last window ends with the sequence
+ * and may be shorter than the others. Bases are kept in a buffer of twice the window size,
+ * in which the window slides forward; when it reaches the end of the buffer, the bases it
+ * shares with the next window are moved to the start. Each base is thus copied about once,
+ * whatever the overlap, and every window is a contiguous range of the buffer, which
+ * {@link #getWindow()} returns as a view rather than a copy.
+ */
+public final class SequenceWindows {
+    /**
+     * The number of bases of a window.
+     */
+    private final int windowSize;
+
+    /**
+     * The number of bases between the starts of two consecutive windows.
+     */
+    private final int step;
+
+    /**
+     * The bases read, of which the first {@link #filled} are valid.
+     */
+    private final char[] buffer;
+
+    /**
+     * The number of valid bases in {@link #buffer}.
+     */
+    private int filled;
+
+    /**
+     * The index in {@link #buffer} of the first base of the current window.
+     */
+    private int offset;
+
+    /**
+     * The number of bases of the current window.
+     */
+    private int length;
+
+    /**
+     * The position in the sequence of the first base of the current window.
+     */
+    private long start;
+
+    /**
+     * The index of the current window in the sequence, -1 before the first window.
+     */
+    private long index;
+
+    /**
+     * Where bases are read from, or null once the end of the sequence is reached.
+     */
+    private Reader reader;
+
+    /**
+     * The current window.
+     */
+    private final Window window = new Window();
+
+    /**
+     * Create windows of the given size.
+     *
+     * @param windowSize The number of bases of a window
+     * @param overlap    The number of bases shared by consecutive windows, less than
+     *                   windowSize; zero to tile sequences
+     */
+    public SequenceWindows(final int windowSize, final int overlap) {
+        super();
+        if (windowSize <= 0 || windowSize > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+        if (overlap < 0 || overlap >= windowSize) {
+            throw new IllegalArgumentException("Invalid overlap " + overlap
+                    + " for windows of size " + windowSize);
+        }
+        this.windowSize = windowSize;
+        this.step = windowSize - overlap;
+        this.buffer = new char[2 * windowSize];
+    }
+
+    /**
+     * Create windows over a sequence.
+     *
+     * @param reader     The bases of the sequence
+     * @param windowSize The number of bases of a window
+     * @param overlap    The number of bases shared by consecutive windows, less than
+     *                   windowSize; zero to tile the sequence
+     */
+    public SequenceWindows(final Reader reader, final int windowSize, final int overlap) {
+        this(windowSize, overlap);
+        setReader(reader);
+    }
+
+    /**
+     * Starts cutting another sequence. The reader is not closed.
+     *
+     * @param baseReader The bases of the sequence
+     */
+    public void setReader(final Reader baseReader) {
+        this.reader = baseReader;
+        this.filled = 0;
+        this.offset = 0;
+        this.length = 0;
+        this.start = 0;
+        this.index = -1;
+    }
+
+    /**
+     * Moves to the next window. A window is returned as long as it has bases that the
+     * previous window does not have.
+     *
+     * @return true if there was another window, false at the end of the sequence
+     * @throws IOException if the bases cannot be read
+     */
+    public boolean next() throws IOException {
+        if (index == -1) {
+            fill(windowSize);
+            length = filled;
+        } else {
+            if (length < windowSize) {
+                // a short window ends the sequence
+                length = 0;
+                return false;
+            }
+            int newOffset = offset + step;
+            if (newOffset + windowSize > buffer.length) {
+                // move the bases shared with the next window to the start of the buffer
+                filled -= newOffset;
+                System.arraycopy(buffer, newOffset, buffer, 0, filled);
+                newOffset = 0;
+            }
+            final int previousEnd = filled;
+            fill(newOffset + windowSize);
+            if (filled == previousEnd) {
+                length = 0;
+                return false;
+            }
+            offset = newOffset;
+            start += step;
+            length = filled - offset;
+        }
+        if (length == 0) {
+            return false;
+        }
+        index++;
+        return true;
+    }
+
+    /**
+     * Returns the bases of the current window. The view is reused and its content changes
+     * with each call to {@link #next()}.
+     *
+     * @return a view of the bases of the current window
+     */
+    public CharSequence getWindow() {
+        return window;
+    }
+
+    /**
+     * Copies the bases of the current window.
+     *
+     * @param bases Where the bases are written
+     */
+    public void getWindow(final MutableString bases) {
+        bases.setLength(0);
+        bases.append(buffer, offset, length);
+    }
+
+    /**
+     * Returns the array that holds the bases of the current window, for loops that cannot
+     * afford a call per base. The window starts at {@link #getOffset()} and has
+     * {@link #getLength()} bases; the array must not be modified.
+     *
+     * @return the array that holds the current window
+     */
+    public char[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the index in {@link #getBuffer()} of the first base of the current window.
+     *
+     * @return the offset of the current window in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of bases of the current window.
+     *
+     * @return the window size, or less for the last window of a sequence
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the position in the sequence of the first base of the current window.
+     *
+     * @return the zero-based position of the start of the window
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the position in the sequence after the last base of the current window.
+     *
+     * @return the zero-based, exclusive position of the end of the window
+     */
+    public long getEnd() {
+        return start + length;
+    }
+
+    /**
+     * Returns the index of the current window in the sequence.
+     *
+     * @return the number of windows before the current one
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * Reads bases until the buffer holds a number of bases or the sequence ends. The reader
+     * is not read again once it has returned -1, since the base reader of a
+     * {@link ReaderFastaParser} then moves to the next sequence.
+     *
+     * @param count The number of bases the buffer must hold
+     * @throws IOException if the bases cannot be read
+     */
+    private void fill(final int count) throws IOException {
+        while (reader != null && filled < count) {
+            final int n = reader.read(buffer, filled, count - filled);
+            if (n == -1) {
+                reader = null;
+            } else {
+                filled += n;
+            }
+        }
+    }
+
+    /**
+     * A view of the bases of the current window.
+     */
+    private final class Window implements CharSequence {
+        public int length() {
+            return length;
+        }
+
+        public char charAt(final int i) {
+            if (i < 0 || i >= length) {
+                throw new IndexOutOfBoundsException("Index " + i
+                        + " is not within a window of length " + length);
+            }
+            return buffer[offset + i];
+        }
+
+        public CharSequence subSequence(final int from, final int to) {
+            if (from < 0 || to > length || from > to) {
+                throw new IndexOutOfBoundsException("Invalid range " + from + "-" + to
+                        + " of a window of length " + length);
+            }
+            return new String(buffer, offset + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buffer, offset, length);
+        }
+    }
+}
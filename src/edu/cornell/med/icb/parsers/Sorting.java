@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+/**
+ * Sorts parallel arrays of primitives, without creating an object per element.
+ */
+final class Sorting {
+    /**
+     * Below this number of elements, ranges are sorted by insertion.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * This class only has static methods.
+     */
+    private Sorting() {
+        super();
+    }
+
+    /**
+     * Sorts parallel arrays by key, then by value. This is a quicksort that moves the
+     * elements of the three arrays together, so that no object is created per element.
+     *
+     * @param keys   The primary sort keys
+     * @param values The secondary sort keys, or null
+     * @param ints   Values moved with the keys
+     * @param from   The index of the first element to sort
+     * @param to     The index after the last element to sort
+     */
+    static void sort(final long[] keys, final long[] values, final int[] ints,
+                     final int from, final int to) {
+        int low = from;
+        int high = to;
+        while (high - low > INSERTION_SORT_THRESHOLD) {
+            final int middle = (low + high) >>> 1;
+            final int pivotIndex = medianOfThree(keys, values, low, middle, high - 1);
+            final long pivotKey = keys[pivotIndex];
+            final long pivotValue = values == null ? 0 : values[pivotIndex];
+            int i = low;
+            int j = high - 1;
+            while (i <= j) {
+                while (compare(keys, values, i, pivotKey, pivotValue) < 0) {
+                    i++;
+                }
+                while (compare(keys, values, j, pivotKey, pivotValue) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, ints, i++, j--);
+                }
+            }
+            // recurse on the smaller part, loop on the larger one
+            if (j + 1 - low < high - i) {
+                sort(keys, values, ints, low, j + 1);
+                low = i;
+            } else {
+                sort(keys, values, ints, i, high);
+                high = j + 1;
+            }
+        }
+        for (int i = low + 1; i < high; i++) {
+            for (int j = i; j > low && compare(keys, values, j - 1, keys[j],
+                    values == null ? 0 : values[j]) > 0; j--) {
+                swap(keys, values, ints, j, j - 1);
+            }
+        }
+    }
+
+    /**
+     * Compares an element of parallel arrays to a key and value.
+     *
+     * @param keys   The primary sort keys
+     * @param values The secondary sort keys, or null
+     * @param index  The index of the element
+     * @param key    The key to compare to
+     * @param value  The value to compare to
+     * @return a negative number, zero or a positive number if the element is lower than,
+     * equal to or greater than the key and value
+     */
+    private static int compare(final long[] keys, final long[] values, final int index,
+                               final long key, final long value) {
+        if (keys[index] != key) {
+            return keys[index] < key ? -1 : 1;
+        }
+        if (values == null || values[index] == value) {
+            return 0;
+        }
+        return values[index] < value ? -1 : 1;
+    }
+
+    /**
+     * Returns the index of the median of three elements of parallel arrays.
+     *
+     * @param keys   The primary sort keys
+     * @param values The secondary sort keys, or null
+     * @param a      The index of the first element
+     * @param b      The index of the second element
+     * @param c      The index of the third element
+     * @return the index of the median element
+     */
+    private static int medianOfThree(final long[] keys, final long[] values, final int a,
+                                     final int b, final int c) {
+        final long valueA = values == null ? 0 : values[a];
+        final long valueC = values == null ? 0 : values[c];
+        final int ab = compare(keys, values, b, keys[a], valueA);
+        final int bc = compare(keys, values, b, keys[c], valueC);
+        if ((ab >= 0 && bc <= 0) || (ab <= 0 && bc >= 0)) {
+            return b;
+        }
+        final int ac = compare(keys, values, c, keys[a], valueA);
+        return (ab > 0) == (ac > 0) ? c : a;
+    }
+
+    /**
+     * Swaps two elements of parallel arrays.
+     *
+     * @param keys   The primary sort keys
+     * @param values The secondary sort keys, or null
+     * @param ints   Values moved with the keys
+     * @param i      The index of an element
+     * @param j      The index of another element
+     */
+    private static void swap(final long[] keys, final long[] values, final int[] ints,
+                             final int i, final int j) {
+        final long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        if (values != null) {
+            final long value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        final int n = ints[i];
+        ints[i] = ints[j];
+        ints[j] = n;
+    }
+}
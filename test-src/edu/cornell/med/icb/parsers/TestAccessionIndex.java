@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.AccessionIndex}
+ * class.
+ */
+public class TestAccessionIndex extends TestCase {
+    /**
+     * The number of records of the test file.
+     */
+    private static final int NUMBER_OF_RECORDS = 5000;
+
+    /**
+     * The FASTA file indexed by the tests.
+     */
+    private File fastaFile;
+
+    /**
+     * The index file.
+     */
+    private File indexFile;
+
+    /**
+     * The residues of each record.
+     */
+    private final List<String> residues = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws IOException {
+        fastaFile = File.createTempFile("squil-accessions", ".fa");
+        indexFile = new File(fastaFile.getPath() + AccessionIndex.EXTENSION);
+        final Random random = new Random(11);
+        final StringBuilder fasta = new StringBuilder("junk before the first record\n");
+        for (int i = 0; i < NUMBER_OF_RECORDS; i++) {
+            final StringBuilder sequence = new StringBuilder();
+            final int length = random.nextInt(200);
+            for (int j = 0; j < length; j++) {
+                sequence.append("ACDEFGHIKLMNPQRSTVWY".charAt(random.nextInt(20)));
+            }
+            residues.add(sequence.toString());
+            // mix line terminators
+            final String newline = i % 3 == 0 ? "\r\n" : "\n";
+            fasta.append(">ACC").append(i).append(" protein ").append(i).append(newline);
+            for (int j = 0; j < length; j += 60) {
+                fasta.append(sequence, j, Math.min(length, j + 60)).append(newline);
+            }
+        }
+        final OutputStream output = new FileOutputStream(fastaFile);
+        output.write(fasta.toString().getBytes());
+        output.close();
+        AccessionIndex.build(fastaFile);
+    }
+
+    @Override
+    protected void tearDown() {
+        fastaFile.delete();
+        indexFile.delete();
+    }
+
+    /**
+     * Validates that every record can be found by accession code.
+     * @throws IOException if there is a problem with the files
+     */
+    public void testGet() throws IOException {
+        final AccessionIndex index = new AccessionIndex(fastaFile);
+        assertEquals(NUMBER_OF_RECORDS, index.size());
+        final MutableString description = new MutableString();
+        final MutableString sequence = new MutableString();
+        for (int i = 0; i < NUMBER_OF_RECORDS; i++) {
+            assertTrue(index.get("ACC" + i, description, sequence));
+            assertEquals("ACC" + i + " protein " + i, description.toString());
+            assertEquals(residues.get(i), sequence.toString());
+        }
+        assertFalse(index.get("ACC" + NUMBER_OF_RECORDS, description, sequence));
+        assertFalse(index.get("", description, sequence));
+        assertEquals(-1, index.getOffset("missing"));
+        assertEquals("junk before the first record\n".length(), index.getOffset("ACC0"));
+        index.close();
+    }
+
+    /**
+     * Validates that batches are read in the order of the file.
+     * @throws IOException if there is a problem with the files
+     */
+    public void testGetAll() throws IOException {
+        final List<String> accessions = new ArrayList<String>();
+        for (int i = 0; i < NUMBER_OF_RECORDS; i += 2) {
+            accessions.add("ACC" + i);
+            accessions.add("missing" + i);
+        }
+        Collections.shuffle(accessions, new Random(3));
+        final AccessionIndex index = new AccessionIndex(fastaFile, indexFile);
+        final List<Integer> visited = new ArrayList<Integer>();
+        index.getAll(accessions, new AccessionIndex.Visitor() {
+            public void visit(final int query, final MutableString descriptionLine,
+                              final MutableString sequence) {
+                final String accession = accessions.get(query);
+                assertTrue(descriptionLine.toString().startsWith(accession + " "));
+                final int record = Integer.parseInt(accession.substring(3));
+                assertEquals(residues.get(record), sequence.toString());
+                visited.add(record);
+            }
+        });
+        index.close();
+        assertEquals(NUMBER_OF_RECORDS / 2, visited.size());
+        for (int i = 0; i < visited.size(); i++) {
+            assertEquals(2 * i, visited.get(i).intValue());
+        }
+    }
+
+    /**
+     * Validates records whose description line and residues span many of the chunks in
+     * which records are read.
+     * @throws IOException if there is a problem with the files
+     */
+    public void testLargeRecords() throws IOException {
+        final StringBuilder longDescription = new StringBuilder("CHR1");
+        while (longDescription.length() < 50000) {
+            longDescription.append(" padding");
+        }
+        final StringBuilder chromosome = new StringBuilder();
+        final StringBuilder fasta = new StringBuilder(">").append(longDescription)
+                .append("\r\n");
+        final Random random = new Random(12);
+        for (int i = 0; i < 300000; i++) {
+            final char base = "ACGT".charAt(random.nextInt(4));
+            chromosome.append(base);
+            fasta.append(base);
+            if (i % 70 == 69) {
+                fasta.append("\r\n");
+            }
+        }
+        fasta.append("\n>CHR2 small\nAC\n");
+        final OutputStream output = new FileOutputStream(fastaFile);
+        output.write(fasta.toString().getBytes());
+        output.close();
+        AccessionIndex.build(fastaFile);
+        final AccessionIndex index = new AccessionIndex(fastaFile);
+        final MutableString description = new MutableString();
+        final MutableString sequence = new MutableString();
+        assertEquals(0, index.getOffset("CHR1"));
+        assertEquals(-1, index.getOffset("CHR3"));
+        assertTrue(index.get("CHR1", description, sequence));
+        assertEquals(longDescription.toString(), description.toString());
+        assertEquals(chromosome.toString(), sequence.toString());
+        assertTrue(index.get("CHR2", description, sequence));
+        assertEquals("CHR2 small", description.toString());
+        assertEquals("AC", sequence.toString());
+        index.close();
+    }
+
+    /**
+     * Validates that a record of more than 2 GB is indexed, and that the records after it
+     * can be read. The large record is a hole of the file, so it takes no space on disk.
+     * @throws IOException if there is a problem with the files
+     */
+    public void testRecordOverTwoGigabytes() throws IOException {
+        final long hugeLength = (1L << 31) + 100;
+        final RandomAccessFile file = new RandomAccessFile(fastaFile, "rw");
+        file.setLength(0);
+        file.write(">HUGE chromosome\n".getBytes());
+        file.seek(hugeLength);
+        file.write("\n>SMALL after\nACGT\n".getBytes());
+        file.close();
+        AccessionIndex.build(fastaFile);
+        final AccessionIndex index = new AccessionIndex(fastaFile);
+        final MutableString description = new MutableString();
+        final MutableString sequence = new MutableString();
+        assertEquals(0, index.getOffset("HUGE"));
+        assertEquals(hugeLength + 1, index.getOffset("SMALL"));
+        assertTrue(index.get("SMALL", description, sequence));
+        assertEquals("SMALL after", description.toString());
+        assertEquals("ACGT", sequence.toString());
+        index.close();
+    }
+
+    /**
+     * Validates that an index that does not match its FASTA file is detected.
+     * @throws IOException if there is a problem with the files
+     */
+    public void testOutOfDate() throws IOException {
+        final OutputStream output = new FileOutputStream(fastaFile);
+        output.write(">ACC0\nAAAA\n".getBytes());
+        output.close();
+        final AccessionIndex index = new AccessionIndex(fastaFile);
+        try {
+            index.get("ACC4000", new MutableString(), new MutableString());
+            fail("the index no longer matches the FASTA file");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed accession index"));
+        } finally {
+            index.close();
+        }
+    }
+}
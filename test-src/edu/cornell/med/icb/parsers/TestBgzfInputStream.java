@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.BgzfInputStream},
+ * {@link edu.cornell.med.icb.parsers.BgzfOutputStream} and
+ * {@link edu.cornell.med.icb.parsers.SequenceInputs} classes.
+ */
+public class TestBgzfInputStream extends TestCase {
+    /**
+     * The uncompressed content used by the tests.
+     */
+    private byte[] content;
+
+    /**
+     * Temporary files to delete after each test.
+     */
+    private final List<File> files = new ArrayList<File>();
+
+    @Override
+    protected void setUp() {
+        final Random random = new Random(7);
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            fasta.append(">seq").append(i).append('\n');
+            final int length = random.nextInt(300);
+            for (int j = 0; j < length; j++) {
+                fasta.append("ACGT".charAt(random.nextInt(4)));
+                if (j % 60 == 59) {
+                    fasta.append('\n');
+                }
+            }
+            fasta.append('\n');
+        }
+        content = fasta.toString().getBytes();
+    }
+
+    @Override
+    protected void tearDown() {
+        for (final File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Validates that BGZF files are inflated exactly, on one or several threads.
+     * @throws IOException if there is a problem with the temporary file
+     */
+    public void testRead() throws IOException {
+        final File file = writeBgzf(content, 10000);
+        for (int threads = 1; threads <= 3; threads++) {
+            final InputStream input = new BgzfInputStream(file, threads);
+            assertEquals(new String(content), new String(readFully(input, 777)));
+            assertEquals(-1, input.read());
+            input.close();
+        }
+    }
+
+    /**
+     * Validates that files written by {@link BgzfOutputStream} are read back exactly, and
+     * that its virtual offsets point where the input stream expects them.
+     * @throws IOException if there is a problem with the temporary file
+     */
+    public void testOutputStream() throws IOException {
+        final File file = createTempFile();
+        final BgzfOutputStream output = new BgzfOutputStream(new FileOutputStream(file));
+        final List<Long> offsets = new ArrayList<Long>();
+        for (int i = 0; i < content.length; i += 10000) {
+            offsets.add(output.getVirtualOffset());
+            output.write(content, i, Math.min(10000, content.length - i));
+        }
+        output.write('\n');
+        output.close();
+
+        final InputStream input = new BgzfInputStream(file, 2);
+        final byte[] read = readFully(input, 4096);
+        input.close();
+        assertEquals(content.length + 1, read.length);
+        assertEquals(new String(content), new String(read, 0, content.length));
+        final InputStream headerInput = new FileInputStream(file);
+        final byte[] header = new byte[18];
+        assertEquals(18, headerInput.read(header));
+        headerInput.close();
+        assertTrue(BgzfInputStream.isBgzf(header, 18));
+
+        final BgzfInputStream seekable = new BgzfInputStream(file, 1);
+        for (int i = offsets.size() - 1; i >= 0; i--) {
+            seekable.seek(offsets.get(i));
+            assertEquals(content[i * 10000] & 0xFF, seekable.read());
+        }
+        seekable.close();
+    }
+
+    /**
+     * Validates that virtual offsets can be used to come back to any position.
+     * @throws IOException if there is a problem with the temporary file
+     */
+    public void testSeek() throws IOException {
+        final File file = writeBgzf(content, 4096);
+        final BgzfInputStream input = new BgzfInputStream(file, 2);
+        final List<Long> offsets = new ArrayList<Long>();
+        final List<Integer> positions = new ArrayList<Integer>();
+        for (int i = 0; i < content.length; i++) {
+            if (i % 997 == 0) {
+                offsets.add(input.getVirtualOffset());
+                positions.add(i);
+            }
+            assertEquals(content[i] & 0xFF, input.read());
+        }
+        for (int i = offsets.size() - 1; i >= 0; i--) {
+            input.seek(offsets.get(i));
+            for (int j = positions.get(i); j < Math.min(content.length, positions.get(i) + 50);
+                 j++) {
+                assertEquals(content[j] & 0xFF, input.read());
+            }
+        }
+        input.seek(0);
+        assertEquals(content[0], (byte) input.read());
+        input.close();
+    }
+
+    /**
+     * Validates that corrupt members are reported.
+     * @throws IOException if there is a problem with the temporary file
+     */
+    public void testCorrupt() throws IOException {
+        final File file = writeBgzf(content, 10000);
+        final RandomAccessFile corrupt = new RandomAccessFile(file, "rw");
+        corrupt.seek(40);
+        corrupt.write(corrupt.read() ^ 0xFF);
+        corrupt.close();
+        final InputStream input = new BgzfInputStream(file, 2);
+        try {
+            readFully(input, 4096);
+            fail("the first member is corrupt");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed BGZF member"));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Validates that plain, gzip and BGZF files are recognized and parse the same.
+     * @throws IOException if there is a problem with the temporary files
+     */
+    public void testDetection() throws IOException {
+        final File plain = createTempFile();
+        final OutputStream plainOutput = new FileOutputStream(plain);
+        plainOutput.write(content);
+        plainOutput.close();
+        final File gzip = createTempFile();
+        final OutputStream gzipOutput = new GZIPOutputStream(new FileOutputStream(gzip));
+        gzipOutput.write(content);
+        gzipOutput.close();
+        final File bgzf = writeBgzf(content, 20000);
+
+        assertTrue(SequenceInputs.openInputStream(bgzf) instanceof BgzfInputStream);
+        final int expected = countRecords(plain);
+        assertEquals(2000, expected);
+        assertEquals(expected, countRecords(gzip));
+        assertEquals(expected, countRecords(bgzf));
+
+        final InputStream stream =
+                SequenceInputs.openInputStream(new FileInputStream(gzip));
+        assertEquals(new String(content), new String(readFully(stream, 1000)));
+        stream.close();
+    }
+
+    /**
+     * Parses a file opened by {@link SequenceInputs#openReader(File)}.
+     *
+     * @param file The file to parse
+     * @return the number of records
+     * @throws IOException if there is a problem with the file
+     */
+    private int countRecords(final File file) throws IOException {
+        final FastaParser parser = new FastaParser(SequenceInputs.openReader(file, 2));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        int count = 0;
+        while (parser.hasNext()) {
+            parser.next(description, residues);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads a stream until its end.
+     *
+     * @param input      The stream to read
+     * @param bufferSize The number of bytes requested by each read
+     * @return the bytes of the stream
+     * @throws IOException if there is a problem with the stream
+     */
+    private static byte[] readFully(final InputStream input, final int bufferSize)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[bufferSize];
+        int count;
+        while ((count = input.read(buffer, 0, buffer.length)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Creates a temporary file that is deleted after the test.
+     *
+     * @return the file
+     * @throws IOException if there is a problem with the temporary file
+     */
+    private File createTempFile() throws IOException {
+        final File file = File.createTempFile("squil-bgzf", ".gz");
+        files.add(file);
+        return file;
+    }
+
+    /**
+     * Writes a BGZF file the way bgzip does, ending with an empty member.
+     *
+     * @param bytes     The content of the file
+     * @param blockSize The number of uncompressed bytes per member
+     * @return the file
+     * @throws IOException if there is a problem with the temporary file
+     */
+    private File writeBgzf(final byte[] bytes, final int blockSize) throws IOException {
+        final File file = createTempFile();
+        final OutputStream output = new FileOutputStream(file);
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final byte[] deflated = new byte[1 << 16];
+        for (int offset = 0; offset < bytes.length; offset += blockSize) {
+            final int count = Math.min(blockSize, bytes.length - offset);
+            deflater.reset();
+            deflater.setInput(bytes, offset, count);
+            deflater.finish();
+            final int deflatedLength = deflater.deflate(deflated);
+            final int size = 18 + deflatedLength + 8;
+            output.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0,
+                    'B', 'C', 2, 0, (byte) (size - 1), (byte) ((size - 1) >> 8)});
+            output.write(deflated, 0, deflatedLength);
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, offset, count);
+            writeInt(output, (int) crc.getValue());
+            writeInt(output, count);
+        }
+        output.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0,
+                'B', 'C', 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        output.close();
+        deflater.end();
+        return file;
+    }
+
+    /**
+     * Writes a little endian int.
+     *
+     * @param output Where to write
+     * @param value  The value to write
+     * @throws IOException if there is a problem with the output
+     */
+    private static void writeInt(final OutputStream output, final int value)
+            throws IOException {
+        output.write(value);
+        output.write(value >> 8);
+        output.write(value >> 16);
+        output.write(value >> 24);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.FastaFollower}
+ * class.
+ */
+public class TestFastaFollower extends TestCase {
+    /**
+     * Validates that records appended in pieces by another thread are parsed as
+     * {@link FastaParser} parses the complete file.
+     * @throws Exception if there is a problem with the file or the writer
+     */
+    public void testFollow() throws Exception {
+        final String fasta = "garbage\n" + randomFasta(new Random(25), 500, "\n")
+                + randomFasta(new Random(26), 100, "\r\n") + ">last\nACGT";
+        final File file = File.createTempFile("squil", ".fa");
+        try {
+            file.delete();
+            // the file is created by the writer, after the follower started
+            final Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        append(file, fasta, new Random(27));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            final FastaFollower follower = new FastaFollower(file);
+            follower.setPollInterval(1, 4);
+            follower.setIdleTimeout(1000);
+            writer.start();
+            final List<String> records = readAll(follower);
+            writer.join();
+            assertEquals(parse(fasta), records);
+            assertEquals(fasta.length(), follower.getOffset());
+            assertFalse(follower.next(new MutableString(), new MutableString()));
+            follower.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Validates that following can be resumed from the offset of the records consumed.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testResume() throws IOException {
+        final String fasta = randomFasta(new Random(28), 200, "\n");
+        final File file = File.createTempFile("squil", ".fa");
+        try {
+            final OutputStream output = new FileOutputStream(file);
+            output.write(fasta.getBytes("ISO-8859-1"));
+            output.close();
+            final MutableString description = new MutableString();
+            final MutableString residues = new MutableString();
+            final List<String> records = new ArrayList<String>();
+            FastaFollower follower = new FastaFollower(file);
+            follower.setIdleTimeout(50);
+            for (int i = 0; i < 120; i++) {
+                assertTrue(follower.next(description, residues));
+                records.add(description + "/" + residues);
+            }
+            final long offset = follower.getOffset();
+            assertEquals('>', fasta.charAt((int) offset));
+            follower.close();
+
+            follower = new FastaFollower(file, offset);
+            follower.setIdleTimeout(50);
+            records.addAll(readAll(follower));
+            follower.close();
+            assertEquals(parse(fasta), records);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Validates that stopping does not return the record being written, and that a
+     * truncated file is detected.
+     * @throws Exception if there is a problem with the file
+     */
+    public void testStopAndTruncate() throws Exception {
+        final File file = File.createTempFile("squil", ".fa");
+        try {
+            final OutputStream output = new FileOutputStream(file);
+            output.write(">first\nAC\nGT\n>second\nTT".getBytes("ISO-8859-1"));
+            output.flush();
+            final FastaFollower follower = new FastaFollower(file);
+            final MutableString description = new MutableString();
+            final MutableString residues = new MutableString();
+            assertTrue(follower.next(description, residues));
+            assertEquals("first/ACGT", description + "/" + residues);
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        // stop anyway
+                    }
+                    follower.stop();
+                }
+            }.start();
+            // the second record could still grow, and there is no idle timeout
+            assertFalse(follower.next(description, residues));
+            assertEquals(13, follower.getOffset());
+            output.close();
+
+            final FastaFollower truncated = new FastaFollower(file);
+            truncated.setIdleTimeout(10000);
+            assertTrue(truncated.next(description, residues));
+            final RandomAccessFile shortened = new RandomAccessFile(file, "rw");
+            shortened.setLength(5);
+            shortened.close();
+            try {
+                truncated.next(description, residues);
+                fail("A truncated file must be detected");
+            } catch (IOException e) {
+                // expected
+            }
+            truncated.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Validates that following ends after the idle timeout when the file never appears.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testMissingFile() throws IOException {
+        final File file = File.createTempFile("squil", ".fa");
+        file.delete();
+        final FastaFollower follower = new FastaFollower(file);
+        follower.setIdleTimeout(30);
+        assertFalse(follower.next(new MutableString(), new MutableString()));
+        assertEquals(0, follower.getOffset());
+        follower.close();
+    }
+
+    /**
+     * Appends text to a file in random pieces, with short pauses.
+     *
+     * @param file The file to write
+     * @param text The text to write
+     * @param random The source of randomness for the pieces
+     * @throws IOException if the file cannot be written
+     * @throws InterruptedException if the writer is interrupted
+     */
+    private static void append(final File file, final String text, final Random random)
+            throws IOException, InterruptedException {
+        final byte[] bytes = text.getBytes("ISO-8859-1");
+        final OutputStream output = new FileOutputStream(file);
+        try {
+            int written = 0;
+            while (written < bytes.length) {
+                final int count = Math.min(bytes.length - written, random.nextInt(300));
+                output.write(bytes, written, count);
+                output.flush();
+                written += count;
+                if (random.nextInt(10) == 0) {
+                    Thread.sleep(random.nextInt(3));
+                }
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Reads the records of a follower until following ends.
+     *
+     * @param follower The follower
+     * @return the records, as description/residues
+     * @throws IOException if the file cannot be read
+     */
+    private static List<String> readAll(final FastaFollower follower) throws IOException {
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        final List<String> records = new ArrayList<String>();
+        while (follower.next(description, residues)) {
+            records.add(description + "/" + residues);
+        }
+        return records;
+    }
+
+    /**
+     * Parses records with a {@link FastaParser}.
+     *
+     * @param fasta The records
+     * @return the records, as description/residues
+     * @throws IOException if the records cannot be parsed
+     */
+    private static List<String> parse(final String fasta) throws IOException {
+        final FastaParser parser = new FastaParser(new StringReader(fasta));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        final List<String> records = new ArrayList<String>();
+        while (parser.hasNext()) {
+            parser.next(description, residues);
+            records.add(description + "/" + residues);
+        }
+        return records;
+    }
+
+    /**
+     * Returns random records.
+     *
+     * @param random     The source of randomness
+     * @param count      The number of records
+     * @param terminator The line terminator
+     * @return the records
+     */
+    private static String randomFasta(final Random random, final int count,
+                                      final String terminator) {
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            fasta.append(">seq").append(i).append(" length test").append(terminator);
+            final int length = random.nextInt(i % 50 == 0 ? 100000 : 200);
+            for (int j = 0; j < length; j++) {
+                fasta.append("ACGT".charAt(random.nextInt(4)));
+                if (j % 60 == 59) {
+                    fasta.append(terminator);
+                }
+            }
+            fasta.append(terminator);
+        }
+        return fasta.toString();
+    }
+}
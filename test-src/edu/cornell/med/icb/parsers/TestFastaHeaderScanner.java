@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.FastaHeaderScanner}
+ * class.
+ */
+public class TestFastaHeaderScanner extends TestCase {
+    /**
+     * A FASTA file with a comment, an empty record, a '&gt;' within residues and no final
+     * newline.
+     */
+    private static final String FASTA = "; comment before the first sequence\n"
+            + ">seq1 first sequence\n"
+            + "ACGTACGTAC\n"
+            + "GTA>CG\n"
+            + ">seq2\n"
+            + "\n"
+            + ">P1;P08100|third\r\n"
+            + "MNGTEGPNFY\r\n"
+            + "VPF";
+
+    /**
+     * The FASTA file written for a test.
+     */
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("squil-headers", ".fasta");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Validates the description lines, offsets and lengths of the records.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testRecords() throws IOException {
+        write(FASTA);
+        final FastaHeaderScanner scanner = new FastaHeaderScanner(file);
+        assertTrue(scanner.next());
+        assertEquals(new MutableString("seq1 first sequence"), scanner.getDescriptionLine());
+        assertEquals(FASTA.indexOf(">seq1"), scanner.getOffset());
+        assertEquals(FASTA.indexOf("ACGTACGTAC"), scanner.getResidueOffset());
+        assertEquals(FASTA.indexOf(">seq2"), scanner.getEndOffset());
+        assertEquals(16, scanner.getLength());
+        assertTrue(scanner.next());
+        assertEquals(new MutableString("seq2"), scanner.getDescriptionLine());
+        assertEquals(0, scanner.getLength());
+        assertTrue(scanner.next());
+        assertEquals(new MutableString("P1;P08100|third"), scanner.getDescriptionLine());
+        assertEquals(13, scanner.getLength());
+        assertEquals(FASTA.length(), scanner.getEndOffset());
+        assertFalse(scanner.next());
+        assertFalse(scanner.next());
+        scanner.close();
+
+        for (int windowSize = 2; windowSize <= 8; windowSize++) {
+            final FastaHeaderScanner expected = new FastaHeaderScanner(file);
+            final FastaHeaderScanner small = new FastaHeaderScanner(
+                    new FileInputStream(file).getChannel(), true, windowSize);
+            while (expected.next()) {
+                assertTrue(small.next());
+                assertEquals(expected.getDescriptionLine(), small.getDescriptionLine());
+                assertEquals(expected.getOffset(), small.getOffset());
+                assertEquals(expected.getLength(), small.getLength());
+            }
+            assertFalse(small.next());
+            expected.close();
+            small.close();
+        }
+
+        write("");
+        final FastaHeaderScanner empty = new FastaHeaderScanner(file);
+        assertFalse(empty.next());
+        empty.close();
+    }
+
+    /**
+     * Validates that the scanner agrees with {@link FastaParser} and {@link FastaIndex}, with
+     * windows of various sizes.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testSameRecordsAsParser() throws IOException {
+        final Random random = new Random(21);
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            fasta.append(">seq").append(i).append(" record ").append(i).append('\n');
+            final int length = random.nextInt(500);
+            for (int j = 0; j < length; j++) {
+                fasta.append("ACGTN".charAt(random.nextInt(5)));
+                if (j % 60 == 59 || j == length - 1) {
+                    fasta.append('\n');
+                }
+            }
+        }
+        write(fasta.toString());
+        final FastaIndex index = FastaIndex.build(
+                new ByteArrayInputStream(fasta.toString().getBytes("US-ASCII")));
+        for (final int windowSize : new int[] {13, 64, 1000, 1 << 20}) {
+            final FileChannel channel = new FileInputStream(file).getChannel();
+            final FastaHeaderScanner scanner = new FastaHeaderScanner(channel, true,
+                    windowSize);
+            final FastaParser parser = new FastaParser(new StringReader(fasta.toString()));
+            final MutableString description = new MutableString();
+            final MutableString residues = new MutableString();
+            int i = 0;
+            while (parser.hasNext()) {
+                parser.next(description, residues);
+                assertTrue(scanner.next());
+                assertEquals(description, scanner.getDescriptionLine());
+                assertEquals(residues.length(), scanner.getLength());
+                final FastaIndex.Entry entry = index.getEntry(i++);
+                assertEquals(entry.getOffset(), scanner.getResidueOffset());
+                assertEquals(entry.getLength(), scanner.getLength());
+            }
+            assertFalse(scanner.next());
+            scanner.close();
+        }
+    }
+
+    /**
+     * Validates that lines ending with a bare carriage return, or with mixed terminators,
+     * are split as {@link FastaParser} splits them.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testCarriageReturnLineEndings() throws IOException {
+        final String[] inputs = {FASTA.replace('\n', '\r'),
+                ">a b\rAC\r\nGT\n>c\r\r>d\rTT\r\n\r\n>e\nACGTACGTACGTACGT\rA\r"};
+        for (final String fasta : inputs) {
+            write(fasta);
+            for (final int windowSize : new int[] {2, 3, 5, 8, 13, 1 << 20}) {
+                final FastaHeaderScanner scanner = new FastaHeaderScanner(
+                        new FileInputStream(file).getChannel(), true, windowSize);
+                final FastaParser parser = new FastaParser(new StringReader(fasta));
+                final MutableString description = new MutableString();
+                final MutableString residues = new MutableString();
+                while (parser.hasNext()) {
+                    parser.next(description, residues);
+                    assertTrue(scanner.next());
+                    assertEquals(description, scanner.getDescriptionLine());
+                    assertEquals(residues.length(), scanner.getLength());
+                }
+                assertFalse(scanner.next());
+                scanner.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the FASTA file.
+     *
+     * @param content The content of the file
+     * @throws IOException if the file cannot be written
+     */
+    private void write(final String content) throws IOException {
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("US-ASCII"));
+        } finally {
+            output.close();
+        }
+    }
+}
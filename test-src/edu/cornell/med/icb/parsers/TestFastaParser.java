@@ -175,4 +175,138 @@ public class TestFastaParser extends TestCase {
         final FastaParser parser = new FastaParser(new StringReader("\n" + RAW_RESIDUE_CODES));
         assertFalse(parser.hasNext());
     }
+
+    /**
+     * Validates that a parser can be given another reader once a reader is exhausted,
+     * including a reader without any record.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testSetReaderAfterEnd() throws IOException {
+        final FastaParser parser = new FastaParser();
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        final String[] inputs = {">a\nAC\n>b\nGT", "no record\n", ">c\nTT\n"};
+        final StringBuilder records = new StringBuilder();
+        for (final String input : inputs) {
+            parser.setReader(new StringReader(input));
+            while (parser.hasNext()) {
+                parser.next(description, residues);
+                records.append(description).append('=').append(residues).append(' ');
+            }
+        }
+        assertEquals("a=AC b=GT c=TT ", records.toString());
+    }
+
+    /**
+     * Records used to validate the maximum record size: the second one is larger than
+     * eight residues, on a single line, and the fourth one on several lines.
+     */
+    private static final String LARGE_RECORDS =
+            ">small\nACGT\n>line\nACGTACGTACGTAC\n>exact\nACGT\r\nACGT\r\n\n"
+            + ">lines\nACG\nTAC\nGTA\n";
+
+    /**
+     * Validates that records larger than the maximum are rejected, and that parsing goes on
+     * with the next record.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testMaxRecordSizeFail() throws IOException {
+        final FastaParser parser = new FastaParser();
+        parser.setMaxRecordSize(8, FastaParser.OversizedRecordPolicy.FAIL);
+        parser.setReader(new StringReader(LARGE_RECORDS));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        assertTrue(parser.next(description, residues));
+        assertEquals("ACGT", residues.toString());
+        try {
+            parser.next(description, residues);
+            fail("The second record is too large");
+        } catch (RecordTooLargeException e) {
+            assertEquals("line", e.getDescriptionLine());
+            assertEquals(8, e.getMaxRecordSize());
+        }
+        assertTrue(parser.next(description, residues));
+        assertEquals("exact", description.toString());
+        assertEquals("ACGTACGT", residues.toString());
+        try {
+            parser.next(description, residues);
+            fail("The last record is too large");
+        } catch (RecordTooLargeException e) {
+            assertEquals("lines", e.getDescriptionLine());
+        }
+        assertFalse(parser.hasNext());
+    }
+
+    /**
+     * Validates that records larger than the maximum are truncated.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testMaxRecordSizeTruncate() throws IOException {
+        final FastaParser parser = new FastaParser(new StringReader(LARGE_RECORDS));
+        parser.setMaxRecordSize(8, FastaParser.OversizedRecordPolicy.TRUNCATE);
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        final StringBuilder returned = new StringBuilder();
+        while (parser.hasNext()) {
+            parser.next(description, residues);
+            returned.append(description).append('=').append(residues)
+                    .append(parser.isTruncated() ? "+ " : " ");
+        }
+        assertEquals("small=ACGT line=ACGTACGT+ exact=ACGTACGT lines=ACGTACGT+ ",
+                returned.toString());
+    }
+
+    /**
+     * Validates that records larger than the maximum are returned in windows.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testMaxRecordSizeChunk() throws IOException {
+        final FastaParser parser = new FastaParser(new StringReader(LARGE_RECORDS));
+        parser.setMaxRecordSize(4, FastaParser.OversizedRecordPolicy.CHUNK);
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        final StringBuilder returned = new StringBuilder();
+        while (parser.hasNext()) {
+            parser.next(description, residues);
+            returned.append(description).append('@').append(parser.getWindowOffset())
+                    .append('=').append(residues).append(parser.isEndOfRecord() ? " " : ",");
+        }
+        assertEquals("small@0=ACGT line@0=ACGT,line@4=ACGT,line@8=ACGT,line@12=AC "
+                + "exact@0=ACGT,exact@4=ACGT lines@0=ACGT,lines@4=ACGT,lines@8=A ",
+                returned.toString());
+    }
+
+    /**
+     * Validates that records larger than the maximum are spilled to disk.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testMaxRecordSizeSpill() throws IOException {
+        final StringBuilder huge = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            huge.append("ACGTN".charAt(i % 5));
+        }
+        final FastaParser parser = new FastaParser();
+        parser.setMaxRecordSize(8, FastaParser.OversizedRecordPolicy.SPILL);
+        parser.setReader(new StringReader(LARGE_RECORDS + ">huge\n" + huge + "\n>last\nA"));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        parser.next(description, residues);
+        assertSame(residues, parser.getResidues());
+        parser.next(description, residues);
+        assertEquals(0, residues.length());
+        final CharSequence spilled = parser.getResidues();
+        assertEquals("ACGTACGTACGTAC", spilled.toString());
+        assertEquals("GTAC", spilled.subSequence(2, 6).toString());
+        parser.next(description, residues);
+        assertEquals("ACGTACGT", parser.getResidues().toString());
+        parser.next(description, residues);
+        assertEquals("ACGTACGTA", parser.getResidues().toString());
+        assertTrue(parser.next(description, residues));
+        assertEquals("huge", description.toString());
+        assertEquals(huge.toString(), parser.getResidues().toString());
+        // the view of a spilled record remains valid after the next record
+        assertEquals("ACGTACGTACGTAC", spilled.toString());
+        assertFalse(parser.next(description, residues));
+        assertEquals("A", parser.getResidues().toString());
+    }
 }
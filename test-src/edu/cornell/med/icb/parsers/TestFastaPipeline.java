@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.FastaPipeline}
+ * class.
+ */
+public class TestFastaPipeline extends TestCase {
+    /**
+     * Appends the description line and number of residues of each record.
+     */
+    private static final FastaPipeline.Processor SUMMARY = new FastaPipeline.Processor() {
+        public void process(final FastaRecord record, final MutableString output) {
+            output.append(record.getDescription()).append(' ');
+            output.append(record.getResidues().length()).append('\n');
+        }
+    };
+
+    /**
+     * Validates that ordered output follows the input, with batches of various sizes, and
+     * that a pipeline can be run again.
+     * @throws IOException if there is a problem with the pipeline
+     */
+    public void testOrdered() throws IOException {
+        final String fasta = fasta(1000);
+        final String expected = sequentialSummary(fasta);
+        for (final int batchSize : new int[] {1, 7, 256}) {
+            final FastaPipeline pipeline = new FastaPipeline(SUMMARY, 3, batchSize,
+                    new ParallelFastaParser.DaemonThreadFactory("test"));
+            for (int run = 0; run < 2; run++) {
+                final StringWriter output = new StringWriter();
+                assertEquals(1000, pipeline.run(new FastaParser(new StringReader(fasta)),
+                        output, true));
+                assertEquals(expected, output.toString());
+            }
+        }
+    }
+
+    /**
+     * Validates that unordered output has the output of every record.
+     * @throws IOException if there is a problem with the pipeline
+     */
+    public void testUnordered() throws IOException {
+        final String fasta = fasta(1000);
+        final FastaPipeline pipeline = new FastaPipeline(SUMMARY, 4, 5,
+                new ParallelFastaParser.DaemonThreadFactory("test"));
+        final StringWriter output = new StringWriter();
+        pipeline.run(new FastaParser(new StringReader(fasta)), output, false);
+        final String[] lines = output.toString().split("\n");
+        final String[] expected = sequentialSummary(fasta).split("\n");
+        Arrays.sort(lines);
+        Arrays.sort(expected);
+        assertTrue(Arrays.equals(expected, lines));
+
+        final AtomicLong residues = new AtomicLong();
+        final FastaPipeline counter = new FastaPipeline(new FastaPipeline.Processor() {
+            public void process(final FastaRecord record, final MutableString unused) {
+                residues.addAndGet(record.getResidues().length());
+            }
+        }, 2);
+        assertEquals(1000, counter.run(new FastaParser(new StringReader(fasta))));
+        long expectedResidues = 0;
+        for (final String line : expected) {
+            expectedResidues += Long.parseLong(line.substring(line.indexOf(' ') + 1));
+        }
+        assertEquals(expectedResidues, residues.get());
+    }
+
+    /**
+     * Validates that errors of processors, of the parser and of the output are thrown by
+     * run.
+     * @throws IOException if there is a problem with the pipeline
+     */
+    public void testErrors() throws IOException {
+        final String fasta = fasta(1000);
+        final FastaPipeline failing = new FastaPipeline(new FastaPipeline.Processor() {
+            public void process(final FastaRecord record, final MutableString output)
+                    throws IOException {
+                if (record.getDescription().toString().equals("seq500")) {
+                    throw new IOException("processor failure");
+                }
+                SUMMARY.process(record, output);
+            }
+        }, 3, 4, new ParallelFastaParser.DaemonThreadFactory("test"));
+        try {
+            failing.run(new FastaParser(new StringReader(fasta)), new StringWriter(), true);
+            fail("The error of the processor must be thrown");
+        } catch (IOException e) {
+            assertEquals("processor failure", e.getMessage());
+        }
+
+        final FastaPipeline pipeline = new FastaPipeline(SUMMARY, 3, 4,
+                new ParallelFastaParser.DaemonThreadFactory("test"));
+        final Reader truncated = new StringReader(fasta) {
+            private int count;
+
+            @Override
+            public int read(final char[] chars, final int offset, final int length)
+                    throws IOException {
+                count += length;
+                if (count > 20000) {
+                    throw new IOException("read failure");
+                }
+                return super.read(chars, offset, Math.min(length, 100));
+            }
+        };
+        try {
+            pipeline.run(new FastaParser(truncated), new StringWriter(), true);
+            fail("The error of the parser must be thrown");
+        } catch (IOException e) {
+            assertEquals("read failure", e.getMessage());
+        }
+
+        final Writer failingOutput = new StringWriter() {
+            @Override
+            public void write(final char[] chars, final int offset, final int length) {
+                throw new IllegalStateException("output failure");
+            }
+        };
+        try {
+            pipeline.run(new FastaParser(new StringReader(fasta)), failingOutput, false);
+            fail("The error of the output must be thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("output failure", e.getMessage());
+        }
+
+        final StringWriter output = new StringWriter();
+        pipeline.run(new FastaParser(new StringReader(fasta)), output, true);
+        assertEquals(sequentialSummary(fasta), output.toString());
+    }
+
+    /**
+     * Validates that parser failures return their batch to the pool, so that a pipeline
+     * fails more often than it has batches and still runs.
+     * @throws IOException if there is a problem with the pipeline
+     */
+    public void testRepeatedParserErrors() throws IOException {
+        final String fasta = fasta(1000);
+        // one worker, so three batches
+        final FastaPipeline pipeline = new FastaPipeline(SUMMARY, 1, 4,
+                new ParallelFastaParser.DaemonThreadFactory("test"));
+        for (int run = 0; run < 10; run++) {
+            final Reader truncated = new StringReader(fasta) {
+                private int count;
+
+                @Override
+                public int read(final char[] chars, final int offset, final int length)
+                        throws IOException {
+                    count += Math.min(length, 100);
+                    if (count > 2000) {
+                        throw new IOException("read failure");
+                    }
+                    return super.read(chars, offset, Math.min(length, 100));
+                }
+            };
+            try {
+                pipeline.run(new FastaParser(truncated), new StringWriter(), true);
+                fail("The error of the parser must be thrown");
+            } catch (IOException e) {
+                assertEquals("read failure", e.getMessage());
+            }
+        }
+
+        final StringWriter output = new StringWriter();
+        assertEquals(1000, pipeline.run(new FastaParser(new StringReader(fasta)), output,
+                true));
+        assertEquals(sequentialSummary(fasta), output.toString());
+    }
+
+    /**
+     * Returns FASTA records of various lengths.
+     *
+     * @param count The number of records
+     * @return the records
+     */
+    private static String fasta(final int count) {
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            fasta.append(">seq").append(i).append('\n');
+            for (int j = 0; j < i % 13; j++) {
+                fasta.append("ACGTACGTAC".substring(0, 1 + (i + j) % 10)).append('\n');
+            }
+        }
+        return fasta.toString();
+    }
+
+    /**
+     * Returns the output of {@link #SUMMARY} on records parsed on a single thread.
+     *
+     * @param fasta The records
+     * @return the summary of the records
+     * @throws IOException if the records cannot be parsed
+     */
+    private static String sequentialSummary(final String fasta) throws IOException {
+        final FastaParser parser = new FastaParser(new StringReader(fasta));
+        final FastaRecord record = new FastaRecord();
+        final MutableString summary = new MutableString();
+        while (parser.hasNext()) {
+            parser.next(record.getDescription(), record.getResidues());
+            SUMMARY.process(record, summary);
+        }
+        return summary.toString();
+    }
+}
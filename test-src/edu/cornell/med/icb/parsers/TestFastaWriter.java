@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.FastaWriter} class.
+ */
+public class TestFastaWriter extends TestCase {
+    /**
+     * Validates the layout of the records written.
+     * @throws IOException if there is a problem with the output
+     */
+    public void testLineWidth() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final FastaWriter writer = new FastaWriter(bytes, 4, false);
+        writer.write("seq1 first", new MutableString("ACGTACGTAC"));
+        writer.write(new MutableString("seq2"), "ACGT");
+        writer.write("empty", "");
+        writer.close();
+        assertEquals(">seq1 first\nACGT\nACGT\nAC\n>seq2\nACGT\n>empty\n", bytes.toString());
+
+        final ByteArrayOutputStream singleLine = new ByteArrayOutputStream();
+        final FastaWriter unwrapped = new FastaWriter(singleLine, 0, false);
+        unwrapped.write("seq1", "ACGTACGTAC");
+        unwrapped.close();
+        assertEquals(">seq1\nACGTACGTAC\n", singleLine.toString());
+        assertEquals(17, unwrapped.getBytesWritten());
+    }
+
+    /**
+     * Validates that what the parser reads is written back identically, and that the index
+     * built while writing is the index of the output.
+     * @throws IOException if there is a problem with the output
+     */
+    public void testRoundTrip() throws IOException {
+        final Random random = new Random(11);
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            fasta.append(">seq").append(i).append(" record ").append(i).append('\n');
+            final int length = random.nextInt(3000);
+            for (int j = 0; j < length; j++) {
+                fasta.append("ACGTN".charAt(random.nextInt(5)));
+                if (j % 60 == 59 || j == length - 1) {
+                    fasta.append('\n');
+                }
+            }
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final FastaWriter writer = new FastaWriter(bytes, 60, true);
+        final FastaParser parser = new FastaParser(new StringReader(fasta.toString()));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        while (parser.hasNext()) {
+            parser.next(description, residues);
+            writer.write(description, residues);
+        }
+        writer.close();
+        assertEquals(fasta.toString(), bytes.toString());
+
+        final FastaIndex expected =
+                FastaIndex.build(new ByteArrayInputStream(bytes.toByteArray()));
+        final FastaIndex index = writer.getIndex();
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getEntry(i).toString(), index.getEntry(i).toString());
+        }
+    }
+
+    /**
+     * Validates compressed outputs and the index saved next to them.
+     * @throws IOException if there is a problem with the temporary files
+     */
+    public void testCompression() throws IOException {
+        for (final FastaWriter.Compression compression : FastaWriter.Compression.values()) {
+            final File file = File.createTempFile("squil-writer", ".fa");
+            final File indexFile = new File(file.getPath() + FastaIndex.EXTENSION);
+            try {
+                final FastaWriter writer = new FastaWriter(file, 3, compression, true);
+                for (int i = 0; i < 1000; i++) {
+                    writer.write("seq" + i, "ACGTACGT");
+                }
+                writer.close();
+                final byte[] header = new byte[18];
+                final InputStream input = new FileInputStream(file);
+                final int count = input.read(header);
+                input.close();
+                assertEquals(compression == FastaWriter.Compression.BGZF,
+                        BgzfInputStream.isBgzf(header, count));
+                assertEquals(compression != FastaWriter.Compression.NONE,
+                        BgzfInputStream.isGzip(header, count));
+                final FastaParser parser = new FastaParser(SequenceInputs.openReader(file));
+                final MutableString description = new MutableString();
+                final MutableString residues = new MutableString();
+                int records = 0;
+                while (parser.hasNext()) {
+                    parser.next(description, residues);
+                    assertEquals("seq" + records, description.toString());
+                    assertEquals("ACGTACGT", residues.toString());
+                    records++;
+                }
+                assertEquals(1000, records);
+                final FastaIndex index = FastaIndex.load(indexFile);
+                assertEquals(1000, index.size());
+                assertEquals(3, index.getEntry("seq999").getLineBases());
+            } finally {
+                file.delete();
+                indexFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.FastqParser} class.
+ */
+public class TestFastqParser extends TestCase {
+    /**
+     * Validates that single and multi-line records are parsed.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testParse() throws IOException {
+        final String fastq = "@read1 first\nACGT\n+\nIIII\n"
+                + "\n"
+                + "@read2\nACG\nTAC\n+read2\n@@+\n+II\n"
+                + "@read3\n\n+\n\n";
+        final FastqParser parser = new FastqParser(new StringReader(fastq));
+        final MutableString header = new MutableString();
+        final MutableString bases = new MutableString();
+        final MutableString quality = new MutableString();
+
+        assertTrue(parser.hasNext());
+        assertTrue(parser.next(header, bases, quality));
+        assertEquals(new MutableString("read1 first"), header);
+        assertEquals(new MutableString("ACGT"), bases);
+        assertEquals(new MutableString("IIII"), quality);
+
+        assertTrue(parser.next(header, bases, quality));
+        assertEquals(new MutableString("read2"), header);
+        assertEquals(new MutableString("ACGTAC"), bases);
+        // quality lines may start with '@' or '+'
+        assertEquals(new MutableString("@@++II"), quality);
+
+        assertFalse(parser.next(header, bases, quality));
+        assertEquals(new MutableString("read3"), header);
+        assertEquals(0, bases.length());
+        assertEquals(0, quality.length());
+        assertFalse(parser.hasNext());
+        assertFalse(parser.next(header, bases, quality));
+    }
+
+    /**
+     * Validates that malformed records are reported.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testMalformed() throws IOException {
+        assertMalformed(">not fastq\nACGT\n");
+        assertMalformed("@truncated\nACGT\n");
+        assertMalformed("@truncated\nACGT\n+\nII\n");
+        assertMalformed("@long\nACGT\n+\nIIIIII\n");
+    }
+
+    /**
+     * Validates Phred decoding.
+     */
+    public void testDecodeQuality() {
+        final byte[] scores = new byte[2];
+        final byte[] decoded = FastqParser.decodeQuality("!+5I~", FastqParser.SANGER_OFFSET,
+                scores);
+        assertNotSame(scores, decoded);
+        assertEquals(0, decoded[0]);
+        assertEquals(10, decoded[1]);
+        assertEquals(20, decoded[2]);
+        assertEquals(40, decoded[3]);
+        assertEquals(93, decoded[4]);
+        assertSame(decoded, FastqParser.decodeQuality(new MutableString("@h"),
+                FastqParser.ILLUMINA_1_3_OFFSET, decoded));
+        assertEquals(0, decoded[0]);
+        assertEquals(40, decoded[1]);
+        try {
+            FastqParser.decodeQuality("II5", FastqParser.ILLUMINA_1_3_OFFSET, decoded);
+            fail("'5' is not a valid Illumina 1.3 quality");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Checks that parsing all the records of a FASTQ string fails.
+     *
+     * @param fastq The FASTQ content
+     */
+    private void assertMalformed(final String fastq) {
+        final MutableString header = new MutableString();
+        final MutableString bases = new MutableString();
+        final MutableString quality = new MutableString();
+        try {
+            final FastqParser parser = new FastqParser(new StringReader(fastq));
+            while (parser.hasNext()) {
+                parser.next(header, bases, quality);
+            }
+            fail("malformed FASTQ was accepted: " + fastq);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed FASTQ record"));
+        }
+    }
+}
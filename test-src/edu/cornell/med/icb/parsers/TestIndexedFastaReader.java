@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.FastaIndex} and
+ * {@link edu.cornell.med.icb.parsers.IndexedFastaReader} classes.
+ */
+public class TestIndexedFastaReader extends TestCase {
+    /**
+     * Residues of the first sequence.
+     */
+    private static final String CHR1 = "ACGTACGTACGTNNNNacgtacgtAC";
+
+    /**
+     * Residues of the second sequence.
+     */
+    private static final String CHR2 = "TTTTTGGGGG";
+
+    /**
+     * A FASTA file with the two sequences, with different line widths.
+     */
+    private static final String FASTA = ">chr1 first chromosome\n"
+            + "ACGTACGTAC\n"
+            + "GTNNNNacgt\n"
+            + "acgtAC\n"
+            + ">P1;chr2|second\r\n"
+            + "TTTT\r\n"
+            + "TGGG\r\n"
+            + "GG";
+
+    /**
+     * The FASTA file written for a test.
+     */
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("squil-indexed", ".fasta");
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(FASTA.getBytes("US-ASCII"));
+        } finally {
+            output.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new File(file.getPath() + FastaIndex.EXTENSION).delete();
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Validates that the index records the samtools fields of each sequence.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testBuild() throws IOException {
+        final FastaIndex index = FastaIndex.build(file);
+        assertEquals(2, index.size());
+        assertEquals("chr1\t26\t23\t10\t11", index.getEntry(0).toString());
+        assertEquals("chr2\t10\t69\t4\t6", index.getEntry(1).toString());
+        assertSame(index.getEntry(1), index.getEntry("chr2"));
+        assertNull(index.getEntry("chr3"));
+    }
+
+    /**
+     * Validates that an index can be saved and loaded.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testSaveAndLoad() throws IOException {
+        final File indexFile = new File(file.getPath() + FastaIndex.EXTENSION);
+        FastaIndex.build(file).save(indexFile);
+        final FastaIndex index = FastaIndex.load(indexFile);
+        assertEquals(2, index.size());
+        assertEquals("chr1\t26\t23\t10\t11", index.getEntry("chr1").toString());
+        assertEquals("chr2\t10\t69\t4\t6", index.getEntry("chr2").toString());
+    }
+
+    /**
+     * Validates that every region of every sequence is read correctly.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testSubsequences() throws IOException {
+        final IndexedFastaReader reader = new IndexedFastaReader(file);
+        final MutableString residues = new MutableString();
+        final String[] names = {"chr1", "chr2"};
+        final String[] sequences = {CHR1, CHR2};
+        for (int s = 0; s < names.length; s++) {
+            for (int start = 0; start <= sequences[s].length(); start++) {
+                for (int end = start; end <= sequences[s].length(); end++) {
+                    reader.getSubsequence(names[s], start, end, residues);
+                    assertEquals(sequences[s].substring(start, end), residues.toString());
+                }
+            }
+            reader.getSequence(names[s], residues);
+            assertEquals(sequences[s], residues.toString());
+        }
+        reader.close();
+    }
+
+    /**
+     * Validates that regions in the samtools notation are read correctly.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testRegions() throws IOException {
+        final IndexedFastaReader reader = new IndexedFastaReader(file);
+        final MutableString residues = new MutableString();
+        reader.getRegion("chr1:9-14", residues);
+        assertEquals(CHR1.substring(8, 14), residues.toString());
+        reader.getRegion("chr1:1,0-1,2", residues);
+        assertEquals(CHR1.substring(9, 12), residues.toString());
+        reader.getRegion("chr2:7", residues);
+        assertEquals(CHR2.substring(6), residues.toString());
+        reader.getRegion("chr2", residues);
+        assertEquals(CHR2, residues.toString());
+        // like samtools, regions are clipped to the end of the sequence
+        reader.getRegion("chr2:5-11", residues);
+        assertEquals(CHR2.substring(4), residues.toString());
+        try {
+            reader.getSubsequence("chr2", 5, 11, residues);
+            fail("region extends past the end of chr2");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        reader.close();
+    }
+
+    /**
+     * Validates that irregular line lengths are rejected.
+     */
+    public void testIrregularLines() {
+        try {
+            FastaIndex.build(new ByteArrayInputStream(">a\nACG\nA\nACG\n".getBytes()));
+            fail("a short line in the middle of a sequence must be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
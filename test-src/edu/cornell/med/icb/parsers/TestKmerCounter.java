@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.KmerCounter} and
+ * {@link edu.cornell.med.icb.parsers.KmerCountReader} classes.
+ */
+public class TestKmerCounter extends TestCase {
+    /**
+     * The file the counts are written to.
+     */
+    private File output;
+
+    @Override
+    protected void setUp() throws IOException {
+        output = File.createTempFile("squil-kmers", ".counts");
+    }
+
+    @Override
+    protected void tearDown() {
+        output.delete();
+    }
+
+    /**
+     * Validates the encoding of k-mers.
+     */
+    public void testEncoding() {
+        assertEquals(0, KmerCounter.encode("AAAA"));
+        assertEquals(0x1B, KmerCounter.encode("ACGT"));
+        assertEquals(-1L, KmerCounter.encode("TTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTT"));
+        assertEquals("GATTACA", KmerCounter.decode(KmerCounter.encode("gattaca"), 7,
+                new MutableString()).toString());
+        assertEquals(KmerCounter.encode("TGTAATC"),
+                KmerCounter.reverseComplement(KmerCounter.encode("GATTACA"), 7));
+        try {
+            KmerCounter.encode("ACNT");
+            fail("N cannot be encoded");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Validates counts against a map of strings, for several k, with tables small enough
+     * to be spilled to disk many times.
+     * @throws IOException if there is a problem with the temporary files
+     */
+    public void testCounts() throws IOException {
+        final Random random = new Random(5);
+        final String[] sequences = new String[60];
+        for (int i = 0; i < sequences.length; i++) {
+            final StringBuilder sequence = new StringBuilder();
+            final int length = random.nextInt(3000);
+            for (int j = 0; j < length; j++) {
+                sequence.append("ACGTacgtN".charAt(random.nextInt(9)));
+            }
+            sequences[i] = sequence.toString();
+        }
+        for (final int k : new int[] {1, 3, 13, 32}) {
+            for (final boolean canonical : new boolean[] {false, true}) {
+                final KmerCounter counter = new KmerCounter(k, canonical, 2, 0, null);
+                for (final String sequence : sequences) {
+                    counter.add(sequence);
+                }
+                final long distinct = counter.write(output);
+                checkCounts(bruteForce(sequences, k, canonical), distinct, k, canonical);
+            }
+        }
+    }
+
+    /**
+     * Validates that sequences can be counted from a parser.
+     * @throws IOException if there is a problem with the temporary files
+     */
+    public void testAddAll() throws IOException {
+        final ReaderFastaParser parser = new ReaderFastaParser(
+                new StringReader(">1\nACGTA\nCG\n>2\nTTT\n>3\nAC\n"));
+        final KmerCounter counter = new KmerCounter(3, false);
+        assertEquals(3, counter.addAll(parser));
+        assertEquals(6, counter.getNumberOfKmers());
+        assertEquals(5, counter.write(output));
+        final KmerCountReader reader = new KmerCountReader(output);
+        assertEquals(3, reader.getK());
+        assertFalse(reader.isCanonical());
+        final MutableString kmer = new MutableString();
+        final StringBuilder counts = new StringBuilder();
+        while (reader.next()) {
+            counts.append(reader.getKmer(kmer)).append('=').append(reader.getCount()).append(' ');
+        }
+        reader.close();
+        assertEquals("ACG=2 CGT=1 GTA=1 TAC=1 TTT=1 ", counts.toString());
+        try {
+            counter.add("ACGT");
+            fail("the counter cannot be used once written");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Checks the content of the output file.
+     *
+     * @param expected  The expected counts
+     * @param distinct  The number of distinct k-mers returned by the counter
+     * @param k         The length of the k-mers
+     * @param canonical Whether k-mers were counted with their reverse complement
+     * @throws IOException if there is a problem with the output file
+     */
+    private void checkCounts(final Map<String, Long> expected, final long distinct,
+                             final int k, final boolean canonical) throws IOException {
+        assertEquals(expected.size(), distinct);
+        final KmerCountReader reader = new KmerCountReader(output);
+        assertEquals(k, reader.getK());
+        assertEquals(canonical, reader.isCanonical());
+        assertEquals(distinct, reader.size());
+        final MutableString kmer = new MutableString();
+        long previous = 0;
+        boolean first = true;
+        while (reader.next()) {
+            if (!first) {
+                assertTrue(KmerCounter.unsignedLess(previous, reader.getKmer()));
+            }
+            first = false;
+            previous = reader.getKmer();
+            final Long count = expected.get(reader.getKmer(kmer).toString());
+            assertNotNull(kmer.toString(), count);
+            assertEquals(count.longValue(), reader.getCount());
+        }
+        reader.close();
+    }
+
+    /**
+     * Counts k-mers with a map of strings.
+     *
+     * @param sequences The sequences
+     * @param k         The length of the k-mers
+     * @param canonical Whether k-mers are counted with their reverse complement
+     * @return the count of each k-mer
+     */
+    private static Map<String, Long> bruteForce(final String[] sequences, final int k,
+                                                final boolean canonical) {
+        final Map<String, Long> counts = new HashMap<String, Long>();
+        for (final String sequence : sequences) {
+            final String upper = sequence.toUpperCase();
+            for (int i = 0; i + k <= upper.length(); i++) {
+                String kmer = upper.substring(i, i + k);
+                if (kmer.indexOf('N') != -1) {
+                    continue;
+                }
+                if (canonical) {
+                    final String reverse = reverseComplement(kmer);
+                    if (reverse.compareTo(kmer) < 0) {
+                        kmer = reverse;
+                    }
+                }
+                final Long count = counts.get(kmer);
+                counts.put(kmer, count == null ? 1L : count + 1);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the reverse complement of a k-mer.
+     *
+     * @param kmer The k-mer
+     * @return the reverse complement
+     */
+    private static String reverseComplement(final String kmer) {
+        final StringBuilder reverse = new StringBuilder();
+        for (int i = kmer.length() - 1; i >= 0; i--) {
+            reverse.append("TGCA".charAt("ACGT".indexOf(kmer.charAt(i))));
+        }
+        return reverse.toString();
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.MappedFastaParser}
+ * class.
+ */
+public class TestMappedFastaParser extends TestCase {
+    /**
+     * A FASTA file with several multi-line sequences.
+     */
+    private static final String FASTA = "; comment before the first sequence\n"
+            + ">seq1 first sequence\n"
+            + "ACGTACGTAC\n"
+            + "GTACG\n"
+            + ">seq2\n"
+            + "\n"
+            + ">P1;P08100|third\n"
+            + "MNGTEGPNFY\n"
+            + "VPF";
+
+    /**
+     * The FASTA file written for a test.
+     */
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("squil-mapped", ".fasta");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Validates that the mapped parser returns exactly what {@link FastaParser} returns.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testSameRecordsAsFastaParser() throws IOException {
+        write(FASTA);
+        assertSameRecords(FASTA, new MappedFastaParser(file));
+    }
+
+    /**
+     * Validates that records spanning several mapped windows are parsed correctly.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testSmallWindows() throws IOException {
+        write(FASTA);
+        for (int windowSize = 1; windowSize < 12; windowSize++) {
+            final FileChannel channel = new FileInputStream(file).getChannel();
+            try {
+                assertSameRecords(FASTA, new MappedFastaParser(channel, windowSize));
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Validates that carriage returns are removed and that residues can be read as bytes.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testWindowsLineEndingsAndBytes() throws IOException {
+        write(">a b\r\nAC\r\nGT\r\n>c\r\nTT\r\n");
+        final MappedFastaParser parser = new MappedFastaParser(file);
+        final MutableString description = new MutableString();
+        final MutableByteString residues = new MutableByteString();
+        assertTrue(parser.hasNext());
+        assertTrue(parser.next(description, residues));
+        assertEquals(new MutableString("a b"), description);
+        assertEquals("ACGT", residues.toString());
+        assertFalse(parser.next(description, residues));
+        assertEquals(new MutableString("c"), description);
+        assertEquals("TT", residues.toString());
+        assertFalse(parser.hasNext());
+        parser.close();
+    }
+
+    /**
+     * Validates that lines ending with a bare carriage return, as in old Mac files, or with
+     * mixed terminators are split as {@link FastaParser} splits them, whatever the windows
+     * and ranges.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testCarriageReturnLineEndings() throws IOException {
+        final String[] inputs = {FASTA.replace('\n', '\r'),
+                ">a b\rAC\r\nGT\n>c\r\r>d\rTT\r\n\r\n>e\nACGTACGTACGTACGT\rA\r"};
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        for (final String fasta : inputs) {
+            write(fasta);
+            assertSameRecords(fasta, new MappedFastaParser(file));
+            final FileChannel channel = new FileInputStream(file).getChannel();
+            try {
+                for (int windowSize = 1; windowSize < 12; windowSize++) {
+                    assertSameRecords(fasta, new MappedFastaParser(channel, windowSize));
+                }
+                final StringBuilder expectedRecords = new StringBuilder();
+                final MappedFastaParser whole = new MappedFastaParser(file);
+                while (whole.hasNext()) {
+                    whole.next(description, residues);
+                    expectedRecords.append(description).append('/').append(residues);
+                    expectedRecords.append('\n');
+                }
+                whole.close();
+                for (int split = 0; split <= fasta.length(); split++) {
+                    final StringBuilder records = new StringBuilder();
+                    final long[] bounds = {0, split, fasta.length()};
+                    for (int i = 0; i < 2; i++) {
+                        final MappedFastaParser parser =
+                                new MappedFastaParser(channel, bounds[i], bounds[i + 1], 5);
+                        while (parser.hasNext()) {
+                            parser.next(description, residues);
+                            records.append(description).append('/').append(residues);
+                            records.append('\n');
+                        }
+                    }
+                    assertEquals("split at " + split, expectedRecords.toString(),
+                            records.toString());
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Validates that an empty file has no sequence.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testEmptyFile() throws IOException {
+        write("");
+        final MappedFastaParser parser = new MappedFastaParser(file);
+        assertFalse(parser.hasNext());
+        assertFalse(parser.next(new MutableString(), new MutableString()));
+        parser.close();
+    }
+
+    /**
+     * Validates that compressed files are rejected rather than parsed as text.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testCompressedFile() throws IOException {
+        final OutputStream output = new GZIPOutputStream(new FileOutputStream(file));
+        output.write(">seq\nACGT\n".getBytes());
+        output.close();
+        try {
+            new MappedFastaParser(file);
+            fail("Compressed files must be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot map compressed data"));
+        }
+    }
+
+    /**
+     * Validates that parsers over ranges that partition a file return each record once.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testRanges() throws IOException {
+        write(FASTA);
+        final FastaParser expected = new FastaParser(new StringReader(FASTA));
+        final MutableString expectedDescription = new MutableString();
+        final MutableString expectedResidues = new MutableString();
+        final StringBuilder expectedRecords = new StringBuilder();
+        while (expected.hasNext()) {
+            expected.next(expectedDescription, expectedResidues);
+            expectedRecords.append(expectedDescription).append('/').append(expectedResidues);
+            expectedRecords.append('\n');
+        }
+        final FileChannel channel = new FileInputStream(file).getChannel();
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        try {
+            for (int split = 0; split <= FASTA.length(); split++) {
+                final StringBuilder records = new StringBuilder();
+                final long[] bounds = {0, split, FASTA.length()};
+                for (int i = 0; i < 2; i++) {
+                    final MappedFastaParser parser =
+                            new MappedFastaParser(channel, bounds[i], bounds[i + 1], 5);
+                    while (parser.hasNext()) {
+                        parser.next(description, residues);
+                        records.append(description).append('/').append(residues).append('\n');
+                    }
+                }
+                assertEquals("split at " + split, expectedRecords.toString(),
+                        records.toString());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks that a mapped parser returns the same records as a {@link FastaParser}.
+     *
+     * @param fasta  The FASTA content of the file parsed by mapped
+     * @param mapped The parser under test
+     * @throws IOException if there is a problem with the file
+     */
+    private void assertSameRecords(final String fasta, final MappedFastaParser mapped)
+            throws IOException {
+        final FastaParser expected = new FastaParser(new StringReader(fasta));
+        final MutableString expectedDescription = new MutableString();
+        final MutableString expectedResidues = new MutableString();
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        while (expected.hasNext()) {
+            assertTrue(mapped.hasNext());
+            final boolean more = expected.next(expectedDescription, expectedResidues);
+            assertEquals(more, mapped.next(description, residues));
+            assertEquals(expectedDescription, description);
+            assertEquals(expectedResidues, residues);
+        }
+        assertFalse(mapped.hasNext());
+        mapped.close();
+    }
+
+    /**
+     * Writes the given content to the test file.
+     *
+     * @param content The content to write
+     * @throws IOException if there is a problem with the file
+     */
+    private void write(final String content) throws IOException {
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("US-ASCII"));
+        } finally {
+            output.close();
+        }
+    }
+}
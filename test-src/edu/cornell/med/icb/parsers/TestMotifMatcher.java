@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.MotifMatcher} class.
+ */
+public class TestMotifMatcher extends TestCase {
+    /**
+     * The bases each IUPAC code stands for.
+     */
+    private static final String[] CODES = {"AA", "CC", "GG", "TT", "RAG", "YCT", "SCG",
+            "WAT", "KGT", "MAC", "BCGT", "DAGT", "HACT", "VACG", "NACGT"};
+
+    /**
+     * Collects hits as strings.
+     */
+    private static final class Collector implements MotifMatcher.Visitor {
+        /**
+         * The hits, as sequence:position:motif:strand.
+         */
+        private final List<String> hits = new ArrayList<String>();
+
+        public void visit(final long sequence, final long position, final int motif,
+                          final boolean reverseStrand) {
+            hits.add(sequence + ":" + position + ":" + motif + ":"
+                    + (reverseStrand ? '-' : '+'));
+        }
+
+        /**
+         * Returns the hits collected, sorted.
+         *
+         * @return the hits
+         */
+        List<String> getHits() {
+            Collections.sort(hits);
+            return hits;
+        }
+    }
+
+    /**
+     * Validates hits on both strands of a sequence read from a FASTA file.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testFasta() throws IOException {
+        final MotifMatcher matcher = new MotifMatcher(Arrays.asList("GAATTC", "ACG", "TTNC"),
+                true);
+        assertFalse(matcher.isBitParallel());
+        final Collector collector = new Collector();
+        final ReaderFastaParser parser = new ReaderFastaParser(new StringReader(
+                ">chr1\nacgGAAT\nTCnC\n>chr2\n>chr3\nCGTTTAC\n"));
+        assertEquals(3, matcher.searchAll(parser, collector));
+        // GAATTC is its own reverse complement, CGT is the reverse complement of ACG, GNAA
+        // of TTNC, and n in the sequence never matches
+        assertEquals(Arrays.asList("0:0:1:+", "0:2:2:-", "0:3:0:+", "2:0:1:-", "2:3:2:+"),
+                collector.getHits());
+    }
+
+    /**
+     * Validates both algorithms against a naive search, on random sequences and motifs.
+     * @throws IOException if there is a problem with the visitor
+     */
+    public void testRandom() throws IOException {
+        final Random random = new Random(24);
+        for (int test = 0; test < 100; test++) {
+            final int degenerate = test % 3;
+            final boolean bothStrands = test % 4 != 0;
+            final List<String> motifs = new ArrayList<String>();
+            final int numberOfMotifs = 1 + random.nextInt(40);
+            for (int i = 0; i < numberOfMotifs; i++) {
+                final StringBuilder motif = new StringBuilder();
+                final int length = 1 + random.nextInt(degenerate == 2 ? 12 : 6);
+                for (int j = 0; j < length; j++) {
+                    // exact motifs, motifs with a few ambiguity codes, and motifs with many
+                    final boolean ambiguous = degenerate == 2
+                            || (degenerate == 1 && random.nextInt(4) == 0);
+                    motif.append(CODES[random.nextInt(ambiguous ? CODES.length : 4)]
+                            .charAt(0));
+                }
+                motifs.add(random.nextBoolean() ? motif.toString()
+                        : motif.toString().toLowerCase());
+            }
+            final StringBuilder bases = new StringBuilder();
+            final int length = random.nextInt(2000);
+            for (int i = 0; i < length; i++) {
+                bases.append("ACGTacgtNR-".charAt(random.nextInt(random.nextInt(4) == 0
+                        ? 11 : 4)));
+            }
+            final List<String> expected = naive(motifs, bases.toString(), bothStrands);
+            final boolean manyVariants = new MotifMatcher(motifs, bothStrands).isBitParallel();
+            assertTrue(degenerate != 0 || !manyVariants);
+            for (final boolean bitParallel : new boolean[] {false, true}) {
+                if (manyVariants && !bitParallel) {
+                    continue;
+                }
+                final MotifMatcher matcher = new MotifMatcher(motifs, bothStrands, bitParallel);
+                final Collector collector = new Collector();
+                // search in random chunks, after a sequence that must not leak into this one
+                matcher.search("ACGTACGTAC", 1, new Collector());
+                matcher.reset(7);
+                final char[] chars = bases.toString().toCharArray();
+                int start = 0;
+                while (start < chars.length) {
+                    final int count = Math.min(chars.length - start, random.nextInt(50));
+                    matcher.search(chars, start, count, collector);
+                    start += count;
+                }
+                assertEquals(chars.length, matcher.getPosition());
+                assertEquals(motifs + " " + bitParallel, expected, collector.getHits());
+
+                final Collector fromString = new Collector();
+                matcher.search(new MutableString(bases), 7, fromString);
+                assertEquals(expected, fromString.getHits());
+            }
+        }
+    }
+
+    /**
+     * Validates the errors on invalid motifs.
+     */
+    public void testInvalidMotifs() {
+        for (final List<String> motifs : Arrays.asList(Collections.<String>emptyList(),
+                Arrays.asList("ACGT", ""), Arrays.asList("ACXT"), Arrays.asList(
+                        "NNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNN"))) {
+            try {
+                new MotifMatcher(motifs, true);
+                fail("Invalid motifs must be rejected: " + motifs);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Finds hits by comparing every motif at every position.
+     *
+     * @param motifs      The motifs
+     * @param bases       The bases of the sequence
+     * @param bothStrands Whether to search the reverse strand too
+     * @return the hits, sorted
+     */
+    private static List<String> naive(final List<String> motifs, final String bases,
+                                      final boolean bothStrands) {
+        final List<String> hits = new ArrayList<String>();
+        for (int m = 0; m < motifs.size(); m++) {
+            final String motif = motifs.get(m).toUpperCase();
+            final String reverse = SequenceOperations.reverseComplement(
+                    new MutableString(motif)).toString();
+            for (int p = 0; p + motif.length() <= bases.length(); p++) {
+                if (matches(motif, bases, p)) {
+                    hits.add(7 + ":" + p + ":" + m + ":+");
+                }
+                if (bothStrands && !reverse.equals(motif) && matches(reverse, bases, p)) {
+                    hits.add(7 + ":" + p + ":" + m + ":-");
+                }
+            }
+        }
+        Collections.sort(hits);
+        return hits;
+    }
+
+    /**
+     * Returns whether a motif matches bases at a position.
+     *
+     * @param motif    The motif, in uppercase
+     * @param bases    The bases
+     * @param position The position of the first base compared
+     * @return true if every base is allowed by the code at the same position in the motif,
+     * ambiguity codes in the bases never being allowed
+     */
+    private static boolean matches(final String motif, final String bases,
+                                   final int position) {
+        for (int i = 0; i < motif.length(); i++) {
+            final String text = bases(Character.toUpperCase(bases.charAt(position + i)));
+            final String allowed = bases(motif.charAt(i));
+            if (text.length() != 1) {
+                return false;
+            }
+            for (int j = 0; j < text.length(); j++) {
+                if (allowed.indexOf(text.charAt(j)) == -1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the bases an IUPAC code stands for.
+     *
+     * @param code The code, in uppercase
+     * @return the bases, or an empty string if code is not a nucleotide code
+     */
+    private static String bases(final char code) {
+        for (final String entry : CODES) {
+            if (entry.charAt(0) == code) {
+                return entry.substring(1);
+            }
+        }
+        return "";
+    }
+}
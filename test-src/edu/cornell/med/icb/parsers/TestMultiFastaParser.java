@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.MultiFastaParser}
+ * class.
+ */
+public class TestMultiFastaParser extends TestCase {
+    /**
+     * The directory of the FASTA files.
+     */
+    private File directory;
+
+    /**
+     * The FASTA files, in order.
+     */
+    private final List<File> files = new ArrayList<File>();
+
+    /**
+     * The expected records, as "file&gt;description\nresidues", in the order of the files.
+     */
+    private final List<String> expected = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("squil-multi", "");
+        directory.delete();
+        directory.mkdir();
+        for (int i = 0; i < 8; i++) {
+            final File file = new File(directory, "chr" + i + (i % 3 == 0 ? ".fa.gz" : ".fa"));
+            final StringBuilder fasta = new StringBuilder();
+            // file 5 is larger than a batch
+            final int numberOfRecords = i == 5 ? 700 : i * 10;
+            for (int j = 0; j < numberOfRecords; j++) {
+                final String residues = "ACGTTGCA".substring(0, 1 + (i + j) % 8);
+                fasta.append(">f").append(i).append('r').append(j).append('\n');
+                fasta.append(residues).append('\n');
+                expected.add(file.getName() + ">f" + i + 'r' + j + '\n' + residues);
+            }
+            OutputStream output = new FileOutputStream(file);
+            if (file.getName().endsWith(".gz")) {
+                output = new GZIPOutputStream(output);
+            }
+            try {
+                output.write(fasta.toString().getBytes("US-ASCII"));
+            } finally {
+                output.close();
+            }
+            files.add(file);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final File file : files) {
+            file.delete();
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Validates that records are delivered in the order of the files, tagged with their
+     * file.
+     * @throws IOException if there is a problem with the files
+     */
+    public void testOrdered() throws IOException {
+        for (int numberOfThreads = 1; numberOfThreads <= 4; numberOfThreads++) {
+            final MultiFastaParser parser = new MultiFastaParser(files, numberOfThreads, true);
+            assertEquals(expected, records(parser));
+            parser.close();
+        }
+    }
+
+    /**
+     * Validates that every record is delivered in first available mode, and that the
+     * records of each file stay in order.
+     * @throws IOException if there is a problem with the files
+     */
+    public void testFirstAvailable() throws IOException {
+        final MultiFastaParser parser = new MultiFastaParser(files, 3, false);
+        final List<String> records = records(parser);
+        parser.close();
+        for (final File file : files) {
+            assertEquals(recordsOf(expected, file), recordsOf(records, file));
+        }
+        Collections.sort(records);
+        final List<String> sorted = new ArrayList<String>(expected);
+        Collections.sort(sorted);
+        assertEquals(sorted, records);
+    }
+
+    /**
+     * Validates the selection of files with glob patterns.
+     * @throws IOException if there is a problem with the files
+     */
+    public void testGlob() throws IOException {
+        assertEquals(files.subList(0, 8), sorted(MultiFastaParser.listFiles(directory, "chr*")));
+        assertEquals(3, MultiFastaParser.listFiles(directory, "*.gz").size());
+        assertEquals(2, MultiFastaParser.listFiles(directory, "chr[12].fa").size());
+        assertEquals(2, MultiFastaParser.listFiles(directory, "chr{3,4}.fa*").size());
+        assertEquals(1, MultiFastaParser.listFiles(directory, "chr?.fa.gz")
+                .indexOf(new File(directory, "chr3.fa.gz")));
+        assertTrue(MultiFastaParser.listFiles(directory, "chr1.fa?").isEmpty());
+
+        final MultiFastaParser parser = new MultiFastaParser(directory, "*.gz", 2, true);
+        final List<String> records = records(parser);
+        parser.close();
+        final List<String> gzipped = new ArrayList<String>();
+        for (final String record : expected) {
+            if (record.startsWith("chr0.fa.gz") || record.startsWith("chr3.fa.gz")
+                    || record.startsWith("chr6.fa.gz")) {
+                gzipped.add(record);
+            }
+        }
+        assertEquals(gzipped, records);
+    }
+
+    /**
+     * Validates that a file that cannot be read does not prevent the other files from being
+     * read.
+     * @throws IOException if there is a problem with the files
+     */
+    public void testMissingFile() throws IOException {
+        final List<File> withMissing = new ArrayList<File>(files);
+        withMissing.add(2, new File(directory, "missing.fa"));
+        final MultiFastaParser parser = new MultiFastaParser(withMissing, 2, true);
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        int count = 0;
+        int errors = 0;
+        while (parser.hasNext()) {
+            try {
+                parser.next(description, residues);
+                count++;
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("missing.fa"));
+                errors++;
+            }
+        }
+        parser.close();
+        assertEquals(expected.size(), count);
+        assertEquals(1, errors);
+    }
+
+    /**
+     * Reads all the records of a parser.
+     *
+     * @param parser The parser
+     * @return the records, as "file&gt;description\nresidues"
+     * @throws IOException if a file cannot be parsed
+     */
+    private static List<String> records(final MultiFastaParser parser) throws IOException {
+        final List<String> records = new ArrayList<String>();
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        while (parser.hasNext()) {
+            parser.next(description, residues);
+            records.add(parser.getSource().getName() + '>' + description + '\n' + residues);
+        }
+        return records;
+    }
+
+    /**
+     * Returns the records of a file.
+     *
+     * @param records The records, as "file&gt;description\nresidues"
+     * @param file    The file
+     * @return the records of the file, in the same order
+     */
+    private static List<String> recordsOf(final List<String> records, final File file) {
+        final List<String> result = new ArrayList<String>();
+        for (final String record : records) {
+            if (record.startsWith(file.getName() + '>')) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sorts files by name.
+     *
+     * @param list The files
+     * @return the files sorted by name
+     */
+    private List<File> sorted(final List<File> list) {
+        final List<File> result = new ArrayList<File>(list);
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the
+ * {@link edu.cornell.med.icb.parsers.PackedNucleotideSequence} class.
+ */
+public class TestPackedNucleotideSequence extends TestCase {
+    /**
+     * Validates that bases, Ns and masked stretches are restored exactly.
+     */
+    public void testRoundTrip() {
+        final String bases = "ACGTNNNNacgtnnACGTRYacGT";
+        final PackedNucleotideSequence sequence = new PackedNucleotideSequence(4);
+        sequence.append(bases);
+        assertEquals(bases.length(), sequence.length());
+        // IUPAC codes other than N are stored as N
+        assertEquals(bases.replace('R', 'N').replace('Y', 'N'), sequence.toString());
+        assertEquals('a', sequence.charAt(8));
+        assertEquals('n', sequence.charAt(12));
+        assertEquals('N', sequence.charAt(18));
+        assertEquals(3, sequence.getCode(3));
+        assertTrue(sequence.isAmbiguous(5));
+        assertFalse(sequence.isAmbiguous(8));
+        assertTrue(sequence.isMasked(13));
+        assertFalse(sequence.isMasked(14));
+        assertEquals(3, sequence.getNumberOfAmbiguousRuns());
+        assertEquals(2, sequence.getNumberOfMaskedRuns());
+    }
+
+    /**
+     * Validates that every subsequence of a random sequence is unpacked correctly.
+     */
+    public void testSubsequences() {
+        final Random random = new Random(42);
+        final String alphabet = "ACGTNacgtn";
+        final StringBuilder bases = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            // favor runs of the same kind of base
+            final int runLength = 1 + random.nextInt(10);
+            final char base = alphabet.charAt(random.nextInt(alphabet.length()));
+            for (int j = 0; j < runLength; j++) {
+                bases.append(base);
+            }
+        }
+        final PackedNucleotideSequence sequence = new PackedNucleotideSequence();
+        for (int i = 0; i < bases.length(); i++) {
+            sequence.append(bases.charAt(i));
+        }
+        final MutableString subsequence = new MutableString();
+        for (int i = 0; i < 200; i++) {
+            final int start = random.nextInt(bases.length());
+            final int end = start + random.nextInt(bases.length() - start + 1);
+            sequence.getSubsequence(start, end, subsequence);
+            assertEquals(bases.substring(start, end), subsequence.toString());
+        }
+        for (int i = 0; i < bases.length(); i++) {
+            assertEquals(bases.charAt(i), sequence.charAt(i));
+        }
+    }
+
+    /**
+     * Validates that sequences can be packed directly from a FASTA stream.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testAppendFromParser() throws IOException {
+        final ReaderFastaParser parser =
+                new ReaderFastaParser(new StringReader(">chr1\nACGT\nNNac\n>chr2\nGGGG\n"));
+        final MutableString description = new MutableString();
+        final PackedNucleotideSequence sequence = new PackedNucleotideSequence();
+        parser.nextSequence(description);
+        assertEquals(8, sequence.append(parser.getBaseReader()));
+        assertEquals("ACGTNNac", sequence.toString());
+        sequence.clear();
+        parser.nextSequence(description);
+        assertEquals(new MutableString("chr2"), description);
+        sequence.append(parser.getBaseReader());
+        assertEquals("GGGG", sequence.toString());
+        assertEquals(0, sequence.getNumberOfAmbiguousRuns());
+    }
+
+    /**
+     * Validates that indices outside the sequence are rejected.
+     */
+    public void testOutOfBounds() {
+        final PackedNucleotideSequence sequence = new PackedNucleotideSequence();
+        sequence.append("ACGT");
+        try {
+            sequence.charAt(4);
+            fail("index 4 is past the end of the sequence");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+}
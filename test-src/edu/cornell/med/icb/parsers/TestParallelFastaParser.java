@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.ParallelFastaParser}
+ * class.
+ */
+public class TestParallelFastaParser extends TestCase {
+    /**
+     * The FASTA content parsed by the tests.
+     */
+    private String fasta;
+
+    /**
+     * The FASTA file written for a test.
+     */
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            content.append(">sequence").append(i).append(" description\n");
+            for (int j = 0; j < i % 7; j++) {
+                content.append("ACDEFGHIKLMNPQRSTVWY".substring(0, 1 + (i + j) % 20));
+                content.append('\n');
+            }
+        }
+        fasta = content.toString();
+        file = File.createTempFile("squil-parallel", ".fasta");
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(fasta.getBytes("US-ASCII"));
+        } finally {
+            output.close();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Validates that ordered parsing returns the records of the file in order.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testOrdered() throws IOException {
+        final List<String> expected = expectedRecords();
+        for (long chunkSize = 1; chunkSize < fasta.length() + 10; chunkSize += 97) {
+            final ParallelFastaParser parser = new ParallelFastaParser(file, 3, chunkSize, true);
+            assertEquals(expected, parse(parser));
+            parser.close();
+        }
+    }
+
+    /**
+     * Validates that unordered parsing returns every record of the file exactly once.
+     * @throws IOException if there is a problem with the file
+     */
+    public void testUnordered() throws IOException {
+        final List<String> expected = expectedRecords();
+        Collections.sort(expected);
+        final ParallelFastaParser parser = new ParallelFastaParser(file, 4, 256, false);
+        assertTrue(parser.getNumberOfChunks() > 1);
+        final List<String> records = parse(parser);
+        Collections.sort(records);
+        assertEquals(expected, records);
+        parser.close();
+    }
+
+    /**
+     * Validates the split of a file into chunks.
+     */
+    public void testSplit() {
+        final long[] bounds = ParallelFastaParser.split(10, 4);
+        assertEquals(4, bounds.length);
+        assertEquals(0, bounds[0]);
+        assertEquals(4, bounds[1]);
+        assertEquals(8, bounds[2]);
+        assertEquals(10, bounds[3]);
+        assertEquals(2, ParallelFastaParser.split(0, 4).length);
+    }
+
+    /**
+     * Returns the records of the test file, as parsed by {@link FastaParser}.
+     *
+     * @return the records, one string per record
+     * @throws IOException if there is a problem with the content
+     */
+    private List<String> expectedRecords() throws IOException {
+        final List<String> records = new ArrayList<String>();
+        final FastaParser parser = new FastaParser(new StringReader(fasta));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        while (parser.hasNext()) {
+            parser.next(description, residues);
+            records.add(new FastaRecord(description, residues).toString());
+        }
+        return records;
+    }
+
+    /**
+     * Returns the records delivered by a parallel parser.
+     *
+     * @param parser The parser to read
+     * @return the records, one string per record
+     */
+    private List<String> parse(final ParallelFastaParser parser) {
+        final List<String> records = new ArrayList<String>();
+        for (final FastaRecord record : parser) {
+            records.add(record.toString());
+        }
+        return records;
+    }
+}
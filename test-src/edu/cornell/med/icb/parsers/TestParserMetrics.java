@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.io.FastBufferedReader;
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.ParserMetrics}
+ * class.
+ */
+public class TestParserMetrics extends TestCase {
+    /**
+     * The FASTA content parsed by the tests.
+     */
+    private static final String FASTA = ">seq1\nACGT\nAC\n>seq2\nA\n>seq3 long\nACGTACGTAC\n";
+
+    /**
+     * Validates the counters of a {@link FastaParser}.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testFastaParser() throws IOException {
+        final ParserMetrics metrics = new ParserMetrics();
+        final FastaParser parser = new FastaParser();
+        parser.setMetrics(metrics);
+        parser.setReader(new StringReader(FASTA));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        while (parser.hasNext()) {
+            parser.next(description, residues);
+        }
+        assertEquals(3, metrics.getRecords());
+        assertEquals(FASTA.length(), metrics.getCharactersRead());
+        assertEquals(10, metrics.getLargestRecord());
+        assertTrue(metrics.getLargestResidueCapacity() >= 10);
+        assertTrue(metrics.getParseTime() > 0);
+        assertTrue(metrics.getRecordsPerSecond() > 0);
+        assertEquals(3, sum(metrics.getLatencyHistogram()));
+        assertTrue(metrics.getMedianLatency() <= metrics.getLatency99());
+        assertTrue(metrics.getMaxLatency() <= metrics.getLatency(1));
+
+        metrics.reset();
+        assertEquals(0, metrics.getRecords());
+        assertEquals(0, metrics.getLatency99());
+        assertEquals(0, sum(metrics.getLatencyHistogram()));
+    }
+
+    /**
+     * Validates the counters of a {@link ReaderFastaParser}, whatever the way the bases
+     * are read.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testReaderFastaParser() throws IOException {
+        final ParserMetrics metrics = new ParserMetrics();
+        final ReaderFastaParser parser = new ReaderFastaParser();
+        parser.setMetrics(metrics);
+        parser.setReader(new StringReader(FASTA));
+        final MutableString description = new MutableString();
+        parser.nextSequence(description);
+        Reader bases = parser.getBaseReader();
+        while (bases.read() != -1) {
+            // skip the bases one at a time
+        }
+        final char[] buffer = new char[3];
+        while (parser.hasNextSequence()) {
+            parser.nextSequence(description);
+            bases = parser.getBaseReader();
+            while (bases.read(buffer, 0, buffer.length) != -1) {
+                // skip the bases in bulk
+            }
+        }
+        assertEquals(3, metrics.getRecords());
+        assertEquals(10, metrics.getLargestRecord());
+        assertEquals(FASTA.length(), metrics.getCharactersRead());
+        assertEquals(0, metrics.getLargestResidueCapacity());
+    }
+
+    /**
+     * Validates that the time the caller spends between reads of the bases of a
+     * {@link ReaderFastaParser} is not counted as parse time.
+     * @throws Exception if there is a problem with the reader
+     */
+    public void testReaderFastaParserExcludesCallerTime() throws Exception {
+        final ParserMetrics metrics = new ParserMetrics();
+        final ReaderFastaParser parser = new ReaderFastaParser();
+        parser.setMetrics(metrics);
+        parser.setReader(new StringReader(FASTA));
+        final MutableString description = new MutableString();
+        while (parser.hasNextSequence()) {
+            parser.nextSequence(description);
+            final Reader bases = parser.getBaseReader();
+            while (bases.read() != -1) {
+                // the caller processes each base slowly
+                Thread.sleep(5);
+            }
+        }
+        assertEquals(3, metrics.getRecords());
+        // 17 bases were processed for at least 85 ms
+        assertTrue(metrics.getParseTime() + " ns", metrics.getParseTime() < 40000000L);
+        assertTrue(metrics.getMaxLatency() < 40000000L);
+    }
+
+    /**
+     * Validates that parsers without metrics are not affected.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testWithoutMetrics() throws IOException {
+        final ParserMetrics metrics = new ParserMetrics();
+        final FastaParser parser = new FastaParser();
+        parser.setMetrics(metrics);
+        parser.setMetrics(null);
+        parser.setReader(new StringReader(FASTA));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        parser.next(description, residues);
+        assertEquals("ACGTAC", residues.toString());
+        assertEquals(0, metrics.getRecords());
+        assertEquals(0, metrics.getCharactersRead());
+    }
+
+    /**
+     * Validates that a {@link FastBufferedReader} given to a {@link FastaParser} with
+     * metrics, or with a maximum record size, does not buffer the data a second time: once
+     * its buffer is drained, the underlying reader fills the buffer of the parser directly.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testFastBufferedReaderIsNotBufferedTwice() throws IOException {
+        final StringBuilder fasta = new StringBuilder("junk\n");
+        for (int i = 0; i < 2000; i++) {
+            fasta.append(">seq").append(i).append("\nACGTACGTAC\nGGTT\n");
+        }
+        for (int configuration = 0; configuration < 3; configuration++) {
+            // the arrays the underlying reader fills, and how many characters each received
+            final Map<char[], Integer> filled = new IdentityHashMap<char[], Integer>();
+            final Reader underlying = new StringReader(fasta.toString()) {
+                @Override
+                public int read(final char[] chars, final int offset, final int length)
+                        throws IOException {
+                    final int count = super.read(chars, offset, length);
+                    final Integer previous = filled.get(chars);
+                    filled.put(chars, (previous == null ? 0 : previous) + Math.max(0, count));
+                    return count;
+                }
+            };
+            final FastBufferedReader buffered = new FastBufferedReader(underlying);
+            // the caller reads the first line, so that the buffer of the reader is not empty
+            buffered.readLine(new MutableString());
+
+            final ParserMetrics metrics = new ParserMetrics();
+            final FastaParser parser = new FastaParser();
+            if (configuration != 2) {
+                parser.setMetrics(metrics);
+            }
+            if (configuration == 1) {
+                parser.setMaxRecordSize(100, FastaParser.OversizedRecordPolicy.FAIL);
+            }
+            parser.setReader(buffered);
+            if (configuration == 2) {
+                parser.setMaxRecordSize(100, FastaParser.OversizedRecordPolicy.FAIL);
+            }
+            final MutableString description = new MutableString();
+            final MutableString residues = new MutableString();
+            int numberOfRecords = 0;
+            while (parser.hasNext()) {
+                parser.next(description, residues);
+                assertEquals("ACGTACGTACGGTT", residues.toString());
+                numberOfRecords++;
+            }
+            assertEquals(2000, numberOfRecords);
+            // the buffer of the caller was filled once, the parser read everything else
+            assertEquals(2, filled.size());
+            if (configuration != 2) {
+                assertEquals(2000, metrics.getRecords());
+                assertEquals(fasta.length() - "junk\n".length(), metrics.getCharactersRead());
+            }
+        }
+    }
+
+    /**
+     * Validates that the metrics can be read through JMX.
+     * @throws Exception if the metrics cannot be read
+     */
+    public void testRegister() throws Exception {
+        final ParserMetrics metrics = new ParserMetrics();
+        final ObjectName name = metrics.register("test \"parser\"");
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final FastaParser parser = new FastaParser();
+            parser.setMetrics(metrics);
+            parser.setReader(new StringReader(FASTA));
+            parser.next(new MutableString(), new MutableString());
+            assertEquals(1L, server.getAttribute(name, "Records"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "Records"));
+        } finally {
+            ParserMetrics.unregister(name);
+        }
+    }
+
+    /**
+     * Adds the counts of a histogram.
+     *
+     * @param histogram The histogram
+     * @return the total count
+     */
+    private long sum(final long[] histogram) {
+        long total = 0;
+        for (final long count : histogram) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.ReadAheadInputStream}
+ * class.
+ */
+public class TestReadAheadInputStream extends TestCase {
+    /**
+     * Validates that the data is delivered in order across buffers of several sizes.
+     * @throws IOException if there is a problem with the stream
+     */
+    public void testRead() throws IOException {
+        final byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        for (final int bufferSize : new int[] {1, 7, 4096, 1 << 20}) {
+            final ReadAheadInputStream input = new ReadAheadInputStream(
+                    Channels.newChannel(new ByteArrayInputStream(content)), bufferSize, 3);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1000];
+            assertEquals(content[0] & 0xFF, input.read());
+            output.write(content[0]);
+            int count;
+            while ((count = input.read(buffer, 0, buffer.length)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            assertEquals(-1, input.read());
+            input.close();
+            final byte[] result = output.toByteArray();
+            assertEquals(content.length, result.length);
+            for (int i = 0; i < content.length; i++) {
+                assertEquals(content[i], result[i]);
+            }
+            assertEquals(content.length, input.getBytesRead());
+            assertTrue(input.getComputeTime() >= 0);
+        }
+    }
+
+    /**
+     * Validates that FASTA files can be parsed from the stream.
+     * @throws IOException if there is a problem with the stream
+     */
+    public void testParse() throws IOException {
+        final String fasta = ">1\nACGT\n>2\nTTTT\nGG\n";
+        final ReadAheadInputStream input =
+                new ReadAheadInputStream(new ByteArrayInputStream(fasta.getBytes()));
+        final FastaParser parser = new FastaParser(new InputStreamReader(input, "ISO-8859-1"));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        parser.next(description, residues);
+        assertEquals(new MutableString("ACGT"), residues);
+        parser.next(description, residues);
+        assertEquals(new MutableString("TTTTGG"), residues);
+        assertFalse(parser.hasNext());
+        input.close();
+    }
+
+    /**
+     * Validates that errors of the source are reported to the caller.
+     */
+    public void testError() {
+        final InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("disk on fire");
+            }
+        };
+        final ReadAheadInputStream input = new ReadAheadInputStream(failing);
+        try {
+            input.read();
+            fail("the source cannot be read");
+        } catch (IOException e) {
+            assertEquals("disk on fire", e.getMessage());
+        }
+    }
+
+    /**
+     * Validates that the bytes read before an error of the source, including those of a
+     * partly filled buffer, are delivered before the error.
+     * @throws IOException if there is a problem with the stream
+     */
+    public void testDataBeforeError() throws IOException {
+        final int length = 95;
+        final ReadableByteChannel failing = new ReadableByteChannel() {
+            private int position;
+
+            public int read(final ByteBuffer buffer) throws IOException {
+                if (position == length) {
+                    throw new IOException("disk on fire");
+                }
+                final int count = Math.min(buffer.remaining(), Math.min(10, length - position));
+                for (int i = 0; i < count; i++) {
+                    buffer.put((byte) position++);
+                }
+                return count;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+                // nothing to close
+            }
+        };
+        final ReadAheadInputStream input = new ReadAheadInputStream(failing, 64, 3);
+        for (int i = 0; i < length; i++) {
+            assertEquals(i, input.read());
+        }
+        try {
+            input.read();
+            fail("the source cannot be read");
+        } catch (IOException e) {
+            assertEquals("disk on fire", e.getMessage());
+        }
+        input.close();
+    }
+}
@@ -18,12 +18,16 @@
 
 package edu.cornell.med.icb.parsers;
 
+import it.unimi.dsi.io.FastBufferedReader;
 import it.unimi.dsi.lang.MutableString;
 import junit.framework.TestCase;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  * User: Fabien Campagne
@@ -120,4 +124,142 @@ public class TestReaderFastaParser extends TestCase {
         }
         assertEquals("fasta file must be recognized to have 4 sequences.", 4, index);
     }
+
+    public void testBulkRead() throws IOException {
+        final String fasta = ">1\n" +
+                "ACTG\n" +
+                "AA*AA0T\r\n" +
+                ">2 second\n" +
+                ">3\n" +
+                "acgu\n" +
+                "NNNN";
+        final ReaderFastaParser p = new ReaderFastaParser(new StringReader(fasta));
+        final MutableString description = new MutableString();
+        final char[] buffer = new char[3];
+        final String[] expected = {"ACTGAAAA0T", "", "acguNNNN"};
+        int index = 0;
+        while (p.hasNextSequence()) {
+            p.nextSequence(description);
+            final Reader baseReader = p.getBaseReader();
+            final StringBuilder bases = new StringBuilder();
+            int count;
+            while ((count = baseReader.read(buffer, 0, buffer.length)) != -1) {
+                bases.append(buffer, 0, count);
+            }
+            assertEquals(expected[index], bases.toString());
+            index++;
+        }
+        assertEquals(3, index);
+        assertEquals(new MutableString("3"), description);
+    }
+
+    public void testBufferedBaseReader() throws IOException {
+        final StringBuilder fasta = new StringBuilder();
+        final StringBuilder sequence = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sequence.append("ACGT".charAt(i % 4));
+        }
+        for (int i = 0; i < 3; i++) {
+            fasta.append('>').append(i).append('\n');
+            for (int j = 0; j < sequence.length(); j += 60) {
+                fasta.append(sequence, j, Math.min(j + 60, sequence.length())).append('\n');
+            }
+        }
+        final ReaderFastaParser p = new ReaderFastaParser(new StringReader(fasta.toString()));
+        final MutableString description = new MutableString();
+        int index = 0;
+        while (p.hasNextSequence()) {
+            p.nextSequence(description);
+            assertEquals(new MutableString(Integer.toString(index)), description);
+            final BufferedReader baseReader = new BufferedReader(p.getBaseReader());
+            final StringBuilder bases = new StringBuilder();
+            int c;
+            while ((c = baseReader.read()) != -1) {
+                bases.append((char) c);
+            }
+            assertEquals(sequence.toString(), bases.toString());
+            index++;
+        }
+        assertEquals(3, index);
+    }
+
+    /**
+     * Validates that a parser can be given another reader once a reader is exhausted,
+     * including a reader without any record.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testSetReaderAfterEnd() throws IOException {
+        final ReaderFastaParser parser = new ReaderFastaParser();
+        final MutableString description = new MutableString();
+        final StringBuilder records = new StringBuilder();
+        final String[] inputs = {">a\nAC\n>b\nGT", "no record\n", ">c\nTT\n"};
+        for (final String input : inputs) {
+            parser.setReader(new StringReader(input));
+            while (parser.hasNextSequence()) {
+                parser.nextSequence(description);
+                records.append(description).append('=');
+                final Reader bases = parser.getBaseReader();
+                int c;
+                while ((c = bases.read()) != -1) {
+                    records.append((char) c);
+                }
+                records.append(' ');
+            }
+        }
+        assertEquals("a=AC b=GT c=TT ", records.toString());
+    }
+
+    /**
+     * Validates that a {@link FastBufferedReader} given by the caller does not buffer the
+     * data a second time: once its buffer is drained, the underlying reader fills the
+     * buffer of the parser directly.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testFastBufferedReaderIsNotBufferedTwice() throws IOException {
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            fasta.append(">seq").append(i).append("\nACGTACGTAC\nGGTT\n");
+        }
+        // the arrays the underlying reader fills, and how many characters each received
+        final Map<char[], Integer> filled = new IdentityHashMap<char[], Integer>();
+        final Reader underlying = new StringReader(fasta.toString()) {
+            @Override
+            public int read(final char[] chars, final int offset, final int length)
+                    throws IOException {
+                final int count = super.read(chars, offset, length);
+                final Integer previous = filled.get(chars);
+                filled.put(chars, (previous == null ? 0 : previous) + Math.max(0, count));
+                return count;
+            }
+        };
+        final FastBufferedReader buffered = new FastBufferedReader(underlying);
+        // the caller reads the first line, so that the buffer of the reader is not empty
+        final MutableString line = new MutableString();
+        buffered.readLine(line);
+        assertEquals(">seq0", line.toString());
+
+        final ReaderFastaParser parser = new ReaderFastaParser(buffered);
+        final MutableString description = new MutableString();
+        final char[] bases = new char[100];
+        int numberOfSequences = 0;
+        while (parser.hasNextSequence()) {
+            parser.nextSequence(description);
+            final Reader reader = parser.getBaseReader();
+            int length = 0;
+            int count;
+            while ((count = reader.read(bases, 0, bases.length)) != -1) {
+                length += count;
+            }
+            assertEquals(14, length);
+            numberOfSequences++;
+        }
+        assertEquals(1999, numberOfSequences);
+        // the buffer of the caller was filled once, the parser read everything else
+        assertEquals(2, filled.size());
+        int total = 0;
+        for (final int count : filled.values()) {
+            total += count;
+        }
+        assertEquals(fasta.length(), total);
+    }
 }
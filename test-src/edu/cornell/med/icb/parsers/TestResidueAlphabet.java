@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.ResidueAlphabet}
+ * class.
+ */
+public class TestResidueAlphabet extends TestCase {
+    /**
+     * Validates the residues kept by each predefined alphabet.
+     */
+    public void testAlphabets() {
+        final String raw = "acgtun ACGTUN ryRY .-0123456 xX\u00e9";
+        assertEquals("ACGTNACGTN", filter(ResidueAlphabet.DNA, raw));
+        assertEquals("ACGUNACGUN", filter(ResidueAlphabet.RNA, raw));
+        assertEquals("ACGTUNACGTUNRYRY--", filter(ResidueAlphabet.IUPAC, raw));
+        assertEquals("ACGTACGT.0123", filter(ResidueAlphabet.COLOR_SPACE, raw));
+        assertEquals("ACGTNACGTNRYRY--XX", filter(ResidueAlphabet.PROTEIN, raw));
+        assertEquals("acgtunACGTUNryRY0123456xX",
+                filter(ResidueAlphabet.BASE_OR_COLOR_SPACE, raw));
+    }
+
+    /**
+     * Validates that the table driven protein filter agrees with the original definition of
+     * {@link FastaParser#filterProteinResidues(CharSequence, MutableString)} on every
+     * Latin-1 character.
+     */
+    public void testProteinMatchesOriginalFilter() {
+        final String valid = "ACTGLVISDEFHKMNPQRWBY-XZ";
+        for (char c = 0; c < 256; c++) {
+            final char normalized = c == '.' ? '-' : Character.toUpperCase(c);
+            final boolean expected = valid.indexOf(normalized) != -1;
+            assertEquals("character " + (int) c, expected,
+                    ResidueAlphabet.PROTEIN.isResidue(c));
+            if (expected) {
+                assertEquals(normalized, ResidueAlphabet.PROTEIN.normalize(c));
+            }
+        }
+    }
+
+    /**
+     * Validates that filtering works in place, on strings and on bytes.
+     */
+    public void testInPlace() {
+        final MutableString residues = new MutableString("m.k*l");
+        ResidueAlphabet.PROTEIN.filter(residues, residues);
+        assertEquals(new MutableString("M-KL"), residues);
+
+        final MutableByteString bytes = new MutableByteString("ac gt\nNN");
+        ResidueAlphabet.DNA.filter(bytes);
+        assertEquals("ACGTNN", bytes.toString());
+    }
+
+    /**
+     * Validates custom alphabets.
+     */
+    public void testCreate() {
+        final ResidueAlphabet binary = ResidueAlphabet.create("binary", "01", false);
+        assertEquals("0110", filter(binary, "0a1b1c0"));
+        assertEquals("binary", binary.toString());
+    }
+
+    /**
+     * Filters a string with an alphabet.
+     *
+     * @param alphabet The alphabet to filter with
+     * @param raw      The string to filter
+     * @return the filtered string
+     */
+    private String filter(final ResidueAlphabet alphabet, final String raw) {
+        final MutableString filtered = new MutableString();
+        alphabet.filter(raw, filtered);
+        final MutableString fromMutable = new MutableString();
+        alphabet.filter(new MutableString(raw), fromMutable);
+        assertEquals(filtered, fromMutable);
+        return filtered.toString();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.SequenceCache}
+ * class.
+ */
+public class TestSequenceCache extends TestCase {
+    /**
+     * Validates that a cache iterates over the records as the parser of the FASTA file
+     * does, and that records can be read by index.
+     * @throws IOException if there is a problem with the cache
+     */
+    public void testIteration() throws IOException {
+        final String fasta = randomFasta(300);
+        final File cacheFile = File.createTempFile("squil", SequenceCache.EXTENSION);
+        try {
+            assertEquals(300, SequenceCache.build(new FastaParser(new StringReader(fasta)),
+                    cacheFile));
+            final SequenceCache cache = new SequenceCache(cacheFile);
+            assertEquals(300, cache.size());
+            final FastaParser parser = new FastaParser(new StringReader(fasta));
+            final MutableString description = new MutableString();
+            final MutableString residues = new MutableString();
+            final MutableString cachedDescription = new MutableString();
+            final MutableString cachedResidues = new MutableString();
+            int index = 0;
+            while (parser.hasNext()) {
+                assertTrue(cache.hasNext());
+                final boolean more = parser.next(description, residues);
+                assertEquals(more, cache.next());
+                assertEquals(description.toString(), cache.getDescriptionLine().toString());
+                assertEquals(residues.toString(), cache.getResidues().toString());
+                assertEquals(residues.toString(), cache.getResidues(index).toString());
+                assertEquals(residues.length(), cache.getLength(index));
+                index++;
+            }
+            assertFalse(cache.hasNext());
+            assertFalse(cache.next());
+
+            cache.rewind();
+            cache.next(cachedDescription, cachedResidues);
+            assertEquals(cache.getDescriptionLine(0).toString(), cachedDescription.toString());
+            assertEquals(cache.getResidues(0).toString(), cachedResidues.toString());
+            cache.close();
+        } finally {
+            cacheFile.delete();
+        }
+    }
+
+    /**
+     * Validates that the temporary file where the table is written while records are parsed
+     * is deleted once the cache is built.
+     * @throws IOException if there is a problem with the cache
+     */
+    public void testTemporaryTable() throws IOException {
+        final File directory = File.createTempFile("squil", ".dir");
+        assertTrue(directory.delete() && directory.mkdir());
+        final File cacheFile = new File(directory, "records" + SequenceCache.EXTENSION);
+        try {
+            assertEquals(50, SequenceCache.build(
+                    new FastaParser(new StringReader(randomFasta(50))), cacheFile));
+            assertEquals(1, directory.list().length);
+            final SequenceCache cache = new SequenceCache(cacheFile);
+            assertEquals(50, cache.size());
+            cache.close();
+        } finally {
+            cacheFile.delete();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Validates records that extend past the segment where they start, and empty caches.
+     * @throws IOException if there is a problem with the cache
+     */
+    public void testSegments() throws IOException {
+        final String fasta = randomFasta(50);
+        final File cacheFile = File.createTempFile("squil", SequenceCache.EXTENSION);
+        try {
+            SequenceCache.build(new FastaParser(new StringReader(fasta)), cacheFile);
+            final SequenceCache whole = new SequenceCache(cacheFile);
+            final SequenceCache segmented = new SequenceCache(cacheFile, 8);
+            for (int i = 0; i < whole.size(); i++) {
+                assertEquals(whole.getDescriptionLine(i).toString(),
+                        segmented.getDescriptionLine(i).toString());
+                final CharSequence residues = segmented.getResidues(i);
+                assertEquals(whole.getResidues(i).toString(), residues.toString());
+                if (residues.length() > 10) {
+                    assertEquals(whole.getResidues(i).subSequence(3, 10).toString(),
+                            residues.subSequence(3, 10).toString());
+                }
+            }
+            whole.close();
+            segmented.close();
+
+            assertEquals(0, SequenceCache.build(new FastaParser(new StringReader("")),
+                    cacheFile));
+            final SequenceCache empty = new SequenceCache(cacheFile);
+            assertEquals(0, empty.size());
+            assertFalse(empty.hasNext());
+            empty.close();
+        } finally {
+            cacheFile.delete();
+        }
+    }
+
+    /**
+     * Validates that the cache of a FASTA file is built when missing or stale, and reused
+     * otherwise.
+     * @throws IOException if there is a problem with the cache
+     */
+    public void testOpen() throws IOException {
+        final File fastaFile = File.createTempFile("squil", ".fa");
+        final File cacheFile = new File(fastaFile.getPath() + SequenceCache.EXTENSION);
+        try {
+            write(fastaFile, ">seq1\nACGT\n>seq2\nTT\n");
+            SequenceCache cache = SequenceCache.open(fastaFile);
+            assertEquals(2, cache.size());
+            assertEquals("TT", cache.getResidues(1).toString());
+            cache.close();
+            assertTrue(cacheFile.exists());
+            final long built = cacheFile.lastModified();
+
+            cache = SequenceCache.open(fastaFile);
+            assertEquals(built, cacheFile.lastModified());
+            cache.close();
+
+            write(fastaFile, ">seq3\nGGG\n");
+            assertTrue(fastaFile.setLastModified(built + 10000));
+            cache = SequenceCache.open(fastaFile);
+            assertEquals(1, cache.size());
+            assertEquals("seq3", cache.getDescriptionLine(0).toString());
+            cache.close();
+        } finally {
+            fastaFile.delete();
+            cacheFile.delete();
+        }
+    }
+
+    /**
+     * Validates that truncated cache files are rejected.
+     * @throws IOException if there is a problem with the cache
+     */
+    public void testMalformed() throws IOException {
+        final File cacheFile = File.createTempFile("squil", SequenceCache.EXTENSION);
+        try {
+            SequenceCache.build(new FastaParser(new StringReader(randomFasta(10))), cacheFile);
+            final RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+            file.setLength(file.length() - 8);
+            file.close();
+            try {
+                new SequenceCache(cacheFile);
+                fail("A truncated cache must be rejected");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Malformed"));
+            }
+        } finally {
+            cacheFile.delete();
+        }
+    }
+
+    /**
+     * Returns random FASTA records of various lengths, wrapped at 60 residues.
+     *
+     * @param count The number of records
+     * @return the records
+     */
+    private static String randomFasta(final int count) {
+        final Random random = new Random(count);
+        final StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            fasta.append(">seq").append(i).append(" record ").append(i).append('\n');
+            final int length = random.nextInt(1000);
+            for (int j = 0; j < length; j++) {
+                fasta.append("ACGTN".charAt(random.nextInt(5)));
+                if (j % 60 == 59 || j == length - 1) {
+                    fasta.append('\n');
+                }
+            }
+        }
+        return fasta.toString();
+    }
+
+    /**
+     * Writes a string to a file.
+     *
+     * @param file    The file to write
+     * @param content The content of the file
+     * @throws IOException if the file cannot be written
+     */
+    private static void write(final File file, final String content) throws IOException {
+        final OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("ISO-8859-1"));
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Validates the functionality of the
+ * {@link edu.cornell.med.icb.parsers.SequenceDeduplicator} class.
+ */
+public class TestSequenceDeduplicator extends TestCase {
+    /**
+     * Validates the unique records and the cluster map of a small file.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testDeduplicate() throws IOException {
+        final String fasta = ">P1 first\nMKVL\nAAGG\n>P2 second\nMKVLAAGG\n>P3 third\nMKVLA\n"
+                + ">P4 fourth\nMKVLA\n>P5 empty\n";
+        final StringWriter unique = new StringWriter();
+        final StringWriter clusters = new StringWriter();
+        final SequenceDeduplicator deduplicator = new SequenceDeduplicator();
+        try {
+            assertEquals(3, deduplicator.deduplicate(new FastaParser(new StringReader(fasta)),
+                    unique, clusters));
+        } finally {
+            deduplicator.close();
+        }
+        assertEquals(">P1 first\nMKVLAAGG\n>P3 third\nMKVLA\n>P5 empty\n", unique.toString());
+        assertEquals("P1\tP1\nP2\tP1\nP3\tP3\nP4\tP3\nP5\tP5\n", clusters.toString());
+        assertEquals(5, deduplicator.getNumberOfSequences());
+        assertEquals(3, deduplicator.getNumberOfUniqueSequences());
+    }
+
+    /**
+     * Validates that spilling the hashes to disk gives the same answers as holding them in
+     * memory, including for representatives that were spilled.
+     * @throws IOException if the temporary files cannot be written
+     */
+    public void testSpill() throws IOException {
+        final Random random = new Random(3);
+        final SequenceDeduplicator inMemory = new SequenceDeduplicator();
+        final SequenceDeduplicator spilling = new SequenceDeduplicator(100,
+                new File(System.getProperty("java.io.tmpdir")));
+        final Map<String, String> representatives = new HashMap<String, String>();
+        final MutableString representative = new MutableString();
+        final MutableString spilledRepresentative = new MutableString();
+        try {
+            for (int i = 0; i < 5000; i++) {
+                // a small alphabet and short lengths give many duplicates
+                final StringBuilder residues = new StringBuilder();
+                final int length = 1 + random.nextInt(7);
+                for (int j = 0; j < length; j++) {
+                    residues.append("ACG".charAt(random.nextInt(3)));
+                }
+                final String accession = "seq" + i;
+                final String sequence = residues.toString();
+                final boolean expectedUnique = !representatives.containsKey(sequence);
+                if (expectedUnique) {
+                    representatives.put(sequence, accession);
+                }
+                assertEquals(expectedUnique, inMemory.add(accession, sequence, representative));
+                assertEquals(expectedUnique,
+                        spilling.add(accession, sequence, spilledRepresentative));
+                assertEquals(representatives.get(sequence), representative.toString());
+                assertEquals(representatives.get(sequence), spilledRepresentative.toString());
+            }
+            assertEquals(representatives.size(), spilling.getNumberOfUniqueSequences());
+            assertTrue(spilling.getNumberOfSpills() > 10);
+            assertEquals(0, inMemory.getNumberOfSpills());
+        } finally {
+            inMemory.close();
+            spilling.close();
+        }
+    }
+
+    /**
+     * Validates that numbers of sequences in memory that cannot be spilled are rejected,
+     * whether or not a directory is given.
+     */
+    public void testInvalidNumberOfSequences() {
+        final int[] invalid = {0, -1, Integer.MAX_VALUE / 24 + 1, Integer.MAX_VALUE - 1};
+        for (final int maxSequencesInMemory : invalid) {
+            try {
+                new SequenceDeduplicator(maxSequencesInMemory, null);
+                fail(maxSequencesInMemory + " sequences in memory cannot be spilled");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        new SequenceDeduplicator(Integer.MAX_VALUE, null);
+        new SequenceDeduplicator(Integer.MAX_VALUE / 24, null);
+    }
+
+    /**
+     * Validates that the hash depends on every character and on the length.
+     */
+    public void testHash() {
+        final Set<String> hashes = new HashSet<String>();
+        final long[] hash = new long[2];
+        final String[] sequences = {"", "A", "AA", "AAA", "MKVLAAGG", "MKVLAAGH", "MKVLAAGGA",
+                "HKVLAAGG", "\u0000", "\u0000\u0000"};
+        for (final String sequence : sequences) {
+            SequenceDeduplicator.hash(sequence, hash);
+            assertTrue(hash[0] != 0 || hash[1] != 0);
+            assertTrue(sequence, hashes.add(hash[0] + ":" + hash[1]));
+        }
+        final long[] mutableHash = new long[2];
+        SequenceDeduplicator.hash(new MutableString("MKVLAAGGA"), mutableHash);
+        SequenceDeduplicator.hash("MKVLAAGGA", hash);
+        assertEquals(hash[0], mutableHash[0]);
+        assertEquals(hash[1], mutableHash[1]);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.SequenceOperations}
+ * class.
+ */
+public class TestSequenceOperations extends TestCase {
+    /**
+     * Validates that IUPAC codes and case are kept by the reverse complement.
+     */
+    public void testReverseComplement() {
+        final MutableString bases = new MutableString("ACGTNacgtnRYKMBDHVSW-x");
+        assertSame(bases, SequenceOperations.reverseComplement(bases));
+        assertEquals("x-WSBDHVKMRYnacgtNACGT", bases.toString());
+        SequenceOperations.reverseComplement(bases);
+        assertEquals("ACGTNacgtnRYKMBDHVSW-x", bases.toString());
+
+        final MutableString odd = new MutableString("AAC");
+        SequenceOperations.reverseComplement(odd);
+        assertEquals("GTT", odd.toString());
+        assertEquals('A', SequenceOperations.complement('U'));
+
+        final MutableByteString bytes = new MutableByteString("GATTACA");
+        SequenceOperations.reverseComplement(bytes);
+        assertEquals("TGTAATC", bytes.toString());
+    }
+
+    /**
+     * Validates the translation of each frame.
+     */
+    public void testTranslate() {
+        final String bases = "ATGGCCTAAcGNTTGA";
+        final MutableString protein = new MutableString("previous content");
+        assertEquals("MA*XL", SequenceOperations.translate(bases, 1, protein).toString());
+        assertEquals("WPNX*", SequenceOperations.translate(bases, 2, protein).toString());
+        assertEquals("GLTX", SequenceOperations.translate(bases, 3, protein).toString());
+        // the reverse complement is TCAANCgTTAGGCCAT
+        assertEquals("SXVRP", SequenceOperations.translate(bases, -1, protein).toString());
+        assertEquals("QXLGH", SequenceOperations.translate(bases, -2, protein).toString());
+        assertEquals("XR*A", SequenceOperations.translate(bases, -3, protein).toString());
+        assertEquals("M", SequenceOperations.translate("AUG", 1, protein).toString());
+        assertEquals("", SequenceOperations.translate("AT", -1, protein).toString());
+        try {
+            SequenceOperations.translate(bases, 0, protein);
+            fail("0 is not a frame");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Validates that strings, mutable strings and readers give the same six frames, for
+     * every length modulo three.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testSixFrames() throws IOException {
+        final Random random = new Random(7);
+        final String alphabet = "ACGTNacgt";
+        for (int length = 0; length < 40; length++) {
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            final String bases = builder.toString();
+            final MutableString[] fromString = newFrames();
+            final MutableString[] fromMutable = newFrames();
+            final MutableString[] fromReader = newFrames();
+            SequenceOperations.translateSixFrames(bases, fromString);
+            SequenceOperations.translateSixFrames(new MutableString(bases), fromMutable);
+            assertEquals(length, SequenceOperations.translateSixFrames(
+                    new StringReader(bases), fromReader));
+            final MutableString reverse =
+                    SequenceOperations.reverseComplement(new MutableString(bases));
+            for (int i = 0; i < 6; i++) {
+                assertEquals(fromString[i], fromMutable[i]);
+                assertEquals(bases + " frame " + i, fromString[i], fromReader[i]);
+            }
+            for (int frame = 1; frame <= 3; frame++) {
+                final MutableString expected = new MutableString();
+                SequenceOperations.translate(reverse, frame, expected);
+                assertEquals(expected, fromString[2 + frame]);
+            }
+        }
+    }
+
+    /**
+     * Validates that frames with a null entry are skipped.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testSkippedFrames() throws IOException {
+        final ReaderFastaParser parser =
+                new ReaderFastaParser(new StringReader(">chr1\nATGAAA\nTTTCAT\n"));
+        parser.nextSequence(new MutableString());
+        final MutableString[] proteins = new MutableString[6];
+        proteins[0] = new MutableString();
+        proteins[3] = new MutableString();
+        assertEquals(12, SequenceOperations.translateSixFrames(parser.getBaseReader(),
+                proteins));
+        assertEquals("MKFH", proteins[0].toString());
+        assertEquals("MKFH", proteins[3].toString());
+        assertNull(proteins[1]);
+    }
+
+    /**
+     * Creates the proteins of six frames.
+     *
+     * @return six empty strings
+     */
+    private MutableString[] newFrames() {
+        final MutableString[] frames = new MutableString[6];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new MutableString();
+        }
+        return frames;
+    }
+}
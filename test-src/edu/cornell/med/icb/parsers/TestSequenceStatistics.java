@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.SequenceStatistics}
+ * class.
+ */
+public class TestSequenceStatistics extends TestCase {
+    /**
+     * Validates the length statistics on a small example.
+     */
+    public void testLengths() {
+        final SequenceStatistics statistics = new SequenceStatistics();
+        for (final String residues : new String[] {"AC", "GGG", "ACGT", "NNNNN", "ACGTNN"}) {
+            statistics.add(residues);
+        }
+        assertEquals(5, statistics.getNumberOfRecords());
+        assertEquals(20, statistics.getTotalLength());
+        assertEquals(2, statistics.getMinLength());
+        assertEquals(6, statistics.getMaxLength());
+        assertEquals(4.0, statistics.getMeanLength(), 1e-9);
+        assertEquals(5, statistics.getN50());
+        assertEquals(2, statistics.getL50());
+        assertEquals(2, statistics.getNx(100));
+        assertEquals(5, statistics.getLx(100));
+        assertEquals(8.0 / 13, statistics.getGcContent(), 1e-9);
+        assertEquals(7.0 / 20, statistics.getNContent(), 1e-9);
+        assertEquals(5, statistics.getCount('G'));
+    }
+
+    /**
+     * Validates that N50 is exact with lengths beyond the histogram.
+     */
+    public void testLongRecords() {
+        final SequenceStatistics statistics = new SequenceStatistics();
+        final SequenceStatistics other = new SequenceStatistics();
+        other.add(repeat('A', 100000));
+        statistics.add(repeat('C', 70000));
+        statistics.add(repeat('G', 10));
+        statistics.merge(other);
+        assertEquals(3, statistics.getNumberOfRecords());
+        assertEquals(100000, statistics.getN50());
+        assertEquals(1, statistics.getL50());
+        assertEquals(70000, statistics.getNx(90));
+        assertEquals(10, statistics.getNx(100));
+    }
+
+    /**
+     * Validates that chunked, parallel and streamed scans agree with the parser.
+     * @throws IOException if there is a problem with the temporary file
+     */
+    public void testScan() throws IOException {
+        final Random random = new Random(17);
+        final StringBuilder fasta = new StringBuilder("junk\n");
+        for (int i = 0; i < 300; i++) {
+            fasta.append(">seq").append(i).append(" > not a new record\n");
+            final int length = random.nextInt(i % 50 == 0 ? 100000 : 500);
+            for (int j = 0; j < length; j++) {
+                fasta.append("ACGTNacgtn".charAt(random.nextInt(10)));
+                if (j % 70 == 69) {
+                    fasta.append(i % 2 == 0 ? "\r\n" : "\n");
+                }
+            }
+            fasta.append('\n');
+        }
+        final SequenceStatistics expected = new SequenceStatistics();
+        final FastaParser parser = new FastaParser(new StringReader(fasta.toString()));
+        final MutableString description = new MutableString();
+        final MutableString residues = new MutableString();
+        while (parser.hasNext()) {
+            parser.next(description, residues);
+            expected.add(residues);
+        }
+        assertEquals(300, expected.getNumberOfRecords());
+
+        final File file = File.createTempFile("squil-statistics", ".fa");
+        try {
+            final OutputStream output = new FileOutputStream(file);
+            output.write(fasta.toString().getBytes());
+            output.close();
+            for (final long chunkSize : new long[] {100, 4096, 1 << 20}) {
+                assertEquals(expected.toString(),
+                        SequenceStatistics.compute(file, 3, chunkSize).toString());
+            }
+            assertEquals(expected.toString(), SequenceStatistics.compute(file).toString());
+        } finally {
+            file.delete();
+        }
+        assertEquals(expected.toString(), SequenceStatistics.compute(
+                new ByteArrayInputStream(fasta.toString().getBytes())).toString());
+    }
+
+    /**
+     * Returns a string made of one character.
+     *
+     * @param c      The character
+     * @param length The length of the string
+     * @return the string
+     */
+    private static String repeat(final char c, final int length) {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            result.append(c);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2009 Institute for Computational Biomedicine,
+ *                    Weill Medical College of Cornell University
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.cornell.med.icb.parsers;
+
+import it.unimi.dsi.lang.MutableString;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Validates the functionality of the {@link edu.cornell.med.icb.parsers.SequenceWindows}
+ * class.
+ */
+public class TestSequenceWindows extends TestCase {
+    /**
+     * Validates windows against substrings of the sequence, for various sizes and overlaps.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testWindows() throws IOException {
+        final Random random = new Random(23);
+        for (int test = 0; test < 200; test++) {
+            final int sequenceLength = random.nextInt(300);
+            final int windowSize = 1 + random.nextInt(40);
+            final int overlap = random.nextInt(windowSize);
+            final String sequence = randomBases(random, sequenceLength);
+            // a reader that returns few bases at a time
+            final Reader reader = new StringReader(sequence) {
+                @Override
+                public int read(final char[] chars, final int offset, final int length)
+                        throws IOException {
+                    return super.read(chars, offset, Math.min(length, 7));
+                }
+            };
+            final SequenceWindows windows = new SequenceWindows(reader, windowSize, overlap);
+            final String message = sequenceLength + "/" + windowSize + "/" + overlap;
+            final MutableString copy = new MutableString();
+            int expectedStart = 0;
+            int previousEnd = 0;
+            long expectedIndex = 0;
+            while (windows.next()) {
+                final int expectedEnd = Math.min(sequenceLength, expectedStart + windowSize);
+                assertEquals(message, expectedIndex++, windows.getIndex());
+                assertEquals(message, expectedStart, windows.getStart());
+                assertEquals(message, expectedEnd, windows.getEnd());
+                final String expected = sequence.substring(expectedStart, expectedEnd);
+                assertEquals(message, expected, windows.getWindow().toString());
+                assertEquals(message, expected, new String(windows.getBuffer(),
+                        windows.getOffset(), windows.getLength()));
+                windows.getWindow(copy);
+                assertEquals(message, expected, copy.toString());
+                // each window has bases that the previous one did not have
+                assertTrue(message, expectedEnd > previousEnd);
+                previousEnd = expectedEnd;
+                expectedStart += windowSize - overlap;
+            }
+            // the windows cover the whole sequence
+            assertEquals(message, sequenceLength, previousEnd);
+            assertFalse(windows.next());
+        }
+    }
+
+    /**
+     * Validates windows over the chromosomes of a FASTA file, reusing the same windows.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testChromosomes() throws IOException {
+        final ReaderFastaParser parser = new ReaderFastaParser(new StringReader(
+                ">chr1\nACGTACGTAC\nGT\n>chr2\n>chr3\nTTTTTGGGGGC\n"));
+        final SequenceWindows windows = new SequenceWindows(5, 2);
+        final MutableString description = new MutableString();
+        final StringBuilder result = new StringBuilder();
+        while (parser.hasNextSequence()) {
+            parser.nextSequence(description);
+            windows.setReader(parser.getBaseReader());
+            result.append(description).append(':');
+            while (windows.next()) {
+                result.append(' ').append(windows.getStart()).append('=')
+                        .append(windows.getWindow());
+            }
+            result.append('\n');
+        }
+        assertEquals("chr1: 0=ACGTA 3=TACGT 6=GTACG 9=CGT\nchr2:\n"
+                + "chr3: 0=TTTTT 3=TTGGG 6=GGGGC\n", result.toString());
+    }
+
+    /**
+     * Validates the tiling of a sequence, and the window views.
+     * @throws IOException if there is a problem with the reader
+     */
+    public void testTiles() throws IOException {
+        final SequenceWindows tiles = new SequenceWindows(new StringReader("ACGTACGTA"), 3, 0);
+        final StringBuilder result = new StringBuilder();
+        while (tiles.next()) {
+            result.append(tiles.getWindow()).append(' ');
+        }
+        assertEquals("ACG TAC GTA ", result.toString());
+
+        final SequenceWindows windows = new SequenceWindows(new StringReader("ACGTAC"), 4, 1);
+        assertTrue(windows.next());
+        assertEquals("CG", windows.getWindow().subSequence(1, 3).toString());
+        assertEquals('T', windows.getWindow().charAt(3));
+        try {
+            windows.getWindow().charAt(4);
+            fail("Positions past the window must be rejected");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            new SequenceWindows(4, 4);
+            fail("An overlap of the window size must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Returns random bases.
+     *
+     * @param random The source of randomness
+     * @param length The number of bases
+     * @return the bases
+     */
+    private static String randomBases(final Random random, final int length) {
+        final StringBuilder bases = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            bases.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return bases.toString();
+    }
+}